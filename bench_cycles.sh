@@ -0,0 +1,13 @@
+#!/bin/bash
+# 增量环检测基准测试 (Pearce-Kelly 动态拓扑序)
+
+echo "╔══════════════════════════════════════════════════════════╗"
+echo "║  增量环检测基准 - 100,000 个顶点 / 1,000,000 条边          ║"
+echo "╚══════════════════════════════════════════════════════════╝"
+echo ""
+
+# 增长边序跑满百万条边; 远距/随机两种不利边序默认只跑前 200,000 条 (第三个参数)
+java -cp target/ontology-factory-2.0.0.jar com.softwarefactory.ontology.Benchmarks cycles 100000 1000000 200000
+
+echo ""
+echo "✅ 基准测试完成!"
@@ -0,0 +1,241 @@
+package com.softwarefactory.ontology;
+
+import java.util.*;
+import java.io.*;
+import java.nio.file.*;
+
+// 基准测试入口: 不编入交互式命令, 由 bench_cycles.sh 等脚本直接启动
+//   cycles [nodes] [edges] [slowEdges]     增量环检测
+//   eventlog [events] [projects] [fsync]   事件日志写入与恢复
+public class Benchmarks {
+    public static void main(String[] args) throws IOException {
+        String command = args.length > 0 ? args[0] : "";
+        switch (command) {
+            case "cycles":
+                CycleDetectionBenchmark.run(intArg(args, 1, 100_000), intArg(args, 2, 1_000_000), intArg(args, 3, 200_000));
+                break;
+            case "eventlog":
+                EventLogBenchmark.run(intArg(args, 1, 1_000_000), intArg(args, 2, 8),
+                    args.length > 3 ? FsyncPolicy.valueOf(args[3].toUpperCase()) : FsyncPolicy.BATCH);
+                break;
+            default:
+                System.out.println("用法: Benchmarks <cycles [nodes] [edges] [slowEdges]|eventlog [events] [projects] [fsync]>");
+                System.exit(2);
+        }
+    }
+    
+    private static int intArg(String[] args, int index, int defaultValue) {
+        return args.length > index ? Integer.parseInt(args[index]) : defaultValue;
+    }
+}
+
+// 增量环检测基准, 同一规模下比较三种边序:
+//   增长: 对象大致按创建顺序到来 (局部乱序), 新对象依赖附近先创建的对象, 约 1% 逆向边触发环检测;
+//         受影响区间很小, 是 Pearce-Kelly 的有利情形
+//   远距: 依赖关系与对象编号完全无关 (对象先批量导入, 依赖后补), 依赖方依赖任意更早的对象;
+//         插入边常与当前拓扑序相反, 需要重排的区间跨越大半个拓扑序
+//   随机: 两端均匀随机, 约一半插入与当前拓扑序相反, 图变稠后成环拒绝也要搜索大片区域
+// 每种边序报告平均与 p99/最大单次插入耗时, 平均值不会掩盖长尾;
+// 远距/随机单次插入慢两到三个数量级, 边数另以 slowEdges 封顶 (10 万顶点下百万条边要跑数分钟)
+class CycleDetectionBenchmark {
+    private static final int CREATION_JITTER = 32;
+    private static final int DEPENDENCY_SPAN = 64;
+    
+    public static void run(int nodeCount, int edgeCount, int slowEdgeCount) {
+        System.out.println("\n⏱ 增量环检测基准: " + nodeCount + " 个顶点, " + edgeCount + " 条边");
+        Random random = new Random(42);
+        int[] created = creationOrder(nodeCount, random);
+        int span = Math.max(1, Math.min(nodeCount - 1, DEPENDENCY_SPAN));
+        
+        int[] sources = new int[edgeCount];
+        int[] targets = new int[edgeCount];
+        for (int e = 0; e < edgeCount; e++) {
+            // 边按依赖图增长的顺序到来: 后到的对象依赖隐藏序中较早的对象
+            int q = arrival(e, nodeCount, edgeCount);
+            int p = Math.max(0, q - 1 - random.nextInt(span));
+            boolean reversed = random.nextInt(100) == 0;
+            sources[e] = created[reversed ? p : q];
+            targets[e] = created[reversed ? q : p];
+        }
+        measure("增长", sources, targets);
+        
+        int slowCount = Math.min(edgeCount, slowEdgeCount);
+        if (slowCount < edgeCount) {
+            System.out.println("  远距/随机仅插入前 " + slowCount + " 条边 (slowEdges 上限)");
+        }
+        sources = new int[slowCount];
+        targets = new int[slowCount];
+        int[] imported = shuffled(nodeCount, random);
+        for (int e = 0; e < slowCount; e++) {
+            int q = arrival(e, nodeCount, slowCount);
+            sources[e] = imported[q];
+            targets[e] = imported[random.nextInt(q)];
+        }
+        measure("远距", sources, targets);
+        
+        for (int e = 0; e < slowCount; e++) {
+            sources[e] = random.nextInt(nodeCount);
+            targets[e] = random.nextInt(nodeCount);
+        }
+        measure("随机", sources, targets);
+    }
+    
+    // 创建顺序: 隐藏拓扑序在每个小块内随机打乱
+    private static int[] creationOrder(int nodeCount, Random random) {
+        int[] created = new int[nodeCount];
+        for (int i = 0; i < nodeCount; i++) created[i] = i;
+        for (int block = 0; block < nodeCount; block += CREATION_JITTER) {
+            int end = Math.min(nodeCount, block + CREATION_JITTER);
+            for (int i = end - 1; i > block; i--) {
+                int j = block + random.nextInt(i - block + 1);
+                int tmp = created[i];
+                created[i] = created[j];
+                created[j] = tmp;
+            }
+        }
+        return created;
+    }
+    
+    private static int[] shuffled(int nodeCount, Random random) {
+        int[] order = new int[nodeCount];
+        for (int i = 0; i < nodeCount; i++) order[i] = i;
+        for (int i = nodeCount - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = order[i];
+            order[i] = order[j];
+            order[j] = tmp;
+        }
+        return order;
+    }
+    
+    // 第 e 条边的依赖方在隐藏序中的位置, 随边序号均匀推进
+    private static int arrival(int e, int nodeCount, int edgeCount) {
+        return 1 + (int) ((long) e * (nodeCount - 1) / edgeCount);
+    }
+    
+    private static void measure(String name, int[] sources, int[] targets) {
+        RelationshipDef def = new RelationshipDef();
+        def.setId("depends_on");
+        def.setAcyclic(true);
+        EdgeIndex index = new EdgeIndex(def);
+        long[] latencies = new long[sources.length];
+        int accepted = 0;
+        int cycles = 0;
+        int duplicates = 0;
+        long start = System.nanoTime();
+        for (int e = 0; e < sources.length; e++) {
+            long begin = System.nanoTime();
+            if (index.contains(sources[e], targets[e])) {
+                duplicates++;
+            } else if (index.acceptsAcyclic(sources[e], targets[e])) {
+                index.add(sources[e], targets[e]);
+                accepted++;
+            } else {
+                cycles++;
+            }
+            latencies[e] = System.nanoTime() - begin;
+        }
+        long elapsedNanos = System.nanoTime() - start;
+        Arrays.sort(latencies);
+        
+        System.out.println("  [" + name + "] 接受: " + accepted + ", 拒绝(成环): " + cycles + ", 重复: " + duplicates);
+        if (latencies.length == 0) return;
+        System.out.printf("         总耗时: %d ms, 平均每次插入: %.2f μs, p99: %.2f μs, 最大: %.2f μs%n",
+            elapsedNanos / 1_000_000, elapsedNanos / 1000.0 / latencies.length,
+            latencies[(int) (latencies.length * 0.99)] / 1000.0, latencies[latencies.length - 1] / 1000.0);
+    }
+}
+
+// 事件日志基准: 多线程写入属性事件 (每个项目 1000 个对象), 关闭后在空的项目管理器中恢复并逐个校验最终值
+class EventLogBenchmark {
+    private static final int OBJECTS_PER_PROJECT = 1000;
+    
+    public static void run(int eventCount, int projectCount, FsyncPolicy policy) throws IOException {
+        Path directory = Files.createTempDirectory("eventlog-bench");
+        try {
+            System.out.println("\n⏱ 事件日志基准: " + eventCount + " 个事件, " + projectCount + " 个项目, 刷盘策略 " + policy);
+            ProjectManager source = new ProjectManager();
+            EventLog log = EventLog.open(directory, 0, policy);
+            source.attachEventLog(log);
+            PrintStream console = System.out;
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            try {
+                for (int p = 0; p < projectCount; p++) {
+                    source.createProject("bench_" + p, "基准" + p, WorkflowMode.AGILE, 1);
+                }
+            } finally {
+                System.setOut(console);
+            }
+            
+            String[] objectIds = new String[OBJECTS_PER_PROJECT];
+            for (int i = 0; i < OBJECTS_PER_PROJECT; i++) objectIds[i] = "task_" + i;
+            int perProject = eventCount / projectCount;
+            String[][] expected = new String[projectCount][OBJECTS_PER_PROJECT];
+            int threads = Math.min(projectCount, Runtime.getRuntime().availableProcessors());
+            
+            long start = System.nanoTime();
+            List<Thread> writers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int first = t;
+                Thread writer = new Thread(() -> {
+                    for (int p = first; p < projectCount; p += threads) {
+                        String projectId = "bench_" + p;
+                        for (int i = 0; i < perProject; i++) {
+                            int object = i % OBJECTS_PER_PROJECT;
+                            String value = String.valueOf(i);
+                            log.appendEvent(new OntologyEvent(projectId, objectIds[object], "task", "progress",
+                                expected[p][object], value));
+                            expected[p][object] = value;
+                        }
+                    }
+                });
+                writers.add(writer);
+                writer.start();
+            }
+            for (Thread writer : writers) {
+                try {
+                    writer.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            log.close();
+            long writeNanos = System.nanoTime() - start;
+            long records = log.getAppendedRecords();
+            System.out.printf("  写入: %d 条, %d ms (%.0f 万条/秒), %.1f MB, %d 批, %d 次刷盘%n",
+                records, writeNanos / 1_000_000, records / (writeNanos / 1e9) / 10_000,
+                log.getWrittenBytes() / 1048576.0, log.getBatches(), log.getSyncs());
+            
+            ProjectManager target = new ProjectManager();
+            ProjectPersistence persistence = new ProjectPersistence(directory, target, null);
+            start = System.nanoTime();
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            long next;
+            try {
+                next = persistence.recover();
+            } finally {
+                System.setOut(console);
+            }
+            long recoverNanos = System.nanoTime() - start;
+            
+            int mismatches = 0;
+            for (int p = 0; p < projectCount; p++) {
+                ProjectContext ctx = target.getProject("bench_" + p);
+                ObjectStore store = ctx.getObjectStore();
+                for (int i = 0; i < OBJECTS_PER_PROJECT; i++) {
+                    int handle = store.handleOf(objectIds[i]);
+                    String actual = handle >= 0 ? store.get(handle, "progress") : null;
+                    if (!Objects.equals(actual, expected[p][i])) mismatches++;
+                }
+            }
+            System.out.printf("  恢复: %d 条, %d ms (%.0f 万条/秒), 校验不一致: %d%n",
+                next, recoverNanos / 1_000_000, next / (recoverNanos / 1e9) / 10_000, mismatches);
+        } finally {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (Path file : stream) Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(directory);
+        }
+    }
+}
@@ -2,9 +2,27 @@ package com.softwarefactory.ontology;
 
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import org.yaml.snakeyaml.Yaml;
 
 /**
@@ -16,6 +34,7 @@ public class Main {
     private static ProjectManager projectManager;
     private static String currentProjectId;
     private static TemplateManager templateManager;
+    private static ProjectPersistence persistence;
     
     public static void main(String[] args) {
         System.out.println("╔════════════════════════════════════════════════════════╗");
@@ -29,6 +48,7 @@ public class Main {
             System.out.println("🔄 正在加载系统配置...");
             templateManager = new TemplateManager();
             templateManager.loadAllConfigs();
+            templateManager.startWatching();
             System.out.println("✅ 配置加载完成!");
             System.out.println();
         } catch (Exception e) {
@@ -38,6 +58,24 @@ public class Main {
         }
         
         projectManager = new ProjectManager();
+        projectManager.setTemplateManager(templateManager);
+        
+        // 持久化 (可选): --data <目录> [--fsync always|batch|never]; 已完成项目归档到 <目录>/archive
+        String dataDir = optionValue(args, "--data");
+        if (dataDir != null) {
+            try {
+                String fsync = optionValue(args, "--fsync");
+                FsyncPolicy policy = FsyncPolicy.valueOf(fsync != null ? fsync.toUpperCase() : "BATCH");
+                projectManager.enableArchive(Paths.get(dataDir).resolve("archive"));
+                persistence = new ProjectPersistence(Paths.get(dataDir), projectManager, templateManager);
+                persistence.open(policy);
+                Runtime.getRuntime().addShutdownHook(new Thread(persistence::close, "persistence-shutdown"));
+                System.out.println();
+            } catch (IOException | RuntimeException e) {
+                System.err.println("❌ 持久化初始化失败: " + e.getMessage());
+                return;
+            }
+        }
         
         Scanner scanner = new Scanner(System.in);
         boolean running = true;
@@ -50,6 +88,9 @@ public class Main {
             
             if (input.equalsIgnoreCase("exit") || input.equalsIgnoreCase("quit")) {
                 running = false;
+                if (persistence != null) {
+                    persistence.close();
+                }
                 System.out.println("👋 再见!");
             } else {
                 processCommand(input);
@@ -59,6 +100,13 @@ public class Main {
         scanner.close();
     }
     
+    private static String optionValue(String[] args, String name) {
+        for (int i = 0; i + 1 < args.length; i++) {
+            if (args[i].equals(name)) return args[i + 1];
+        }
+        return null;
+    }
+    
     private static void processCommand(String input) {
         String[] parts = input.split("\\s+", 2);
         String command = parts[0].toLowerCase();
@@ -93,6 +141,9 @@ public class Main {
                 case "phase":
                     handlePhaseCommand(args);
                     break;
+                case "artifact":
+                    handleArtifactCommand(args);
+                    break;
                 case "update":
                     handleUpdateCommand(args);
                     break;
@@ -102,17 +153,47 @@ public class Main {
                 case "list_objects":
                     handleListObjectsCommand(args);
                     break;
+                case "import":
+                    handleImportCommand(args);
+                    break;
+                case "link":
+                case "unlink":
+                case "links":
+                    handleLinkCommand(command, args);
+                    break;
+                case "network":
+                    handleNetworkCommand(args);
+                    break;
+                case "activity":
+                    handleActivityCommand(args);
+                    break;
+                case "bus":
+                    handleBusCommand(args);
+                    break;
                 case "status":
                     showStatus();
                     break;
                 case "run":
-                    if (args.trim().equalsIgnoreCase("all")) {
-                        projectManager.runAllProjects();
-                    }
+                    handleRunCommand(args.trim());
+                    break;
+                case "schedule":
+                    handleScheduleCommand(args);
+                    break;
+                case "optimize":
+                    handleOptimizeCommand(args);
                     break;
                 case "demo":
                     runDemo();
                     break;
+                case "persist":
+                    handlePersistCommand(args);
+                    break;
+                case "archive":
+                    handleArchiveCommand(args);
+                    break;
+                case "history":
+                    handleHistoryCommand(args);
+                    break;
                 default:
                     System.out.println("❌ 未知命令: " + command + " (输入 help 查看帮助)");
             }
@@ -124,7 +205,7 @@ public class Main {
     private static void handleProjectCommand(String args) {
         String[] parts = args.split("\\s+");
         if (parts.length < 1) {
-            System.out.println("用法: project <create|delete|suspend|resume|info> [args]");
+            System.out.println("用法: project <create|delete|suspend|resume|info|archive|upgrade|depends|undepends> [args]");
             return;
         }
         
@@ -162,11 +243,57 @@ public class Main {
             case "info":
                 showProjectInfo(parts[1]);
                 break;
+                
+            case "archive":
+                if (parts.length < 2) {
+                    System.out.println("用法: project archive <id>");
+                    return;
+                }
+                try {
+                    if (!projectManager.archiveProject(parts[1])) {
+                        System.out.println("❌ 项目不存在或已归档: " + parts[1]);
+                    }
+                } catch (IOException e) {
+                    System.out.println("❌ 归档失败: " + e.getMessage());
+                }
+                break;
+                
+            case "upgrade":
+                String upgradeId = parts.length > 1 ? parts[1] : currentProjectId;
+                if (upgradeId == null) {
+                    System.out.println("用法: project upgrade [id]");
+                    return;
+                }
+                ProjectContext upgraded = projectManager.getProject(upgradeId);
+                if (upgraded == null) {
+                    System.out.println("❌ 项目不存在: " + upgradeId);
+                    return;
+                }
+                templateManager.upgradeProject(upgraded);
+                break;
+            
+            case "depends":
+            case "undepends":
+                if (parts.length < 3) {
+                    System.out.println("用法: project " + parts[0] + " <projectId> <upstreamProjectId>");
+                    return;
+                }
+                if (parts[0].equals("depends")) {
+                    projectManager.addDependency(parts[1], parts[2]);
+                } else {
+                    projectManager.removeDependency(parts[1], parts[2]);
+                }
+                break;
         }
     }
     
     private static void switchProject(String projectId) {
-        if (projectManager.hasProject(projectId)) {
+        ArchivedProject archive = projectManager.getArchived(projectId);
+        if (archive != null) {
+            currentProjectId = projectId;
+            System.out.println("🔄 已切换到归档项目: " + archive.getProjectName() + " [" + archive.getMode() + "] (修改时载回内存)");
+            showArchivedBrief(archive);
+        } else if (projectManager.hasProject(projectId)) {
             currentProjectId = projectId;
             ProjectContext ctx = projectManager.getProject(projectId);
             System.out.println("🔄 已切换到项目: " + ctx.getProjectName() + " [" + ctx.getMode() + "]");
@@ -179,7 +306,7 @@ public class Main {
     private static void handleResourceCommand(String args) {
         String[] parts = args.split("\\s+");
         if (parts.length < 1) {
-            System.out.println("用法: resources <status|request|release>");
+            System.out.println("用法: resources <status|add|request|release>");
             return;
         }
         
@@ -187,6 +314,14 @@ public class Main {
             case "status":
                 projectManager.getResourceScheduler().showResourceStatus();
                 break;
+            case "add":
+                if (parts.length < 3) {
+                    System.out.println("用法: resources add <resourceId> <capacity> [name]");
+                    return;
+                }
+                String name = parts.length > 3 ? parts[3] : parts[1];
+                projectManager.getResourceScheduler().addResource(parts[1], name, ResourcePool.parse(parts[2]));
+                break;
             case "request":
                 if (currentProjectId == null) {
                     System.out.println("❌ 请先切换到一个项目");
@@ -194,10 +329,17 @@ public class Main {
                 }
                 String resourceId = parts[1];
                 ProjectContext currentProject = projectManager.getProject(currentProjectId);
-                boolean success = projectManager.getResourceScheduler().requestResource(resourceId, currentProject);
+                long units = parts.length > 2 ? ResourcePool.parse(parts[2]) : ResourcePool.UNIT;
+                long timeoutMillis = parts.length > 3 ? Long.parseLong(parts[3]) : 0;
+                projectManager.getResourceScheduler().requestResource(resourceId, currentProject, units, timeoutMillis);
                 break;
             case "release":
-                projectManager.getResourceScheduler().releaseResource(parts[1]);
+                if (currentProjectId == null) {
+                    System.out.println("❌ 请先切换到一个项目");
+                    return;
+                }
+                long releaseUnits = parts.length > 2 ? ResourcePool.parse(parts[2]) : Long.MAX_VALUE;
+                projectManager.getResourceScheduler().releaseResource(parts[1], projectManager.getProject(currentProjectId), releaseUnits);
                 break;
         }
     }
@@ -212,7 +354,7 @@ public class Main {
         String[] parts = args.split("\\s+");
         
         if (parts.length < 1) {
-            System.out.println("用法: phase <transition|status>");
+            System.out.println("用法: phase <transition|status|gate>");
             return;
         }
         
@@ -224,6 +366,38 @@ public class Main {
             case "status":
                 showPhaseStatus(ctx);
                 break;
+            case "gate":
+                Phase gatePhase = parts.length > 1 ? Phase.valueOf(parts[1]) : ctx.getCurrentPhase();
+                ctx.checkGate(gatePhase).print();
+                break;
+        }
+    }
+    
+    private static void handleArtifactCommand(String args) {
+        if (currentProjectId == null) {
+            System.out.println("❌ 请先创建或切换到一个项目");
+            return;
+        }
+        
+        ProjectContext ctx = projectManager.getProject(currentProjectId);
+        String[] parts = args.trim().split("\\s+");
+        switch (parts[0]) {
+            case "add":
+                for (int i = 1; i < parts.length; i++) {
+                    ctx.addArtifact(parts[i]);
+                }
+                break;
+            case "remove":
+                if (parts.length > 1 && ctx.removeArtifact(parts[1])) {
+                    System.out.println("🗑️ 撤回产出物: " + parts[1]);
+                }
+                break;
+            case "":
+            case "list":
+                System.out.println("📦 已提交产出物: " + new TreeSet<>(ctx.getArtifacts()));
+                break;
+            default:
+                System.out.println("用法: artifact <add|remove|list> [name...]");
         }
     }
     
@@ -270,16 +444,226 @@ public class Main {
         ctx.createObject(objectId, ontologyType);
     }
     
+    private static void handleLinkCommand(String command, String args) {
+        if (currentProjectId == null) {
+            System.out.println("❌ 请先创建或切换到一个项目");
+            return;
+        }
+        
+        String[] parts = args.trim().split("\\s+");
+        if (command.equals("links")) {
+            if (parts[0].isEmpty()) {
+                System.out.println("用法: links <objectId>");
+                return;
+            }
+            ArchivedProject archive = projectManager.getArchived(currentProjectId);
+            if (archive != null) {
+                archive.showLinks(parts[0]);
+            } else {
+                projectManager.getProject(currentProjectId).showLinks(parts[0]);
+            }
+            return;
+        }
+        ProjectContext ctx = projectManager.getProject(currentProjectId);
+        
+        if (parts.length < 3) {
+            System.out.println("用法: " + command + " <sourceId> <relationshipId> <targetId>");
+            System.out.println("示例: link req_002 depends_on req_001");
+            return;
+        }
+        
+        if (command.equals("link")) {
+            ctx.link(parts[0], parts[1], parts[2]);
+        } else {
+            ctx.unlink(parts[0], parts[1], parts[2]);
+        }
+    }
+    
+    private static void handleImportCommand(String args) {
+        if (currentProjectId == null) {
+            System.out.println("❌ 请先创建或切换到一个项目");
+            return;
+        }
+        
+        if (args.trim().isEmpty()) {
+            System.out.println("用法: import <file>  (每行: <objectId> <attribute> <value>)");
+            return;
+        }
+        
+        List<ObjectUpdate> batch = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(args.trim()))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                String[] fields = line.split("\\s+", 3);
+                if (fields.length < 3) {
+                    System.out.println("⚠ 跳过无效行: " + line);
+                    continue;
+                }
+                batch.add(new ObjectUpdate(fields[0], fields[1], fields[2]));
+            }
+        } catch (IOException e) {
+            System.out.println("❌ 读取文件失败: " + e.getMessage());
+            return;
+        }
+        
+        ProjectContext ctx = projectManager.getProject(currentProjectId);
+        long start = System.nanoTime();
+        int events = ctx.updateObjects(batch);
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        System.out.println("✅ 导入完成: " + batch.size() + " 项, " + events + " 个事件, 耗时 " + elapsedMs + " ms");
+    }
+    
     private static void handleListObjectsCommand(String args) {
         if (currentProjectId == null) {
             System.out.println("❌ 请先创建或切换到一个项目");
             return;
         }
         
+        ArchivedProject archive = projectManager.getArchived(currentProjectId);
+        if (archive != null) {
+            archive.listObjects();
+            return;
+        }
         ProjectContext ctx = projectManager.getProject(currentProjectId);
         ctx.listObjects();
     }
     
+    private static void handleNetworkCommand(String args) {
+        if (currentProjectId == null) {
+            System.out.println("❌ 请先创建或切换到一个项目");
+            return;
+        }
+        
+        String[] parts = args.split("\\s+");
+        ProjectContext ctx = projectManager.getProject(currentProjectId);
+        
+        switch (parts[0]) {
+            case "stats":
+                ctx.getDecisionNetwork().showStats();
+                break;
+            case "backpressure":
+                if (parts.length < 3) {
+                    System.out.println("用法: network backpressure <BLOCK|DROP_OLDEST|REJECT> <capacity>");
+                    return;
+                }
+                BackpressurePolicy policy = BackpressurePolicy.valueOf(parts[1].toUpperCase());
+                int capacity = Integer.parseInt(parts[2]);
+                ctx.getDecisionNetwork().configureBackpressure(policy, capacity);
+                System.out.println("✅ 背压策略: " + policy + " (容量 " + capacity + ")");
+                break;
+            case "views":
+                if (parts.length >= 3) {
+                    System.out.println("📊 " + parts[1] + "." + parts[2] + ": "
+                        + ctx.getViews().histogram(parts[1], parts[2]));
+                } else {
+                    ctx.getViews().show();
+                }
+                break;
+            case "cascade":
+                if (parts.length < 3) {
+                    System.out.println("用法: network cascade <maxDepth> <budget>");
+                    return;
+                }
+                ctx.getDecisionNetwork().configureCascade(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+                System.out.println("✅ 级联控制: 深度上限 " + parts[1] + ", 事件预算 " + parts[2]);
+                break;
+            case "diagnostics":
+                if (parts.length >= 2 && parts[1].equals("clear")) {
+                    ctx.getDecisionNetwork().clearDiagnostics();
+                    System.out.println("✅ 已清空级联诊断");
+                    return;
+                }
+                ctx.getDecisionNetwork().showDiagnostics();
+                break;
+            case "drain":
+                ctx.getDecisionNetwork().processEvents();
+                System.out.println("✅ 队列中剩余 " + ctx.getDecisionNetwork().getQueuedEventCount() + " 个事件");
+                break;
+            case "joins":
+                if (parts.length >= 2 && parts[1].equals("rebuild")) {
+                    ctx.rebuildJoins();
+                    System.out.println("✅ 已按当前状态重建联合匹配网络");
+                }
+                ctx.getDecisionNetwork().showJoins();
+                break;
+            default:
+                System.out.println("用法: network <stats|backpressure|cascade|diagnostics|drain|views|joins>");
+        }
+    }
+    
+    private static void handleActivityCommand(String args) {
+        String[] parts = args.trim().split("\\s+");
+        ActivityRuntime runtime = projectManager.getActivityRuntime();
+        switch (parts[0]) {
+            case "run": {
+                if (parts.length < 2) {
+                    System.out.println("用法: activity run <activityId> [key=value...]");
+                    return;
+                }
+                if (currentProjectId == null) {
+                    System.out.println("❌ 请先创建或切换到一个项目");
+                    return;
+                }
+                ProjectContext ctx = projectManager.getProject(currentProjectId);
+                Map<String, String> params = new LinkedHashMap<>();
+                for (int i = 2; i < parts.length; i++) {
+                    int eq = parts[i].indexOf('=');
+                    if (eq > 0) params.put(parts[i].substring(0, eq), parts[i].substring(eq + 1));
+                }
+                ctx.getDecisionNetwork().triggerActivity(parts[1], ctx, params);
+                break;
+            }
+            case "status":
+                runtime.showStatus();
+                break;
+            case "wait": {
+                long seconds = parts.length >= 2 ? Long.parseLong(parts[1]) : 60;
+                try {
+                    boolean idle = runtime.awaitIdle(null, seconds * 1000);
+                    System.out.println(idle ? "✅ 活动已全部结束" : "⚠ 等待超时, 仍有活动在执行");
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                break;
+            }
+            case "pace":
+                if (parts.length < 2) {
+                    System.out.println("用法: activity pace <毫秒/天>");
+                    return;
+                }
+                runtime.setMillisPerDay(Long.parseLong(parts[1]));
+                System.out.println("✅ 模拟节奏: " + parts[1] + " ms/天");
+                break;
+            default:
+                System.out.println("用法: activity <run|status|wait|pace>");
+        }
+    }
+    
+    private static void handleBusCommand(String args) {
+        String[] parts = args.trim().split("\\s+");
+        EventBus bus = projectManager.getEventBus();
+        switch (parts[0]) {
+            case "":
+            case "status":
+                bus.showStatus();
+                break;
+            case "wait": {
+                long seconds = parts.length >= 2 ? Long.parseLong(parts[1]) : 60;
+                try {
+                    boolean idle = bus.awaitIdle(seconds * 1000);
+                    System.out.println(idle ? "✅ 总线已全部投递" : "⚠ 等待超时, 仍有事件在投递");
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                break;
+            }
+            default:
+                System.out.println("用法: bus <status|wait>");
+        }
+    }
+    
     private static void handleTemplateCommand(String args) {
         String[] parts = args.split("\\s+");
         if (parts.length < 1) {
@@ -321,7 +705,7 @@ public class Main {
     private static void handleLibraryCommand(String args) {
         String[] parts = args.split("\\s+");
         if (parts.length < 1) {
-            System.out.println("用法: library <ontologies|activities|relationships>");
+            System.out.println("用法: library <ontologies|activities|relationships|status|reload>");
             return;
         }
         
@@ -335,69 +719,383 @@ public class Main {
             case "relationships":
                 templateManager.listRelationships();
                 break;
+            case "status":
+                templateManager.showStatus(projectManager.getProjects());
+                break;
+            case "reload":
+                if (parts.length < 2) {
+                    System.out.println("用法: library reload <配置文件>");
+                    return;
+                }
+                templateManager.reloadFile(Paths.get(parts[1]));
+                break;
             default:
                 System.out.println("❌ 未知库类型: " + parts[0]);
         }
     }
 
     
-    private static void showStatus() {
+    private static void handleRunCommand(String args) {
+        switch (args.toLowerCase()) {
+            case "all":
+                projectManager.runAllProjects();
+                break;
+            case "status":
+                projectManager.getExecutionScheduler().showStatus();
+                break;
+            case "wait":
+                boolean idle = projectManager.getExecutionScheduler().awaitIdle(60_000);
+                System.out.println(idle ? "✅ 所有项目已停止推进" : "⚠ 等待超时, 仍有项目在运行");
+                break;
+            default:
+                System.out.println("用法: run <all|status|wait>");
+        }
+    }
+    
+    private static void handleScheduleCommand(String args) {
+        String[] parts = args.trim().split("\\s+");
+        if (parts[0].equals("portfolio")) {
+            projectManager.showPortfolioSchedule();
+            return;
+        }
         if (currentProjectId == null) {
             System.out.println("❌ 请先创建或切换到一个项目");
             return;
         }
         
         ProjectContext ctx = projectManager.getProject(currentProjectId);
-        showProjectBrief(ctx);
-    }
-    
-    private static void showProjectBrief(ProjectContext ctx) {
-        System.out.println("┌─────────────────────────────────────┐");
-        System.out.println("│ 项目: " + ctx.getProjectName());
-        System.out.println("│ 模式: " + ctx.getMode());
-        System.out.println("│ 当前阶段: " + ctx.getCurrentPhase());
-        System.out.println("│ 优先级: " + ctx.getPriority());
-        System.out.println("│ 状态: " + ctx.getStatus());
-        System.out.println("│ 资源: " + ctx.getAllocatedResources().size() + " 个");
-        System.out.println("└─────────────────────────────────────┘");
+        ScheduleEngine schedule = ctx.getSchedule();
+        try {
+            switch (parts[0]) {
+                case "":
+                case "show":
+                    schedule.show(ctx.getProjectName());
+                    break;
+                case "critical":
+                    System.out.println("🔥 关键路径 (" + schedule.getProjectDuration() + " 天): "
+                        + String.join(" → ", schedule.criticalPath()));
+                    break;
+                case "duration":
+                    int days = schedule.setDuration(parts[1], Integer.parseInt(parts[2]));
+                    System.out.println("✅ " + parts[1] + " 工期设为 " + parts[2] + " 天, 总工期 " + days + " 天");
+                    break;
+                case "depend":
+                    days = schedule.addDependency(parts[1], parts[2]);
+                    System.out.println("🔗 增加依赖 " + parts[1] + " → " + parts[2] + ", 总工期 " + days + " 天");
+                    break;
+                case "undepend":
+                    days = schedule.removeDependency(parts[1], parts[2]);
+                    System.out.println("✂️ 删除依赖 " + parts[1] + " → " + parts[2] + ", 总工期 " + days + " 天");
+                    break;
+                default:
+                    System.out.println("用法: schedule <show|critical|duration|depend|undepend|portfolio>");
+            }
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            System.out.println("❌ " + e.getMessage());
+        }
     }
     
-    private static void showPhaseStatus(ProjectContext ctx) {
-        System.out.println("\n当前阶段: " + ctx.getCurrentPhase());
-        System.out.println("模式: " + ctx.getMode());
-        if (ctx.getMode() == WorkflowMode.WATERFALL) {
-            System.out.println("严格模式: ✅ 启用");
-        } else if (ctx.getMode() == WorkflowMode.AGILE) {
-            System.out.println("灵活模式: ✅ 启用");
+    private static void handleOptimizeCommand(String args) {
+        String[] parts = args.trim().split("\\s+");
+        PortfolioOptimizer optimizer = projectManager.getOptimizer();
+        switch (parts[0]) {
+            case "":
+            case "start":
+                long seconds = parts.length > 1 ? Long.parseLong(parts[1]) : 5;
+                projectManager.optimizePortfolio(seconds * 1000);
+                return;
+            default:
+                break;
+        }
+        if (optimizer == null) {
+            System.out.println("❌ 尚未运行优化 (optimize start [seconds])");
+            return;
+        }
+        switch (parts[0]) {
+            case "status":
+                optimizer.showStatus();
+                break;
+            case "show":
+                optimizer.showPlan(parts.length > 1 ? parts[1] : null);
+                break;
+            case "stop":
+                optimizer.stop();
+                optimizer.showStatus();
+                break;
+            default:
+                System.out.println("用法: optimize <start [seconds]|status|show [projectId]|stop>");
         }
     }
     
-    private static void showProjectInfo(String projectId) {
-        ProjectContext ctx = projectManager.getProject(projectId);
-        if (ctx == null) {
-            System.out.println("❌ 项目不存在: " + projectId);
+    private static void handlePersistCommand(String args) {
+        if (persistence == null) {
+            System.out.println("❌ 未启用持久化 (启动参数 --data <目录>)");
             return;
         }
-        
-        System.out.println("\n项目详情:");
-        System.out.println("  ID: " + ctx.getProjectId());
-        System.out.println("  名称: " + ctx.getProjectName());
-        System.out.println("  模式: " + ctx.getMode());
-        System.out.println("  当前阶段: " + ctx.getCurrentPhase());
-        System.out.println("  优先级: " + ctx.getPriority());
-        System.out.println("  状态: " + ctx.getStatus());
-        System.out.println("  已分配资源: " + ctx.getAllocatedResources());
+        String[] parts = args.trim().split("\\s+");
+        switch (parts[0]) {
+            case "status":
+                persistence.showStatus();
+                break;
+            case "snapshot":
+                try {
+                    long lsn = persistence.snapshot();
+                    System.out.println("💾 已写入快照: LSN " + lsn);
+                } catch (IOException e) {
+                    System.out.println("❌ 快照失败: " + e.getMessage());
+                }
+                break;
+            case "fsync":
+                if (parts.length < 2) {
+                    System.out.println("用法: persist fsync <always|batch|never> [records] [millis]");
+                    return;
+                }
+                EventLog log = persistence.getLog();
+                FsyncPolicy policy = FsyncPolicy.valueOf(parts[1].toUpperCase());
+                int records = parts.length > 2 ? Integer.parseInt(parts[2]) : log.getSyncEveryRecords();
+                long millis = parts.length > 3 ? Long.parseLong(parts[3]) : log.getSyncIntervalMillis();
+                log.configure(policy, records, millis);
+                System.out.println("✅ 刷盘策略: " + policy + (policy == FsyncPolicy.BATCH
+                    ? " (每 " + records + " 条或 " + millis + " ms)" : ""));
+                break;
+            case "interval":
+                if (parts.length < 2) {
+                    System.out.println("用法: persist interval <records>");
+                    return;
+                }
+                persistence.setSnapshotEveryRecords(Long.parseLong(parts[1]));
+                System.out.println("✅ 每 " + parts[1] + " 条日志自动快照");
+                break;
+            default:
+                System.out.println("用法: persist <status|snapshot|fsync <policy> [records] [millis]|interval <records>>");
+        }
     }
     
-    private static void showHelp() {
-        System.out.println("\n╔════════════════════════════════════════════════════════╗");
-        System.out.println("║                     可用命令                            ║");
-        System.out.println("╚════════════════════════════════════════════════════════╝");
-        
-        System.out.println("\n📚 库管理命令:");
-        System.out.println("  library ontologies                           - 查看本体库");
-        System.out.println("  library activities                           - 查看活动库");
-        System.out.println("  library relationships                        - 查看关系库");
+    private static void handleArchiveCommand(String args) {
+        String[] parts = args.trim().split("\\s+");
+        switch (parts[0]) {
+            case "":
+            case "list":
+                System.out.println("\n🗄️ 归档项目:");
+                if (projectManager.getArchivedProjects().isEmpty()) {
+                    System.out.println("  (无归档项目)");
+                }
+                projectManager.getArchivedProjects().stream()
+                    .sorted(Comparator.comparing(ArchivedProject::getProjectId))
+                    .forEach(archive -> System.out.printf("  %-12s %-16s %8d 个对象 %8d KB%n",
+                        archive.getProjectId(), archive.getProjectName(), archive.getObjectCount(),
+                        archive.fileSize() / 1024));
+                break;
+            case "report": {
+                String projectId = parts.length > 1 ? parts[1] : currentProjectId;
+                if (projectId == null) {
+                    System.out.println("用法: archive report <projectId>");
+                    return;
+                }
+                ArchivedProject archive = projectManager.getArchived(projectId);
+                if (archive == null) {
+                    System.out.println("❌ 不是归档项目: " + projectId);
+                    return;
+                }
+                archive.report();
+                break;
+            }
+            case "get": {
+                ArchivedProject archive = currentProjectId != null ? projectManager.getArchived(currentProjectId) : null;
+                if (archive == null || parts.length < 3) {
+                    System.out.println("用法: archive get <objectId> <attribute>  (当前项目须为归档项目)");
+                    return;
+                }
+                String value = archive.get(parts[1], parts[2]);
+                System.out.println(parts[1] + "." + parts[2] + " = " + (value != null ? value : "(无)"));
+                break;
+            }
+            default:
+                System.out.println("用法: archive <list|report [projectId]|get <objectId> <attribute>>");
+        }
+    }
+    
+    private static void handleHistoryCommand(String args) {
+        if (currentProjectId == null) {
+            System.out.println("❌ 请先创建或切换到一个项目");
+            return;
+        }
+        
+        String[] parts = args.trim().split("\\s+");
+        // 归档项目从归档文件读出历史副本, 不载回项目
+        ArchivedProject archive = projectManager.getArchived(currentProjectId);
+        EventHistory history;
+        if (archive != null) {
+            history = new EventHistory();
+            archive.readHistory(history);
+        } else {
+            history = projectManager.getProject(currentProjectId).getHistory();
+        }
+        switch (parts[0]) {
+            case "":
+                System.out.println("用法: history <objectId> [time] | type <type> [time] | trail <objectId> [from] [to] | stats");
+                break;
+            case "stats":
+                history.showStats();
+                break;
+            case "type": {
+                if (parts.length < 2) {
+                    System.out.println("用法: history type <type> [time]");
+                    return;
+                }
+                long time = parts.length > 2 ? parseTime(parts[2]) : System.currentTimeMillis();
+                long start = System.nanoTime();
+                Map<String, Map<String, String>> states = history.stateOfType(parts[1], time);
+                long micros = (System.nanoTime() - start) / 1000;
+                System.out.println("\n🕰️ " + parts[1] + " @ " + EventHistory.formatTime(time) + ": " + states.size() + " 个对象");
+                states.forEach((objectId, state) -> System.out.println("  - " + objectId + " " + state));
+                System.out.println("  (检查点后重放 " + history.getLastReplayed() + " 个事件, " + micros / 1000.0 + " ms)");
+                warnBeforeHistory(history, time);
+                break;
+            }
+            case "trail": {
+                if (parts.length < 2) {
+                    System.out.println("用法: history trail <objectId> [from] [to]");
+                    return;
+                }
+                long from = parts.length > 2 ? parseTime(parts[2]) : Long.MIN_VALUE;
+                long to = parts.length > 3 ? parseTime(parts[3]) : Long.MAX_VALUE;
+                history.showTrail(parts[1], from, to);
+                break;
+            }
+            default: {
+                long time = parts.length > 1 ? parseTime(parts[1]) : System.currentTimeMillis();
+                Map<String, String> state = history.stateOf(parts[0], time);
+                System.out.println("🕰️ " + parts[0] + " @ " + EventHistory.formatTime(time) + ": "
+                    + (state != null ? state : "(该时刻尚不存在)"));
+                warnBeforeHistory(history, time);
+            }
+        }
+    }
+    
+    private static void warnBeforeHistory(EventHistory history, long time) {
+        if (time < history.firstTimestamp() && history.size() > 0) {
+            System.out.println("  ⚠ 早于历史起点 " + EventHistory.formatTime(history.firstTimestamp()) + " (未启用持久化时历史只保留本次运行期间的事件)");
+        }
+    }
+    
+    // 时间: 毫秒时间戳, ISO 本地时间 (2025-01-31T09:30:00), 或相对时间 -30s / -5m / -2h / -1d
+    private static long parseTime(String text) {
+        if (text.matches("\\d+")) {
+            return Long.parseLong(text);
+        }
+        if (text.matches("-\\d+[smhd]")) {
+            long amount = Long.parseLong(text.substring(1, text.length() - 1));
+            long unit;
+            switch (text.charAt(text.length() - 1)) {
+                case 's': unit = 1000L; break;
+                case 'm': unit = 60_000L; break;
+                case 'h': unit = 3_600_000L; break;
+                default: unit = 86_400_000L;
+            }
+            return System.currentTimeMillis() - amount * unit;
+        }
+        return LocalDateTime.parse(text).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+    
+    private static void showStatus() {
+        if (currentProjectId == null) {
+            System.out.println("❌ 请先创建或切换到一个项目");
+            return;
+        }
+        
+        ArchivedProject archive = projectManager.getArchived(currentProjectId);
+        if (archive != null) {
+            showArchivedBrief(archive);
+            return;
+        }
+        ProjectContext ctx = projectManager.getProject(currentProjectId);
+        showProjectBrief(ctx);
+    }
+    
+    private static void showProjectBrief(ProjectContext ctx) {
+        System.out.println("┌─────────────────────────────────────┐");
+        System.out.println("│ 项目: " + ctx.getProjectName());
+        System.out.println("│ 模式: " + ctx.getMode());
+        System.out.println("│ 当前阶段: " + ctx.getCurrentPhase());
+        System.out.println("│ 优先级: " + ctx.getPriority());
+        System.out.println("│ 状态: " + ctx.getStatus());
+        System.out.println("│ 资源: " + ctx.getAllocatedResources().size() + " 个");
+        System.out.println("└─────────────────────────────────────┘");
+    }
+    
+    private static void showArchivedBrief(ArchivedProject archive) {
+        System.out.println("┌─────────────────────────────────────┐");
+        System.out.println("│ 项目: " + archive.getProjectName() + " (归档)");
+        System.out.println("│ 模式: " + archive.getMode());
+        System.out.println("│ 当前阶段: " + archive.getCurrentPhase());
+        System.out.println("│ 优先级: " + archive.getPriority());
+        System.out.println("│ 状态: " + archive.getStatus());
+        System.out.println("│ 对象: " + archive.getObjectCount() + " 个");
+        System.out.println("└─────────────────────────────────────┘");
+    }
+    
+    private static void showPhaseStatus(ProjectContext ctx) {
+        System.out.println("\n当前阶段: " + ctx.getCurrentPhase());
+        System.out.println("模式: " + ctx.getMode());
+        if (ctx.getMode() == WorkflowMode.WATERFALL) {
+            System.out.println("严格模式: ✅ 启用");
+        } else if (ctx.getMode() == WorkflowMode.AGILE) {
+            System.out.println("灵活模式: ✅ 启用");
+        }
+        PhaseGate gate = ctx.getPhaseGates().get(ctx.getCurrentPhase());
+        if (gate != null) {
+            GateResult result = ctx.checkGate(ctx.getCurrentPhase());
+            System.out.println("阶段门禁: " + gate.getGateId() + " " + (result.isPassed() ? "✅ 已满足" :
+                "❌ 未满足 " + result.getBlocking().size() + " 项 (phase gate 查看详情)"));
+        }
+    }
+    
+    private static void showProjectInfo(String projectId) {
+        ArchivedProject archive = projectManager.getArchived(projectId);
+        if (archive != null) {
+            System.out.println("\n项目详情 (归档):");
+            System.out.println("  ID: " + archive.getProjectId());
+            System.out.println("  名称: " + archive.getProjectName());
+            System.out.println("  模式: " + archive.getMode());
+            System.out.println("  当前阶段: " + archive.getCurrentPhase());
+            System.out.println("  优先级: " + archive.getPriority());
+            System.out.println("  状态: " + archive.getStatus());
+            System.out.println("  归档文件: " + archive.getFile() + " (" + archive.fileSize() / 1024 + " KB)");
+            return;
+        }
+        ProjectContext ctx = projectManager.getProject(projectId);
+        if (ctx == null) {
+            System.out.println("❌ 项目不存在: " + projectId);
+            return;
+        }
+        
+        System.out.println("\n项目详情:");
+        System.out.println("  ID: " + ctx.getProjectId());
+        System.out.println("  名称: " + ctx.getProjectName());
+        System.out.println("  模式: " + ctx.getMode());
+        System.out.println("  当前阶段: " + ctx.getCurrentPhase());
+        System.out.println("  优先级: " + ctx.getPriority());
+        System.out.println("  状态: " + ctx.getStatus());
+        System.out.println("  已分配资源: " + ctx.getAllocatedResources());
+        if (ctx.getTemplateId() != null) {
+            long current = templateManager.getLibraryVersion();
+            System.out.println("  配置版本: v" + ctx.getLibraryVersion()
+                + (ctx.getLibraryVersion() < current ? " (当前 v" + current + ", 可 project upgrade)" : ""));
+        }
+    }
+    
+    private static void showHelp() {
+        System.out.println("\n╔════════════════════════════════════════════════════════╗");
+        System.out.println("║                     可用命令                            ║");
+        System.out.println("╚════════════════════════════════════════════════════════╝");
+        
+        System.out.println("\n📚 库管理命令:");
+        System.out.println("  library ontologies                           - 查看本体库");
+        System.out.println("  library activities                           - 查看活动库");
+        System.out.println("  library relationships                        - 查看关系库");
+        System.out.println("  library status                               - 配置版本/热加载/待升级项目");
+        System.out.println("  library reload <file>                        - 手动重新加载配置文件");
         
         System.out.println("\n📋 模板管理命令:");
         System.out.println("  templates                                    - 列出所有模板");
@@ -410,21 +1108,84 @@ public class Main {
         System.out.println("  projects                                     - 列出所有项目");
         System.out.println("  switch <projectId>                           - 切换项目");
         System.out.println("  status                                       - 查看当前项目状态");
+        System.out.println("  project upgrade [id]                         - 项目切换到当前配置版本");
         
         System.out.println("\n🔄 流程控制命令:");
         System.out.println("  phase transition <PHASE>                     - 阶段转换");
         System.out.println("  phase status                                 - 查看阶段状态");
+        System.out.println("  phase gate [PHASE]                           - 评估离开阶段的门禁条件");
+        System.out.println("  artifact add <name...>                       - 提交产出物");
+        System.out.println("  artifact remove <name>                       - 撤回产出物");
+        System.out.println("  artifact list                                - 查看已提交产出物");
         System.out.println("  create_object <objId> <ontologyType>         - 创建对象实例");
         System.out.println("  update <objId> <attr> <value>                - 更新对象属性");
+        System.out.println("  import <file>                                - 批量导入属性更新");
+        System.out.println("  link <srcId> <relId> <tgtId>                 - 建立对象关系");
+        System.out.println("  unlink <srcId> <relId> <tgtId>               - 删除对象关系");
+        System.out.println("  links <objId>                                - 查看对象关系");
         System.out.println("  list_objects                                 - 列出项目对象");
         
+        System.out.println("\n🧠 决策网络命令:");
+        System.out.println("  network stats                                - 查看事件处理统计");
+        System.out.println("  network backpressure <policy> <capacity>     - 配置背压策略");
+        System.out.println("  network cascade <maxDepth> <budget>          - 配置级联深度上限与每次排空的事件预算");
+        System.out.println("  network diagnostics [clear]                  - 查看级联诊断 (深度/循环/预算)");
+        System.out.println("  network drain                                - 继续排空因预算留下的事件");
+        System.out.println("  network views [type attr]                    - 查看物化聚合视图");
+        System.out.println("  network joins [rebuild]                      - 查看/重建联合规则匹配网络");
+        
+        System.out.println("\n⚡ 活动执行命令:");
+        System.out.println("  activity run <activityId> [key=value...]     - 异步执行活动 (超时/重试)");
+        System.out.println("  activity status                              - 查看执行中与最近结束的活动");
+        System.out.println("  activity wait [seconds]                      - 等待执行中的活动结束");
+        System.out.println("  activity pace <ms>                           - 模拟执行节奏 (每工期日毫秒数)");
+        
+        System.out.println("\n📡 跨项目事件总线命令:");
+        System.out.println("  project depends <id> <upstreamId>            - 声明项目依赖, 订阅上游项目的事件");
+        System.out.println("  project undepends <id> <upstreamId>          - 取消项目依赖");
+        System.out.println("  bus status                                   - 查看依赖、分区与投递统计");
+        System.out.println("  bus wait [seconds]                           - 等待总线投递完毕");
+        
+        System.out.println("\n📅 进度计划命令:");
+        System.out.println("  schedule show                                - 查看 ES/EF/LS/LF 与浮动");
+        System.out.println("  schedule critical                            - 查看关键路径");
+        System.out.println("  schedule duration <activityId> <days>        - 调整本项目活动工期");
+        System.out.println("  schedule depend <fromId> <toId>              - 增加活动依赖");
+        System.out.println("  schedule undepend <fromId> <toId>            - 删除活动依赖");
+        System.out.println("  schedule portfolio                           - 所有项目工期汇总");
+        System.out.println("  optimize start [seconds]                     - 跨项目资源平衡 (后台持续优化)");
+        System.out.println("  optimize status                              - 查看优化进展");
+        System.out.println("  optimize show [projectId]                    - 查看项目完成时间/活动安排");
+        System.out.println("  optimize stop                                - 停止后台优化");
+        
         System.out.println("\n⚙️  资源管理命令:");
         System.out.println("  resources status                             - 查看资源");
-        System.out.println("  resources request <resourceId>               - 请求资源");
-        System.out.println("  resources release <resourceId>               - 释放资源");
+        System.out.println("  resources add <id> <capacity> [name]         - 添加资源池 (容量可为小数)");
+        System.out.println("  resources request <id> [units] [timeoutMs]   - 请求资源 (不足时排队等待)");
+        System.out.println("  resources release <id> [units]               - 释放资源 (默认全部)");
+        
+        System.out.println("\n💾 持久化命令 (启动参数 --data <目录> [--fsync always|batch|never]):");
+        System.out.println("  persist status                               - 查看日志/快照状态");
+        System.out.println("  persist snapshot                             - 立即写快照并清理旧日志段");
+        System.out.println("  persist fsync <policy> [records] [millis]    - 调整刷盘策略");
+        System.out.println("  persist interval <records>                   - 设置自动快照间隔");
+        
+        System.out.println("\n🕰️ 事件历史命令 (time: 毫秒时间戳 | 2025-01-31T09:30:00 | -30s/-5m/-2h/-1d):");
+        System.out.println("  history <objId> [time]                       - 对象在某时刻的属性");
+        System.out.println("  history type <type> [time]                   - 某类对象在某时刻的状态");
+        System.out.println("  history trail <objId> [from] [to]            - 对象变更轨迹 (审计)");
+        System.out.println("  history stats                                - 历史规模/检查点");
+        
+        System.out.println("\n🗄️ 归档命令 (需 --data; 已完成项目自动归档, 修改时载回内存):");
+        System.out.println("  project archive <id>                         - 手动归档项目");
+        System.out.println("  archive list                                 - 列出归档项目");
+        System.out.println("  archive report [projectId]                   - 归档项目报表 (不载回内存)");
+        System.out.println("  archive get <objId> <attr>                   - 查询归档对象属性");
         
         System.out.println("\n🎯 其他命令:");
         System.out.println("  run all                                      - 启动所有项目");
+        System.out.println("  run status                                   - 查看项目执行状态");
+        System.out.println("  run wait                                     - 等待项目执行停止");
         System.out.println("  demo                                         - 运行演示");
         System.out.println("  help                                         - 显示帮助");
         System.out.println("  exit/quit                                    - 退出");
@@ -452,12 +1213,13 @@ public class Main {
         System.out.println("\n5️⃣ 初始化资源池:");
         projectManager.getResourceScheduler().addResource("test_platform_1", "航天级测试台");
         projectManager.getResourceScheduler().addResource("test_platform_2", "移动端测试台");
-        projectManager.getResourceScheduler().addResource("developer_pool", "开发人员池");
+        projectManager.getResourceScheduler().addResource("developer_pool", "开发人员池", 40 * ResourcePool.UNIT);
         
         // 资源分配
         System.out.println("\n6️⃣ 资源分配:");
         projectManager.getResourceScheduler().requestResource("test_platform_1", satellite);
-        projectManager.getResourceScheduler().requestResource("developer_pool", ecommerce);
+        projectManager.getResourceScheduler().requestResource("developer_pool", satellite, 16 * ResourcePool.UNIT);
+        projectManager.getResourceScheduler().requestResource("developer_pool", ecommerce, 12 * ResourcePool.UNIT);
         
         // 查看资源状态
         System.out.println("\n7️⃣ 资源使用情况:");
@@ -508,6 +1270,34 @@ enum ProjectStatus {
     COMPLETED
 }
 
+enum BackpressurePolicy {
+    BLOCK,        // 队列满时阻塞生产者
+    DROP_OLDEST,  // 丢弃最旧的事件
+    REJECT        // 拒绝新事件
+}
+
+enum FsyncPolicy {
+    ALWAYS,  // 每批写入后刷盘, 调用方等待落盘 (组提交)
+    BATCH,   // 累计一定记录数或时间间隔后刷盘
+    NEVER    // 只在切换日志段与关闭时刷盘
+}
+
+enum CascadeViolation {
+    DEPTH,           // 派生事件深度超过上限
+    CYCLE,           // 同一级联内 (对象, 属性, 值) 重复出现
+    CASCADE_BUDGET,  // 单个级联的事件数超过预算
+    TICK_BUDGET      // 一次排空达到事件预算, 余下事件留待下次排空
+}
+
+enum ActivityState {
+    QUEUED,      // 等待工作线程
+    RUNNING,     // 处理器执行中
+    RETRY_WAIT,  // 本次尝试失败, 退避等待重试
+    COMPLETED,
+    FAILED,      // 尝试次数用尽
+    CANCELLED    // 项目归档时取消, 不再提交状态事件
+}
+
 // ==================== 项目上下文 ====================
 
 class ProjectContext {
@@ -515,16 +1305,35 @@ class ProjectContext {
     private String projectName;
     private WorkflowMode mode;
     private int priority;
-    private ProjectStatus status;
-    private Phase currentPhase;
+    private volatile ProjectStatus status;
+    private volatile Phase currentPhase;
     private ProcessModeEngine modeEngine;
     private Set<String> allocatedResources;
-    private Map<String, Object> objects;
+    private ObjectStore objects;
+    private RelationshipStore links;
+    private BlockPropagator blockPropagator;
     
-    // 项目的本体集、活动集、关系集
-    private Map<String, OntologyDef> ontologies;
-    private Map<String, ActivityDef> activities;
-    private Map<String, RelationshipDef> relationships;
+    // 项目的本体集、活动集、关系集; 基于模板创建时先共享模板镜像的冻结表, 首次修改前复制
+    private volatile Map<String, OntologyDef> ontologies;
+    private volatile Map<String, ActivityDef> activities;
+    private volatile Map<String, RelationshipDef> relationships;
+    private volatile TemplateImage image;
+    
+    // 已完成的活动
+    private Set<String> completedActivities;
+    private ScheduleEngine schedule;
+    private Map<Phase, PhaseGate> phaseGates;
+    private Map<String, Object> qualityStandards;
+    private Set<String> artifacts;
+    private volatile GateResult lastGateResult;
+    private volatile String templateId;
+    private volatile long libraryVersion;
+    
+    // 持久化: 日志顺序须与内存中的最终值一致
+    private volatile EventLog eventLog;
+    private volatile ActivityRuntime activityRuntime;
+    private final Object lifecycle = new Object();
+    private final EventHistory history = new EventHistory();
     
     // 决策网络引擎
     private DecisionNetworkEngine decisionNetwork;
@@ -536,14 +1345,20 @@ class ProjectContext {
         this.priority = priority;
         this.status = ProjectStatus.ACTIVE;
         this.currentPhase = Phase.REQUIREMENT;
-        this.allocatedResources = new HashSet<>();
-        this.objects = new HashMap<>();
+        this.allocatedResources = ConcurrentHashMap.newKeySet();
         this.ontologies = new HashMap<>();
-        this.activities = new HashMap<>();
+        this.objects = new ObjectStore(ontologies);
+        this.activities = new LinkedHashMap<>();
         this.relationships = new HashMap<>();
+        this.completedActivities = ConcurrentHashMap.newKeySet();
+        this.phaseGates = new EnumMap<>(Phase.class);
+        this.qualityStandards = new HashMap<>();
+        this.artifacts = ConcurrentHashMap.newKeySet();
+        this.links = new RelationshipStore(objects, relationships);
+        this.blockPropagator = new BlockPropagator(projectId, objects, links);
         
         // 初始化决策网络引擎
-        this.decisionNetwork = new DecisionNetworkEngine(projectId);
+        this.decisionNetwork = new DecisionNetworkEngine(projectId, this);
         
         // 根据模式创建引擎
         switch (mode) {
@@ -560,31 +1375,82 @@ class ProjectContext {
     }
     
     public void updateObject(String objId, String attr, String value) {
-        // 获取旧值
-        String oldValue = (String) objects.get(objId + "." + attr);
-        
-        System.out.println("📝 更新对象: " + objId + "." + attr + " = " + value);
-        objects.put(objId + "." + attr, value);
+        // 先占用队列槽位, 避免持有存储锁时因背压阻塞
+        if (!decisionNetwork.acquireSlot()) {
+            System.out.println("❌ 事件队列已满, 拒绝更新: " + objId + "." + attr);
+            return;
+        }
         
-        // 触发决策网络事件
-        String objectType = (String) objects.get(objId + ".type");
-        if (objectType == null) {
-            objectType = objId.split("_")[0]; // 从ID推断类型
+        // 写入与入队在同一把锁内完成, 保证项目内事件顺序与写入顺序一致
+        synchronized (objects) {
+            // 获取旧值 (对象不存在时从ID推断类型)
+            int handle = objects.handleOf(objId);
+            if (handle < 0) {
+                handle = objects.intern(objId, objId.split("_")[0]);
+            }
+            String oldValue = objects.set(handle, attr, value);
+            
+            // 触发决策网络事件
+            decisionNetwork.enqueue(new OntologyEvent(
+                projectId, objId, objects.typeOf(handle), attr, oldValue, value));
         }
-        OntologyEvent event = new OntologyEvent(
-            projectId, objId, objectType, attr, oldValue, value);
-        decisionNetwork.emitEvent(event);
+        
+        System.out.println("📝 更新对象: " + objId + "." + attr + " = " + value);
+        decisionNetwork.processEvents();
     }
     
     public void createObject(String objectId, String ontologyType) {
-        // 存储对象类型
-        objects.put(objectId + ".type", ontologyType);
+        if (!decisionNetwork.acquireSlot()) {
+            System.out.println("❌ 事件队列已满, 拒绝创建: " + objectId);
+            return;
+        }
+        
+        synchronized (objects) {
+            // 存储对象类型
+            objects.intern(objectId, ontologyType);
+            
+            // 触发创建事件
+            decisionNetwork.enqueue(new OntologyEvent(
+                projectId, objectId, ontologyType, "created", null, "true"));
+        }
+        
         System.out.println("✅ 创建对象: " + objectId + " (类型: " + ontologyType + ")");
+        decisionNetwork.processEvents();
+    }
+    
+    // 批量更新: 先应用写入, 再按 (对象, 属性) 合并事件, 只发出净变化.
+    // 按队列容量分块, 每块先为块内每项写入占用槽位再加锁写入, 大批量导入同样受背压控制
+    public int updateObjects(List<ObjectUpdate> batch) {
+        int chunk = decisionNetwork.getQueueCapacity();
+        int written = 0;
+        int emitted = 0;
+        while (written < batch.size()) {
+            List<ObjectUpdate> part = batch.subList(written, Math.min(batch.size(), written + chunk));
+            if (!decisionNetwork.acquireSlots(part.size())) {
+                System.out.println("❌ 事件队列已满, 拒绝批量更新: " + (batch.size() - written) + " 项");
+                break;
+            }
+            
+            EventBatch events = new EventBatch();
+            synchronized (objects) {
+                for (ObjectUpdate update : part) {
+                    int handle = objects.handleOf(update.getObjectId());
+                    if (handle < 0) {
+                        handle = objects.intern(update.getObjectId(), update.getObjectId().split("_")[0]);
+                    }
+                    String oldValue = objects.set(handle, update.getAttribute(), update.getValue());
+                    events.add(new OntologyEvent(projectId, update.getObjectId(), objects.typeOf(handle),
+                        update.getAttribute(), oldValue, update.getValue()));
+                }
+                decisionNetwork.enqueueReserved(events.events(), part.size());
+            }
+            written += part.size();
+            emitted += events.size();
+            decisionNetwork.processEvents();
+        }
         
-        // 触发创建事件
-        OntologyEvent event = new OntologyEvent(
-            projectId, objectId, ontologyType, "created", null, "true");
-        decisionNetwork.emitEvent(event);
+        System.out.println("📝 批量更新: " + written + " 项写入, 合并为 " + emitted + " 个事件");
+        return emitted;
     }
     
     public void listObjects() {
@@ -592,1140 +1458,9937 @@ class ProjectContext {
         System.out.println("║          项目对象列表 - " + projectId + "                  ║");
         System.out.println("╚════════════════════════════════════════════════════════╝\n");
         
-        // 收集所有对象ID
-        Set<String> objectIds = new HashSet<>();
-        for (String key : objects.keySet()) {
-            String objId = key.substring(0, key.lastIndexOf('.'));
-            objectIds.add(objId);
+        synchronized (objects) {
+            printObjects();
         }
-        
-        if (objectIds.isEmpty()) {
+    }
+    
+    private void printObjects() {
+        if (objects.size() == 0) {
             System.out.println("  (无对象)");
             return;
         }
         
-        // 按本体类型分组
-        Map<String, List<String>> byType = new HashMap<>();
-        for (String objId : objectIds) {
-            String type = (String) objects.get(objId + ".type");
-            byType.computeIfAbsent(type, k -> new ArrayList<>()).add(objId);
-        }
-        
-        // 显示每种类型的对象
-        byType.forEach((type, objList) -> {
-            System.out.println("📦 " + type + ":");
-            objList.forEach(objId -> {
-                System.out.println("  - " + objId);
+        // 按本体类型分组显示 - 每个类型表线性扫描一次
+        for (ObjectTypeTable table : objects.tables()) {
+            if (table.getRowCount() == 0) continue;
+            System.out.println("📦 " + table.getType() + ":");
+            for (int row = 0; row < table.getRowCount(); row++) {
+                System.out.println("  - " + objects.idOf(table.handleAt(row)));
                 // 显示对象的所有属性
-                objects.keySet().stream()
-                    .filter(k -> k.startsWith(objId + ".") && !k.endsWith(".type"))
-                    .forEach(k -> {
-                        String attr = k.substring(objId.length() + 1);
-                        System.out.println("      " + attr + " = " + objects.get(k));
-                    });
-            });
+                for (int col = 0; col < table.getColumnCount(); col++) {
+                    String value = table.valueAt(row, col);
+                    if (value != null) {
+                        System.out.println("      " + objects.attributeName(table.attributeAt(col)) + " = " + value);
+                    }
+                }
+            }
             System.out.println();
-        });
+        }
+        
+        System.out.println("总计: " + objects.size() + " 个对象\n");
+    }
+    
+    // 建立对象间关系 (校验源/目标类型与基数).
+    // 派生的阻塞状态在锁内写入存储, 所以先占槽位再加锁, 派生事件在同一把锁内入队:
+    // 背压拒绝时整条关系不生效, 日志顺序与存储写入顺序一致. 派生事件多于占用的槽位时允许超出容量
+    public boolean link(String sourceId, String relationshipId, String targetId) {
+        if (!decisionNetwork.acquireSlot()) {
+            System.out.println("❌ 事件队列已满, 拒绝建立关系: " + sourceId + " -[" + relationshipId + "]-> " + targetId);
+            return false;
+        }
+        
+        boolean enqueued = false;
+        try {
+            synchronized (objects) {
+                links.addEdge(sourceId, relationshipId, targetId);
+                EventBatch derived = blockPropagator.onEdgeChanged(relationshipId,
+                    objects.handleOf(sourceId), objects.handleOf(targetId), true);
+                journalLink(sourceId, relationshipId, targetId, true);
+                decisionNetwork.enqueueEdge(new EdgeEvent(projectId, sourceId,
+                    objects.typeOf(objects.handleOf(sourceId)), relationshipId, targetId, true));
+                enqueued = true;
+                decisionNetwork.enqueueReserved(derived.events(), 1);
+            }
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            // 未入队时归还槽位; 已入队 (日志写线程失败) 的事件照常处理
+            if (!enqueued) decisionNetwork.releaseSlots(1);
+            System.out.println("❌ 无法建立关系: " + e.getMessage());
+            decisionNetwork.processEvents();
+            return false;
+        }
+        System.out.println("🔗 建立关系: " + sourceId + " -[" + relationshipId + "]-> " + targetId);
+        decisionNetwork.processEvents();
+        return true;
+    }
+    
+    public boolean unlink(String sourceId, String relationshipId, String targetId) {
+        if (!decisionNetwork.acquireSlot()) {
+            System.out.println("❌ 事件队列已满, 拒绝删除关系: " + sourceId + " -[" + relationshipId + "]-> " + targetId);
+            return false;
+        }
         
-        System.out.println("总计: " + objectIds.size() + " 个对象\n");
+        boolean removed = false;
+        boolean enqueued = false;
+        try {
+            synchronized (objects) {
+                removed = links.removeEdge(sourceId, relationshipId, targetId);
+                if (removed) {
+                    EventBatch derived = blockPropagator.onEdgeChanged(relationshipId,
+                        objects.handleOf(sourceId), objects.handleOf(targetId), false);
+                    journalLink(sourceId, relationshipId, targetId, false);
+                    decisionNetwork.enqueueEdge(new EdgeEvent(projectId, sourceId,
+                        objects.typeOf(objects.handleOf(sourceId)), relationshipId, targetId, false));
+                    enqueued = true;
+                    decisionNetwork.enqueueReserved(derived.events(), 1);
+                }
+            }
+        } finally {
+            if (!enqueued) decisionNetwork.releaseSlots(1);
+        }
+        if (removed) {
+            System.out.println("✂️ 删除关系: " + sourceId + " -[" + relationshipId + "]-> " + targetId);
+            decisionNetwork.processEvents();
+        } else {
+            System.out.println("❌ 关系不存在: " + sourceId + " -[" + relationshipId + "]-> " + targetId);
+        }
+        return removed;
+    }
+    
+    private void journalLink(String sourceId, String relationshipId, String targetId, boolean added) {
+        EventLog log = eventLog;
+        if (log != null) {
+            log.appendLink(projectId, sourceId, relationshipId, targetId, added);
+        }
+    }
+    
+    // 状态变化沿 depends_on/blocks 传播阻塞; 派生的状态事件与写入在同一把锁内入队, 返回派生事件数
+    public int propagateStatus(OntologyEvent event) {
+        if (!decisionNetwork.acquireSlot()) return 0;
+        synchronized (objects) {
+            int handle = objects.handleOf(event.getObjectId());
+            EventBatch derived = handle < 0 ? new EventBatch() : blockPropagator.onStatusChanged(handle, event.getOldValue(), event.getNewValue());
+            decisionNetwork.enqueueReserved(derived.events(), 1);
+            return derived.size();
+        }
+    }
+    
+    // 沿关系正向查找: sourceId 指向的所有目标对象
+    public List<String> findTargets(String relationshipId, String sourceId) {
+        synchronized (objects) {
+            return links.targetsOf(relationshipId, sourceId);
+        }
+    }
+    
+    // 沿关系反向查找: 指向 targetId 的所有源对象
+    public List<String> findSources(String relationshipId, String targetId) {
+        synchronized (objects) {
+            return links.sourcesOf(relationshipId, targetId);
+        }
+    }
+    
+    public void showLinks(String objectId) {
+        synchronized (objects) {
+            if (!objects.contains(objectId)) {
+                System.out.println("❌ 对象不存在: " + objectId);
+                return;
+            }
+            System.out.println("\n🔗 对象关系: " + objectId);
+            int count = 0;
+            for (EdgeIndex index : links.indexes()) {
+                String relId = index.getRelationship().getId();
+                for (String target : links.targetsOf(relId, objectId)) {
+                    System.out.println("  → " + relId + " → " + target);
+                    count++;
+                }
+                for (String source : links.sourcesOf(relId, objectId)) {
+                    System.out.println("  ← " + relId + " ← " + source);
+                    count++;
+                }
+            }
+            if (count == 0) {
+                System.out.println("  (无关系)");
+            }
+        }
+    }
+    
+    // 共享模板镜像: 定义表、属性ID与列布局直接引用镜像, 规则表由 initializeDecisionNetwork 共享.
+    // 项目已有自己的定义时退化为复制
+    public void useImage(TemplateImage image) {
+        synchronized (objects) {
+            if (ontologies.isEmpty() && activities.isEmpty() && relationships.isEmpty() && objects.size() == 0) {
+                this.ontologies = image.getOntologies();
+                this.activities = image.getActivities();
+                this.relationships = image.getRelationships();
+                this.image = image;
+                objects.useImage(image);
+                links.setRelationships(relationships);
+            } else {
+                ownDefinitions();
+                ontologies.putAll(image.getOntologies());
+                activities.putAll(image.getActivities());
+                relationships.putAll(image.getRelationships());
+            }
+        }
+        synchronized (this) {
+            schedule = null;
+        }
+    }
+    
+    // 写时复制: 修改定义前把共享的镜像表复制为项目私有
+    private void ownDefinitions() {
+        synchronized (objects) {
+            if (image == null) return;
+            this.ontologies = new HashMap<>(ontologies);
+            this.activities = new LinkedHashMap<>(activities);
+            this.relationships = new HashMap<>(relationships);
+            this.image = null;
+            objects.setOntologies(ontologies);
+            links.setRelationships(relationships);
+        }
     }
     
     public void addOntology(String id, OntologyDef ontology) {
         if (ontology != null) {
+            ownDefinitions();
             ontologies.put(id, ontology);
         }
     }
     
     public void addActivity(String id, ActivityDef activity) {
         if (activity != null) {
-            activities.put(id, activity);
+            ownDefinitions();
+            synchronized (this) {
+                activities.put(id, activity);
+                schedule = null;
+            }
+        }
+    }
+    
+    // 进度计划按当前活动集惰性构建, 活动集变化后重建
+    public synchronized ScheduleEngine getSchedule() {
+        if (schedule == null) {
+            schedule = new ScheduleEngine(activities.values());
         }
+        return schedule;
     }
     
     public void addRelationship(String id, RelationshipDef relationship) {
         if (relationship != null) {
+            ownDefinitions();
             relationships.put(id, relationship);
         }
     }
     
-    // 初始化决策网络 - 从关系集生成规则
-    public void initializeDecisionNetwork() {
-        List<DecisionRule> rules = RuleFactory.createRulesFromRelationships(relationships);
-        for (DecisionRule rule : rules) {
-            decisionNetwork.addRule(rule);
+    // 评估离开指定阶段的门禁; 没有配置门禁的阶段直接通过
+    public GateResult checkGate(Phase phase) {
+        PhaseGate gate = phaseGates.get(phase);
+        GateResult result;
+        if (gate == null) {
+            result = new GateResult("-", phase, Collections.emptyList());
+        } else {
+            synchronized (objects) {
+                result = gate.evaluate(this);
+            }
         }
-        System.out.println("  ✓ 决策网络已初始化: " + rules.size() + " 个规则");
+        lastGateResult = result;
+        return result;
     }
     
-    // Getters and Setters
-    public String getProjectId() { return projectId; }
-    public String getProjectName() { return projectName; }
-    public WorkflowMode getMode() { return mode; }
-    public int getPriority() { return priority; }
-    public ProjectStatus getStatus() { return status; }
-    public void setStatus(ProjectStatus status) { this.status = status; }
-    public Phase getCurrentPhase() { return currentPhase; }
-    public void setCurrentPhase(Phase phase) { this.currentPhase = phase; }
-    public ProcessModeEngine getModeEngine() { return modeEngine; }
-    public Set<String> getAllocatedResources() { return allocatedResources; }
-    public Map<String, OntologyDef> getOntologies() { return ontologies; }
-    public Map<String, ActivityDef> getActivities() { return activities; }
-    public Map<String, RelationshipDef> getRelationships() { return relationships; }
-    public DecisionNetworkEngine getDecisionNetwork() { return decisionNetwork; }
-}
-
-// ==================== 流程模式引擎接口 ====================
-
-interface ProcessModeEngine {
-    void transitionPhase(ProjectContext project, Phase toPhase);
-}
-
-class WaterfallEngine implements ProcessModeEngine {
-    @Override
-    public void transitionPhase(ProjectContext project, Phase toPhase) {
-        Phase currentPhase = project.getCurrentPhase();
-        
-        // 检查依赖关系
-        if (!isValidTransition(currentPhase, toPhase)) {
-            System.out.println("❌ 瀑布模式: 必须按顺序完成各阶段");
-            System.out.println("   当前阶段: " + currentPhase);
-            System.out.println("   目标阶段: " + toPhase);
-            System.out.println("   请先完成当前阶段的门禁条件");
-            return;
+    public void addArtifact(String name) {
+        if (artifacts.add(name)) {
+            EventLog log = eventLog;
+            if (log != null) log.appendArtifact(projectId, name, true);
+            System.out.println("📦 提交产出物: " + name);
         }
-        
-        System.out.println("✅ 瀑布模式: 阶段转换 " + currentPhase + " → " + toPhase);
-        System.out.println("   门禁验证: ✅ 通过");
-        project.setCurrentPhase(toPhase);
     }
     
-    private boolean isValidTransition(Phase from, Phase to) {
-        return to.ordinal() == from.ordinal() + 1;
+    public boolean removeArtifact(String name) {
+        boolean removed = artifacts.remove(name);
+        EventLog log = eventLog;
+        if (removed && log != null) log.appendArtifact(projectId, name, false);
+        return removed;
     }
-}
-
-class AgileEngine implements ProcessModeEngine {
-    @Override
-    public void transitionPhase(ProjectContext project, Phase toPhase) {
-        Phase currentPhase = project.getCurrentPhase();
-        
-        if (Math.abs(toPhase.ordinal() - currentPhase.ordinal()) > 1) {
-            System.out.println("⚠️ 敏捷模式: 建议按顺序进行,但允许跳转");
+    
+    // 日志重放: 直接写入存储并同步阻塞计数, 不入队也不触发规则; 事件按原时间戳补回事件历史.
+    // 传播派生的状态写入本身也在日志中, 这里产生的派生批次直接丢弃; 物化视图在恢复结束后按最终状态重建
+    public void replayEvent(String objectId, String type, String attribute, String oldValue, String value, long timestamp) {
+        history.replay(objectId, type, attribute, oldValue, value, timestamp);
+        if ("activity".equals(type)) {
+            if ("completed".equals(value)) completedActivities.add(objectId);
+            return;
+        }
+        synchronized (objects) {
+            int handle = objects.intern(objectId, type);
+            if ("created".equals(attribute)) return;
+            objects.set(handle, attribute, value);
+            if ("status".equals(attribute)) {
+                blockPropagator.onStatusChanged(handle, oldValue, value);
+            }
         }
-        
-        System.out.println("✅ 敏捷模式: 灵活转换 " + currentPhase + " → " + toPhase);
-        project.setCurrentPhase(toPhase);
     }
-}
-
-class HybridEngine implements ProcessModeEngine {
-    private WaterfallEngine waterfallEngine = new WaterfallEngine();
-    private AgileEngine agileEngine = new AgileEngine();
-    private Set<Phase> waterfallPhases = Set.of(Phase.REQUIREMENT, Phase.DESIGN, Phase.DEPLOYMENT);
     
-    @Override
-    public void transitionPhase(ProjectContext project, Phase toPhase) {
-        Phase currentPhase = project.getCurrentPhase();
-        
-        boolean isCurrentWaterfall = waterfallPhases.contains(currentPhase);
-        boolean isTargetWaterfall = waterfallPhases.contains(toPhase);
-        
-        if (isCurrentWaterfall && !isTargetWaterfall) {
-            System.out.println("🔄 混合模式: 瀑布→敏捷转换");
-            waterfallEngine.transitionPhase(project, toPhase);
-        } else if (!isCurrentWaterfall && isTargetWaterfall) {
-            System.out.println("🔄 混合模式: 敏捷→瀑布转换,执行收敛检查");
-            System.out.println("🔍 检查产出物完整性...");
-            agileEngine.transitionPhase(project, toPhase);
-        } else if (isCurrentWaterfall) {
-            waterfallEngine.transitionPhase(project, toPhase);
-        } else {
-            agileEngine.transitionPhase(project, toPhase);
+    // 快照中已存在的边 (或已删除的边) 再次重放时忽略
+    public void replayLink(String sourceId, String relationshipId, String targetId, boolean added) {
+        synchronized (objects) {
+            if (added) {
+                try {
+                    links.addEdge(sourceId, relationshipId, targetId);
+                } catch (IllegalArgumentException | IllegalStateException e) {
+                    return;
+                }
+            } else if (!links.removeEdge(sourceId, relationshipId, targetId)) {
+                return;
+            }
+            blockPropagator.onEdgeChanged(relationshipId,
+                objects.handleOf(sourceId), objects.handleOf(targetId), added);
         }
     }
-}
-
-// ==================== 项目管理器 ====================
-
-class ProjectManager {
-    private Map<String, ProjectContext> projects;
-    private ResourceScheduler resourceScheduler;
     
-    public ProjectManager() {
-        this.projects = new HashMap<>();
-        this.resourceScheduler = new ResourceScheduler(this);
+    // 视图只依赖当前状态, 恢复后扫描一遍存储即可重建, 不必逐条事件维护
+    public void rebuildViews() {
+        MaterializedViews views = decisionNetwork.getViews();
+        for (String activityId : completedActivities) {
+            views.apply(new OntologyEvent(projectId, activityId, "activity", "status", null, "completed"));
+        }
+        synchronized (objects) {
+            for (ObjectTypeTable table : objects.tables()) {
+                for (int row = 0; row < table.getRowCount(); row++) {
+                    String objectId = objects.idOf(table.handleAt(row));
+                    views.apply(new OntologyEvent(projectId, objectId, table.getType(), "created", null, "true"));
+                    for (int col = 0; col < table.getColumnCount(); col++) {
+                        String value = table.valueAt(row, col);
+                        if (value != null) {
+                            views.apply(new OntologyEvent(projectId, objectId, table.getType(),
+                                objects.attributeName(table.attributeAt(col)), null, value));
+                        }
+                    }
+                }
+            }
+        }
     }
     
-    public ProjectContext createProject(String projectId, String projectName, WorkflowMode mode, int priority) {
-        ProjectContext context = new ProjectContext(projectId, projectName, mode, priority);
-        projects.put(projectId, context);
-        System.out.println("✅ 创建项目: " + projectName + " [" + mode + "]");
-        System.out.println("   优先级: " + priority);
-        return context;
+    // 快照: 在对象锁内写出对象、关系边与阻塞传播状态; 句柄不落盘, 恢复时按对象ID重新驻留
+    public void writeSnapshot(DataOutput out) throws IOException {
+        ProjectPersistence.writeString(out, status.name());
+        ProjectPersistence.writeString(out, currentPhase.name());
+        ProjectPersistence.writeStrings(out, artifacts);
+        ProjectPersistence.writeStrings(out, completedActivities);
+        synchronized (objects) {
+            out.writeInt(objects.size());
+            for (ObjectTypeTable table : objects.tables()) {
+                for (int row = 0; row < table.getRowCount(); row++) {
+                    int handle = table.handleAt(row);
+                    ProjectPersistence.writeString(out, objects.idOf(handle));
+                    ProjectPersistence.writeString(out, table.getType());
+                    int valueCount = 0;
+                    for (int col = 0; col < table.getColumnCount(); col++) {
+                        if (table.valueAt(row, col) != null) valueCount++;
+                    }
+                    out.writeInt(valueCount);
+                    for (int col = 0; col < table.getColumnCount(); col++) {
+                        String value = table.valueAt(row, col);
+                        if (value != null) {
+                            ProjectPersistence.writeString(out, objects.attributeName(table.attributeAt(col)));
+                            ProjectPersistence.writeString(out, value);
+                        }
+                    }
+                    blockPropagator.writeState(handle, out);
+                }
+            }
+            
+            out.writeInt(links.indexes().size());
+            for (EdgeIndex index : links.indexes()) {
+                ProjectPersistence.writeString(out, index.getRelationship().getId());
+                out.writeInt(index.getEdgeCount());
+                for (int source = 0; source < objects.size(); source++) {
+                    for (int i = 0; i < index.outDegree(source); i++) {
+                        ProjectPersistence.writeString(out, objects.idOf(source));
+                        ProjectPersistence.writeString(out, objects.idOf(index.target(source, i)));
+                    }
+                }
+            }
+        }
+        history.writeTo(out);
     }
     
-    public void deleteProject(String projectId) {
-        ProjectContext ctx = projects.remove(projectId);
-        if (ctx != null) {
-            // 释放资源
-            for (String resourceId : ctx.getAllocatedResources()) {
-                resourceScheduler.releaseResource(resourceId);
+    public void readSnapshot(DataInput in) throws IOException {
+        status = ProjectStatus.valueOf(ProjectPersistence.readString(in));
+        currentPhase = Phase.valueOf(ProjectPersistence.readString(in));
+        int artifactCount = in.readInt();
+        for (int i = 0; i < artifactCount; i++) {
+            artifacts.add(ProjectPersistence.readString(in));
+        }
+        int completedCount = in.readInt();
+        for (int i = 0; i < completedCount; i++) {
+            completedActivities.add(ProjectPersistence.readString(in));
+        }
+        synchronized (objects) {
+            int objectCount = in.readInt();
+            for (int i = 0; i < objectCount; i++) {
+                String objectId = ProjectPersistence.readString(in);
+                String type = ProjectPersistence.readString(in);
+                int handle = objects.intern(objectId, type);
+                int valueCount = in.readInt();
+                for (int v = 0; v < valueCount; v++) {
+                    String attribute = ProjectPersistence.readString(in);
+                    objects.set(handle, attribute, ProjectPersistence.readString(in));
+                }
+                blockPropagator.readState(handle, in);
+            }
+            
+            // 阻塞计数已随对象恢复, 边直接加入关系存储
+            int indexCount = in.readInt();
+            for (int i = 0; i < indexCount; i++) {
+                String relationshipId = ProjectPersistence.readString(in);
+                int edgeCount = in.readInt();
+                for (int e = 0; e < edgeCount; e++) {
+                    String sourceId = ProjectPersistence.readString(in);
+                    String targetId = ProjectPersistence.readString(in);
+                    try {
+                        links.addEdge(sourceId, relationshipId, targetId);
+                    } catch (IllegalArgumentException | IllegalStateException ex) {
+                        System.err.println("⚠ 快照中的关系无法恢复: " + sourceId + " -[" + relationshipId + "]-> " + targetId + " (" + ex.getMessage() + ")");
+                    }
+                }
             }
-            System.out.println("🗑️ 删除项目: " + ctx.getProjectName());
         }
+        history.readFrom(in);
     }
     
-    public void suspendProject(String projectId) {
-        ProjectContext ctx = projects.get(projectId);
-        if (ctx != null) {
-            ctx.setStatus(ProjectStatus.SUSPENDED);
-            System.out.println("⏸️ 暂停项目: " + ctx.getProjectName());
+    // 归档: 在对象锁内收集对象、属性、传播状态与关系边, 锁外编码写盘
+    public ArchivedProject writeArchive(Path file) throws IOException {
+        ArchiveWriter writer = new ArchiveWriter();
+        writer.setProject(this);
+        synchronized (objects) {
+            for (ObjectTypeTable table : objects.tables()) {
+                for (int row = 0; row < table.getRowCount(); row++) {
+                    int handle = table.handleAt(row);
+                    List<String> attributes = new ArrayList<>();
+                    List<String> values = new ArrayList<>();
+                    for (int col = 0; col < table.getColumnCount(); col++) {
+                        String value = table.valueAt(row, col);
+                        if (value != null) {
+                            attributes.add(objects.attributeName(table.attributeAt(col)));
+                            values.add(value);
+                        }
+                    }
+                    writer.addObject(objects.idOf(handle), table.getType(), attributes, values,
+                        blockPropagator.isBlocked(handle), blockPropagator.isDerived(handle),
+                        blockPropagator.pendingPredecessors(handle), blockPropagator.restoreStatusOf(handle));
+                }
+            }
+            for (EdgeIndex index : links.indexes()) {
+                String relationshipId = index.getRelationship().getId();
+                for (int source = 0; source < objects.size(); source++) {
+                    for (int i = 0; i < index.outDegree(source); i++) {
+                        writer.addEdge(relationshipId, objects.idOf(source), objects.idOf(index.target(source, i)));
+                    }
+                }
+            }
         }
+        ByteArrayOutputStream events = new ByteArrayOutputStream();
+        history.writeTo(new DataOutputStream(events));
+        writer.setHistory(events.toByteArray());
+        return writer.write(file);
     }
     
-    public void resumeProject(String projectId) {
-        ProjectContext ctx = projects.get(projectId);
-        if (ctx != null) {
-            ctx.setStatus(ProjectStatus.ACTIVE);
-            System.out.println("▶️ 恢复项目: " + ctx.getProjectName());
+    // 从归档载回堆上: 与快照恢复相同, 对象按ID重新驻留, 传播状态与关系边直接恢复, 事件历史随之载回
+    public void readArchive(ArchivedProject archive) {
+        archive.readHistory(history);
+        status = archive.getStatus();
+        currentPhase = archive.getCurrentPhase();
+        artifacts.addAll(archive.getArtifacts());
+        completedActivities.addAll(archive.getCompletedActivities());
+        synchronized (objects) {
+            int objectCount = archive.getObjectCount();
+            for (int i = 0; i < objectCount; i++) {
+                int handle = objects.intern(archive.objectId(i), archive.objectType(i));
+                for (int k = 0; k < archive.valueCount(i); k++) {
+                    objects.set(handle, archive.attributeAt(i, k), archive.valueAt(i, k));
+                }
+                blockPropagator.restoreState(handle, archive.isBlocked(i), archive.isDerived(i),
+                    archive.pendingPredecessors(i), archive.restoreStatus(i));
+            }
+            for (int e = 0; e < archive.getEdgeCount(); e++) {
+                String relationshipId = archive.edgeRelationship(e);
+                String sourceId = archive.objectId(archive.edgeSource(e));
+                String targetId = archive.objectId(archive.edgeTarget(e));
+                try {
+                    links.addEdge(sourceId, relationshipId, targetId);
+                } catch (IllegalArgumentException | IllegalStateException ex) {
+                    System.err.println("⚠ 归档中的关系无法恢复: " + sourceId + " -[" + relationshipId + "]-> " + targetId + " (" + ex.getMessage() + ")");
+                }
+            }
         }
     }
     
-    public void listProjects() {
-        System.out.println("\n📋 项目列表:");
-        System.out.println("┌────────────┬──────────────────┬──────────┬────────┬──────────┐");
-        System.out.println("│ ID         │ 项目名            │ 模式     │ 优先级 │ 状态     │");
-        System.out.println("├────────────┼──────────────────┼──────────┼────────┼──────────┤");
-        
-        for (ProjectContext ctx : projects.values()) {
-            System.out.printf("│ %-10s │ %-16s │ %-8s │ %-6d │ %-8s │%n",
-                ctx.getProjectId(),
-                truncate(ctx.getProjectName(), 16),
-                ctx.getMode(),
-                ctx.getPriority(),
-                ctx.getStatus()
-            );
+    // 初始化决策网络 - 从关系集生成规则
+    public void initializeDecisionNetwork(RuleLibrary ruleLibrary) {
+        TemplateImage shared = image;
+        if (shared != null) {
+            decisionNetwork.useRules(shared.getRules());
+            System.out.println("  ✓ 决策网络已初始化: " + shared.getRules().size() + " 个规则");
+            useJoins(shared.getJoins());
+            return;
         }
-        
-        System.out.println("└────────────┴──────────────────┴──────────┴────────┴──────────┘");
+        List<DecisionRule> rules = RuleFactory.createRulesFromRelationships(relationships, ruleLibrary);
+        for (DecisionRule rule : rules) {
+            decisionNetwork.addRule(rule);
+        }
+        System.out.println("  ✓ 决策网络已初始化: " + rules.size() + " 个规则");
+        useJoins(ruleLibrary.joinsFor(relationships.keySet()));
     }
     
-    public void runAllProjects() {
-        List<ProjectContext> activeProjects = projects.values().stream()
-            .filter(ctx -> ctx.getStatus() == ProjectStatus.ACTIVE)
-            .sorted(Comparator.comparingInt(ProjectContext::getPriority).reversed())
-            .collect(Collectors.toList());
-        
-        System.out.println("🚀 启动 " + activeProjects.size() + " 个活跃项目...");
-        for (ProjectContext ctx : activeProjects) {
-            System.out.println("  ✅ " + ctx.getProjectName() + " 已启动");
+    // 联合规则的匹配记忆属于项目自身, 按当前存储构建
+    private void useJoins(List<JoinRule> joins) {
+        if (joins.isEmpty() && decisionNetwork.getJoinNetwork() == null) return;
+        ReteNetwork network = new ReteNetwork(this, objects, links, joins);
+        network.rebuild();
+        decisionNetwork.setJoinNetwork(joins.isEmpty() ? null : network);
+        if (!joins.isEmpty()) {
+            System.out.println("  ✓ 联合匹配网络: " + joins.size() + " 个规则");
         }
     }
     
-    public boolean hasProject(String projectId) {
-        return projects.containsKey(projectId);
+    // 联合匹配记忆与视图一样只依赖当前状态, 恢复或丢弃事件后按存储重建, 重建不触发动作
+    public void rebuildJoins() {
+        ReteNetwork network = decisionNetwork.getJoinNetwork();
+        if (network != null) {
+            network.rebuild();
+        }
     }
     
-    public ProjectContext getProject(String projectId) {
-        return projects.get(projectId);
+    // 切换到新版本配置定义. 模板中移除的本体/关系可能仍有数据, 保留旧定义;
+    // 返回因已有边且约束变化而保留旧定义的关系
+    public List<String> upgradeDefinitions(Map<String, OntologyDef> newOntologies, Map<String, ActivityDef> newActivities,
+                                           Map<String, RelationshipDef> newRelationships, Map<Phase, PhaseGate> gates,
+                                           Map<String, Object> standards, RuleLibrary ruleLibrary, long version) {
+        List<String> kept = new ArrayList<>();
+        ownDefinitions();
+        synchronized (objects) {
+            ontologies.putAll(newOntologies);
+            newRelationships.forEach((id, def) -> {
+                if (!links.replaceRelationship(id, def)) kept.add(id);
+            });
+            decisionNetwork.replaceRules(RuleFactory.createRulesFromRelationships(relationships, ruleLibrary));
+        }
+        useJoins(ruleLibrary.joinsFor(relationships.keySet()));
+        synchronized (this) {
+            activities.clear();
+            activities.putAll(newActivities);
+            schedule = null;
+        }
+        this.phaseGates = gates;
+        this.qualityStandards = standards;
+        this.libraryVersion = version;
+        return kept;
     }
     
-    public ResourceScheduler getResourceScheduler() {
-        return resourceScheduler;
+    // 状态/阶段变化与日志记录在同一把锁内完成
+    public void setStatus(ProjectStatus status) {
+        synchronized (lifecycle) {
+            ProjectStatus previous = this.status;
+            this.status = status;
+            EventLog log = eventLog;
+            if (log != null && previous != status) log.appendStatus(projectId, status);
+        }
     }
     
-    private String truncate(String str, int length) {
-        return str.length() > length ? str.substring(0, length - 2) + ".." : str;
+    public void setCurrentPhase(Phase phase) {
+        synchronized (lifecycle) {
+            Phase previous = this.currentPhase;
+            this.currentPhase = phase;
+            EventLog log = eventLog;
+            if (log != null && previous != phase) log.appendPhase(projectId, phase);
+        }
     }
+    
+    // Getters and Setters
+    public String getProjectId() { return projectId; }
+    public String getProjectName() { return projectName; }
+    public WorkflowMode getMode() { return mode; }
+    public int getPriority() { return priority; }
+    public ProjectStatus getStatus() { return status; }
+    public Phase getCurrentPhase() { return currentPhase; }
+    public ProcessModeEngine getModeEngine() { return modeEngine; }
+    public Set<String> getAllocatedResources() { return allocatedResources; }
+    public Map<String, OntologyDef> getOntologies() { return ontologies; }
+    public Map<String, ActivityDef> getActivities() { return activities; }
+    public Map<String, RelationshipDef> getRelationships() { return relationships; }
+    public Set<String> getCompletedActivities() { return completedActivities; }
+    public DecisionNetworkEngine getDecisionNetwork() { return decisionNetwork; }
+    public MaterializedViews getViews() { return decisionNetwork.getViews(); }
+    
+    // 状态分布直接取自类型表的状态计数, 物化视图的状态查询也由此回答
+    public Map<String, Integer> statusHistogram(String type) {
+        synchronized (objects) {
+            return objects.statusHistogram(type);
+        }
+    }
+    public ObjectStore getObjectStore() { return objects; }
+    public RelationshipStore getRelationshipStore() { return links; }
+    public Map<Phase, PhaseGate> getPhaseGates() { return phaseGates; }
+    public void setPhaseGates(Map<Phase, PhaseGate> phaseGates) { this.phaseGates = phaseGates; }
+    public Map<String, Object> getQualityStandards() { return qualityStandards; }
+    public void setQualityStandards(Map<String, Object> qualityStandards) { this.qualityStandards = qualityStandards; }
+    public Set<String> getArtifacts() { return artifacts; }
+    public GateResult getLastGateResult() { return lastGateResult; }
+    public String getTemplateId() { return templateId; }
+    public void setTemplateId(String templateId) { this.templateId = templateId; }
+    public long getLibraryVersion() { return libraryVersion; }
+    public void setLibraryVersion(long libraryVersion) { this.libraryVersion = libraryVersion; }
+    public EventLog getEventLog() { return eventLog; }
+    public void setEventLog(EventLog eventLog) { this.eventLog = eventLog; }
+    public ActivityRuntime getActivityRuntime() { return activityRuntime; }
+    public void setActivityRuntime(ActivityRuntime activityRuntime) { this.activityRuntime = activityRuntime; }
+    public EventHistory getHistory() { return history; }
+    public TemplateImage getImage() { return image; }
 }
 
-// ==================== 资源调度器 ====================
+// ==================== 对象存储 ====================
 
-class ResourceScheduler {
-    private Map<String, SharedResource> resourcePool;
-    private Map<String, String> resourceAllocation;  // resourceId -> projectId
-    private ProjectManager projectManager;
+// 批量更新项
+class ObjectUpdate {
+    private String objectId;
+    private String attribute;
+    private String value;
     
-    public ResourceScheduler(ProjectManager projectManager) {
-        this.resourcePool = new HashMap<>();
-        this.resourceAllocation = new HashMap<>();
-        this.projectManager = projectManager;
+    public ObjectUpdate(String objectId, String attribute, String value) {
+        this.objectId = objectId;
+        this.attribute = attribute;
+        this.value = value;
     }
     
-    public void addResource(String resourceId, String name) {
-        resourcePool.put(resourceId, new SharedResource(resourceId, name));
-        System.out.println("➕ 添加资源: " + name);
+    public String getObjectId() { return objectId; }
+    public String getAttribute() { return attribute; }
+    public String getValue() { return value; }
+}
+
+// 列式对象存储: 对象ID驻留为整数句柄, 属性按本体类型分表按列存放
+// 本类不做同步, 并发访问时由调用方 (ProjectContext) 对存储对象加锁
+class ObjectStore {
+    private static final int INITIAL_CAPACITY = 64;
+    
+    private Map<String, OntologyDef> ontologies;
+    
+    // 对象ID -> 句柄, 句柄 -> (ID, 类型表, 行号)
+    private final Map<String, Integer> handles;
+    private String[] ids;
+    private ObjectTypeTable[] tableOf;
+    private int[] rowOf;
+    private int size;
+    
+    // 本体类型 -> 类型表 (列布局来自 OntologyDef 的属性定义)
+    private final Map<String, ObjectTypeTable> tables;
+    
+    // 属性名驻留: 属性名 -> 属性ID. 模板镜像驻留的属性 (共享只读) 占前段ID, 项目新增的属性编号接在后面
+    private Map<String, Integer> sharedAttributeIds = Collections.emptyMap();
+    private List<String> sharedAttributeNames = Collections.emptyList();
+    private Map<String, TypeLayout> layouts = Collections.emptyMap();
+    private final Map<String, Integer> attributeIds;
+    private final List<String> attributeNames;
+    
+    public ObjectStore(Map<String, OntologyDef> ontologies) {
+        this.ontologies = ontologies;
+        this.handles = new HashMap<>();
+        this.ids = new String[INITIAL_CAPACITY];
+        this.tableOf = new ObjectTypeTable[INITIAL_CAPACITY];
+        this.rowOf = new int[INITIAL_CAPACITY];
+        this.tables = new LinkedHashMap<>();
+        this.attributeIds = new HashMap<>();
+        this.attributeNames = new ArrayList<>();
     }
     
-    public boolean requestResource(String resourceId, ProjectContext project) {
-        SharedResource resource = resourcePool.get(resourceId);
-        
-        if (resource == null) {
-            System.out.println("❌ 资源不存在: " + resourceId);
-            return false;
-        }
-        
-        if (!resource.isAvailable()) {
-            String currentOwner = resourceAllocation.get(resourceId);
-            ProjectContext ownerProject = projectManager.getProject(currentOwner);
-            
-            if (project.getPriority() > ownerProject.getPriority()) {
-                System.out.println("⚠️ 高优先级项目抢占资源: " + resourceId);
-                ownerProject.setStatus(ProjectStatus.SUSPENDED);
-                releaseResource(resourceId);
-            } else {
-                System.out.println("❌ 资源不可用: " + resourceId);
-                System.out.println("   当前占用: " + ownerProject.getProjectName() + " (优先级 " + ownerProject.getPriority() + ")");
-                return false;
+    // 返回对象句柄, 不存在返回 -1
+    public int handleOf(String objectId) {
+        Integer handle = handles.get(objectId);
+        return handle != null ? handle : -1;
+    }
+    
+    public boolean contains(String objectId) {
+        return handles.containsKey(objectId);
+    }
+    
+    // 注册对象并返回句柄; 已存在且类型不同则迁移到新类型表
+    public int intern(String objectId, String type) {
+        Integer existing = handles.get(objectId);
+        if (existing != null) {
+            int handle = existing;
+            if (!tableOf[handle].getType().equals(type)) {
+                migrate(handle, tableFor(type));
             }
+            return handle;
         }
         
-        resource.allocate(project.getProjectId());
-        resourceAllocation.put(resourceId, project.getProjectId());
-        project.getAllocatedResources().add(resourceId);
-        
-        System.out.println("✅ 分配资源 " + resourceId + " → " + project.getProjectName());
-        return true;
+        ensureCapacity(size + 1);
+        int handle = size++;
+        ObjectTypeTable table = tableFor(type);
+        ids[handle] = objectId;
+        tableOf[handle] = table;
+        rowOf[handle] = table.addRow(handle);
+        handles.put(objectId, handle);
+        return handle;
     }
     
-    public void releaseResource(String resourceId) {
-        SharedResource resource = resourcePool.get(resourceId);
-        if (resource != null) {
-            String projectId = resourceAllocation.remove(resourceId);
-            resource.release();
-            
-            if (projectId != null) {
-                ProjectContext project = projectManager.getProject(projectId);
-                if (project != null) {
-                    project.getAllocatedResources().remove(resourceId);
-                    System.out.println("🔓 释放资源 " + resourceId + " ← " + project.getProjectName());
-                }
-            }
+    public String get(int handle, String attribute) {
+        Integer attrId = sharedAttributeIds.get(attribute);
+        if (attrId == null) {
+            attrId = attributeIds.get(attribute);
         }
+        return attrId != null ? get(handle, attrId) : null;
     }
     
-    public void showResourceStatus() {
-        System.out.println("\n📊 资源使用情况:");
-        System.out.println("┌──────────────────┬────────┬──────────────────┐");
-        System.out.println("│ 资源ID            │ 状态   │ 占用项目          │");
-        System.out.println("├──────────────────┼────────┼──────────────────┤");
-        
-        for (SharedResource resource : resourcePool.values()) {
-            String owner = resourceAllocation.get(resource.getId());
-            String ownerName = "-";
-            if (owner != null) {
-                ProjectContext project = projectManager.getProject(owner);
-                if (project != null) {
-                    ownerName = truncate(project.getProjectName(), 16);
-                }
-            }
-            String status = resource.isAvailable() ? "空闲" : "占用";
-            
-            System.out.printf("│ %-16s │ %-6s │ %-16s │%n",
-                truncate(resource.getId(), 16),
-                status,
-                ownerName
-            );
+    public String get(int handle, int attrId) {
+        ObjectTypeTable table = tableOf[handle];
+        int col = table.columnOf(attrId);
+        return col >= 0 ? table.valueAt(rowOf[handle], col) : null;
+    }
+    
+    // 写入属性值, 返回旧值
+    public String set(int handle, String attribute, String value) {
+        return set(handle, attributeId(attribute), value);
+    }
+    
+    public String set(int handle, int attrId, String value) {
+        ObjectTypeTable table = tableOf[handle];
+        int col = table.columnOf(attrId);
+        if (col < 0) {
+            col = table.addColumn(attrId);
         }
-        
-        System.out.println("└──────────────────┴────────┴──────────────────┘");
+        return table.setValue(rowOf[handle], col, value);
     }
     
-    private String truncate(String str, int length) {
-        return str.length() > length ? str.substring(0, length - 2) + ".." : str;
+    public int attributeId(String attribute) {
+        Integer attrId = sharedAttributeIds.get(attribute);
+        if (attrId != null) return attrId;
+        attrId = attributeIds.get(attribute);
+        if (attrId == null) {
+            attrId = sharedAttributeNames.size() + attributeNames.size();
+            attributeNames.add(attribute);
+            attributeIds.put(attribute, attrId);
+        }
+        return attrId;
     }
-}
-
-// ==================== 共享资源 ====================
-
-class SharedResource {
-    private String id;
-    private String name;
-    private boolean available;
-    private String currentOwner;
     
-    public SharedResource(String id, String name) {
-        this.id = id;
-        this.name = name;
-        this.available = true;
+    public String attributeName(int attrId) {
+        int shared = sharedAttributeNames.size();
+        return attrId < shared ? sharedAttributeNames.get(attrId) : attributeNames.get(attrId - shared);
     }
     
-    public void allocate(String projectId) {
-        this.available = false;
-        this.currentOwner = projectId;
+    // 采用模板镜像的本体表、驻留属性与列布局; 仅在尚未分配任何属性ID时可用
+    public void useImage(TemplateImage image) {
+        if (!attributeNames.isEmpty() || !sharedAttributeNames.isEmpty()) {
+            throw new IllegalStateException("对象存储已分配属性ID");
+        }
+        this.ontologies = image.getOntologies();
+        this.sharedAttributeIds = image.getAttributeIds();
+        this.sharedAttributeNames = image.getAttributeNames();
+        this.layouts = image.getLayouts();
     }
     
-    public void release() {
-        this.available = true;
-        this.currentOwner = null;
+    // 本体表变为项目私有后, 镜像的列布局可能过期, 之后新建的类型表按定义重新推导 (已驻留的ID仍有效)
+    public void setOntologies(Map<String, OntologyDef> ontologies) {
+        this.ontologies = ontologies;
+        this.layouts = Collections.emptyMap();
     }
     
-    public String getId() { return id; }
-    public String getName() { return name; }
-    public boolean isAvailable() { return available; }
-    public String getCurrentOwner() { return currentOwner; }
-}
-
-// ==================== 配置数据模型 ====================
-
-class OntologyDef {
-    private String id;
-    private String name;
-    private String category;
-    private List<Map<String, Object>> attributes;
+    // 按类型计数, O(1)
+    public int count(String type) {
+        ObjectTypeTable table = tables.get(type);
+        return table != null ? table.getRowCount() : 0;
+    }
     
-    public OntologyDef() {}
+    public int countWithStatus(String type, String status) {
+        ObjectTypeTable table = tables.get(type);
+        return table != null ? table.countWithStatus(status) : 0;
+    }
+    
+    public Map<String, Integer> statusHistogram(String type) {
+        ObjectTypeTable table = tables.get(type);
+        return table != null ? table.statusHistogram() : new TreeMap<>();
+    }
+    
+    public String idOf(int handle) { return ids[handle]; }
+    public String typeOf(int handle) { return tableOf[handle].getType(); }
+    public int size() { return size; }
+    public Collection<ObjectTypeTable> tables() { return tables.values(); }
+    public ObjectTypeTable table(String type) { return tables.get(type); }
+    
+    private ObjectTypeTable tableFor(String type) {
+        ObjectTypeTable table = tables.get(type);
+        if (table == null) {
+            TypeLayout layout = layouts.get(type);
+            if (layout != null) {
+                // 镜像中已驻留的列布局, 免去逐个属性名查找
+                table = new ObjectTypeTable(type, layout.getStatusAttribute());
+                for (int column : layout.getColumns()) {
+                    table.addColumn(column);
+                }
+            } else {
+                table = new ObjectTypeTable(type, attributeId(statusAttributeOf(ontologies.get(type))));
+                OntologyDef def = ontologies.get(type);
+                if (def != null && def.getAttributes() != null) {
+                    for (Map<String, Object> attr : def.getAttributes()) {
+                        Object name = attr.get("name");
+                        if (name != null) {
+                            table.addColumn(attributeId(name.toString()));
+                        }
+                    }
+                }
+            }
+            tables.put(type, table);
+        }
+        return table;
+    }
+    
+    // 状态属性: 本体定义了 status 则用 status, 否则用第一个 *_status 属性 (如 design_doc.review_status)
+    static String statusAttributeOf(OntologyDef def) {
+        if (def == null || def.getAttributes() == null) return "status";
+        String fallback = null;
+        for (Map<String, Object> attr : def.getAttributes()) {
+            Object name = attr.get("name");
+            if ("status".equals(name)) return "status";
+            if (fallback == null && name != null && name.toString().endsWith("_status")) {
+                fallback = name.toString();
+            }
+        }
+        return fallback != null ? fallback : "status";
+    }
+    
+    private void migrate(int handle, ObjectTypeTable target) {
+        ObjectTypeTable source = tableOf[handle];
+        int row = rowOf[handle];
+        int newRow = target.addRow(handle);
+        for (int col = 0; col < source.getColumnCount(); col++) {
+            String value = source.valueAt(row, col);
+            if (value != null) {
+                int attrId = source.attributeAt(col);
+                int targetCol = target.columnOf(attrId);
+                if (targetCol < 0) {
+                    targetCol = target.addColumn(attrId);
+                }
+                target.setValue(newRow, targetCol, value);
+            }
+        }
+        int moved = source.removeRow(row);
+        if (moved >= 0) {
+            rowOf[moved] = row;
+        }
+        tableOf[handle] = target;
+        rowOf[handle] = newRow;
+    }
+    
+    private void ensureCapacity(int capacity) {
+        if (capacity > ids.length) {
+            int newLength = Math.max(capacity, ids.length * 2);
+            ids = Arrays.copyOf(ids, newLength);
+            tableOf = Arrays.copyOf(tableOf, newLength);
+            rowOf = Arrays.copyOf(rowOf, newLength);
+        }
+    }
+}
+
+// 类型表: 同一本体类型的对象按行存放, 每个属性一列; 状态列另维护各取值的计数
+class ObjectTypeTable {
+    private static final int INITIAL_ROWS = 16;
+    
+    private final String type;
+    private int[] columnOfAttr;   // 属性ID -> 列号 (-1 表示无此列)
+    private int[] attrOfColumn;   // 列号 -> 属性ID
+    private String[][] columns;
+    private int columnCount;
+    private int[] handles;        // 行号 -> 对象句柄
+    private int rowCount;
+    private final int statusAttr;
+    private final Map<String, Integer> statusCounts;
+    
+    public ObjectTypeTable(String type, int statusAttr) {
+        this.type = type;
+        this.statusAttr = statusAttr;
+        this.statusCounts = new HashMap<>();
+        this.columnOfAttr = new int[0];
+        this.attrOfColumn = new int[4];
+        this.columns = new String[4][];
+        this.handles = new int[INITIAL_ROWS];
+    }
+    
+    public int columnOf(int attrId) {
+        return attrId < columnOfAttr.length ? columnOfAttr[attrId] : -1;
+    }
+    
+    public int addColumn(int attrId) {
+        int existing = columnOf(attrId);
+        if (existing >= 0) return existing;
+        
+        if (attrId >= columnOfAttr.length) {
+            int oldLength = columnOfAttr.length;
+            columnOfAttr = Arrays.copyOf(columnOfAttr, Math.max(attrId + 1, oldLength * 2));
+            Arrays.fill(columnOfAttr, oldLength, columnOfAttr.length, -1);
+        }
+        if (columnCount == columns.length) {
+            columns = Arrays.copyOf(columns, columnCount * 2);
+            attrOfColumn = Arrays.copyOf(attrOfColumn, columnCount * 2);
+        }
+        int col = columnCount++;
+        columns[col] = new String[handles.length];
+        attrOfColumn[col] = attrId;
+        columnOfAttr[attrId] = col;
+        return col;
+    }
+    
+    public int addRow(int handle) {
+        if (rowCount == handles.length) {
+            int newLength = rowCount * 2;
+            handles = Arrays.copyOf(handles, newLength);
+            for (int col = 0; col < columnCount; col++) {
+                columns[col] = Arrays.copyOf(columns[col], newLength);
+            }
+        }
+        handles[rowCount] = handle;
+        return rowCount++;
+    }
+    
+    // 删除行 (用末行填补空位), 返回被移动对象的句柄, 无移动返回 -1
+    public int removeRow(int row) {
+        int statusCol = columnOf(statusAttr);
+        if (statusCol >= 0) {
+            countStatus(columns[statusCol][row], -1);
+        }
+        int last = --rowCount;
+        int moved = -1;
+        if (row != last) {
+            handles[row] = handles[last];
+            for (int col = 0; col < columnCount; col++) {
+                columns[col][row] = columns[col][last];
+            }
+            moved = handles[row];
+        }
+        for (int col = 0; col < columnCount; col++) {
+            columns[col][last] = null;
+        }
+        return moved;
+    }
+    
+    public String setValue(int row, int col, String value) {
+        String old = columns[col][row];
+        columns[col][row] = value;
+        if (attrOfColumn[col] == statusAttr && !Objects.equals(old, value)) {
+            countStatus(old, -1);
+            countStatus(value, 1);
+        }
+        return old;
+    }
+    
+    private void countStatus(String value, int delta) {
+        if (value != null) {
+            statusCounts.merge(value, delta, (a, b) -> a + b == 0 ? null : a + b);
+        }
+    }
+    
+    public int countWithStatus(String value) {
+        return statusCounts.getOrDefault(value, 0);
+    }
+    
+    public Map<String, Integer> statusHistogram() {
+        return new TreeMap<>(statusCounts);
+    }
+
+    public String valueAt(int row, int col) { return columns[col][row]; }
+    public int handleAt(int row) { return handles[row]; }
+    public int attributeAt(int col) { return attrOfColumn[col]; }
+    public String getType() { return type; }
+    public int getRowCount() { return rowCount; }
+    public int getColumnCount() { return columnCount; }
+}
+
+// ==================== 关系存储 ====================
+
+// 项目内的对象关系边: 每个 RelationshipDef 一组正向/反向邻接表, 顶点为对象句柄
+// 与 ObjectStore 一样不做同步, 由 ProjectContext 对对象存储加锁
+class RelationshipStore {
+    private final ObjectStore objects;
+    private Map<String, RelationshipDef> relationships;
+    private final Map<String, EdgeIndex> indexes;
+    
+    public RelationshipStore(ObjectStore objects, Map<String, RelationshipDef> relationships) {
+        this.objects = objects;
+        this.relationships = relationships;
+        this.indexes = new LinkedHashMap<>();
+    }
+    
+    public void addEdge(String sourceId, String relationshipId, String targetId) {
+        EdgeIndex index = indexFor(relationshipId);
+        int source = requireObject(sourceId);
+        int target = requireObject(targetId);
+        RelationshipDef def = index.getRelationship();
+        
+        // 源/目标类型检查
+        String sourceType = objects.typeOf(source);
+        String targetType = objects.typeOf(target);
+        if (def.getSource_types() != null && !def.getSource_types().contains(sourceType)) {
+            throw new IllegalArgumentException(relationshipId + " 不允许源类型 " + sourceType);
+        }
+        if (def.getTarget_types() != null && !def.getTarget_types().contains(targetType)) {
+            throw new IllegalArgumentException(relationshipId + " 不允许目标类型 " + targetType);
+        }
+        if (index.contains(source, target)) {
+            throw new IllegalStateException("关系已存在");
+        }
+        
+        // 基数检查
+        String cardinality = def.getCardinality() != null ? def.getCardinality() : "many_to_many";
+        boolean singleTarget = cardinality.equals("one_to_one") || cardinality.equals("many_to_one");
+        boolean singleSource = cardinality.equals("one_to_one") || cardinality.equals("one_to_many");
+        if (singleTarget && index.outDegree(source) > 0) {
+            throw new IllegalStateException(sourceId + " 已有 " + relationshipId + " 目标 (基数 " + cardinality + ")");
+        }
+        if (singleSource && index.inDegree(target) > 0) {
+            throw new IllegalStateException(targetId + " 已有 " + relationshipId + " 来源 (基数 " + cardinality + ")");
+        }
+        
+        // 无环约束: 增量维护拓扑序, 只搜索受影响区间
+        if (!index.acceptsAcyclic(source, target)) {
+            StringBuilder path = new StringBuilder(sourceId);
+            int[] cycle = index.lastCyclePath();
+            for (int i = cycle.length - 1; i >= 0; i--) {
+                path.append(" → ").append(objects.idOf(cycle[i]));
+            }
+            throw new IllegalStateException("违反无环约束 " + cycleRuleOf(def) + ": " + path);
+        }
+        
+        index.add(source, target);
+    }
+    
+    private String cycleRuleOf(RelationshipDef def) {
+        if (def.getValidation_rules() != null) {
+            for (String ruleId : def.getValidation_rules()) {
+                if (ruleId.startsWith("no_circular_")) return ruleId;
+            }
+        }
+        return "graph_cycle_check";
+    }
+    
+    public boolean removeEdge(String sourceId, String relationshipId, String targetId) {
+        EdgeIndex index = indexes.get(relationshipId);
+        int source = objects.handleOf(sourceId);
+        int target = objects.handleOf(targetId);
+        return index != null && source >= 0 && target >= 0 && index.remove(source, target);
+    }
+    
+    public List<String> targetsOf(String relationshipId, String sourceId) {
+        EdgeIndex index = indexes.get(relationshipId);
+        int source = objects.handleOf(sourceId);
+        if (index == null || source < 0) return Collections.emptyList();
+        
+        List<String> result = new ArrayList<>(index.outDegree(source));
+        for (int i = 0; i < index.outDegree(source); i++) {
+            result.add(objects.idOf(index.target(source, i)));
+        }
+        return result;
+    }
+    
+    public List<String> sourcesOf(String relationshipId, String targetId) {
+        EdgeIndex index = indexes.get(relationshipId);
+        int target = objects.handleOf(targetId);
+        if (index == null || target < 0) return Collections.emptyList();
+        
+        List<String> result = new ArrayList<>(index.inDegree(target));
+        for (int i = 0; i < index.inDegree(target); i++) {
+            result.add(objects.idOf(index.source(target, i)));
+        }
+        return result;
+    }
+    
+    // 替换关系定义: 已有边时基数与无环约束须保持不变 (否则返回 false 并保留旧定义);
+    // 无边的索引直接丢弃, 下次建边时按新定义创建
+    public boolean replaceRelationship(String relationshipId, RelationshipDef def) {
+        EdgeIndex index = indexes.get(relationshipId);
+        if (index != null && index.getEdgeCount() > 0) {
+            RelationshipDef current = index.getRelationship();
+            if (current.isAcyclic() != def.isAcyclic()
+                    || !Objects.equals(current.getCardinality(), def.getCardinality())) {
+                return false;
+            }
+            index.setRelationship(def);
+        } else if (index != null) {
+            indexes.remove(relationshipId);
+        }
+        relationships.put(relationshipId, def);
+        return true;
+    }
+    
+    public void setRelationships(Map<String, RelationshipDef> relationships) {
+        this.relationships = relationships;
+    }
+    
+    public EdgeIndex index(String relationshipId) {
+        return indexes.get(relationshipId);
+    }
+    
+    public Collection<EdgeIndex> indexes() {
+        return indexes.values();
+    }
+    
+    private EdgeIndex indexFor(String relationshipId) {
+        EdgeIndex index = indexes.get(relationshipId);
+        if (index == null) {
+            RelationshipDef def = relationships.get(relationshipId);
+            if (def == null) {
+                throw new IllegalArgumentException("项目未启用关系: " + relationshipId);
+            }
+            index = new EdgeIndex(def);
+            indexes.put(relationshipId, index);
+        }
+        return index;
+    }
+    
+    private int requireObject(String objectId) {
+        int handle = objects.handleOf(objectId);
+        if (handle < 0) {
+            throw new IllegalArgumentException("对象不存在: " + objectId);
+        }
+        return handle;
+    }
+}
+
+// 阻塞状态传播: 前驱 = 本对象 depends_on 的目标 + blocks 本对象的源
+// 每个对象维护 "处于阻塞状态的直接前驱" 计数; 计数从 0 变 1 时派生阻塞,
+// 最后一个阻塞前驱解除 (计数回到 0) 时恢复阻塞前的状态. 使用显式工作栈, 不受递归深度限制
+class BlockPropagator {
+    private static final String DEPENDS_ON = "depends_on";
+    private static final String BLOCKS = "blocks";
+    private static final String STATUS = "status";
+    private static final String BLOCKED = "blocked";
+    
+    private final String projectId;
+    private final ObjectStore objects;
+    private final RelationshipStore links;
+    
+    private boolean[] blocked = new boolean[0];   // 已知的阻塞状态
+    private boolean[] derived = new boolean[0];   // 阻塞是否由传播产生
+    private int[] pending = new int[0];           // 阻塞中的直接前驱数
+    private String[] restoreStatus = new String[0];
+    private int[] stack = new int[16];
+    
+    public BlockPropagator(String projectId, ObjectStore objects, RelationshipStore links) {
+        this.projectId = projectId;
+        this.objects = objects;
+        this.links = links;
+    }
+    
+    public EventBatch onStatusChanged(int handle, String oldStatus, String status) {
+        ensureNode(objects.size() - 1);
+        EventBatch batch = new EventBatch();
+        boolean nowBlocked = BLOCKED.equals(status);
+        
+        // 状态未跨越阻塞边界 (含传播派生事件回到规则时) 无需传播.
+        // 派生阻塞的事件旧值是阻塞前的状态; 旧值已是 blocked 说明是对派生阻塞对象的显式写入,
+        // 此后阻塞归显式状态所有, 前驱解除阻塞时不再恢复
+        if (nowBlocked == blocked[handle]) {
+            if (nowBlocked && derived[handle] && BLOCKED.equals(oldStatus)) {
+                derived[handle] = false;
+                restoreStatus[handle] = null;
+            }
+            return batch;
+        }
+        
+        blocked[handle] = nowBlocked;
+        derived[handle] = false;
+        restoreStatus[handle] = null;
+        propagate(handle, nowBlocked, batch);
+        return batch;
+    }
+    
+    // 新增/删除 depends_on 或 blocks 边时修正后继的计数
+    public EventBatch onEdgeChanged(String relationshipId, int source, int target, boolean added) {
+        EventBatch batch = new EventBatch();
+        int predecessor;
+        int successor;
+        if (DEPENDS_ON.equals(relationshipId)) {
+            predecessor = target;
+            successor = source;
+        } else if (BLOCKS.equals(relationshipId)) {
+            predecessor = source;
+            successor = target;
+        } else {
+            return batch;
+        }
+        
+        ensureNode(Math.max(predecessor, successor));
+        if (blocked[predecessor]) {
+            int top = 0;
+            if (added) {
+                top = increment(successor, top, batch);
+            } else {
+                top = decrement(successor, top, batch);
+            }
+            drain(top, batch);
+        }
+        return batch;
+    }
+    
+    public int pendingPredecessors(int handle) {
+        return handle < pending.length ? pending[handle] : 0;
+    }
+    
+    // 快照: 单个对象的传播状态 (阻塞、是否派生、阻塞前驱数、解除后恢复的状态)
+    public void writeState(int handle, DataOutput out) throws IOException {
+        boolean known = handle < blocked.length;
+        out.writeBoolean(known && blocked[handle]);
+        out.writeBoolean(known && derived[handle]);
+        out.writeInt(known ? pending[handle] : 0);
+        ProjectPersistence.writeString(out, known ? restoreStatus[handle] : null);
+    }
+    
+    public void readState(int handle, DataInput in) throws IOException {
+        restoreState(handle, in.readBoolean(), in.readBoolean(), in.readInt(), ProjectPersistence.readString(in));
+    }
+    
+    public void restoreState(int handle, boolean isBlocked, boolean isDerived, int pendingCount, String restore) {
+        ensureNode(handle);
+        blocked[handle] = isBlocked;
+        derived[handle] = isDerived;
+        pending[handle] = pendingCount;
+        restoreStatus[handle] = restore;
+    }
+    
+    public boolean isBlocked(int handle) { return handle < blocked.length && blocked[handle]; }
+    public boolean isDerived(int handle) { return handle < derived.length && derived[handle]; }
+    public String restoreStatusOf(int handle) { return handle < restoreStatus.length ? restoreStatus[handle] : null; }
+    
+    private void propagate(int handle, boolean nowBlocked, EventBatch batch) {
+        stack = push(stack, 0, nowBlocked ? handle : ~handle);
+        drain(1, batch);
+    }
+    
+    // 栈元素: 非负数表示该对象变为阻塞, 取反表示该对象解除阻塞
+    private void drain(int top, EventBatch batch) {
+        EdgeIndex dependsOn = links.index(DEPENDS_ON);
+        EdgeIndex blocks = links.index(BLOCKS);
+        
+        while (top > 0) {
+            int entry = stack[--top];
+            boolean becameBlocked = entry >= 0;
+            int node = becameBlocked ? entry : ~entry;
+            
+            if (dependsOn != null) {
+                for (int i = 0; i < dependsOn.inDegree(node); i++) {
+                    int successor = dependsOn.source(node, i);
+                    top = becameBlocked ? increment(successor, top, batch) : decrement(successor, top, batch);
+                }
+            }
+            if (blocks != null) {
+                for (int i = 0; i < blocks.outDegree(node); i++) {
+                    int successor = blocks.target(node, i);
+                    top = becameBlocked ? increment(successor, top, batch) : decrement(successor, top, batch);
+                }
+            }
+        }
+    }
+    
+    private int increment(int node, int top, EventBatch batch) {
+        if (++pending[node] == 1 && !blocked[node]) {
+            String previous = objects.set(node, STATUS, BLOCKED);
+            blocked[node] = true;
+            derived[node] = true;
+            restoreStatus[node] = previous;
+            batch.add(new OntologyEvent(projectId, objects.idOf(node), objects.typeOf(node), STATUS, previous, BLOCKED));
+            stack = push(stack, top++, node);
+        }
+        return top;
+    }
+    
+    private int decrement(int node, int top, EventBatch batch) {
+        if (pending[node] > 0 && --pending[node] == 0 && blocked[node] && derived[node]) {
+            String restored = restoreStatus[node];
+            objects.set(node, STATUS, restored);
+            blocked[node] = false;
+            derived[node] = false;
+            restoreStatus[node] = null;
+            batch.add(new OntologyEvent(projectId, objects.idOf(node), objects.typeOf(node), STATUS, BLOCKED, restored));
+            stack = push(stack, top++, ~node);
+        }
+        return top;
+    }
+    
+    private void ensureNode(int node) {
+        if (node >= blocked.length) {
+            int capacity = Math.max(node + 1, blocked.length * 2);
+            blocked = Arrays.copyOf(blocked, capacity);
+            derived = Arrays.copyOf(derived, capacity);
+            pending = Arrays.copyOf(pending, capacity);
+            restoreStatus = Arrays.copyOf(restoreStatus, capacity);
+        }
+    }
+    
+    private static int[] push(int[] array, int index, int value) {
+        if (index == array.length) {
+            array = Arrays.copyOf(array, array.length * 2);
+        }
+        array[index] = value;
+        return array;
+    }
+}
+
+// 单个关系类型的边集: 正向 (源 -> 目标) 与反向 (目标 -> 源) 邻接表
+class EdgeIndex {
+    private RelationshipDef relationship;
+    private final IntAdjacency forward;
+    private final IntAdjacency reverse;
+    private int edgeCount;
+    
+    private final IncrementalTopologicalOrder order;
+    
+    public EdgeIndex(RelationshipDef relationship) {
+        this.relationship = relationship;
+        this.forward = new IntAdjacency();
+        this.reverse = new IntAdjacency();
+        // 拓扑序按反向图 (目标 -> 源) 维护: 新对象通常指向先创建的对象,
+        // 句柄顺序即近似拓扑序, 大部分插入无需搜索
+        this.order = relationship.isAcyclic() ? new IncrementalTopologicalOrder(reverse, forward) : null;
+    }
+    
+    // 无环关系: 检查 source -> target 是否成环, 不成环时更新拓扑序; 非无环关系恒为 true
+    public boolean acceptsAcyclic(int source, int target) {
+        return order == null || order.insert(target, source);
+    }
+    
+    // 最近一次被拒绝的插入所发现的环路: 沿反向边从 source 到 target 的路径
+    public int[] lastCyclePath() {
+        return order != null ? order.lastCyclePath() : new int[0];
+    }
+    
+    public boolean add(int source, int target) {
+        if (forward.contains(source, target)) return false;
+        forward.add(source, target);
+        reverse.add(target, source);
+        edgeCount++;
+        return true;
+    }
+    
+    public boolean remove(int source, int target) {
+        if (!forward.remove(source, target)) return false;
+        reverse.remove(target, source);
+        edgeCount--;
+        return true;
+    }
+    
+    public boolean contains(int source, int target) {
+        return forward.contains(source, target);
+    }
+    
+    public int outDegree(int source) { return forward.degree(source); }
+    public int inDegree(int target) { return reverse.degree(target); }
+    public int target(int source, int i) { return forward.get(source, i); }
+    public int source(int target, int i) { return reverse.get(target, i); }
+    public RelationshipDef getRelationship() { return relationship; }
+    public void setRelationship(RelationshipDef relationship) { this.relationship = relationship; }
+    public int getEdgeCount() { return edgeCount; }
+}
+
+// Pearce-Kelly 增量拓扑序: 为每个顶点维护拓扑位置 ord, 插入边 x -> y 时
+// 若 ord[x] < ord[y] 直接接受; 否则只在位置区间 [ord[y], ord[x]] 内做正向/反向搜索,
+// 正向搜索到达 x 即成环, 否则把两侧受影响顶点按原相对顺序重新排布到同一组位置上
+class IncrementalTopologicalOrder {
+    private final IntAdjacency forward;
+    private final IntAdjacency reverse;
+    
+    private int[] ord = new int[0];      // 顶点 -> 位置
+    private int[] nodeAt = new int[0];   // 位置 -> 顶点
+    private int size;
+    
+    // 搜索用的复用缓冲: 访问标记用纪元计数, 避免每次插入清零
+    private int[] mark = new int[0];
+    private int epoch;
+    private int[] parent = new int[0];
+    private int[] stack = new int[16];
+    private int[] deltaF = new int[16];
+    private int[] deltaB = new int[16];
+    private int[] lastCycle = new int[0];
+    
+    public IncrementalTopologicalOrder(IntAdjacency forward, IntAdjacency reverse) {
+        this.forward = forward;
+        this.reverse = reverse;
+    }
+    
+    public boolean insert(int x, int y) {
+        ensureNode(Math.max(x, y));
+        if (x == y) {
+            lastCycle = new int[] { x };
+            return false;
+        }
+        
+        int lowerBound = ord[y];
+        int upperBound = ord[x];
+        if (lowerBound > upperBound) return true;
+        
+        // 正向: 从 y 出发, 只访问位置 <= ord[x] 的顶点
+        nextEpoch();
+        int forwardCount = searchForward(y, x, upperBound);
+        if (forwardCount < 0) return false;
+        
+        // 反向: 从 x 出发, 只访问位置 >= ord[y] 的顶点
+        int backwardCount = searchBackward(x, lowerBound);
+        
+        reorder(forwardCount, backwardCount);
+        return true;
+    }
+    
+    public int[] lastCyclePath() {
+        return lastCycle;
+    }
+    
+    public int position(int node) {
+        return node < size ? ord[node] : node;
+    }
+    
+    private int searchForward(int start, int target, int upperBound) {
+        int count = 0;
+        int top = 0;
+        stack = push(stack, top++, start);
+        mark[start] = epoch;
+        parent[start] = -1;
+        
+        while (top > 0) {
+            int node = stack[--top];
+            deltaF = push(deltaF, count++, node);
+            for (int i = 0; i < forward.degree(node); i++) {
+                int next = forward.get(node, i);
+                if (next == target) {
+                    recordCycle(node, target);
+                    return -1;
+                }
+                if (mark[next] != epoch && ord[next] < upperBound) {
+                    mark[next] = epoch;
+                    parent[next] = node;
+                    stack = push(stack, top++, next);
+                }
+            }
+        }
+        return count;
+    }
+    
+    private int searchBackward(int start, int lowerBound) {
+        int count = 0;
+        int top = 0;
+        stack = push(stack, top++, start);
+        mark[start] = epoch;
+        
+        while (top > 0) {
+            int node = stack[--top];
+            deltaB = push(deltaB, count++, node);
+            for (int i = 0; i < reverse.degree(node); i++) {
+                int prev = reverse.get(node, i);
+                if (mark[prev] != epoch && ord[prev] > lowerBound) {
+                    mark[prev] = epoch;
+                    stack = push(stack, top++, prev);
+                }
+            }
+        }
+        return count;
+    }
+    
+    // 受影响顶点占用的位置集合不变: 反向集合 (x 的祖先) 排在前, 正向集合 (y 的后继) 排在后
+    private void reorder(int forwardCount, int backwardCount) {
+        sortByOrder(deltaB, backwardCount);
+        sortByOrder(deltaF, forwardCount);
+        
+        int total = backwardCount + forwardCount;
+        int[] positions = new int[total];
+        for (int i = 0; i < backwardCount; i++) positions[i] = ord[deltaB[i]];
+        for (int i = 0; i < forwardCount; i++) positions[backwardCount + i] = ord[deltaF[i]];
+        Arrays.sort(positions);
+        
+        for (int i = 0; i < total; i++) {
+            int node = i < backwardCount ? deltaB[i] : deltaF[i - backwardCount];
+            ord[node] = positions[i];
+            nodeAt[positions[i]] = node;
+        }
+    }
+    
+    private void sortByOrder(int[] nodes, int count) {
+        long[] keyed = new long[count];
+        for (int i = 0; i < count; i++) {
+            keyed[i] = ((long) ord[nodes[i]] << 32) | nodes[i];
+        }
+        Arrays.sort(keyed);
+        for (int i = 0; i < count; i++) {
+            nodes[i] = (int) keyed[i];
+        }
+    }
+    
+    private void recordCycle(int last, int target) {
+        int length = 1;
+        for (int node = last; node != -1; node = parent[node]) length++;
+        int[] path = new int[length];
+        path[length - 1] = target;
+        int i = length - 2;
+        for (int node = last; node != -1; node = parent[node]) {
+            path[i--] = node;
+        }
+        lastCycle = path;
+    }
+    
+    private void nextEpoch() {
+        if (++epoch == Integer.MAX_VALUE) {
+            Arrays.fill(mark, 0);
+            epoch = 1;
+        }
+    }
+    
+    // 新顶点追加在拓扑序末尾
+    private void ensureNode(int node) {
+        if (node < size) return;
+        int newSize = node + 1;
+        if (newSize > ord.length) {
+            int capacity = Math.max(newSize, ord.length * 2);
+            ord = Arrays.copyOf(ord, capacity);
+            nodeAt = Arrays.copyOf(nodeAt, capacity);
+            mark = Arrays.copyOf(mark, capacity);
+            parent = Arrays.copyOf(parent, capacity);
+        }
+        for (int n = size; n < newSize; n++) {
+            ord[n] = n;
+            nodeAt[n] = n;
+        }
+        size = newSize;
+    }
+    
+    private static int[] push(int[] array, int index, int value) {
+        if (index == array.length) {
+            array = Arrays.copyOf(array, array.length * 2);
+        }
+        array[index] = value;
+        return array;
+    }
+}
+
+// 紧凑邻接表: 顶点句柄 -> 邻居句柄的 int 数组
+class IntAdjacency {
+    private static final int[] EMPTY = new int[0];
+    
+    private int[][] lists = new int[16][];
+    private int[] degrees = new int[16];
+    
+    public void add(int node, int neighbor) {
+        ensureNode(node);
+        int[] list = lists[node];
+        int degree = degrees[node];
+        if (list == null || list == EMPTY) {
+            list = new int[2];
+        } else if (degree == list.length) {
+            list = Arrays.copyOf(list, degree * 2);
+        }
+        list[degree] = neighbor;
+        lists[node] = list;
+        degrees[node] = degree + 1;
+    }
+    
+    // 删除时用末元素填补, 不保留邻居顺序
+    public boolean remove(int node, int neighbor) {
+        int degree = degree(node);
+        if (degree == 0) return false;
+        int[] list = lists[node];
+        for (int i = 0; i < degree; i++) {
+            if (list[i] == neighbor) {
+                list[i] = list[degree - 1];
+                degrees[node] = degree - 1;
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    public boolean contains(int node, int neighbor) {
+        int degree = degree(node);
+        for (int i = 0; i < degree; i++) {
+            if (lists[node][i] == neighbor) return true;
+        }
+        return false;
+    }
+    
+    public int degree(int node) {
+        return node < degrees.length ? degrees[node] : 0;
+    }
+    
+    public int get(int node, int i) {
+        return lists[node][i];
+    }
+    
+    public int nodeCapacity() {
+        return lists.length;
+    }
+    
+    private void ensureNode(int node) {
+        if (node >= lists.length) {
+            int newLength = Math.max(node + 1, lists.length * 2);
+            lists = Arrays.copyOf(lists, newLength);
+            degrees = Arrays.copyOf(degrees, newLength);
+        }
+    }
+}
+
+// ==================== 流程模式引擎接口 ====================
+
+interface ProcessModeEngine {
+    void transitionPhase(ProjectContext project, Phase toPhase);
+    
+    // 最后一个阶段结束时是否允许完成项目
+    default boolean canComplete(ProjectContext project) {
+        return true;
+    }
+}
+
+class WaterfallEngine implements ProcessModeEngine {
+    @Override
+    public void transitionPhase(ProjectContext project, Phase toPhase) {
+        Phase currentPhase = project.getCurrentPhase();
+        
+        // 检查依赖关系
+        if (!isValidTransition(currentPhase, toPhase)) {
+            System.out.println("❌ 瀑布模式: 必须按顺序完成各阶段");
+            System.out.println("   当前阶段: " + currentPhase);
+            System.out.println("   目标阶段: " + toPhase);
+            System.out.println("   请先完成当前阶段的门禁条件");
+            return;
+        }
+        
+        GateResult gate = project.checkGate(currentPhase);
+        if (!gate.isPassed()) {
+            System.out.println("❌ 瀑布模式: 门禁未通过, 无法进入 " + toPhase);
+            gate.print();
+            return;
+        }
+        
+        System.out.println("✅ 瀑布模式: 阶段转换 " + currentPhase + " → " + toPhase);
+        System.out.println("   门禁验证: ✅ 通过 (" + gate.getChecks().size() + " 项检查)");
+        project.setCurrentPhase(toPhase);
+    }
+    
+    @Override
+    public boolean canComplete(ProjectContext project) {
+        GateResult gate = project.checkGate(Phase.DEPLOYMENT);
+        if (!gate.isPassed()) {
+            System.out.println("❌ 瀑布模式: 交付门禁未通过, 项目不能完成");
+            gate.print();
+        }
+        return gate.isPassed();
+    }
+    
+    private boolean isValidTransition(Phase from, Phase to) {
+        return to.ordinal() == from.ordinal() + 1;
+    }
+}
+
+class AgileEngine implements ProcessModeEngine {
+    @Override
+    public void transitionPhase(ProjectContext project, Phase toPhase) {
+        Phase currentPhase = project.getCurrentPhase();
+        
+        if (Math.abs(toPhase.ordinal() - currentPhase.ordinal()) > 1) {
+            System.out.println("⚠️ 敏捷模式: 建议按顺序进行,但允许跳转");
+        }
+        
+        GateResult gate = project.checkGate(currentPhase);
+        if (!gate.isPassed()) {
+            System.out.println("⚠️ 敏捷模式: 门禁 " + gate.getGateId() + " 未满足 " + gate.getBlocking().size() + " 项 (仅提示)");
+        }
+        
+        System.out.println("✅ 敏捷模式: 灵活转换 " + currentPhase + " → " + toPhase);
+        project.setCurrentPhase(toPhase);
+    }
+}
+
+class HybridEngine implements ProcessModeEngine {
+    private WaterfallEngine waterfallEngine = new WaterfallEngine();
+    private AgileEngine agileEngine = new AgileEngine();
+    private Set<Phase> waterfallPhases = Set.of(Phase.REQUIREMENT, Phase.DESIGN, Phase.DEPLOYMENT);
+    
+    @Override
+    public void transitionPhase(ProjectContext project, Phase toPhase) {
+        Phase currentPhase = project.getCurrentPhase();
+        
+        boolean isCurrentWaterfall = waterfallPhases.contains(currentPhase);
+        boolean isTargetWaterfall = waterfallPhases.contains(toPhase);
+        
+        if (isCurrentWaterfall && !isTargetWaterfall) {
+            System.out.println("🔄 混合模式: 瀑布→敏捷转换");
+            waterfallEngine.transitionPhase(project, toPhase);
+        } else if (!isCurrentWaterfall && isTargetWaterfall) {
+            System.out.println("🔄 混合模式: 敏捷→瀑布转换,执行收敛检查");
+            System.out.println("🔍 检查产出物完整性...");
+            GateResult gate = project.checkGate(currentPhase);
+            if (!gate.isPassed()) {
+                System.out.println("❌ 混合模式: 收敛检查未通过");
+                gate.print();
+                return;
+            }
+            agileEngine.transitionPhase(project, toPhase);
+        } else if (isCurrentWaterfall) {
+            waterfallEngine.transitionPhase(project, toPhase);
+        } else {
+            agileEngine.transitionPhase(project, toPhase);
+        }
+    }
+    
+    @Override
+    public boolean canComplete(ProjectContext project) {
+        return waterfallEngine.canComplete(project);
+    }
+}
+
+// ==================== 阶段门禁 ====================
+
+// 门禁条件: 模板加载时编译为谓词, 评估时只读对象存储的计数器和产出物集合
+class GateCondition {
+    private final String kind;
+    private final String description;
+    private final Predicate<ProjectContext> test;
+    private final Function<ProjectContext, String> actual;
+    
+    public GateCondition(String kind, String description,
+                         Predicate<ProjectContext> test, Function<ProjectContext, String> actual) {
+        this.kind = kind;
+        this.description = description;
+        this.test = test;
+        this.actual = actual;
+    }
+    
+    // required_reviews: 该类型至少有一个对象, 且全部处于指定状态
+    public static GateCondition review(String type, String status) {
+        return new GateCondition("review", type + " 全部为 " + status,
+            ctx -> {
+                ObjectStore store = ctx.getObjectStore();
+                int total = store.count(type);
+                return total > 0 && store.countWithStatus(type, status) == total;
+            },
+            ctx -> ctx.getObjectStore().countWithStatus(type, status) + "/" + ctx.getObjectStore().count(type));
+    }
+    
+    // 质量标准: 代码模块 coverage 属性均值不低于阈值
+    public static GateCondition coverage(double threshold) {
+        return new GateCondition("quality", "代码覆盖率 ≥ " + threshold + "%",
+            ctx -> ctx.getViews().average("code_module", "coverage") >= threshold,
+            ctx -> {
+                double average = ctx.getViews().average("code_module", "coverage");
+                return Double.isNaN(average) ? "无数据" : String.format("%.1f%%", average);
+            });
+    }
+    
+    // 质量标准: 指定严重级别的未解决缺陷数不超过容忍值
+    public static GateCondition bugTolerance(String severity, int tolerance) {
+        return new GateCondition("quality", severity + " 级未解决缺陷 ≤ " + tolerance,
+            ctx -> ctx.getViews().openBugs(severity) <= tolerance,
+            ctx -> String.valueOf(ctx.getViews().openBugs(severity)));
+    }
+    
+    public static GateCondition artifact(String name) {
+        return new GateCondition("artifact", "产出物 " + name,
+            ctx -> ctx.getArtifacts().contains(name),
+            ctx -> ctx.getArtifacts().contains(name) ? "已提交" : "缺失");
+    }
+    
+    public GateCheck evaluate(ProjectContext ctx) {
+        return new GateCheck(kind, description, test.test(ctx), actual.apply(ctx));
+    }
+    
+    public String getKind() { return kind; }
+    public String getDescription() { return description; }
+}
+
+// 单项检查结果
+class GateCheck {
+    private final String kind;
+    private final String description;
+    private final boolean passed;
+    private final String actual;
+    
+    public GateCheck(String kind, String description, boolean passed, String actual) {
+        this.kind = kind;
+        this.description = description;
+        this.passed = passed;
+        this.actual = actual;
+    }
+    
+    public String getKind() { return kind; }
+    public String getDescription() { return description; }
+    public boolean isPassed() { return passed; }
+    public String getActual() { return actual; }
+}
+
+// 门禁评估结果: 逐项列出检查, 供界面展示阻塞原因
+class GateResult {
+    private final String gateId;
+    private final Phase phase;
+    private final List<GateCheck> checks;
+    private final boolean passed;
+    
+    public GateResult(String gateId, Phase phase, List<GateCheck> checks) {
+        this.gateId = gateId;
+        this.phase = phase;
+        this.checks = checks;
+        this.passed = checks.stream().allMatch(GateCheck::isPassed);
+    }
+    
+    public List<GateCheck> getBlocking() {
+        return checks.stream().filter(c -> !c.isPassed()).collect(Collectors.toList());
+    }
+    
+    public void print() {
+        System.out.println("🚧 门禁 " + gateId + " (" + phase + "): " + (passed ? "✅ 通过" : "❌ 未通过")
+            + " [" + (checks.size() - getBlocking().size()) + "/" + checks.size() + "]");
+        for (GateCheck check : checks) {
+            System.out.println("   " + (check.isPassed() ? "✅ " : "❌ ") + check.getDescription()
+                + " (" + check.getActual() + ")");
+        }
+    }
+    
+    public String getGateId() { return gateId; }
+    public Phase getPhase() { return phase; }
+    public List<GateCheck> getChecks() { return checks; }
+    public boolean isPassed() { return passed; }
+}
+
+// 阶段门禁: 离开某阶段前必须满足的条件, 评估代价为 O(条件数)
+class PhaseGate {
+    private final String gateId;
+    private final Phase phase;
+    private final List<GateCondition> conditions;
+    
+    public PhaseGate(String gateId, Phase phase, List<GateCondition> conditions) {
+        this.gateId = gateId;
+        this.phase = phase;
+        this.conditions = conditions;
+    }
+    
+    // 编译模板的 phase_gates: "<from>_to_<to>" 与 "<phase>_complete" 都按离开的阶段建索引;
+    // quality_standards 中可自动判定的项并入离开测试阶段的门禁
+    @SuppressWarnings("unchecked")
+    public static Map<Phase, PhaseGate> compileAll(Map<String, Map<String, Object>> phaseGates,
+                                                   Map<String, Object> qualityStandards) {
+        Map<Phase, PhaseGate> gates = new EnumMap<>(Phase.class);
+        if (phaseGates == null) phaseGates = Collections.emptyMap();
+        
+        phaseGates.forEach((gateId, spec) -> {
+            Phase phase = phaseOf(gateId);
+            if (phase == null) {
+                System.out.println("  ⚠ 无法识别的门禁: " + gateId);
+                return;
+            }
+            
+            List<GateCondition> conditions = new ArrayList<>();
+            if (spec != null) {
+                List<Map<String, Object>> reviews = (List<Map<String, Object>>) spec.get("required_reviews");
+                if (reviews != null) {
+                    for (Map<String, Object> review : reviews) {
+                        conditions.add(GateCondition.review(String.valueOf(review.get("type")),
+                            String.valueOf(review.get("status"))));
+                    }
+                }
+                List<String> artifacts = (List<String>) spec.get("required_artifacts");
+                if (artifacts != null) {
+                    for (String artifact : artifacts) {
+                        conditions.add(GateCondition.artifact(artifact));
+                    }
+                }
+            }
+            gates.put(phase, new PhaseGate(gateId, phase, conditions));
+        });
+        
+        List<GateCondition> quality = compileQualityStandards(qualityStandards);
+        if (!quality.isEmpty()) {
+            PhaseGate testing = gates.get(Phase.TESTING);
+            List<GateCondition> conditions = new ArrayList<>(testing != null ? testing.getConditions() : List.of());
+            conditions.addAll(quality);
+            gates.put(Phase.TESTING, new PhaseGate(testing != null ? testing.getGateId() : "quality_standards",
+                Phase.TESTING, conditions));
+        }
+        return gates;
+    }
+    
+    // 门禁ID (<阶段>_to_<阶段> 或 <阶段>_complete) 对应离开的阶段; 无法识别时返回 null
+    public static Phase phaseOf(String gateId) {
+        String from = gateId.contains("_to_") ? gateId.substring(0, gateId.indexOf("_to_"))
+            : gateId.replaceAll("_complete$", "");
+        try {
+            return Phase.valueOf(from.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+    
+    // 只编译能由物化视图判定的数值标准; *_review_required 已由 required_reviews 表达
+    private static List<GateCondition> compileQualityStandards(Map<String, Object> standards) {
+        List<GateCondition> conditions = new ArrayList<>();
+        if (standards == null) return conditions;
+        
+        Object coverage = standards.get("code_coverage_threshold");
+        if (coverage instanceof Number) {
+            conditions.add(GateCondition.coverage(((Number) coverage).doubleValue()));
+        }
+        // 缺陷严重级别取值为 critical/major/minor/trivial, high 对应 major
+        Object critical = standards.get("critical_bugs_tolerance");
+        if (critical instanceof Number) {
+            conditions.add(GateCondition.bugTolerance("critical", ((Number) critical).intValue()));
+        }
+        Object high = standards.get("high_bugs_tolerance");
+        if (high instanceof Number) {
+            conditions.add(GateCondition.bugTolerance("major", ((Number) high).intValue()));
+        }
+        return conditions;
+    }
+    
+    public GateResult evaluate(ProjectContext ctx) {
+        List<GateCheck> checks = new ArrayList<>(conditions.size());
+        for (GateCondition condition : conditions) {
+            checks.add(condition.evaluate(ctx));
+        }
+        return new GateResult(gateId, phase, checks);
+    }
+    
+    public String getGateId() { return gateId; }
+    public Phase getPhase() { return phase; }
+    public List<GateCondition> getConditions() { return conditions; }
+}
+
+// ==================== 项目管理器 ====================
+
+class ProjectManager {
+    private Map<String, ProjectContext> projects;
+    private ResourceScheduler resourceScheduler;
+    private ProjectExecutionScheduler executionScheduler;
+    private final ActivityRuntime activityRuntime;
+    private final EventBus eventBus;
+    private volatile PortfolioOptimizer optimizer;
+    private volatile EventLog eventLog;
+    private final Map<String, ArchivedProject> archived;
+    private volatile Path archiveDirectory;
+    private TemplateManager templateManager;
+    
+    public ProjectManager() {
+        this.projects = new ConcurrentHashMap<>();
+        this.archived = new ConcurrentHashMap<>();
+        this.resourceScheduler = new ResourceScheduler(this);
+        this.executionScheduler = new ProjectExecutionScheduler();
+        this.executionScheduler.setCompletionListener(this::onProjectCompleted);
+        this.activityRuntime = new ActivityRuntime();
+        this.eventBus = new EventBus(EventBus.DEFAULT_PARTITIONS, projects::get);
+    }
+    
+    public ProjectContext createProject(String projectId, String projectName, WorkflowMode mode, int priority) {
+        ProjectContext context = new ProjectContext(projectId, projectName, mode, priority);
+        context.setEventLog(eventLog);
+        context.setActivityRuntime(activityRuntime);
+        context.getDecisionNetwork().setEventBus(eventBus);
+        projects.put(projectId, context);
+        if (eventLog != null) {
+            eventLog.appendProjectCreated(context);
+        }
+        System.out.println("✅ 创建项目: " + projectName + " [" + mode + "]");
+        System.out.println("   优先级: " + priority);
+        return context;
+    }
+    
+    public void deleteProject(String projectId) {
+        ArchivedProject archive = archived.remove(projectId);
+        if (archive != null) {
+            try {
+                Files.deleteIfExists(archive.getFile());
+            } catch (IOException e) {
+                System.out.println("⚠ 归档文件删除失败: " + e.getMessage());
+            }
+            eventBus.removeProject(projectId);
+            if (eventLog != null) {
+                eventLog.appendProjectDeleted(projectId);
+            }
+            System.out.println("🗑️ 删除归档项目: " + projectId);
+            return;
+        }
+        ProjectContext ctx = projects.remove(projectId);
+        if (ctx != null) {
+            executionScheduler.cancel(projectId);
+            resourceScheduler.cancelWaits(ctx);
+            // 释放资源
+            for (String resourceId : ctx.getAllocatedResources()) {
+                resourceScheduler.releaseResource(resourceId, ctx);
+            }
+            eventBus.removeProject(projectId);
+            if (eventLog != null) {
+                eventLog.appendProjectDeleted(projectId);
+            }
+            System.out.println("🗑️ 删除项目: " + ctx.getProjectName());
+        }
+    }
+    
+    public void suspendProject(String projectId) {
+        ProjectContext ctx = projects.get(projectId);
+        if (ctx != null) {
+            ctx.setStatus(ProjectStatus.SUSPENDED);
+            System.out.println("⏸️ 暂停项目: " + ctx.getProjectName());
+        }
+    }
+    
+    public void resumeProject(String projectId) {
+        ProjectContext ctx = projects.get(projectId);
+        if (ctx != null) {
+            ctx.setStatus(ProjectStatus.ACTIVE);
+            System.out.println("▶️ 恢复项目: " + ctx.getProjectName());
+            executionScheduler.resume(projectId);
+        }
+    }
+    
+    public void listProjects() {
+        System.out.println("\n📋 项目列表:");
+        System.out.println("┌────────────┬──────────────────┬──────────┬────────┬──────────┐");
+        System.out.println("│ ID         │ 项目名            │ 模式     │ 优先级 │ 状态     │");
+        System.out.println("├────────────┼──────────────────┼──────────┼────────┼──────────┤");
+        
+        for (ProjectContext ctx : projects.values()) {
+            System.out.printf("│ %-10s │ %-16s │ %-8s │ %-6d │ %-8s │%n",
+                ctx.getProjectId(),
+                truncate(ctx.getProjectName(), 16),
+                ctx.getMode(),
+                ctx.getPriority(),
+                ctx.getStatus()
+            );
+        }
+        for (ArchivedProject archive : archived.values()) {
+            System.out.printf("│ %-10s │ %-16s │ %-8s │ %-6d │ %-8s │%n",
+                archive.getProjectId(),
+                truncate(archive.getProjectName(), 16),
+                archive.getMode(),
+                archive.getPriority(),
+                "ARCHIVED"
+            );
+        }
+        
+        System.out.println("└────────────┴──────────────────┴──────────┴────────┴──────────┘");
+    }
+    
+    public void runAllProjects() {
+        List<ProjectContext> activeProjects = projects.values().stream()
+            .filter(ctx -> ctx.getStatus() == ProjectStatus.ACTIVE)
+            .sorted(Comparator.comparingInt(ProjectContext::getPriority).reversed())
+            .collect(Collectors.toList());
+        
+        System.out.println("🚀 启动 " + activeProjects.size() + " 个活跃项目...");
+        for (ProjectContext ctx : activeProjects) {
+            if (executionScheduler.start(ctx)) {
+                System.out.println("  ✅ " + ctx.getProjectName() + " 已启动");
+            } else {
+                System.out.println("  ⏭ " + ctx.getProjectName() + " 已在运行");
+            }
+        }
+    }
+    
+    public ProjectExecutionScheduler getExecutionScheduler() {
+        return executionScheduler;
+    }
+    
+    public ActivityRuntime getActivityRuntime() {
+        return activityRuntime;
+    }
+    
+    public EventBus getEventBus() {
+        return eventBus;
+    }
+    
+    // 项目依赖: subscriber 经事件总线接收 upstream 的事件 (按规则库中的订阅规则过滤)
+    public void addDependency(String subscriber, String upstream) {
+        requireProject(subscriber);
+        requireProject(upstream);
+        if (!eventBus.depend(subscriber, upstream)) {
+            System.out.println("⏭ 依赖已存在: " + subscriber + " → " + upstream);
+            return;
+        }
+        if (eventLog != null) {
+            eventLog.appendDependency(subscriber, upstream, true);
+        }
+        System.out.println("🔗 项目依赖: " + subscriber + " → " + upstream + " (订阅其事件)");
+    }
+    
+    public void removeDependency(String subscriber, String upstream) {
+        if (!eventBus.undepend(subscriber, upstream)) {
+            System.out.println("❌ 依赖不存在: " + subscriber + " → " + upstream);
+            return;
+        }
+        if (eventLog != null) {
+            eventLog.appendDependency(subscriber, upstream, false);
+        }
+        System.out.println("✂️ 取消项目依赖: " + subscriber + " → " + upstream);
+    }
+    
+    // 日志重放与快照加载用: 不输出, 不写日志
+    public void restoreDependency(String subscriber, String upstream, boolean added) {
+        if (added) {
+            eventBus.depend(subscriber, upstream);
+        } else {
+            eventBus.undepend(subscriber, upstream);
+        }
+    }
+    
+    private void requireProject(String projectId) {
+        if (!hasProject(projectId)) {
+            throw new IllegalArgumentException("项目不存在: " + projectId);
+        }
+    }
+    
+    // 跨项目资源平衡: 立即给出列表调度方案, 之后在后台持续改进 millis 毫秒
+    public PortfolioOptimizer optimizePortfolio(long millis) {
+        List<ProjectContext> candidates = projects.values().stream()
+            .filter(ctx -> ctx.getStatus() != ProjectStatus.COMPLETED && !ctx.getActivities().isEmpty())
+            .sorted(Comparator.comparing(ProjectContext::getProjectId))
+            .collect(Collectors.toList());
+        if (candidates.isEmpty()) {
+            System.out.println("⚠ 没有包含活动的未完成项目");
+            return null;
+        }
+        
+        PortfolioOptimizer previous = optimizer;
+        if (previous != null) previous.stop();
+        
+        PortfolioOptimizer next = new PortfolioOptimizer(new PortfolioProblem(candidates, resourceScheduler.getPools()));
+        PortfolioPlan plan = next.getInitial();
+        System.out.println("✅ 列表调度初始方案: 加权延误 " + plan.cost + ", 总跨度 " + plan.makespan
+            + " 天 (" + next.getInitialMicros() / 1000.0 + " ms)");
+        next.improveInBackground(millis, Runtime.getRuntime().availableProcessors());
+        System.out.println("🔍 后台局部搜索 " + millis + " ms (optimize status 查看进展)");
+        optimizer = next;
+        return next;
+    }
+    
+    public PortfolioOptimizer getOptimizer() {
+        return optimizer;
+    }
+    
+    // 项目组合进度: 各项目独立计算关键路径, 按总工期降序列出
+    public void showPortfolioSchedule() {
+        System.out.println("\n📅 项目组合进度:");
+        System.out.println("┌──────────────┬──────────────────┬────────┬────────┬────────┐");
+        System.out.println("│ 项目ID        │ 项目名称          │ 活动数 │ 关键数 │ 总工期 │");
+        System.out.println("├──────────────┼──────────────────┼────────┼────────┼────────┤");
+        
+        projects.values().parallelStream()
+            .map(ctx -> new AbstractMap.SimpleEntry<>(ctx, ctx.getSchedule()))
+            .sorted(Comparator.comparingInt((Map.Entry<ProjectContext, ScheduleEngine> e) -> e.getValue().getProjectDuration()).reversed())
+            .forEachOrdered(e -> System.out.printf("│ %-12s │ %-16s │ %-6d │ %-6d │ %-6s │%n",
+                truncate(e.getKey().getProjectId(), 12),
+                truncate(e.getKey().getProjectName(), 16),
+                e.getValue().getActivityCount(),
+                e.getValue().getCriticalCount(),
+                e.getValue().getProjectDuration() + "天"));
+        
+        System.out.println("└──────────────┴──────────────────┴────────┴────────┴────────┘");
+    }
+    
+    public boolean hasProject(String projectId) {
+        return projects.containsKey(projectId) || archived.containsKey(projectId);
+    }
+    
+    // 归档项目在被取用 (即将修改) 时载回堆上
+    public ProjectContext getProject(String projectId) {
+        ProjectContext ctx = projects.get(projectId);
+        if (ctx == null && archived.containsKey(projectId)) {
+            ctx = hydrate(projectId);
+        }
+        return ctx;
+    }
+    
+    // 只读查询用: 已归档时返回归档, 不触发载回
+    public ArchivedProject getArchived(String projectId) {
+        return archived.get(projectId);
+    }
+    
+    // 只读查询用: 仅返回堆上的项目, 已归档时返回 null 而不载回
+    public ProjectContext getLiveProject(String projectId) {
+        return projects.get(projectId);
+    }
+    
+    public Collection<ArchivedProject> getArchivedProjects() {
+        return archived.values();
+    }
+    
+    public void enableArchive(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        this.archiveDirectory = directory;
+    }
+    
+    public void setTemplateManager(TemplateManager templateManager) {
+        this.templateManager = templateManager;
+        eventBus.setRules(templateManager::getRules);
+    }
+    
+    // 归档: 释放资源后写出只读映射文件, 再从堆上移除; 针对已完成且不再推进的项目
+    public boolean archiveProject(String projectId) throws IOException {
+        Path directory = archiveDirectory;
+        if (directory == null) {
+            throw new IllegalStateException("未启用归档 (启动参数 --data <目录>)");
+        }
+        synchronized (archived) {
+            ProjectContext ctx = projects.get(projectId);
+            if (ctx == null) return false;
+            // 先停掉活动执行, 它们的状态事件不能落到已移出的上下文和日志中
+            try {
+                if (!activityRuntime.cancel(ctx)) {
+                    throw new IllegalStateException("活动执行未按时结束, 暂不归档: " + projectId);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("等待活动执行结束时被中断: " + projectId);
+            }
+            executionScheduler.cancel(projectId);
+            resourceScheduler.cancelWaits(ctx);
+            for (String resourceId : ctx.getAllocatedResources()) {
+                resourceScheduler.releaseResource(resourceId, ctx);
+            }
+            ArchivedProject archive = ctx.writeArchive(directory.resolve(projectId + ".arc"));
+            projects.remove(projectId);
+            archived.put(projectId, archive);
+            if (eventLog != null) {
+                eventLog.appendArchived(projectId, true);
+            }
+            System.out.println("🗄️ 归档项目: " + ctx.getProjectName() + " (" + ctx.getObjectStore().size()
+                + " 个对象, " + archive.fileSize() / 1024 + " KB)");
+            return true;
+        }
+    }
+    
+    // 载回: 重新套用模板定义, 再从映射文件恢复状态; 归档文件保留, 供日志重放时定位
+    private ProjectContext hydrate(String projectId) {
+        synchronized (archived) {
+            ProjectContext ctx = projects.get(projectId);
+            ArchivedProject archive = archived.get(projectId);
+            if (ctx != null || archive == null) return ctx;
+            ctx = new ProjectContext(projectId, archive.getProjectName(), archive.getMode(), archive.getPriority());
+            ctx.setActivityRuntime(activityRuntime);
+            ctx.getDecisionNetwork().setEventBus(eventBus);
+            if (archive.getTemplateId() != null && templateManager != null) {
+                templateManager.applyTemplate(ctx, archive.getTemplateId());
+            }
+            ctx.readArchive(archive);
+            ctx.rebuildJoins();
+            // 日志重放期间由恢复流程统一重建视图
+            if (eventLog != null) {
+                ctx.rebuildViews();
+            }
+            ctx.setEventLog(eventLog);
+            projects.put(projectId, ctx);
+            archived.remove(projectId);
+            if (eventLog != null) {
+                eventLog.appendArchived(projectId, false);
+            }
+            System.out.println("💧 载入归档项目: " + ctx.getProjectName() + " (" + ctx.getObjectStore().size() + " 个对象)");
+            return ctx;
+        }
+    }
+    
+    // 恢复: 归档文件存在时以文件为准, 丢弃重放出的堆上副本
+    public void restoreArchived(String projectId) {
+        Path directory = archiveDirectory;
+        if (directory == null) return;
+        Path file = directory.resolve(projectId + ".arc");
+        if (!Files.exists(file)) {
+            System.err.println("⚠ 归档文件缺失, 项目保留在内存中: " + file);
+            return;
+        }
+        projects.remove(projectId);
+        archived.put(projectId, new ArchivedProject(projectId, file));
+    }
+    
+    private void onProjectCompleted(ProjectContext ctx) {
+        if (archiveDirectory == null) return;
+        try {
+            archiveProject(ctx.getProjectId());
+        } catch (IOException | RuntimeException e) {
+            System.out.println("❌ 归档失败: " + ctx.getProjectId() + " (" + e.getMessage() + ")");
+        }
+    }
+    
+    public ResourceScheduler getResourceScheduler() {
+        return resourceScheduler;
+    }
+    
+    public Collection<ProjectContext> getProjects() {
+        return projects.values();
+    }
+    
+    // 恢复完成后开始记录: 已有项目与资源池从此刻起写入日志
+    public void attachEventLog(EventLog log) {
+        this.eventLog = log;
+        for (ProjectContext ctx : projects.values()) {
+            ctx.setEventLog(log);
+        }
+        resourceScheduler.setEventLog(log);
+    }
+    
+    public EventLog getEventLog() {
+        return eventLog;
+    }
+    
+    private String truncate(String str, int length) {
+        return str.length() > length ? str.substring(0, length - 2) + ".." : str;
+    }
+}
+
+// ==================== 跨项目事件总线 ====================
+
+// 项目经 project depends 声明对上游项目的依赖; 上游的事件按主题 <上游项目>/<本体类型> 发布,
+// 只有存在依赖且规则库中有该类型的订阅规则时才入队, 其余项目不会看到这些事件.
+// 主题哈希到固定分区, 每个分区一个消费线程: 同一主题严格有序, 不同分区并行投递
+class EventBus {
+    static final int DEFAULT_PARTITIONS = 4;
+    static final int PARTITION_CAPACITY = 4096;
+    
+    private final BusPartition[] partitions;
+    private final Function<String, ProjectContext> projects;
+    private volatile Supplier<RuleLibrary> rules = RuleLibrary::empty;
+    // 上游项目 -> 依赖它的项目; 写时复制, 发布路径无锁读取
+    private volatile Map<String, Set<String>> dependents = Collections.emptyMap();
+    
+    public EventBus(int partitionCount, Function<String, ProjectContext> projects) {
+        this.projects = projects;
+        this.partitions = new BusPartition[partitionCount];
+        for (int i = 0; i < partitionCount; i++) {
+            partitions[i] = new BusPartition(i, PARTITION_CAPACITY, this);
+        }
+    }
+    
+    public void setRules(Supplier<RuleLibrary> rules) {
+        this.rules = rules;
+    }
+    
+    // 声明 subscriber 依赖 upstream; 拒绝自依赖与成环 (环上的订阅动作会在项目间来回触发)
+    public synchronized boolean depend(String subscriber, String upstream) {
+        if (subscriber.equals(upstream)) {
+            throw new IllegalArgumentException("项目不能依赖自身: " + subscriber);
+        }
+        if (reaches(subscriber, upstream)) {
+            throw new IllegalArgumentException("依赖成环: " + upstream + " 已直接或间接依赖 " + subscriber);
+        }
+        Set<String> current = dependents.getOrDefault(upstream, Collections.emptySet());
+        if (current.contains(subscriber)) return false;
+        Map<String, Set<String>> next = new HashMap<>(dependents);
+        Set<String> subscribers = new TreeSet<>(current);
+        subscribers.add(subscriber);
+        next.put(upstream, Collections.unmodifiableSet(subscribers));
+        dependents = Collections.unmodifiableMap(next);
+        return true;
+    }
+    
+    public synchronized boolean undepend(String subscriber, String upstream) {
+        Set<String> current = dependents.get(upstream);
+        if (current == null || !current.contains(subscriber)) return false;
+        Map<String, Set<String>> next = new HashMap<>(dependents);
+        Set<String> subscribers = new TreeSet<>(current);
+        subscribers.remove(subscriber);
+        if (subscribers.isEmpty()) {
+            next.remove(upstream);
+        } else {
+            next.put(upstream, Collections.unmodifiableSet(subscribers));
+        }
+        dependents = Collections.unmodifiableMap(next);
+        return true;
+    }
+    
+    // 删除项目时去掉它作为上游和订阅方的全部依赖
+    public synchronized void removeProject(String projectId) {
+        Map<String, Set<String>> next = new HashMap<>();
+        for (Map.Entry<String, Set<String>> entry : dependents.entrySet()) {
+            if (entry.getKey().equals(projectId)) continue;
+            Set<String> subscribers = new TreeSet<>(entry.getValue());
+            subscribers.remove(projectId);
+            if (!subscribers.isEmpty()) next.put(entry.getKey(), Collections.unmodifiableSet(subscribers));
+        }
+        dependents = Collections.unmodifiableMap(next);
+    }
+    
+    // 从 from 出发沿 上游 -> 依赖方 的方向能否到达 to
+    private boolean reaches(String from, String to) {
+        Deque<String> stack = new ArrayDeque<>(List.of(from));
+        Set<String> visited = new HashSet<>();
+        while (!stack.isEmpty()) {
+            String project = stack.pop();
+            if (project.equals(to)) return true;
+            if (visited.add(project)) {
+                stack.addAll(dependents.getOrDefault(project, Collections.emptySet()));
+            }
+        }
+        return false;
+    }
+    
+    // 由上游项目的排空线程调用, 发布顺序即项目内事件顺序.
+    // 没有依赖方或没有该类型的订阅规则时只做两次查表
+    public void publish(String projectId, OntologyEvent event) {
+        Set<String> subscribers = dependents.get(projectId);
+        if (subscribers == null) return;
+        List<BusRule> subscriptions = rules.get().subscriptionsFor(event.getObjectType());
+        if (subscriptions.isEmpty()) return;
+        String topic = projectId + "/" + event.getObjectType();
+        partitions[Math.floorMod(topic.hashCode(), partitions.length)]
+            .offer(new BusMessage(topic, event, subscribers, subscriptions));
+    }
+    
+    // 在分区消费线程中执行: 逐个订阅方、逐条规则过滤后执行动作
+    void deliver(BusPartition partition, BusMessage message) {
+        for (String subscriberId : message.getSubscribers()) {
+            // 归档项目已完成, 不再接收上游事件
+            ProjectContext subscriber = projects.apply(subscriberId);
+            if (subscriber == null) {
+                partition.skipped.incrementAndGet();
+                continue;
+            }
+            for (BusRule rule : message.getSubscriptions()) {
+                BusDelivery delivery = new BusDelivery(rule, subscriber, message.getEvent());
+                try {
+                    if (rule.getWhen().test(delivery)) {
+                        rule.fire(delivery);
+                        partition.delivered.incrementAndGet();
+                    } else {
+                        partition.filtered.incrementAndGet();
+                    }
+                } catch (RuntimeException e) {
+                    partition.failed.incrementAndGet();
+                    System.out.println("  ❌ 订阅规则 " + rule.getId() + " 投递到 " + subscriberId + " 失败: " + e.getMessage());
+                }
+            }
+        }
+    }
+    
+    // 等待所有分区排空并投递完毕
+    public boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        for (BusPartition partition : partitions) {
+            if (!partition.awaitIdle(deadline - System.currentTimeMillis())) return false;
+        }
+        return true;
+    }
+    
+    public void showStatus() {
+        System.out.println("\n📡 跨项目事件总线 (" + partitions.length + " 个分区, 订阅规则 "
+            + rules.get().subscriptionCount() + " 条):");
+        Map<String, Set<String>> snapshot = dependents;
+        if (snapshot.isEmpty()) {
+            System.out.println("  项目依赖: (无, 使用 project depends <项目> <上游项目> 声明)");
+        } else {
+            System.out.println("  项目依赖:");
+            new TreeMap<>(snapshot).forEach((upstream, subscribers) ->
+                System.out.println("    " + upstream + " → " + String.join(", ", subscribers)));
+        }
+        System.out.println("  ┌──────┬────────┬──────────┬──────────┬──────────┬────────┬────────┬──────────────┐");
+        System.out.println("  │ 分区 │ 队列中 │ 已发布   │ 已投递   │ 已过滤   │ 跳过   │ 失败   │ 溢出 (当前)  │");
+        System.out.println("  ├──────┼────────┼──────────┼──────────┼──────────┼────────┼────────┼──────────────┤");
+        for (BusPartition partition : partitions) {
+            System.out.printf("  │ %-4d │ %-6d │ %-8d │ %-8d │ %-8d │ %-6d │ %-6d │ %-12s │%n",
+                partition.getIndex(), partition.size(), partition.published.get(), partition.delivered.get(),
+                partition.filtered.get(), partition.skipped.get(), partition.failed.get(),
+                partition.spilled.get() + " (" + partition.overflowSize() + ")");
+        }
+        System.out.println("  └──────┴────────┴──────────┴──────────┴──────────┴────────┴────────┴──────────────┘");
+    }
+    
+    public Map<String, Set<String>> getDependents() { return dependents; }
+    public int getPartitionCount() { return partitions.length; }
+}
+
+// 总线分区: 有界队列 + 单个消费线程. 发布方 (上游项目的排空线程或总线消费线程) 从不等待, 消息也从不丢弃:
+// 队列满时消息按序暂存到分区的溢出队列, 消费线程每取走一条就从溢出队列补回一条, 投递顺序仍是发布顺序.
+// 背压落在订阅方: 投递进订阅项目时按该项目自己的背压策略占用事件队列槽位, 慢订阅方拖慢的是本分区的消费,
+// 上游只表现为溢出增长 (bus status 中可见)
+class BusPartition {
+    static final String THREAD_PREFIX = "event-bus-";
+    
+    private final int index;
+    private final EventBus bus;
+    private final LinkedBlockingQueue<BusMessage> queue;
+    // 溢出队列非空时新消息也只能排在它后面; 与补回队列共用此锁, 保证先进先出
+    private final ArrayDeque<BusMessage> overflow = new ArrayDeque<>();
+    private final AtomicLong pending = new AtomicLong();
+    private final Object idle = new Object();
+    
+    // 统计
+    final AtomicLong published = new AtomicLong();
+    final AtomicLong delivered = new AtomicLong();
+    final AtomicLong filtered = new AtomicLong();
+    final AtomicLong skipped = new AtomicLong();
+    final AtomicLong failed = new AtomicLong();
+    final AtomicLong spilled = new AtomicLong();
+    
+    public BusPartition(int index, int capacity, EventBus bus) {
+        this.index = index;
+        this.bus = bus;
+        this.queue = new LinkedBlockingQueue<>(capacity);
+        Thread consumer = new Thread(this::consume, THREAD_PREFIX + index);
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+    
+    // 先计入待投递再入队, 消费线程取走消息时计数不会先于入队归零
+    public void offer(BusMessage message) {
+        pending.incrementAndGet();
+        synchronized (overflow) {
+            if (overflow.isEmpty() && queue.offer(message)) {
+                published.incrementAndGet();
+                return;
+            }
+            overflow.addLast(message);
+            if (overflow.size() == 1) {
+                System.out.println("  ⚠ 总线分区 " + index + " 已满, 后续消息暂存溢出队列: " + message.getTopic());
+            }
+        }
+        spilled.incrementAndGet();
+        published.incrementAndGet();
+    }
+    
+    // 队列腾出位置后按序补回溢出的消息; 溢出队列非空时主队列总是满的
+    private void refill() {
+        synchronized (overflow) {
+            while (!overflow.isEmpty() && queue.offer(overflow.peekFirst())) {
+                overflow.pollFirst();
+            }
+        }
+    }
+    
+    private void consume() {
+        try {
+            while (true) {
+                BusMessage message = queue.take();
+                refill();
+                try {
+                    bus.deliver(this, message);
+                } finally {
+                    settle();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private void settle() {
+        if (pending.decrementAndGet() == 0) {
+            synchronized (idle) {
+                idle.notifyAll();
+            }
+        }
+    }
+    
+    public boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (idle) {
+            while (pending.get() > 0) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) return false;
+                idle.wait(remaining);
+            }
+        }
+        return true;
+    }
+    
+    public int getIndex() { return index; }
+    
+    public int size() {
+        synchronized (overflow) {
+            return queue.size() + overflow.size();
+        }
+    }
+    
+    public int overflowSize() {
+        synchronized (overflow) {
+            return overflow.size();
+        }
+    }
+}
+
+// 一次发布: 依赖方与订阅规则在发布时取快照, 之后的依赖或规则变化不影响已入队的消息
+class BusMessage {
+    private final String topic;
+    private final OntologyEvent event;
+    private final Set<String> subscribers;
+    private final List<BusRule> subscriptions;
+    
+    public BusMessage(String topic, OntologyEvent event, Set<String> subscribers, List<BusRule> subscriptions) {
+        this.topic = topic;
+        this.event = event;
+        this.subscribers = subscribers;
+        this.subscriptions = subscriptions;
+    }
+    
+    public String getTopic() { return topic; }
+    public OntologyEvent getEvent() { return event; }
+    public Set<String> getSubscribers() { return subscribers; }
+    public List<BusRule> getSubscriptions() { return subscriptions; }
+}
+
+// 订阅规则: rule_library.yml 的 subscriptions 条目编译而来, 守卫即订阅过滤条件
+class BusRule {
+    private final String id;
+    private final String topic;
+    private final Predicate<BusDelivery> when;
+    private final Consumer<BusDelivery>[] actions;
+    
+    public BusRule(String id, String topic, Predicate<BusDelivery> when, Consumer<BusDelivery>[] actions) {
+        this.id = id;
+        this.topic = topic;
+        this.when = when;
+        this.actions = actions;
+    }
+    
+    public void fire(BusDelivery delivery) {
+        for (Consumer<BusDelivery> action : actions) {
+            action.accept(delivery);
+        }
+    }
+    
+    public String getId() { return id; }
+    public String getTopic() { return topic; }
+    public Predicate<BusDelivery> getWhen() { return when; }
+}
+
+// 投递给订阅项目的上游事件; project 为订阅项目, upstream 为发布事件的项目
+class BusDelivery {
+    private final BusRule rule;
+    private final ProjectContext ctx;
+    private final OntologyEvent event;
+    
+    public BusDelivery(BusRule rule, ProjectContext ctx, OntologyEvent event) {
+        this.rule = rule;
+        this.ctx = ctx;
+        this.event = event;
+    }
+    
+    public ProjectContext getContext() { return ctx; }
+    public String getRuleId() { return rule.getId(); }
+    public String getProjectId() { return ctx.getProjectId(); }
+    public String getUpstream() { return event.getProjectId(); }
+    public String getObjectId() { return event.getObjectId(); }
+    public String getObjectType() { return event.getObjectType(); }
+    public String getAttribute() { return event.getAttribute(); }
+    public String getOldValue() { return event.getOldValue(); }
+    public String getNewValue() { return event.getNewValue(); }
+}
+
+// ==================== 持久化 ====================
+
+// 追加式事件日志: 记录格式 [长度][CRC32][LSN][类型][负载], 按段存放为 events-<首个LSN>.log.
+// 调用方在自己的线程里编码, 只在锁内分配 LSN 并入队; 单个写线程把队列里积攒的记录合并成
+// 一次 FileChannel 写入 (组提交), 再按 FsyncPolicy 决定何时 force
+class EventLog {
+    static final byte EVENT = 1;
+    static final byte PROJECT_CREATE = 2;
+    static final byte PROJECT_TEMPLATE = 3;
+    static final byte PROJECT_DELETE = 4;
+    static final byte PROJECT_STATUS = 5;
+    static final byte PROJECT_PHASE = 6;
+    static final byte LINK = 7;
+    static final byte UNLINK = 8;
+    static final byte ARTIFACT_ADD = 9;
+    static final byte ARTIFACT_REMOVE = 10;
+    static final byte RESOURCE_ADD = 11;
+    static final byte RESOURCE_HOLDING = 12;
+    static final byte PROJECT_ARCHIVE = 13;
+    static final byte PROJECT_HYDRATE = 14;
+    static final byte PROJECT_DEPEND = 15;
+    static final byte PROJECT_UNDEPEND = 16;
+    
+    static final long SEGMENT_BYTES = 256L << 20;
+    static final int HEADER_BYTES = 8;  // 长度 + CRC32
+    private static final int QUEUE_CAPACITY = 1 << 16;
+    private static final int MAX_BATCH = 8192;
+    private static final String SEGMENT_PREFIX = "events-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    
+    private final Path directory;
+    private final BlockingQueue<PendingRecord> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final ThreadLocal<LogRecordBuffer> buffers = ThreadLocal.withInitial(LogRecordBuffer::new);
+    private final Thread writer;
+    private long nextLsn;
+    
+    // 刷盘策略: BATCH 下累计 syncEveryRecords 条或间隔 syncIntervalMillis 毫秒刷一次
+    private volatile FsyncPolicy fsyncPolicy;
+    private volatile int syncEveryRecords = 4096;
+    private volatile long syncIntervalMillis = 50;
+    
+    // 以下由写线程独占
+    private FileChannel channel;
+    private final ByteBuffer out = ByteBuffer.allocateDirect(1 << 20);
+    private final CRC32 crc = new CRC32();
+    private long lastWritten;
+    private long segmentBytes;
+    
+    private volatile long segmentStart;
+    private volatile long writtenLsn;
+    private volatile long durableLsn;
+    private final Object durable = new Object();
+    private volatile boolean running = true;
+    private volatile IOException failure;
+    
+    // 统计
+    private final AtomicLong appendedRecords = new AtomicLong();
+    private final AtomicLong writtenBytes = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong syncs = new AtomicLong();
+    
+    private EventLog(Path directory, long nextLsn, FsyncPolicy fsyncPolicy) {
+        this.directory = directory;
+        this.nextLsn = nextLsn;
+        this.fsyncPolicy = fsyncPolicy;
+        this.lastWritten = nextLsn - 1;
+        this.writtenLsn = nextLsn - 1;
+        this.durableLsn = nextLsn - 1;
+        this.writer = new Thread(this::writeLoop, "event-log-writer");
+        this.writer.setDaemon(true);
+    }
+    
+    // 在 nextLsn 处开新段; 恢复后从不向旧段追加, 旧段尾部的残缺记录因此无需截断
+    public static EventLog open(Path directory, long nextLsn, FsyncPolicy fsyncPolicy) throws IOException {
+        EventLog log = new EventLog(directory, nextLsn, fsyncPolicy);
+        log.openSegment(nextLsn);
+        log.writer.start();
+        return log;
+    }
+    
+    public void configure(FsyncPolicy policy, int everyRecords, long intervalMillis) {
+        if (everyRecords <= 0 || intervalMillis <= 0) {
+            throw new IllegalArgumentException("刷盘批量与间隔必须大于0");
+        }
+        this.syncEveryRecords = everyRecords;
+        this.syncIntervalMillis = intervalMillis;
+        this.fsyncPolicy = policy;
+    }
+    
+    public void appendEvent(OntologyEvent event) {
+        append(begin(EVENT)
+            .putString(event.getProjectId())
+            .putString(event.getObjectId())
+            .putString(event.getObjectType())
+            .putString(event.getAttribute())
+            .putString(event.getOldValue())
+            .putString(event.getNewValue())
+            .putLong(event.getTimestamp()));
+    }
+    
+    public void appendProjectCreated(ProjectContext ctx) {
+        append(begin(PROJECT_CREATE)
+            .putString(ctx.getProjectId())
+            .putString(ctx.getProjectName())
+            .putString(ctx.getMode().name())
+            .putInt(ctx.getPriority()));
+    }
+    
+    public void appendTemplate(String projectId, String templateId) {
+        append(begin(PROJECT_TEMPLATE).putString(projectId).putString(templateId));
+    }
+    
+    public void appendProjectDeleted(String projectId) {
+        append(begin(PROJECT_DELETE).putString(projectId));
+    }
+    
+    public void appendArchived(String projectId, boolean archived) {
+        append(begin(archived ? PROJECT_ARCHIVE : PROJECT_HYDRATE).putString(projectId));
+    }
+    
+    public void appendDependency(String subscriber, String upstream, boolean added) {
+        append(begin(added ? PROJECT_DEPEND : PROJECT_UNDEPEND).putString(subscriber).putString(upstream));
+    }
+    
+    public void appendStatus(String projectId, ProjectStatus status) {
+        append(begin(PROJECT_STATUS).putString(projectId).putString(status.name()));
+    }
+    
+    public void appendPhase(String projectId, Phase phase) {
+        append(begin(PROJECT_PHASE).putString(projectId).putString(phase.name()));
+    }
+    
+    public void appendLink(String projectId, String sourceId, String relationshipId, String targetId, boolean added) {
+        append(begin(added ? LINK : UNLINK)
+            .putString(projectId).putString(sourceId).putString(relationshipId).putString(targetId));
+    }
+    
+    public void appendArtifact(String projectId, String name, boolean added) {
+        append(begin(added ? ARTIFACT_ADD : ARTIFACT_REMOVE).putString(projectId).putString(name));
+    }
+    
+    public void appendResource(String resourceId, String name, long capacity) {
+        append(begin(RESOURCE_ADD).putString(resourceId).putString(name).putLong(capacity));
+    }
+    
+    // 持有量记录为变化后的绝对值, 重复应用结果不变
+    public void appendHolding(String resourceId, String projectId, long held) {
+        append(begin(RESOURCE_HOLDING).putString(resourceId).putString(projectId).putLong(held));
+    }
+    
+    private LogRecordBuffer begin(byte type) {
+        LogRecordBuffer record = buffers.get();
+        record.reset();
+        return record.putByte(type);
+    }
+    
+    // 写线程失败后拒绝新记录 (抛出 IllegalStateException), 不再静默丢弃
+    private void append(LogRecordBuffer record) {
+        checkFailure();
+        // 关闭后 (进程退出途中) 的写入不再记录
+        if (!running) return;
+        byte[] body = record.toByteArray();
+        long lsn;
+        synchronized (this) {
+            lsn = nextLsn++;
+            put(new PendingRecord(lsn, body, null));
+        }
+        appendedRecords.incrementAndGet();
+        if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+            awaitDurable(lsn);
+        }
+    }
+    
+    // 切换到新段: 写线程刷盘并打开新段后以新段首个 LSN 完成, 之前的记录都在已关闭的旧段中
+    public CompletableFuture<Long> roll() {
+        CompletableFuture<Long> rolled = new CompletableFuture<>();
+        if (failure != null || !running) {
+            rolled.completeExceptionally(new IllegalStateException(failure != null
+                ? "事件日志写入失败: " + failure.getMessage() : "事件日志已关闭"));
+            return rolled;
+        }
+        synchronized (this) {
+            put(new PendingRecord(nextLsn, null, rolled));
+        }
+        return rolled;
+    }
+    
+    // 队列满时限时等待并复查写线程状态: 写线程失败或退出后不会再有空位, 不能无限阻塞
+    private void put(PendingRecord record) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    if (queue.offer(record, 100, TimeUnit.MILLISECONDS)) break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+                checkFailure();
+                if (!writer.isAlive()) {
+                    throw new IllegalStateException("事件日志写线程已停止");
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+    
+    private void checkFailure() {
+        IOException cause = failure;
+        if (cause != null) {
+            throw new IllegalStateException("事件日志写入失败, 记录未保存: " + cause.getMessage(), cause);
+        }
+    }
+    
+    private void awaitDurable(long lsn) {
+        synchronized (durable) {
+            while (durableLsn < lsn && failure == null && writer.isAlive()) {
+                try {
+                    durable.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+        if (failure != null) {
+            throw new IllegalStateException("事件日志写入失败: " + failure.getMessage());
+        }
+    }
+    
+    private void writeLoop() {
+        List<PendingRecord> batch = new ArrayList<>(MAX_BATCH);
+        long unsynced = 0;
+        long lastSync = System.nanoTime();
+        try {
+            while (running || !queue.isEmpty()) {
+                PendingRecord first = queue.poll(pollMillis(), TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, MAX_BATCH - 1);
+                    for (PendingRecord record : batch) {
+                        if (record.body == null || segmentBytes >= SEGMENT_BYTES) {
+                            sync();
+                            unsynced = 0;
+                            lastSync = System.nanoTime();
+                            openSegment(record.lsn);
+                            if (record.body == null) {
+                                record.rolled.complete(record.lsn);
+                                continue;
+                            }
+                        }
+                        write(record);
+                        unsynced++;
+                    }
+                    flush();
+                    batches.incrementAndGet();
+                    batch.clear();
+                }
+                if (unsynced > 0 && shouldSync(unsynced, lastSync)) {
+                    sync();
+                    unsynced = 0;
+                    lastSync = System.nanoTime();
+                }
+            }
+            sync();
+        } catch (IOException e) {
+            failure = e;
+            System.out.println("❌ 事件日志写入失败: " + e.getMessage() + " (此后的写入将报错, 未落盘的 "
+                + (batch.size() + queue.size()) + " 条记录丢失)");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            running = false;
+            // 未写出的记录不再处理; 等待切换段的调用方随之失败
+            queue.drainTo(batch);
+            for (PendingRecord record : batch) {
+                if (record.rolled != null) record.rolled.completeExceptionally(new IllegalStateException("事件日志已关闭"));
+            }
+            try {
+                if (channel != null) channel.close();
+            } catch (IOException ignored) {
+            }
+            synchronized (durable) {
+                durable.notifyAll();
+            }
+        }
+    }
+    
+    private long pollMillis() {
+        return fsyncPolicy == FsyncPolicy.BATCH ? syncIntervalMillis : 100;
+    }
+    
+    private boolean shouldSync(long unsynced, long lastSync) {
+        switch (fsyncPolicy) {
+            case ALWAYS:
+                return true;
+            case BATCH:
+                return unsynced >= syncEveryRecords
+                    || System.nanoTime() - lastSync >= syncIntervalMillis * 1_000_000L;
+            case NEVER:
+            default:
+                return false;
+        }
+    }
+    
+    private void write(PendingRecord record) throws IOException {
+        int length = Long.BYTES + record.body.length;
+        if (HEADER_BYTES + length > out.remaining()) {
+            flush();
+        }
+        // 超过缓冲区的大记录单独写出
+        ByteBuffer target = HEADER_BYTES + length <= out.remaining() ? out : ByteBuffer.allocate(HEADER_BYTES + length);
+        int start = target.position();
+        target.putInt(length).putInt(0).putLong(record.lsn).put(record.body);
+        crc.reset();
+        crc.update(target.duplicate().position(start + HEADER_BYTES).limit(target.position()));
+        target.putInt(start + Integer.BYTES, (int) crc.getValue());
+        if (target != out) {
+            target.flip();
+            writeFully(target);
+        }
+        lastWritten = record.lsn;
+        segmentBytes += HEADER_BYTES + length;
+    }
+    
+    private void flush() throws IOException {
+        out.flip();
+        writeFully(out);
+        out.clear();
+        writtenLsn = lastWritten;
+    }
+    
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            writtenBytes.addAndGet(channel.write(buffer));
+        }
+    }
+    
+    private void sync() throws IOException {
+        flush();
+        channel.force(false);
+        syncs.incrementAndGet();
+        durableLsn = writtenLsn;
+        synchronized (durable) {
+            durable.notifyAll();
+        }
+    }
+    
+    private void openSegment(long firstLsn) throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+        channel = FileChannel.open(segmentPath(directory, firstLsn),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        segmentStart = firstLsn;
+        segmentBytes = 0;
+    }
+    
+    // 停止接收新记录, 写出并刷盘已入队的记录
+    public void close() {
+        running = false;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    static Path segmentPath(Path directory, long firstLsn) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, firstLsn, SEGMENT_SUFFIX));
+    }
+    
+    static long firstLsnOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+    
+    // 目录中的日志段, 按首个 LSN 升序
+    static List<Path> segments(Path directory) throws IOException {
+        List<Path> result = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(result::add);
+        }
+        result.sort(Comparator.comparingLong(EventLog::firstLsnOf));
+        return result;
+    }
+    
+    // 映射并顺序扫描一个段, LSN >= fromLsn 的记录交给 handler; 长度、校验和或 LSN 不连续处视为残缺尾部.
+    // 返回最后一条完整记录之后的 LSN (空段返回段首 LSN)
+    static long scan(Path segment, long fromLsn, LogRecordHandler handler) throws IOException {
+        long next = firstLsnOf(segment);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("日志段过大: " + segment);
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            LogRecordReader reader = new LogRecordReader(buffer);
+            CRC32 crc = new CRC32();
+            int position = 0;
+            while (size - position >= HEADER_BYTES + Long.BYTES + 1) {
+                int length = buffer.getInt(position);
+                if (length < Long.BYTES + 1 || length > size - position - HEADER_BYTES) break;
+                int end = position + HEADER_BYTES + length;
+                crc.reset();
+                crc.update(buffer.duplicate().position(position + HEADER_BYTES).limit(end));
+                if ((int) crc.getValue() != buffer.getInt(position + Integer.BYTES)) break;
+                long lsn = buffer.getLong(position + HEADER_BYTES);
+                if (lsn != next) break;
+                
+                if (lsn >= fromLsn) {
+                    buffer.limit(end).position(position + HEADER_BYTES + Long.BYTES);
+                    handler.accept(lsn, buffer.get(), reader);
+                    buffer.limit((int) size);
+                }
+                position = end;
+                next = lsn + 1;
+            }
+            if (position < size) {
+                System.err.println("⚠ 日志段 " + segment.getFileName() + " 尾部 " + (size - position) + " 字节残缺, 已忽略");
+            }
+        }
+        return next;
+    }
+    
+    public synchronized long getNextLsn() { return nextLsn; }
+    public long getDurableLsn() { return durableLsn; }
+    public long getSegmentStart() { return segmentStart; }
+    public FsyncPolicy getFsyncPolicy() { return fsyncPolicy; }
+    public int getSyncEveryRecords() { return syncEveryRecords; }
+    public long getSyncIntervalMillis() { return syncIntervalMillis; }
+    public long getAppendedRecords() { return appendedRecords.get(); }
+    public long getWrittenBytes() { return writtenBytes.get(); }
+    public long getBatches() { return batches.get(); }
+    public long getSyncs() { return syncs.get(); }
+    public int getPending() { return queue.size(); }
+    public boolean isRunning() { return running; }
+    public IOException getFailure() { return failure; }
+}
+
+// 待写入的日志记录; body 为 null 表示切换段
+class PendingRecord {
+    final long lsn;
+    final byte[] body;
+    final CompletableFuture<Long> rolled;
+    
+    PendingRecord(long lsn, byte[] body, CompletableFuture<Long> rolled) {
+        this.lsn = lsn;
+        this.body = body;
+        this.rolled = rolled;
+    }
+}
+
+// 日志记录处理: 调用时 body 已定位到类型字节之后
+interface LogRecordHandler {
+    void accept(long lsn, byte type, LogRecordReader body);
+}
+
+// 记录编码缓冲, 每个线程一个并复用; 整数按大端序, 字符串为 [长度][UTF-8], null 长度记为 -1
+class LogRecordBuffer {
+    private byte[] bytes = new byte[256];
+    private int size;
+    
+    public void reset() {
+        size = 0;
+    }
+    
+    public LogRecordBuffer putByte(byte value) {
+        ensure(1);
+        bytes[size++] = value;
+        return this;
+    }
+    
+    public LogRecordBuffer putInt(int value) {
+        ensure(Integer.BYTES);
+        bytes[size++] = (byte) (value >>> 24);
+        bytes[size++] = (byte) (value >>> 16);
+        bytes[size++] = (byte) (value >>> 8);
+        bytes[size++] = (byte) value;
+        return this;
+    }
+    
+    public LogRecordBuffer putLong(long value) {
+        putInt((int) (value >>> 32));
+        return putInt((int) value);
+    }
+    
+    public LogRecordBuffer putString(String value) {
+        if (value == null) return putInt(-1);
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        putInt(utf8.length);
+        ensure(utf8.length);
+        System.arraycopy(utf8, 0, bytes, size, utf8.length);
+        size += utf8.length;
+        return this;
+    }
+    
+    public byte[] toByteArray() {
+        return Arrays.copyOf(bytes, size);
+    }
+    
+    private void ensure(int extra) {
+        if (size + extra > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(size + extra, bytes.length * 2));
+        }
+    }
+}
+
+// 记录解码: 在映射的日志段上顺序读取
+class LogRecordReader {
+    private final ByteBuffer buffer;
+    private byte[] scratch = new byte[64];
+    
+    public LogRecordReader(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+    
+    public int getInt() { return buffer.getInt(); }
+    public long getLong() { return buffer.getLong(); }
+    
+    public String getString() {
+        int length = buffer.getInt();
+        if (length < 0) return null;
+        if (length > scratch.length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        buffer.get(scratch, 0, length);
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+}
+
+// 项目持久化: 启动时加载最新快照, 只重放快照之后的日志; 重放直接写入存储, 不触发规则.
+// 快照不暂停写入: 先让日志切到新段 (首个 LSN 记为 R), 再逐个项目在对象锁内复制状态.
+// 状态总是先于对应日志记录生效, 所以 R 之前的记录都已反映在快照里; R 之后的记录可能已部分反映,
+// 但每条记录写的都是绝对值 (属性新值、持有量、状态), 重复应用结果不变
+class ProjectPersistence {
+    private static final int SNAPSHOT_MAGIC = 0x4F4E5453;  // "ONTS"
+    private static final int SNAPSHOT_VERSION = 4;
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+    private static final long DEFAULT_SNAPSHOT_RECORDS = 1_000_000;
+    
+    private final Path directory;
+    private final ProjectManager projectManager;
+    private final TemplateManager templateManager;
+    private final ScheduledExecutorService snapshotter;
+    private final AtomicBoolean snapshotting = new AtomicBoolean(false);
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private volatile EventLog log;
+    private volatile long snapshotLsn;
+    private volatile long snapshotEveryRecords = DEFAULT_SNAPSHOT_RECORDS;
+    
+    // 统计
+    private long recoveredRecords;
+    private long recoveryMillis;
+    private volatile long lastSnapshotMillis;
+    private volatile long lastSnapshotBytes;
+    
+    // 重放缓存: 连续的记录通常属于同一项目
+    private ProjectContext replayProject;
+    
+    public ProjectPersistence(Path directory, ProjectManager projectManager, TemplateManager templateManager) {
+        this.directory = directory;
+        this.projectManager = projectManager;
+        this.templateManager = templateManager;
+        this.snapshotter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "snapshot-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    // 恢复后开始记录, 之后每秒检查一次是否需要自动快照
+    public void open(FsyncPolicy policy) throws IOException {
+        Files.createDirectories(directory);
+        long start = System.nanoTime();
+        long next;
+        // 重放期间屏蔽项目创建、模板初始化等逐条输出
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            next = recover();
+        } finally {
+            System.setOut(console);
+        }
+        recoveryMillis = (System.nanoTime() - start) / 1_000_000;
+        
+        log = EventLog.open(directory, next, policy);
+        projectManager.attachEventLog(log);
+        snapshotter.scheduleWithFixedDelay(this::snapshotIfDue, 1, 1, TimeUnit.SECONDS);
+        
+        System.out.println("💾 持久化目录: " + directory.toAbsolutePath() + " (刷盘策略 " + policy + ")");
+        System.out.println("   恢复 " + projectManager.getProjects().size() + " 个项目 (另有 "
+            + projectManager.getArchivedProjects().size() + " 个归档): 快照 LSN " + snapshotLsn
+            + ", 重放 " + recoveredRecords + " 条日志, 耗时 " + recoveryMillis + " ms");
+    }
+    
+    // 加载最新快照并重放其后的日志段, 返回下一个 LSN
+    public long recover() throws IOException {
+        long next = 0;
+        Path snapshot = latestSnapshot();
+        if (snapshot != null) {
+            next = loadSnapshot(snapshot);
+            snapshotLsn = next;
+        }
+        
+        List<Path> segments = EventLog.segments(directory);
+        for (int i = 0; i < segments.size(); i++) {
+            // 下一段的首个 LSN 不超过快照点, 说明本段完全在快照之前
+            if (i + 1 < segments.size() && EventLog.firstLsnOf(segments.get(i + 1)) <= next) continue;
+            long first = EventLog.firstLsnOf(segments.get(i));
+            if (first > next) {
+                System.err.println("⚠ 日志缺口: LSN " + next + " ~ " + (first - 1) + " 已丢失");
+            }
+            next = Math.max(next, EventLog.scan(segments.get(i), next, this::apply));
+        }
+        replayProject = null;
+        
+        // 等待队列不持久化, 恢复后等待中的项目回到 ACTIVE
+        for (ProjectContext ctx : projectManager.getProjects()) {
+            if (ctx.getStatus() == ProjectStatus.WAITING) {
+                ctx.setStatus(ProjectStatus.ACTIVE);
+            }
+            ctx.rebuildViews();
+            ctx.rebuildJoins();
+        }
+        return next;
+    }
+    
+    private void apply(long lsn, byte type, LogRecordReader body) {
+        recoveredRecords++;
+        ResourceScheduler resources = projectManager.getResourceScheduler();
+        switch (type) {
+            case EventLog.EVENT: {
+                ProjectContext ctx = project(body.getString());
+                String objectId = body.getString();
+                String objectType = body.getString();
+                String attribute = body.getString();
+                String oldValue = body.getString();
+                String value = body.getString();
+                long timestamp = body.getLong();
+                if (ctx != null) ctx.replayEvent(objectId, objectType, attribute, oldValue, value, timestamp);
+                break;
+            }
+            case EventLog.PROJECT_CREATE: {
+                String projectId = body.getString();
+                String name = body.getString();
+                WorkflowMode mode = WorkflowMode.valueOf(body.getString());
+                int priority = body.getInt();
+                if (!projectManager.hasProject(projectId)) {
+                    projectManager.createProject(projectId, name, mode, priority);
+                }
+                break;
+            }
+            case EventLog.PROJECT_TEMPLATE: {
+                ProjectContext ctx = project(body.getString());
+                String templateId = body.getString();
+                if (ctx != null && ctx.getTemplateId() == null) {
+                    templateManager.applyTemplate(ctx, templateId);
+                }
+                break;
+            }
+            case EventLog.PROJECT_DELETE:
+                projectManager.deleteProject(body.getString());
+                replayProject = null;
+                break;
+            case EventLog.PROJECT_STATUS: {
+                ProjectContext ctx = project(body.getString());
+                ProjectStatus status = ProjectStatus.valueOf(body.getString());
+                if (ctx != null) ctx.setStatus(status);
+                break;
+            }
+            case EventLog.PROJECT_PHASE: {
+                ProjectContext ctx = project(body.getString());
+                Phase phase = Phase.valueOf(body.getString());
+                if (ctx != null) ctx.setCurrentPhase(phase);
+                break;
+            }
+            case EventLog.LINK:
+            case EventLog.UNLINK: {
+                ProjectContext ctx = project(body.getString());
+                String sourceId = body.getString();
+                String relationshipId = body.getString();
+                String targetId = body.getString();
+                if (ctx != null) ctx.replayLink(sourceId, relationshipId, targetId, type == EventLog.LINK);
+                break;
+            }
+            case EventLog.ARTIFACT_ADD:
+            case EventLog.ARTIFACT_REMOVE: {
+                ProjectContext ctx = project(body.getString());
+                String name = body.getString();
+                if (ctx == null) break;
+                if (type == EventLog.ARTIFACT_ADD) {
+                    ctx.getArtifacts().add(name);
+                } else {
+                    ctx.getArtifacts().remove(name);
+                }
+                break;
+            }
+            case EventLog.RESOURCE_ADD:
+                resources.restoreResource(body.getString(), body.getString(), body.getLong());
+                break;
+            case EventLog.RESOURCE_HOLDING: {
+                String resourceId = body.getString();
+                ProjectContext ctx = project(body.getString());
+                long held = body.getLong();
+                if (ctx != null) resources.restoreHolding(resourceId, ctx, held);
+                break;
+            }
+            case EventLog.PROJECT_ARCHIVE:
+                projectManager.restoreArchived(body.getString());
+                replayProject = null;
+                break;
+            case EventLog.PROJECT_HYDRATE:
+                project(body.getString());
+                break;
+            case EventLog.PROJECT_DEPEND:
+            case EventLog.PROJECT_UNDEPEND:
+                projectManager.restoreDependency(body.getString(), body.getString(), type == EventLog.PROJECT_DEPEND);
+                break;
+            default:
+                throw new IllegalStateException("未知日志记录类型 " + type + " (LSN " + lsn + ")");
+        }
+    }
+    
+    private ProjectContext project(String projectId) {
+        ProjectContext ctx = replayProject;
+        if (ctx == null || !ctx.getProjectId().equals(projectId)) {
+            ctx = projectManager.getProject(projectId);
+            replayProject = ctx;
+        }
+        return ctx;
+    }
+    
+    // 写快照并返回快照 LSN; 完成后删除更早的快照与日志段
+    public long snapshot() throws IOException {
+        EventLog current = log;
+        if (current == null) {
+            throw new IllegalStateException("持久化未打开");
+        }
+        if (!snapshotting.compareAndSet(false, true)) {
+            throw new IllegalStateException("快照正在进行");
+        }
+        try {
+            long start = System.nanoTime();
+            long lsn = current.roll().join();
+            Path target = snapshotPath(lsn);
+            Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+            // 先取归档列表: 期间被载回的项目会同时出现在两处, 恢复时以其后的日志为准
+            List<String> archivedIds = projectManager.getArchivedProjects().stream()
+                .map(ArchivedProject::getProjectId).collect(Collectors.toList());
+            List<ProjectContext> projects = new ArrayList<>(projectManager.getProjects());
+            
+            try (FileChannel channel = FileChannel.open(temp,
+                     StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16))) {
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeInt(SNAPSHOT_VERSION);
+                out.writeLong(lsn);
+                
+                out.writeInt(projects.size());
+                for (ProjectContext ctx : projects) {
+                    writeString(out, ctx.getProjectId());
+                    writeString(out, ctx.getProjectName());
+                    writeString(out, ctx.getMode().name());
+                    out.writeInt(ctx.getPriority());
+                    writeString(out, ctx.getTemplateId());
+                    // 先在内存中复制, 缩短持有对象锁的时间
+                    ByteArrayOutputStream state = new ByteArrayOutputStream();
+                    ctx.writeSnapshot(new DataOutputStream(state));
+                    out.writeInt(state.size());
+                    state.writeTo(out);
+                }
+                writeStrings(out, archivedIds);
+                
+                List<ResourcePool> pools = new ArrayList<>(projectManager.getResourceScheduler().getPools());
+                out.writeInt(pools.size());
+                for (ResourcePool pool : pools) {
+                    writeString(out, pool.getId());
+                    writeString(out, pool.getName());
+                    out.writeLong(pool.getCapacity());
+                    Map<String, Long> holdings = new LinkedHashMap<>();
+                    for (ProjectContext ctx : projects) {
+                        long held = pool.heldForSnapshot(ctx.getProjectId());
+                        if (held > 0) holdings.put(ctx.getProjectId(), held);
+                    }
+                    out.writeInt(holdings.size());
+                    for (Map.Entry<String, Long> holding : holdings.entrySet()) {
+                        writeString(out, holding.getKey());
+                        out.writeLong(holding.getValue());
+                    }
+                }
+                
+                Map<String, Set<String>> dependents = projectManager.getEventBus().getDependents();
+                out.writeInt(dependents.size());
+                for (Map.Entry<String, Set<String>> entry : dependents.entrySet()) {
+                    writeString(out, entry.getKey());
+                    writeStrings(out, entry.getValue());
+                }
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.flush();
+                channel.force(true);
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            snapshotLsn = lsn;
+            
+            for (Path old : snapshots()) {
+                if (lsnOf(old) < lsn) Files.deleteIfExists(old);
+            }
+            for (Path segment : EventLog.segments(directory)) {
+                if (EventLog.firstLsnOf(segment) < lsn) Files.deleteIfExists(segment);
+            }
+            lastSnapshotBytes = Files.size(target);
+            lastSnapshotMillis = (System.nanoTime() - start) / 1_000_000;
+            return lsn;
+        } finally {
+            snapshotting.set(false);
+        }
+    }
+    
+    private long loadSnapshot(Path snapshot) throws IOException {
+        ResourceScheduler resources = projectManager.getResourceScheduler();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot), 1 << 16))) {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                throw new IOException("快照格式不符: " + snapshot);
+            }
+            long lsn = in.readLong();
+            
+            int projectCount = in.readInt();
+            for (int i = 0; i < projectCount; i++) {
+                String projectId = readString(in);
+                String name = readString(in);
+                WorkflowMode mode = WorkflowMode.valueOf(readString(in));
+                int priority = in.readInt();
+                String templateId = readString(in);
+                byte[] state = new byte[in.readInt()];
+                in.readFully(state);
+                
+                ProjectContext ctx = projectManager.createProject(projectId, name, mode, priority);
+                if (templateId != null) {
+                    templateManager.applyTemplate(ctx, templateId);
+                }
+                ctx.readSnapshot(new DataInputStream(new ByteArrayInputStream(state)));
+            }
+            int archivedCount = in.readInt();
+            for (int i = 0; i < archivedCount; i++) {
+                projectManager.restoreArchived(readString(in));
+            }
+            
+            int poolCount = in.readInt();
+            for (int i = 0; i < poolCount; i++) {
+                String resourceId = readString(in);
+                resources.restoreResource(resourceId, readString(in), in.readLong());
+                int holdings = in.readInt();
+                for (int h = 0; h < holdings; h++) {
+                    ProjectContext ctx = projectManager.getProject(readString(in));
+                    long held = in.readLong();
+                    if (ctx != null) resources.restoreHolding(resourceId, ctx, held);
+                }
+            }
+            
+            int upstreamCount = in.readInt();
+            for (int i = 0; i < upstreamCount; i++) {
+                String upstream = readString(in);
+                int subscribers = in.readInt();
+                for (int s = 0; s < subscribers; s++) {
+                    projectManager.restoreDependency(readString(in), upstream, true);
+                }
+            }
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("快照不完整: " + snapshot);
+            }
+            return lsn;
+        }
+    }
+    
+    private void snapshotIfDue() {
+        EventLog current = log;
+        if (current == null || snapshotting.get()) return;
+        if (current.getNextLsn() - snapshotLsn < snapshotEveryRecords) return;
+        try {
+            snapshot();
+        } catch (IOException | RuntimeException e) {
+            System.out.println("❌ 自动快照失败: " + e.getMessage());
+        }
+    }
+    
+    // 退出时写最终快照, 下次启动无需重放日志
+    public void close() {
+        if (!closed.compareAndSet(false, true)) return;
+        snapshotter.shutdownNow();
+        EventLog current = log;
+        if (current == null) return;
+        if (current.getNextLsn() > snapshotLsn) {
+            try {
+                snapshot();
+            } catch (IOException | RuntimeException e) {
+                System.out.println("❌ 退出快照失败: " + e.getMessage());
+            }
+        }
+        current.close();
+    }
+    
+    public void setSnapshotEveryRecords(long records) {
+        if (records <= 0) {
+            throw new IllegalArgumentException("快照间隔必须大于0: " + records);
+        }
+        this.snapshotEveryRecords = records;
+    }
+    
+    public EventLog getLog() {
+        return log;
+    }
+    
+    public void showStatus() {
+        EventLog current = log;
+        System.out.println("\n💾 持久化状态:");
+        System.out.println("  目录: " + directory.toAbsolutePath());
+        if (current == null) {
+            System.out.println("  (未打开)");
+            return;
+        }
+        String policy = current.getFsyncPolicy().name();
+        if (current.getFsyncPolicy() == FsyncPolicy.BATCH) {
+            policy += " (每 " + current.getSyncEveryRecords() + " 条或 " + current.getSyncIntervalMillis() + " ms)";
+        }
+        System.out.println("  刷盘策略: " + policy);
+        if (current.getFailure() != null) {
+            System.out.println("  ❌ 写线程已失败: " + current.getFailure().getMessage() + " (新的修改不会被记录)");
+        }
+        System.out.println("  日志: 下一 LSN " + current.getNextLsn() + ", 已落盘 LSN " + current.getDurableLsn()
+            + ", 当前段 " + EventLog.segmentPath(directory, current.getSegmentStart()).getFileName()
+            + ", 排队 " + current.getPending());
+        long batches = current.getBatches();
+        System.out.printf("  写入: %d 条记录, %.1f MB, %d 批 (平均 %.1f 条/批), %d 次刷盘%n",
+            current.getAppendedRecords(), current.getWrittenBytes() / 1048576.0, batches,
+            batches > 0 ? current.getAppendedRecords() / (double) batches : 0.0, current.getSyncs());
+        System.out.println("  快照: LSN " + snapshotLsn + (lastSnapshotBytes > 0
+            ? ", " + lastSnapshotBytes / 1024 + " KB, 耗时 " + lastSnapshotMillis + " ms" : "")
+            + ", 每 " + snapshotEveryRecords + " 条日志自动快照");
+        System.out.println("  启动恢复: 重放 " + recoveredRecords + " 条, 耗时 " + recoveryMillis + " ms");
+    }
+    
+    private Path snapshotPath(long lsn) {
+        return directory.resolve(String.format("%s%020d%s", SNAPSHOT_PREFIX, lsn, SNAPSHOT_SUFFIX));
+    }
+    
+    private static long lsnOf(Path snapshot) {
+        String name = snapshot.getFileName().toString();
+        return Long.parseLong(name.substring(SNAPSHOT_PREFIX.length(), name.length() - SNAPSHOT_SUFFIX.length()));
+    }
+    
+    private List<Path> snapshots() throws IOException {
+        List<Path> result = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SNAPSHOT_PREFIX + "*" + SNAPSHOT_SUFFIX)) {
+            stream.forEach(result::add);
+        }
+        result.sort(Comparator.comparingLong(ProjectPersistence::lsnOf));
+        return result;
+    }
+    
+    private Path latestSnapshot() throws IOException {
+        List<Path> all = snapshots();
+        return all.isEmpty() ? null : all.get(all.size() - 1);
+    }
+    
+    static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(utf8.length);
+        out.write(utf8);
+    }
+    
+    static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) return null;
+        byte[] utf8 = new byte[length];
+        in.readFully(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+    
+    static void writeStrings(DataOutput out, Collection<String> values) throws IOException {
+        List<String> copy = new ArrayList<>(values);
+        out.writeInt(copy.size());
+        for (String value : copy) {
+            writeString(out, value);
+        }
+    }
+}
+
+// ==================== 项目归档 ====================
+
+// 只读归档: 定长记录 + 字符串表, 按需 mmap 查询, 不反序列化到堆上
+// 布局: [头部][字符串偏移 int[n+1]][字符串 UTF-8][元数据][类型表][对象表][属性值表][关系边表][事件历史]
+// 字符串表按 UTF-8 字节序排列, 引用号即序号; 对象按 (类型, ID) 排序, 每个类型是一段连续区间
+class ArchivedProject {
+    static final int MAGIC = 0x4F415243;  // "OARC"
+    static final int VERSION = 2;
+    static final int HEADER_BYTES = 60;
+    static final int TYPE_BYTES = 12;     // 类型, 首个对象, 对象数
+    static final int OBJECT_BYTES = 28;   // ID, 类型, 首个属性值, 属性值数, 传播标志, 阻塞前驱数, 恢复状态
+    static final int VALUE_BYTES = 8;     // 属性, 值
+    static final int EDGE_BYTES = 12;     // 关系, 源对象序号, 目标对象序号
+    static final int BLOCKED = 1;
+    static final int DERIVED = 2;
+    
+    private final String projectId;
+    private final Path file;
+    private volatile ByteBuffer buffer;
+    
+    // 头部 (首次映射时读取, 由 buffer 的 volatile 写发布)
+    private int stringCount;
+    private int typeCount;
+    private int objectCount;
+    private int valueCount;
+    private int edgeCount;
+    private int offsetsPos;
+    private int stringsPos;
+    private int metaPos;
+    private int typesPos;
+    private int objectsPos;
+    private int valuesPos;
+    private int edgesPos;
+    private int historyPos;
+    
+    public ArchivedProject(String projectId, Path file) {
+        this.projectId = projectId;
+        this.file = file;
+    }
+    
+    // 首次访问时映射; 映射本身不读取内容, 由操作系统按页调入
+    private ByteBuffer map() {
+        ByteBuffer mapped = buffer;
+        if (mapped != null) return mapped;
+        synchronized (this) {
+            if (buffer == null) {
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    ByteBuffer b = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                    if (b.getInt(0) != MAGIC || b.getInt(4) != VERSION) {
+                        throw new IllegalStateException("归档格式不符: " + file);
+                    }
+                    stringCount = b.getInt(8);
+                    typeCount = b.getInt(12);
+                    objectCount = b.getInt(16);
+                    valueCount = b.getInt(20);
+                    edgeCount = b.getInt(24);
+                    offsetsPos = b.getInt(28);
+                    stringsPos = b.getInt(32);
+                    metaPos = b.getInt(36);
+                    typesPos = b.getInt(40);
+                    objectsPos = b.getInt(44);
+                    valuesPos = b.getInt(48);
+                    edgesPos = b.getInt(52);
+                    historyPos = b.getInt(56);
+                    buffer = b;
+                } catch (IOException e) {
+                    throw new UncheckedIOException("无法映射归档 " + file + ": " + e.getMessage(), e);
+                }
+            }
+            return buffer;
+        }
+    }
+    
+    // ---- 字符串表 ----
+    
+    String string(int ref) {
+        if (ref < 0) return null;
+        ByteBuffer b = map();
+        int start = b.getInt(offsetsPos + ref * 4);
+        byte[] utf8 = new byte[b.getInt(offsetsPos + ref * 4 + 4) - start];
+        b.get(stringsPos + start, utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+    
+    // 二分查找字符串引用, 不存在返回 -1
+    int ref(String value) {
+        ByteBuffer b = map();
+        byte[] key = value.getBytes(StandardCharsets.UTF_8);
+        int low = 0, high = stringCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int c = compare(b, mid, key);
+            if (c < 0) low = mid + 1;
+            else if (c > 0) high = mid - 1;
+            else return mid;
+        }
+        return -1;
+    }
+    
+    private int compare(ByteBuffer b, int ref, byte[] key) {
+        int start = b.getInt(offsetsPos + ref * 4);
+        int length = b.getInt(offsetsPos + ref * 4 + 4) - start;
+        int n = Math.min(length, key.length);
+        for (int i = 0; i < n; i++) {
+            int c = (b.get(stringsPos + start + i) & 0xff) - (key[i] & 0xff);
+            if (c != 0) return c;
+        }
+        return length - key.length;
+    }
+    
+    // ---- 定长记录 ----
+    
+    private int meta(int field) { return map().getInt(metaPos + field * 4); }
+    private int typeField(int type, int field) { return map().getInt(typesPos + type * TYPE_BYTES + field * 4); }
+    private int objectField(int index, int field) { return map().getInt(objectsPos + index * OBJECT_BYTES + field * 4); }
+    private int valueField(int value, int field) { return map().getInt(valuesPos + value * VALUE_BYTES + field * 4); }
+    private int edgeField(int edge, int field) { return map().getInt(edgesPos + edge * EDGE_BYTES + field * 4); }
+    
+    public int getObjectCount() { map(); return objectCount; }
+    public int getEdgeCount() { map(); return edgeCount; }
+    public String objectId(int index) { return string(objectField(index, 0)); }
+    public String objectType(int index) { return string(objectField(index, 1)); }
+    public int valueCount(int index) { return objectField(index, 3); }
+    public String attributeAt(int index, int k) { return string(valueField(objectField(index, 2) + k, 0)); }
+    public String valueAt(int index, int k) { return string(valueField(objectField(index, 2) + k, 1)); }
+    public boolean isBlocked(int index) { return (objectField(index, 4) & BLOCKED) != 0; }
+    public boolean isDerived(int index) { return (objectField(index, 4) & DERIVED) != 0; }
+    public int pendingPredecessors(int index) { return objectField(index, 5); }
+    public String restoreStatus(int index) { return string(objectField(index, 6)); }
+    public String edgeRelationship(int edge) { return string(edgeField(edge, 0)); }
+    public int edgeSource(int edge) { return edgeField(edge, 1); }
+    public int edgeTarget(int edge) { return edgeField(edge, 2); }
+    
+    // 元数据: 项目ID, 名称, 模式, 优先级, 模板, 状态, 阶段, 产出物数, 已完成活动数, 随后是两组字符串引用
+    public String getProjectId() { return projectId; }
+    public String getProjectName() { return string(meta(1)); }
+    public WorkflowMode getMode() { return WorkflowMode.valueOf(string(meta(2))); }
+    public int getPriority() { return meta(3); }
+    public String getTemplateId() { return string(meta(4)); }
+    public ProjectStatus getStatus() { return ProjectStatus.valueOf(string(meta(5))); }
+    public Phase getCurrentPhase() { return Phase.valueOf(string(meta(6))); }
+    public Path getFile() { return file; }
+    public boolean isMapped() { return buffer != null; }
+    
+    public List<String> getArtifacts() {
+        return metaStrings(9, meta(7));
+    }
+    
+    public List<String> getCompletedActivities() {
+        return metaStrings(9 + meta(7), meta(8));
+    }
+    
+    // 事件历史按快照中的序列化格式存放在文件末尾, 只在载回或查询历史时反序列化
+    public void readHistory(EventHistory history) {
+        ByteBuffer b = map();
+        byte[] bytes = new byte[b.capacity() - historyPos];
+        b.get(historyPos, bytes);
+        try {
+            history.readFrom(new DataInputStream(new ByteArrayInputStream(bytes)));
+        } catch (IOException e) {
+            throw new UncheckedIOException("归档中的事件历史损坏 " + file + ": " + e.getMessage(), e);
+        }
+    }
+    
+    private List<String> metaStrings(int first, int count) {
+        List<String> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(string(meta(first + i)));
+        }
+        return result;
+    }
+    
+    // ---- 查询 ----
+    
+    // 类型区间内按 ID 引用二分, 返回对象序号或 -1
+    public int find(String objectId) {
+        int idRef = ref(objectId);
+        if (idRef < 0) return -1;
+        for (int t = 0; t < typeCount; t++) {
+            int low = typeField(t, 1), high = low + typeField(t, 2) - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int c = Integer.compare(objectField(mid, 0), idRef);
+                if (c < 0) low = mid + 1;
+                else if (c > 0) high = mid - 1;
+                else return mid;
+            }
+        }
+        return -1;
+    }
+    
+    public String get(String objectId, String attribute) {
+        int index = find(objectId);
+        int attrRef = ref(attribute);
+        if (index < 0 || attrRef < 0) return null;
+        int first = objectField(index, 2);
+        for (int k = 0; k < objectField(index, 3); k++) {
+            if (valueField(first + k, 0) == attrRef) return string(valueField(first + k, 1));
+        }
+        return null;
+    }
+    
+    private int typeIndex(String type) {
+        int typeRef = ref(type);
+        for (int t = 0; typeRef >= 0 && t < typeCount; t++) {
+            if (typeField(t, 0) == typeRef) return t;
+        }
+        return -1;
+    }
+    
+    public int count(String type) {
+        int t = typeIndex(type);
+        return t < 0 ? 0 : typeField(t, 2);
+    }
+    
+    // 某类型对象按属性值分组计数, 只比较引用号, 每个不同的值解码一次
+    public Map<String, Integer> histogram(String type, String attribute) {
+        Map<String, Integer> result = new TreeMap<>();
+        int t = typeIndex(type);
+        int attrRef = ref(attribute);
+        if (t < 0 || attrRef < 0) return result;
+        Map<Integer, Integer> counts = new HashMap<>();
+        int end = typeField(t, 1) + typeField(t, 2);
+        for (int index = typeField(t, 1); index < end; index++) {
+            int first = objectField(index, 2);
+            for (int k = 0; k < objectField(index, 3); k++) {
+                if (valueField(first + k, 0) == attrRef) {
+                    counts.merge(valueField(first + k, 1), 1, Integer::sum);
+                    break;
+                }
+            }
+        }
+        counts.forEach((valueRef, n) -> result.put(string(valueRef), n));
+        return result;
+    }
+    
+    public int countWithStatus(String type, String status) {
+        return histogram(type, "status").getOrDefault(status, 0);
+    }
+    
+    public void listObjects() {
+        System.out.println("\n╔════════════════════════════════════════════════════════╗");
+        System.out.println("║          项目对象列表 - " + projectId + " (归档)           ║");
+        System.out.println("╚════════════════════════════════════════════════════════╝\n");
+        
+        if (getObjectCount() == 0) {
+            System.out.println("  (无对象)");
+            return;
+        }
+        for (int t = 0; t < typeCount; t++) {
+            System.out.println("📦 " + string(typeField(t, 0)) + ":");
+            int end = typeField(t, 1) + typeField(t, 2);
+            for (int index = typeField(t, 1); index < end; index++) {
+                System.out.println("  - " + objectId(index));
+                for (int k = 0; k < valueCount(index); k++) {
+                    System.out.println("      " + attributeAt(index, k) + " = " + valueAt(index, k));
+                }
+            }
+            System.out.println();
+        }
+        System.out.println("总计: " + objectCount + " 个对象\n");
+    }
+    
+    // 关系边按 (关系, 源) 排序, 出边与入边都线性扫描一遍
+    public void showLinks(String objectId) {
+        int index = find(objectId);
+        if (index < 0) {
+            System.out.println("❌ 对象不存在: " + objectId);
+            return;
+        }
+        System.out.println("\n🔗 对象关系: " + objectId + " (归档)");
+        int count = 0;
+        for (int e = 0; e < edgeCount; e++) {
+            if (edgeSource(e) == index) {
+                System.out.println("  → " + edgeRelationship(e) + " → " + objectId(edgeTarget(e)));
+                count++;
+            }
+            if (edgeTarget(e) == index) {
+                System.out.println("  ← " + edgeRelationship(e) + " ← " + objectId(edgeSource(e)));
+                count++;
+            }
+        }
+        if (count == 0) {
+            System.out.println("  (无关系)");
+        }
+    }
+    
+    // 报表: 各类型对象数与状态分布
+    public void report() {
+        System.out.println("\n📊 归档项目报表: " + getProjectName() + " [" + projectId + "]");
+        System.out.println("  状态: " + getStatus() + ", 阶段: " + getCurrentPhase()
+            + ", 已完成活动: " + meta(8) + ", 产出物: " + meta(7));
+        for (int t = 0; t < typeCount; t++) {
+            String type = string(typeField(t, 0));
+            Map<String, Integer> statuses = histogram(type, "status");
+            System.out.println("  📦 " + type + ": " + typeField(t, 2) + " 个" + (statuses.isEmpty() ? "" : " " + statuses));
+        }
+        System.out.println("  关系边: " + edgeCount + ", 文件 " + fileSize() / 1024 + " KB");
+    }
+    
+    public long fileSize() {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+}
+
+// 归档写出: 在对象锁内收集状态, 锁外排序编码, 先写临时文件再原子替换
+class ArchiveWriter {
+    private final Map<String, byte[]> strings = new HashMap<>();
+    private final List<String[]> meta = new ArrayList<>();
+    private final List<ArchiveObject> objects = new ArrayList<>();
+    private final List<String[]> edges = new ArrayList<>();
+    private byte[] history = new byte[0];
+    private int priority;
+    private int valueTotal;
+    
+    // 元数据顺序固定: ID, 名称, 模式, 模板, 状态, 阶段
+    public void setProject(ProjectContext ctx) {
+        meta.add(new String[] {ctx.getProjectId(), ctx.getProjectName(), ctx.getMode().name(),
+            ctx.getTemplateId(), ctx.getStatus().name(), ctx.getCurrentPhase().name()});
+        meta.add(ctx.getArtifacts().toArray(new String[0]));
+        meta.add(ctx.getCompletedActivities().toArray(new String[0]));
+        this.priority = ctx.getPriority();
+        for (String[] group : meta) {
+            for (String value : group) intern(value);
+        }
+    }
+    
+    public void addObject(String objectId, String type, List<String> attributes, List<String> values,
+                          boolean blocked, boolean derived, int pending, String restoreStatus) {
+        ArchiveObject object = new ArchiveObject(intern(objectId), intern(type), attributes.size());
+        for (int k = 0; k < attributes.size(); k++) {
+            object.attributes[k] = intern(attributes.get(k));
+            object.values[k] = intern(values.get(k));
+        }
+        object.flags = (blocked ? ArchivedProject.BLOCKED : 0) | (derived ? ArchivedProject.DERIVED : 0);
+        object.pending = pending;
+        object.restoreStatus = intern(restoreStatus);
+        objects.add(object);
+        valueTotal += attributes.size();
+    }
+    
+    public void addEdge(String relationshipId, String sourceId, String targetId) {
+        intern(relationshipId);
+        edges.add(new String[] {relationshipId, sourceId, targetId});
+    }
+    
+    public void setHistory(byte[] history) {
+        this.history = history;
+    }
+    
+    private String intern(String value) {
+        if (value != null) strings.computeIfAbsent(value, v -> v.getBytes(StandardCharsets.UTF_8));
+        return value;
+    }
+    
+    public ArchivedProject write(Path target) throws IOException {
+        // 字符串按 UTF-8 字节序编号, 读取端可直接二分
+        List<Map.Entry<String, byte[]>> sorted = new ArrayList<>(strings.entrySet());
+        sorted.sort((a, b) -> Arrays.compareUnsigned(a.getValue(), b.getValue()));
+        Map<String, Integer> refs = new HashMap<>(sorted.size() * 2);
+        long blobBytes = 0;
+        for (int i = 0; i < sorted.size(); i++) {
+            refs.put(sorted.get(i).getKey(), i);
+            blobBytes += sorted.get(i).getValue().length;
+        }
+        
+        for (ArchiveObject object : objects) {
+            object.idRef = refs.get(object.id);
+            object.typeRef = refs.get(object.type);
+        }
+        objects.sort(Comparator.comparingInt((ArchiveObject o) -> o.typeRef).thenComparingInt(o -> o.idRef));
+        Map<String, Integer> position = new HashMap<>(objects.size() * 2);
+        List<int[]> types = new ArrayList<>();
+        for (int i = 0; i < objects.size(); i++) {
+            ArchiveObject object = objects.get(i);
+            position.put(object.id, i);
+            if (types.isEmpty() || types.get(types.size() - 1)[0] != object.typeRef) {
+                types.add(new int[] {object.typeRef, i, 0});
+            }
+            types.get(types.size() - 1)[2]++;
+        }
+        List<int[]> edgeRecords = new ArrayList<>(edges.size());
+        for (String[] edge : edges) {
+            edgeRecords.add(new int[] {refs.get(edge[0]), position.get(edge[1]), position.get(edge[2])});
+        }
+        edgeRecords.sort(Comparator.comparingInt((int[] e) -> e[0]).thenComparingInt(e -> e[1]).thenComparingInt(e -> e[2]));
+        
+        int metaInts = 9 + meta.get(1).length + meta.get(2).length;
+        long offsetsPos = ArchivedProject.HEADER_BYTES;
+        long stringsPos = offsetsPos + 4L * (sorted.size() + 1);
+        long metaPos = stringsPos + blobBytes;
+        long typesPos = metaPos + 4L * metaInts;
+        long objectsPos = typesPos + (long) ArchivedProject.TYPE_BYTES * types.size();
+        long valuesPos = objectsPos + (long) ArchivedProject.OBJECT_BYTES * objects.size();
+        long edgesPos = valuesPos + (long) ArchivedProject.VALUE_BYTES * valueTotal;
+        long historyPos = edgesPos + (long) ArchivedProject.EDGE_BYTES * edgeRecords.size();
+        long total = historyPos + history.length;
+        if (total > Integer.MAX_VALUE) {
+            throw new IOException("归档超过 2GB: " + total + " 字节");
+        }
+        
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp,
+                 StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16))) {
+            out.writeInt(ArchivedProject.MAGIC);
+            out.writeInt(ArchivedProject.VERSION);
+            out.writeInt(sorted.size());
+            out.writeInt(types.size());
+            out.writeInt(objects.size());
+            out.writeInt(valueTotal);
+            out.writeInt(edgeRecords.size());
+            for (long pos : new long[] {offsetsPos, stringsPos, metaPos, typesPos, objectsPos, valuesPos, edgesPos, historyPos}) {
+                out.writeInt((int) pos);
+            }
+            
+            int offset = 0;
+            for (Map.Entry<String, byte[]> entry : sorted) {
+                out.writeInt(offset);
+                offset += entry.getValue().length;
+            }
+            out.writeInt(offset);
+            for (Map.Entry<String, byte[]> entry : sorted) {
+                out.write(entry.getValue());
+            }
+            
+            String[] project = meta.get(0);
+            out.writeInt(refs.get(project[0]));
+            out.writeInt(refs.get(project[1]));
+            out.writeInt(refs.get(project[2]));
+            out.writeInt(priority);
+            out.writeInt(project[3] != null ? refs.get(project[3]) : -1);
+            out.writeInt(refs.get(project[4]));
+            out.writeInt(refs.get(project[5]));
+            out.writeInt(meta.get(1).length);
+            out.writeInt(meta.get(2).length);
+            for (int group = 1; group <= 2; group++) {
+                for (String value : meta.get(group)) out.writeInt(refs.get(value));
+            }
+            
+            for (int[] type : types) {
+                out.writeInt(type[0]);
+                out.writeInt(type[1]);
+                out.writeInt(type[2]);
+            }
+            int firstValue = 0;
+            for (ArchiveObject object : objects) {
+                out.writeInt(object.idRef);
+                out.writeInt(object.typeRef);
+                out.writeInt(firstValue);
+                out.writeInt(object.attributes.length);
+                out.writeInt(object.flags);
+                out.writeInt(object.pending);
+                out.writeInt(object.restoreStatus != null ? refs.get(object.restoreStatus) : -1);
+                firstValue += object.attributes.length;
+            }
+            for (ArchiveObject object : objects) {
+                for (int k = 0; k < object.attributes.length; k++) {
+                    out.writeInt(refs.get(object.attributes[k]));
+                    out.writeInt(refs.get(object.values[k]));
+                }
+            }
+            for (int[] edge : edgeRecords) {
+                out.writeInt(edge[0]);
+                out.writeInt(edge[1]);
+                out.writeInt(edge[2]);
+            }
+            out.write(history);
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return new ArchivedProject(meta.get(0)[0], target);
+    }
+}
+
+class ArchiveObject {
+    final String id;
+    final String type;
+    final String[] attributes;
+    final String[] values;
+    int idRef;
+    int typeRef;
+    int flags;
+    int pending;
+    String restoreStatus;
+    
+    ArchiveObject(String id, String type, int valueCount) {
+        this.id = id;
+        this.type = type;
+        this.attributes = new String[valueCount];
+        this.values = new String[valueCount];
+    }
+}
+
+// ==================== 项目执行调度 ====================
+
+// 多项目执行调度器: 项目在工作窃取线程池上并行推进, 每步执行当前阶段的一个活动
+// 或进行一次阶段转换. 按优先级加权的步幅调度 (stride scheduling) 分配份额:
+// 每步之后 pass += STRIDE / priority, 线程总是推进 pass 最小的项目
+class ProjectExecutionScheduler {
+    private static final long STRIDE = 1_000_000L;
+    
+    private final ForkJoinPool pool;
+    private final PriorityBlockingQueue<ProjectRun> runQueue;
+    private final Map<String, ProjectRun> runs;
+    private volatile long virtualTime;
+    private volatile Consumer<ProjectContext> completionListener;
+    
+    public ProjectExecutionScheduler() {
+        this.pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        this.runQueue = new PriorityBlockingQueue<>(64,
+            Comparator.comparingLong(ProjectRun::getPass).thenComparingLong(ProjectRun::getSequence));
+        this.runs = new ConcurrentHashMap<>();
+    }
+    
+    // 启动项目执行; 项目已在调度中返回 false
+    public boolean start(ProjectContext ctx) {
+        ProjectRun run = new ProjectRun(ctx, STRIDE / Math.max(1, ctx.getPriority()));
+        if (runs.putIfAbsent(ctx.getProjectId(), run) != null) {
+            return false;
+        }
+        enqueue(run);
+        return true;
+    }
+    
+    // 恢复被暂停/等待而停放的项目
+    public void resume(String projectId) {
+        ProjectRun run = runs.get(projectId);
+        if (run != null && run.unpark()) {
+            enqueue(run);
+        }
+    }
+    
+    public void cancel(String projectId) {
+        ProjectRun run = runs.remove(projectId);
+        if (run != null) {
+            run.finish();
+        }
+    }
+    
+    // 项目推进到完成时在分派线程上回调
+    public void setCompletionListener(Consumer<ProjectContext> listener) {
+        this.completionListener = listener;
+    }
+    
+    // 等待所有可运行的项目停止推进 (完成或停放)
+    public boolean awaitIdle(long timeoutMillis) {
+        return pool.awaitQuiescence(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+    
+    public void showStatus() {
+        System.out.println("\n🏃 项目执行状态:");
+        if (runs.isEmpty()) {
+            System.out.println("  (无运行中的项目)");
+            return;
+        }
+        runs.values().stream()
+            .sorted(Comparator.comparing(r -> r.getContext().getProjectId()))
+            .forEach(run -> {
+                ProjectContext ctx = run.getContext();
+                System.out.printf("  %-12s 阶段:%-12s 状态:%-9s 活动:%d/%d 步数:%d%s%n",
+                    ctx.getProjectId(), ctx.getCurrentPhase(), ctx.getStatus(),
+                    ctx.getCompletedActivities().size(), ctx.getActivities().size(),
+                    run.getSteps(), run.isParked() ? " (已停放)" : "");
+            });
+    }
+    
+    private void enqueue(ProjectRun run) {
+        // 新加入或恢复的项目从当前虚拟时间开始, 不因之前的停顿获得额外份额
+        run.catchUp(virtualTime);
+        runQueue.offer(run);
+        pool.execute(this::dispatch);
+    }
+    
+    // 每次入队对应一次分派: 总是推进 pass 最小的项目, 同一项目同一时刻只在一个线程上推进
+    private void dispatch() {
+        ProjectRun run = runQueue.poll();
+        if (run == null) return;
+        virtualTime = run.getPass();
+        
+        if (run.step()) {
+            runQueue.offer(run);
+            pool.execute(this::dispatch);
+        } else if (run.isFinished()) {
+            runs.remove(run.getContext().getProjectId(), run);
+            Consumer<ProjectContext> listener = completionListener;
+            if (listener != null && run.getContext().getStatus() == ProjectStatus.COMPLETED) {
+                listener.accept(run.getContext());
+            }
+        }
+    }
+}
+
+// 单个项目的执行状态
+class ProjectRun {
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+    
+    private final ProjectContext ctx;
+    private final long stride;
+    private final long sequence;
+    private volatile long pass;
+    private volatile long steps;
+    private final AtomicBoolean parked = new AtomicBoolean(false);
+    private volatile boolean finished;
+    
+    public ProjectRun(ProjectContext ctx, long stride) {
+        this.ctx = ctx;
+        this.stride = stride;
+        this.sequence = SEQUENCE.incrementAndGet();
+    }
+    
+    // 推进一步, 返回是否继续排队
+    public boolean step() {
+        if (finished) return false;
+        if (ctx.getStatus() == ProjectStatus.SUSPENDED || ctx.getStatus() == ProjectStatus.WAITING) {
+            parked.set(true);
+            System.out.println("  ⏸ [" + ctx.getProjectId() + "] 已停放 (" + ctx.getStatus() + ")");
+            // 停放与恢复竞争: 若状态已恢复则立即继续
+            if (ctx.getStatus() == ProjectStatus.ACTIVE && parked.compareAndSet(true, false)) {
+                return true;
+            }
+            return false;
+        }
+        
+        steps++;
+        pass += stride;
+        
+        ActivityDef next = nextActivity();
+        if (next != null) {
+            System.out.println("  ▶️ [" + ctx.getProjectId() + "] 执行活动: " + next.getId() +
+                " (" + next.getName() + ")");
+            ctx.getCompletedActivities().add(next.getId());
+            ctx.getDecisionNetwork().emitEvent(new OntologyEvent(
+                ctx.getProjectId(), next.getId(), "activity", "status", null, "completed"));
+            return true;
+        }
+        
+        // 当前阶段活动全部完成: 进入下一阶段或结束
+        Phase current = ctx.getCurrentPhase();
+        if (current.ordinal() == Phase.values().length - 1) {
+            if (!ctx.getModeEngine().canComplete(ctx)) {
+                ctx.setStatus(ProjectStatus.WAITING);
+                System.out.println("  ⏳ [" + ctx.getProjectId() + "] 交付门禁未通过, 等待恢复");
+                return true;
+            }
+            ctx.setStatus(ProjectStatus.COMPLETED);
+            System.out.println("  🏁 [" + ctx.getProjectId() + "] 项目完成");
+            finish();
+            return false;
+        }
+        
+        Phase nextPhase = Phase.values()[current.ordinal() + 1];
+        ctx.getModeEngine().transitionPhase(ctx, nextPhase);
+        if (ctx.getCurrentPhase() == current) {
+            // 阶段转换被拒绝, 等待外部条件满足后恢复
+            ctx.setStatus(ProjectStatus.WAITING);
+            System.out.println("  ⏳ [" + ctx.getProjectId() + "] 阶段转换受阻, 等待恢复");
+        }
+        return true;
+    }
+    
+    private ActivityDef nextActivity() {
+        String phase = ctx.getCurrentPhase().name();
+        for (ActivityDef activity : ctx.getActivities().values()) {
+            if (phase.equals(activity.getPhase()) && !ctx.getCompletedActivities().contains(activity.getId())) {
+                return activity;
+            }
+        }
+        return null;
+    }
+    
+    public boolean unpark() {
+        return parked.compareAndSet(true, false);
+    }
+    
+    public void catchUp(long virtualTime) {
+        if (pass < virtualTime) {
+            pass = virtualTime;
+        }
+    }
+    
+    public void finish() { finished = true; }
+    public boolean isFinished() { return finished; }
+    public boolean isParked() { return parked.get(); }
+    public ProjectContext getContext() { return ctx; }
+    public long getPass() { return pass; }
+    public long getSequence() { return sequence; }
+    public long getSteps() { return steps; }
+}
+
+// ==================== 活动执行运行时 ====================
+
+// 活动执行运行时: 决策网络触发的活动在有界线程池上异步执行, 处理器按活动ID注册, 未注册的活动按工期模拟.
+// 每次尝试有超时 (到时中断处理线程), 失败按指数退避重试; 退避等待与超时都在计时线程上, 不占工作线程.
+// 开始/完成/失败作为 activity 状态事件回到项目的决策网络. 触发方只负责提交, 慢活动不阻塞事件排空
+class ActivityRuntime {
+    private static final int DEFAULT_QUEUE_CAPACITY = 256;
+    private static final long DEFAULT_TIMEOUT_MILLIS = 30_000L;
+    private static final int DEFAULT_MAX_ATTEMPTS = 3;
+    private static final long BACKOFF_BASE_MILLIS = 200L;
+    private static final long BACKOFF_MAX_MILLIS = 10_000L;
+    private static final int RECENT_LIMIT = 20;
+    private static final long CANCEL_TIMEOUT_MILLIS = 10_000L;
+    private static final long SUBMIT_PARK_NANOS = 1_000_000L;
+
+    private final ThreadPoolExecutor workers;
+    private final ScheduledExecutorService timer;
+    // 计时线程上判定的最终失败由状态线程提交事件, 队列不设上限, 计时线程从不等待
+    private final ExecutorService reporter;
+    private volatile Thread timerThread;
+    private final Map<String, ActivityHandler> handlers = new ConcurrentHashMap<>();
+    // 执行中 (含排队与退避等待), 键为 项目ID/活动ID; 同一项目的同一活动同时只有一个执行
+    private final Map<String, ActivityExecution> active = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedDeque<ActivityExecution> recent = new ConcurrentLinkedDeque<>();
+    // 已交给工作线程、尚未提交的触发数, 键为项目ID; 等待空闲时一并计入
+    private final Map<String, Integer> pendingSubmits = new ConcurrentHashMap<>();
+    // 已取消的项目上下文 (归档中或已归档), 不再接受提交; 弱引用, 不拖住已移出堆的项目
+    private final Set<ProjectContext> cancelled = Collections.newSetFromMap(
+        Collections.synchronizedMap(new WeakHashMap<>()));
+    private final AtomicLong sequence = new AtomicLong();
+    // 模拟执行: 每个估算工期日对应的毫秒数
+    private volatile long millisPerDay = 20;
+    
+    // 统计
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    
+    public ActivityRuntime() {
+        this(Math.max(2, Runtime.getRuntime().availableProcessors()), DEFAULT_QUEUE_CAPACITY);
+    }
+    
+    public ActivityRuntime(int threads, int queueCapacity) {
+        AtomicInteger threadIds = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(queueCapacity), r -> {
+                Thread thread = new Thread(r, "activity-worker-" + threadIds.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        this.workers.allowCoreThreadTimeOut(true);
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "activity-timer");
+            thread.setDaemon(true);
+            timerThread = thread;
+            return thread;
+        });
+        this.reporter = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "activity-status");
+            thread.setDaemon(true);
+            return thread;
+        });
+        
+        // 内置处理器: 测试类活动模拟执行后检查项目中失败的测试用例, 有失败即本次尝试失败
+        ActivityHandler testRun = execution -> {
+            simulate(execution);
+            int failedTests = execution.getContext().getViews().count("test_case", "status", "failed");
+            if (failedTests > 0) {
+                throw new IllegalStateException(failedTests + " 个测试用例失败");
+            }
+            return "测试用例全部通过";
+        };
+        for (String activityId : List.of("execute_integration_test", "execute_system_test",
+                "execute_acceptance_test", "regression_test")) {
+            register(activityId, testRun);
+        }
+    }
+    
+    public void register(String activityId, ActivityHandler handler) {
+        handlers.put(activityId, handler);
+    }
+    
+    // 提交活动执行; 项目没有该活动或已在执行时返回 null
+    public ActivityExecution submit(ProjectContext ctx, String activityId, Map<String, String> params) {
+        ActivityDef def = ctx.getActivities().get(activityId);
+        if (def == null) {
+            System.out.println("  ❌ 项目 " + ctx.getProjectId() + " 没有活动: " + activityId);
+            return null;
+        }
+        ActivityExecution execution = new ActivityExecution(sequence.incrementAndGet(), ctx, def, params,
+            def.getTimeout_seconds() > 0 ? def.getTimeout_seconds() * 1000L : DEFAULT_TIMEOUT_MILLIS,
+            def.getMax_attempts() > 0 ? def.getMax_attempts() : DEFAULT_MAX_ATTEMPTS);
+        if (cancelled.contains(ctx)) return null;
+        if (active.putIfAbsent(execution.getKey(), execution) != null) {
+            System.out.println("  ⏭ 活动已在执行中: " + execution.getKey());
+            return null;
+        }
+        // cancel 先登记再扫描执行表: 登记之后放入的执行在这里撤回, 之前放入的由 cancel 取消
+        if (cancelled.contains(ctx)) {
+            active.remove(execution.getKey(), execution);
+            return null;
+        }
+        submitted.incrementAndGet();
+        emitStatus(execution, null, "running");
+        dispatch(execution);
+        return execution;
+    }
+    
+    // 在工作线程上提交 (由总线消费线程调用). 执行队列已满时等待空位而不是放弃触发:
+    // 背压落在订阅方所在分区的消费上, 上游发布方不等待, 消息暂存在分区的溢出队列
+    public void submitLater(ProjectContext ctx, String activityId, Map<String, String> params) {
+        String projectId = ctx.getProjectId();
+        pendingSubmits.merge(projectId, 1, Integer::sum);
+        Runnable task = () -> {
+            try {
+                submit(ctx, activityId, params);
+            } finally {
+                pendingSubmits.computeIfPresent(projectId, (k, n) -> n > 1 ? n - 1 : null);
+            }
+        };
+        while (true) {
+            try {
+                workers.execute(task);
+                return;
+            } catch (RejectedExecutionException e) {
+                if (workers.isShutdown() || Thread.currentThread().isInterrupted()) {
+                    pendingSubmits.computeIfPresent(projectId, (k, n) -> n > 1 ? n - 1 : null);
+                    System.out.println("  ❌ [" + projectId + "] 执行队列已关闭, 放弃触发活动: " + activityId);
+                    return;
+                }
+                LockSupport.parkNanos(SUBMIT_PARK_NANOS);
+            }
+        }
+    }
+    
+    private void dispatch(ActivityExecution execution) {
+        int attempt = execution.nextAttempt();
+        if (attempt == 0) return;
+        try {
+            workers.execute(() -> run(execution, attempt));
+        } catch (RejectedExecutionException e) {
+            fail(execution, attempt, "执行队列已满", false);
+        }
+    }
+    
+    private void run(ActivityExecution execution, int attempt) {
+        if (!execution.start(attempt)) return;
+        System.out.println("  ▶️ [" + execution.getContext().getProjectId() + "] 执行活动: "
+            + execution.getActivity().getId() + " (第 " + attempt + "/" + execution.getMaxAttempts() + " 次)");
+        ScheduledFuture<?> deadline = timer.schedule(
+            () -> fail(execution, attempt, "超时 (" + execution.getTimeoutMillis() + " ms)", true),
+            execution.getTimeoutMillis(), TimeUnit.MILLISECONDS);
+        try {
+            String result = handlerOf(execution.getActivity()).execute(execution);
+            if (execution.endAttempt(attempt, ActivityState.COMPLETED, result, false)) {
+                onCompleted(execution);
+            }
+        } catch (InterruptedException e) {
+            // 超时中断由超时回调记录失败; 取消中断不再记录
+        } catch (Exception e) {
+            fail(execution, attempt, String.valueOf(e.getMessage()), false);
+        } finally {
+            deadline.cancel(false);
+            // 清除可能残留的超时中断标记, 工作线程要复用
+            Thread.interrupted();
+        }
+    }
+    
+    private ActivityHandler handlerOf(ActivityDef def) {
+        ActivityHandler handler = handlers.get(def.getId());
+        return handler != null ? handler : execution -> {
+            simulate(execution);
+            return "完成";
+        };
+    }
+    
+    // 按估算工期模拟耗时; 可被超时中断
+    public void simulate(ActivityExecution execution) throws InterruptedException {
+        Thread.sleep(execution.getActivity().getDuration_estimate() * millisPerDay);
+    }
+    
+    // 本次尝试失败或超时: 还有剩余次数则退避后重试, 否则整体失败
+    private void fail(ActivityExecution execution, int attempt, String error, boolean timedOut) {
+        boolean retry = attempt < execution.getMaxAttempts();
+        if (!execution.endAttempt(attempt, retry ? ActivityState.RETRY_WAIT : ActivityState.FAILED, error, timedOut)) {
+            return;
+        }
+        if (timedOut) timeouts.incrementAndGet();
+        String projectId = execution.getContext().getProjectId();
+        String activityId = execution.getActivity().getId();
+        if (retry) {
+            retries.incrementAndGet();
+            long backoff = Math.min(BACKOFF_MAX_MILLIS, BACKOFF_BASE_MILLIS << (attempt - 1));
+            System.out.println("  🔁 [" + projectId + "] 活动 " + activityId + " 第 " + attempt + " 次失败: " + error
+                + ", " + backoff + " ms 后重试");
+            timer.schedule(() -> dispatch(execution), backoff, TimeUnit.MILLISECONDS);
+            return;
+        }
+        failed.incrementAndGet();
+        System.out.println("  ❌ [" + projectId + "] 活动失败: " + activityId + " (" + attempt + " 次尝试): " + error);
+        // 超时与退避后的重新派发都在计时线程上; 提交事件可能在背压下停在槽位等待或成为项目的排空者,
+        // 那样会拖住所有项目的超时与重试, 所以交给状态线程
+        if (Thread.currentThread() == timerThread) {
+            reporter.execute(() -> reportFailed(execution));
+        } else {
+            reportFailed(execution);
+        }
+    }
+    
+    private void reportFailed(ActivityExecution execution) {
+        emitStatus(execution, "running", "failed");
+        finish(execution);
+    }
+    
+    private void onCompleted(ActivityExecution execution) {
+        completed.incrementAndGet();
+        ProjectContext ctx = execution.getContext();
+        System.out.println("  ✅ [" + ctx.getProjectId() + "] 活动完成: " + execution.getActivity().getId()
+            + " (第 " + execution.getAttempt() + " 次, " + execution.getElapsedMillis() + " ms): " + execution.getMessage());
+        ctx.getCompletedActivities().add(execution.getActivity().getId());
+        emitStatus(execution, "running", "completed");
+        finish(execution);
+    }
+    
+    // 状态事件提交之后才移出执行表, 等待方看到空闲时结果已回到决策网络
+    private void finish(ActivityExecution execution) {
+        active.remove(execution.getKey(), execution);
+        recent.addFirst(execution);
+        while (recent.size() > RECENT_LIMIT) {
+            recent.pollLast();
+        }
+    }
+    
+    // 状态事件走项目的决策网络, 与其他事件一样受背压控制并写入日志
+    private void emitStatus(ActivityExecution execution, String oldValue, String newValue) {
+        ProjectContext ctx = execution.getContext();
+        ctx.getDecisionNetwork().emitEvent(new OntologyEvent(
+            ctx.getProjectId(), execution.getActivity().getId(), "activity", "status", oldValue, newValue));
+    }
+    
+    // 取消项目的全部执行: 排队、运行中与退避等待的执行直接结束, 不再提交状态事件;
+    // 已进入完成/失败的执行正在提交最后的状态事件, 等它们提交完. 超时未结束时恢复接受提交并返回 false
+    public boolean cancel(ProjectContext ctx) throws InterruptedException {
+        String projectId = ctx.getProjectId();
+        cancelled.add(ctx);
+        int count = 0;
+        for (ActivityExecution execution : active.values()) {
+            if (execution.getContext() == ctx && execution.cancel()) {
+                finish(execution);
+                count++;
+            }
+        }
+        if (count > 0) {
+            System.out.println("  ⏹ [" + projectId + "] 取消 " + count + " 个活动执行");
+        }
+        if (!awaitIdle(projectId, CANCEL_TIMEOUT_MILLIS)) {
+            cancelled.remove(ctx);
+            return false;
+        }
+        return true;
+    }
+    
+    // 等待执行中的活动全部结束 (projectId 为 null 时等待所有项目)
+    public boolean awaitIdle(String projectId, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (active.values().stream().anyMatch(e -> projectId == null || e.getContext().getProjectId().equals(projectId))
+            || (projectId == null ? !pendingSubmits.isEmpty() : pendingSubmits.containsKey(projectId))) {
+            if (System.currentTimeMillis() >= deadline) return false;
+            Thread.sleep(10);
+        }
+        return true;
+    }
+    
+    public void setMillisPerDay(long millisPerDay) {
+        if (millisPerDay < 0) {
+            throw new IllegalArgumentException("模拟节奏不能为负: " + millisPerDay);
+        }
+        this.millisPerDay = millisPerDay;
+    }
+    
+    public void showStatus() {
+        System.out.println("\n⚡ 活动执行运行时:");
+        System.out.println("  工作线程: " + workers.getActiveCount() + "/" + workers.getMaximumPoolSize()
+            + ", 队列: " + workers.getQueue().size() + "/" + (workers.getQueue().size() + workers.getQueue().remainingCapacity())
+            + ", 模拟节奏: " + millisPerDay + " ms/天");
+        System.out.println("  已提交: " + submitted.get() + ", 完成: " + completed.get() + ", 失败: " + failed.get()
+            + ", 重试: " + retries.get() + ", 超时: " + timeouts.get());
+        System.out.println("  执行中:");
+        if (active.isEmpty()) {
+            System.out.println("    (无)");
+        }
+        active.values().stream()
+            .sorted(Comparator.comparingLong(ActivityExecution::getId))
+            .forEach(e -> System.out.println("    " + e.describe()));
+        if (!recent.isEmpty()) {
+            System.out.println("  最近结束:");
+            recent.forEach(e -> System.out.println("    " + e.describe()));
+        }
+    }
+}
+
+// 活动处理器: 在运行时工作线程上执行, 返回结果说明; 抛出异常表示本次尝试失败, 超时时线程被中断
+interface ActivityHandler {
+    String execute(ActivityExecution execution) throws Exception;
+}
+
+// 一次活动执行 (可能包含多次尝试); 状态转换在自身锁内按尝试序号校验, 迟到的结果与超时互斥
+class ActivityExecution {
+    private final long id;
+    private final ProjectContext context;
+    private final ActivityDef activity;
+    private final Map<String, String> params;
+    private final long timeoutMillis;
+    private final int maxAttempts;
+    private final long submittedAt;
+    private ActivityState state = ActivityState.QUEUED;
+    private int attempt;
+    private Thread runner;
+    private String message;
+    private long finishedAt;
+    
+    public ActivityExecution(long id, ProjectContext context, ActivityDef activity, Map<String, String> params,
+                             long timeoutMillis, int maxAttempts) {
+        this.id = id;
+        this.context = context;
+        this.activity = activity;
+        this.params = params != null ? Map.copyOf(params) : Collections.emptyMap();
+        this.timeoutMillis = timeoutMillis;
+        this.maxAttempts = maxAttempts;
+        this.submittedAt = System.currentTimeMillis();
+    }
+    
+    // 已取消时返回 0, 退避后的重新派发就此结束
+    public synchronized int nextAttempt() {
+        if (state == ActivityState.CANCELLED) return 0;
+        state = ActivityState.QUEUED;
+        return ++attempt;
+    }
+    
+    public synchronized boolean start(int attempt) {
+        if (this.attempt != attempt || state != ActivityState.QUEUED) return false;
+        state = ActivityState.RUNNING;
+        runner = Thread.currentThread();
+        return true;
+    }
+    
+    // 结束当前尝试; 尝试已被超时或结果抢先结束时返回 false. interrupt 为 true 时中断正在执行的线程
+    public synchronized boolean endAttempt(int attempt, ActivityState next, String message, boolean interrupt) {
+        if (this.attempt != attempt || (state != ActivityState.QUEUED && state != ActivityState.RUNNING)) {
+            return false;
+        }
+        if (interrupt && state == ActivityState.RUNNING && runner != null) {
+            runner.interrupt();
+        }
+        state = next;
+        runner = null;
+        this.message = message;
+        if (next == ActivityState.COMPLETED || next == ActivityState.FAILED) {
+            finishedAt = System.currentTimeMillis();
+        }
+        return true;
+    }
+    
+    // 取消尚未结束的执行并中断正在执行的线程; 已完成或已失败 (正在提交最后的状态事件) 时返回 false
+    public synchronized boolean cancel() {
+        if (state == ActivityState.COMPLETED || state == ActivityState.FAILED || state == ActivityState.CANCELLED) {
+            return false;
+        }
+        if (state == ActivityState.RUNNING && runner != null) {
+            runner.interrupt();
+        }
+        state = ActivityState.CANCELLED;
+        runner = null;
+        message = "已取消";
+        finishedAt = System.currentTimeMillis();
+        return true;
+    }
+    
+    public synchronized String describe() {
+        return "[" + context.getProjectId() + "] " + activity.getId() + " " + state
+            + " 第 " + attempt + "/" + maxAttempts + " 次, " + getElapsedMillis() + " ms"
+            + (message != null ? ": " + message : "");
+    }
+    
+    public synchronized long getElapsedMillis() {
+        return (finishedAt > 0 ? finishedAt : System.currentTimeMillis()) - submittedAt;
+    }
+    
+    public String getKey() { return context.getProjectId() + "/" + activity.getId(); }
+    public long getId() { return id; }
+    public ProjectContext getContext() { return context; }
+    public ActivityDef getActivity() { return activity; }
+    public Map<String, String> getParams() { return params; }
+    public long getTimeoutMillis() { return timeoutMillis; }
+    public int getMaxAttempts() { return maxAttempts; }
+    public synchronized ActivityState getState() { return state; }
+    public synchronized int getAttempt() { return attempt; }
+    public synchronized String getMessage() { return message; }
+}
+
+// ==================== 进度计划 ====================
+
+// 关键路径调度 (CPM): 活动 DAG 由三类边组成
+//   阶段里程碑: 阶段 k 的全部活动 → 里程碑 → 阶段 k+1 的全部活动, 用 O(n) 条边代替阶段间全连接
+//   产出/输入: 同一阶段内按模板顺序, 前面活动的 outputs 被后面活动的 inputs 使用
+//   角色串行: 同一阶段内共享 required_roles 的活动按模板顺序串接
+// 所有活动再连到汇点 END, 于是 ES(END) 就是总工期. 另维护尾长 tail (从活动开始到 END 的最长路径),
+// LS = 工期 - tail, 工期变化时不必重算全部 LS. 全量计算为一次 Kahn 拓扑扫描;
+// 工期或依赖变化时只沿受影响的后继 (ES) / 前驱 (tail) 按拓扑位置增量传播
+class ScheduleEngine {
+    private final List<String> names = new ArrayList<>();
+    private final List<ActivityDef> defs = new ArrayList<>();
+    private final Map<String, Integer> nodeOf = new HashMap<>();
+    private final IntAdjacency successors = new IntAdjacency();
+    private final IntAdjacency predecessors = new IntAdjacency();
+    private final IncrementalTopologicalOrder order = new IncrementalTopologicalOrder(successors, predecessors);
+    private int[] duration;
+    private int[] es;
+    private int[] tail;
+    private int end;
+    
+    public ScheduleEngine(Collection<ActivityDef> activities) {
+        // 按阶段分组, 组内保持模板顺序; 未知阶段排在最后
+        List<List<ActivityDef>> groups = new ArrayList<>();
+        for (int i = 0; i <= Phase.values().length; i++) groups.add(new ArrayList<>());
+        for (ActivityDef activity : activities) {
+            groups.get(phaseIndex(activity.getPhase())).add(activity);
+        }
+        groups.removeIf(List::isEmpty);
+        
+        // 节点编号即初始拓扑序: 各阶段活动, 阶段间里程碑, 最后是 END
+        int milestone = -1;
+        List<int[]> edges = new ArrayList<>();
+        for (int g = 0; g < groups.size(); g++) {
+            List<ActivityDef> group = groups.get(g);
+            int first = names.size();
+            for (ActivityDef activity : group) {
+                int node = addNode(activity.getId(), activity);
+                if (milestone >= 0) edges.add(new int[] { milestone, node });
+            }
+            linkWithinPhase(first, edges);
+            if (g < groups.size() - 1) {
+                milestone = addNode("◆" + group.get(0).getPhase(), null);
+                for (int node = first; node < milestone; node++) edges.add(new int[] { node, milestone });
+            }
+        }
+        end = addNode("END", null);
+        for (int node = 0; node < end; node++) {
+            if (defs.get(node) != null) edges.add(new int[] { node, end });
+        }
+        
+        duration = new int[names.size()];
+        for (int node = 0; node < names.size(); node++) {
+            ActivityDef def = defs.get(node);
+            duration[node] = def != null ? Math.max(0, def.getDuration_estimate()) : 0;
+        }
+        for (int[] edge : edges) {
+            if (!successors.contains(edge[0], edge[1])) {
+                order.insert(edge[0], edge[1]);
+                successors.add(edge[0], edge[1]);
+                predecessors.add(edge[1], edge[0]);
+            }
+        }
+        recompute();
+    }
+    
+    private int addNode(String name, ActivityDef def) {
+        int node = names.size();
+        names.add(name);
+        defs.add(def);
+        if (def != null) nodeOf.put(name, node);
+        return node;
+    }
+    
+    // 同阶段 [first, 末尾) 内的产出/输入边与角色串行边, 只从模板顺序靠前的活动指向靠后的
+    private void linkWithinPhase(int first, List<int[]> edges) {
+        Map<String, Integer> lastProducer = new HashMap<>();
+        Map<String, Integer> lastByRole = new HashMap<>();
+        for (int node = first; node < names.size(); node++) {
+            ActivityDef def = defs.get(node);
+            for (String input : listOf(def.getInputs())) {
+                Integer producer = lastProducer.get(input);
+                if (producer != null) edges.add(new int[] { producer, node });
+            }
+            for (String role : listOf(def.getRequired_roles())) {
+                Integer previous = lastByRole.put(role, node);
+                if (previous != null && previous != node) edges.add(new int[] { previous, node });
+            }
+            for (String output : listOf(def.getOutputs())) {
+                lastProducer.put(output, node);
+            }
+        }
+    }
+    
+    private static List<String> listOf(List<String> list) {
+        return list != null ? list : Collections.emptyList();
+    }
+    
+    private static int phaseIndex(String phase) {
+        try {
+            return Phase.valueOf(phase).ordinal();
+        } catch (IllegalArgumentException | NullPointerException e) {
+            return Phase.values().length;
+        }
+    }
+    
+    // 全量计算: Kahn 拓扑扫描正向求 ES, 逆序求 tail, O(V + E)
+    public synchronized void recompute() {
+        int n = names.size();
+        es = new int[n];
+        tail = new int[n];
+        int[] indegree = new int[n];
+        int[] topo = new int[n];
+        for (int v = 0; v < n; v++) indegree[v] = predecessors.degree(v);
+        int head = 0, size = 0;
+        for (int v = 0; v < n; v++) {
+            if (indegree[v] == 0) topo[size++] = v;
+        }
+        while (head < size) {
+            int v = topo[head++];
+            for (int i = 0; i < successors.degree(v); i++) {
+                int w = successors.get(v, i);
+                es[w] = Math.max(es[w], es[v] + duration[v]);
+                if (--indegree[w] == 0) topo[size++] = w;
+            }
+        }
+        for (int k = size - 1; k >= 0; k--) {
+            tail[topo[k]] = computeTail(topo[k]);
+        }
+    }
+    
+    // 修改活动工期 (仅影响本项目), 返回新的总工期
+    public synchronized int setDuration(String activityId, int days) {
+        if (days < 0) throw new IllegalArgumentException("工期不能为负: " + days);
+        int node = nodeOrThrow(activityId);
+        duration[node] = days;
+        propagateForward(successorsOf(node));
+        propagateBackward(new int[] { node });
+        return getProjectDuration();
+    }
+    
+    // 增加自定义依赖 from → to; 成环时抛出并给出环路
+    public synchronized int addDependency(String fromId, String toId) {
+        int from = nodeOrThrow(fromId);
+        int to = nodeOrThrow(toId);
+        if (successors.contains(from, to)) {
+            throw new IllegalStateException("依赖已存在: " + fromId + " → " + toId);
+        }
+        if (!order.insert(from, to)) {
+            StringBuilder path = new StringBuilder(fromId);
+            int[] cycle = order.lastCyclePath();
+            for (int node : cycle) {
+                path.append(" → ").append(names.get(node));
+            }
+            throw new IllegalStateException("依赖成环: " + path);
+        }
+        successors.add(from, to);
+        predecessors.add(to, from);
+        propagateForward(new int[] { to });
+        propagateBackward(new int[] { from });
+        return getProjectDuration();
+    }
+    
+    public synchronized int removeDependency(String fromId, String toId) {
+        int from = nodeOrThrow(fromId);
+        int to = nodeOrThrow(toId);
+        if (!successors.remove(from, to)) {
+            throw new IllegalStateException("依赖不存在: " + fromId + " → " + toId);
+        }
+        predecessors.remove(to, from);
+        propagateForward(new int[] { to });
+        propagateBackward(new int[] { from });
+        return getProjectDuration();
+    }
+    
+    // 按拓扑位置从小到大处理, 每个节点在其所有受影响前驱之后只定值一次; ES 不变则不再向后传播
+    private void propagateForward(int[] seeds) {
+        PriorityQueue<Integer> queue = new PriorityQueue<>(Comparator.comparingInt(order::position));
+        boolean[] queued = new boolean[names.size()];
+        for (int seed : seeds) {
+            if (!queued[seed]) { queued[seed] = true; queue.add(seed); }
+        }
+        while (!queue.isEmpty()) {
+            int v = queue.poll();
+            int value = 0;
+            for (int i = 0; i < predecessors.degree(v); i++) {
+                int p = predecessors.get(v, i);
+                value = Math.max(value, es[p] + duration[p]);
+            }
+            if (value == es[v]) continue;
+            es[v] = value;
+            for (int i = 0; i < successors.degree(v); i++) {
+                int w = successors.get(v, i);
+                if (!queued[w]) { queued[w] = true; queue.add(w); }
+            }
+        }
+    }
+    
+    private void propagateBackward(int[] seeds) {
+        PriorityQueue<Integer> queue = new PriorityQueue<>(Comparator.comparingInt((Integer v) -> order.position(v)).reversed());
+        boolean[] queued = new boolean[names.size()];
+        for (int seed : seeds) {
+            if (!queued[seed]) { queued[seed] = true; queue.add(seed); }
+        }
+        while (!queue.isEmpty()) {
+            int v = queue.poll();
+            int value = computeTail(v);
+            if (value == tail[v]) continue;
+            tail[v] = value;
+            for (int i = 0; i < predecessors.degree(v); i++) {
+                int p = predecessors.get(v, i);
+                if (!queued[p]) { queued[p] = true; queue.add(p); }
+            }
+        }
+    }
+    
+    private int computeTail(int v) {
+        int longest = 0;
+        for (int i = 0; i < successors.degree(v); i++) {
+            longest = Math.max(longest, tail[successors.get(v, i)]);
+        }
+        return duration[v] + longest;
+    }
+    
+    private int[] successorsOf(int node) {
+        int[] result = new int[successors.degree(node) + 1];
+        result[0] = node;
+        for (int i = 0; i < successors.degree(node); i++) result[i + 1] = successors.get(node, i);
+        return result;
+    }
+    
+    private int nodeOrThrow(String activityId) {
+        Integer node = nodeOf.get(activityId);
+        if (node == null) throw new IllegalArgumentException("项目中没有活动: " + activityId);
+        return node;
+    }
+    
+    public synchronized int getProjectDuration() { return es[end]; }
+    public synchronized int getActivityCount() { return nodeOf.size(); }
+    
+    public synchronized int getEarliestStart(String activityId) { return es[nodeOrThrow(activityId)]; }
+    public synchronized int getLatestStart(String activityId) { return es[end] - tail[nodeOrThrow(activityId)]; }
+    public synchronized int getSlack(String activityId) {
+        int node = nodeOrThrow(activityId);
+        return es[end] - es[node] - tail[node];
+    }
+    
+    // 关键路径: 从总浮动为 0 的入口活动出发, 每步走向紧接着开始的关键后继
+    public synchronized List<String> criticalPath() {
+        List<String> path = new ArrayList<>();
+        int current = -1;
+        for (int v = 0; v < end; v++) {
+            if (predecessors.degree(v) == 0 && tail[v] == es[end]) { current = v; break; }
+        }
+        while (current >= 0 && current != end) {
+            if (defs.get(current) != null) path.add(names.get(current));
+            int next = -1;
+            int finish = es[current] + duration[current];
+            for (int i = 0; i < successors.degree(current); i++) {
+                int w = successors.get(current, i);
+                if (es[w] == finish && es[w] + tail[w] == es[end]) { next = w; break; }
+            }
+            current = next;
+        }
+        return path;
+    }
+    
+    // 导出活动图供跨项目资源平衡使用: 工期取本项目当前值, 不含 END
+    public synchronized ScheduleGraph export() {
+        int[][] preds = new int[end][];
+        int[] latestStart = new int[end];
+        for (int v = 0; v < end; v++) {
+            preds[v] = new int[predecessors.degree(v)];
+            for (int i = 0; i < preds[v].length; i++) preds[v][i] = predecessors.get(v, i);
+            latestStart[v] = es[end] - tail[v];
+        }
+        return new ScheduleGraph(new ArrayList<>(names.subList(0, end)), new ArrayList<>(defs.subList(0, end)),
+            Arrays.copyOf(duration, end), preds, latestStart, es[end]);
+    }
+    
+    public synchronized int getCriticalCount() {
+        int count = 0;
+        for (int v = 0; v < end; v++) {
+            if (defs.get(v) != null && es[end] - es[v] - tail[v] == 0) count++;
+        }
+        return count;
+    }
+    
+    public synchronized void show(String projectName) {
+        System.out.println("\n📅 进度计划: " + projectName + " (总工期 " + es[end] + " 天)");
+        if (nodeOf.isEmpty()) {
+            System.out.println("  (项目没有活动)");
+            return;
+        }
+        System.out.println("┌────────────────────────────────┬──────────────┬──────┬──────┬──────┬──────┬──────┬──────┐");
+        System.out.println("│ 活动                            │ 阶段          │ 工期 │  ES  │  EF  │  LS  │  LF  │ 浮动 │");
+        System.out.println("├────────────────────────────────┼──────────────┼──────┼──────┼──────┼──────┼──────┼──────┤");
+        Integer[] nodes = nodeOf.values().toArray(new Integer[0]);
+        Arrays.sort(nodes, Comparator.comparingInt((Integer v) -> es[v]).thenComparingInt(order::position));
+        for (int v : nodes) {
+            int ls = es[end] - tail[v];
+            int slack = ls - es[v];
+            System.out.printf("│ %-30s │ %-12s │ %4d │ %4d │ %4d │ %4d │ %4d │ %4d │%n",
+                (slack == 0 ? "★ " : "  ") + names.get(v), defs.get(v).getPhase(), duration[v],
+                es[v], es[v] + duration[v], ls, ls + duration[v], slack);
+        }
+        System.out.println("└────────────────────────────────┴──────────────┴──────┴──────┴──────┴──────┴──────┴──────┘");
+        System.out.println("  ★ 关键活动 (浮动为 0)");
+    }
+}
+
+// ==================== 项目组合优化 ====================
+
+// 单个项目的活动图快照 (不含汇点 END), 节点编号与 ScheduleEngine 一致
+class ScheduleGraph {
+    private final List<String> names;
+    private final List<ActivityDef> defs;
+    private final int[] duration;
+    private final int[][] predecessors;
+    private final int[] latestStart;
+    private final int projectDuration;
+    
+    public ScheduleGraph(List<String> names, List<ActivityDef> defs, int[] duration,
+                         int[][] predecessors, int[] latestStart, int projectDuration) {
+        this.names = names;
+        this.defs = defs;
+        this.duration = duration;
+        this.predecessors = predecessors;
+        this.latestStart = latestStart;
+        this.projectDuration = projectDuration;
+    }
+    
+    public int size() { return duration.length; }
+    public String name(int node) { return names.get(node); }
+    public ActivityDef def(int node) { return defs.get(node); }
+    public int duration(int node) { return duration[node]; }
+    public int[] predecessors(int node) { return predecessors[node]; }
+    public int latestStart(int node) { return latestStart[node]; }
+    public int getProjectDuration() { return projectDuration; }
+}
+
+// 跨项目资源平衡问题: 所有项目的活动展平为任务, 每个 required_role 占用 1 个该角色单位,
+// 测试阶段的 testing 类活动另占用 1 个测试台. 角色容量取同名资源池, 测试台容量取
+// test_platform* 资源池之和, 没有对应资源池时用默认值. 交付期限为各项目不考虑资源时的 CPM 工期
+class PortfolioProblem {
+    static final String TEST_PLATFORM = "test_platform";
+    static final int DEFAULT_ROLE_CAPACITY = 10;
+    static final int DEFAULT_TEST_PLATFORMS = 4;
+    
+    final String[] projectIds;
+    final int[] weight;
+    final int[] due;
+    final int[] firstTask;
+    final int taskCount;
+    final int[] taskProject;
+    final String[] taskName;
+    final int[] duration;
+    final int[] latestStart;
+    final int[][] successors;
+    final int[] predecessorCount;
+    final int[][] demand;
+    final String[] resourceNames;
+    final int[] capacity;
+    
+    public PortfolioProblem(List<ProjectContext> projects, Collection<ResourcePool> pools) {
+        Map<String, Long> poolCapacity = new HashMap<>();
+        long platforms = 0;
+        for (ResourcePool pool : pools) {
+            poolCapacity.put(pool.getId(), pool.getCapacity() / ResourcePool.UNIT);
+            if (pool.getId().startsWith(TEST_PLATFORM)) platforms += pool.getCapacity() / ResourcePool.UNIT;
+        }
+        
+        List<ScheduleGraph> graphs = new ArrayList<>();
+        int total = 0;
+        for (ProjectContext ctx : projects) {
+            ScheduleGraph graph = ctx.getSchedule().export();
+            graphs.add(graph);
+            total += graph.size();
+        }
+        
+        projectIds = new String[projects.size()];
+        weight = new int[projects.size()];
+        due = new int[projects.size()];
+        firstTask = new int[projects.size() + 1];
+        taskCount = total;
+        taskProject = new int[total];
+        taskName = new String[total];
+        duration = new int[total];
+        latestStart = new int[total];
+        predecessorCount = new int[total];
+        demand = new int[total][];
+        
+        Map<String, Integer> resourceIndex = new LinkedHashMap<>();
+        List<Integer> capacities = new ArrayList<>();
+        List<List<Integer>> successorLists = new ArrayList<>(total);
+        for (int i = 0; i < total; i++) successorLists.add(new ArrayList<>(2));
+        
+        int task = 0;
+        for (int p = 0; p < projects.size(); p++) {
+            ProjectContext ctx = projects.get(p);
+            ScheduleGraph graph = graphs.get(p);
+            projectIds[p] = ctx.getProjectId();
+            weight[p] = Math.max(1, ctx.getPriority());
+            due[p] = graph.getProjectDuration();
+            firstTask[p] = task;
+            
+            for (int v = 0; v < graph.size(); v++, task++) {
+                taskProject[task] = p;
+                taskName[task] = graph.name(v);
+                duration[task] = graph.duration(v);
+                latestStart[task] = graph.latestStart(v);
+                int[] preds = graph.predecessors(v);
+                predecessorCount[task] = preds.length;
+                for (int pred : preds) successorLists.get(firstTask[p] + pred).add(task);
+                
+                List<String> needs = new ArrayList<>();
+                ActivityDef def = graph.def(v);
+                if (def != null && duration[task] > 0) {
+                    if (def.getRequired_roles() != null) needs.addAll(def.getRequired_roles());
+                    if ("testing".equals(def.getCategory()) && Phase.TESTING.name().equals(def.getPhase())) {
+                        needs.add(TEST_PLATFORM);
+                    }
+                }
+                long testPlatforms = platforms;
+                demand[task] = needs.stream().distinct().mapToInt(resource -> resourceIndex.computeIfAbsent(resource, r -> {
+                    long cap = r.equals(TEST_PLATFORM)
+                        ? (testPlatforms > 0 ? testPlatforms : DEFAULT_TEST_PLATFORMS)
+                        : poolCapacity.getOrDefault(r, (long) DEFAULT_ROLE_CAPACITY);
+                    capacities.add((int) Math.max(1, cap));
+                    return capacities.size() - 1;
+                })).toArray();
+            }
+        }
+        firstTask[projects.size()] = task;
+        
+        successors = new int[total][];
+        for (int i = 0; i < total; i++) {
+            successors[i] = successorLists.get(i).stream().mapToInt(Integer::intValue).toArray();
+        }
+        resourceNames = resourceIndex.keySet().toArray(new String[0]);
+        capacity = capacities.stream().mapToInt(Integer::intValue).toArray();
+    }
+    
+    public int projectCount() { return projectIds.length; }
+}
+
+// 一个完整方案: 随机键 (任务优先级, 越小越先排) 及其解码结果
+class PortfolioPlan {
+    final double[] keys;
+    final int[] start;
+    final int[] projectFinish;
+    final long cost;
+    final int makespan;
+    
+    public PortfolioPlan(double[] keys, int[] start, int[] projectFinish, long cost, int makespan) {
+        this.keys = keys;
+        this.start = start;
+        this.projectFinish = projectFinish;
+        this.cost = cost;
+        this.makespan = makespan;
+    }
+}
+
+// 串行进度生成 (serial SGS): 每次从可排任务中取键最小者, 放在前驱完成后最早的资源可行时刻.
+// 每种资源的占用剖面配一个并查集 "下一个未满时隙" 指针, 已满时隙被整段跳过;
+// 解码器持有可复用的缓冲, 每个线程一个
+class ScheduleDecoder {
+    private final PortfolioProblem problem;
+    private int horizon = 256;
+    private int[][] usage;
+    private int[][] nextOpen;
+    private int used;
+    private final int[] remaining;
+    private final int[] earliest;
+    
+    public ScheduleDecoder(PortfolioProblem problem) {
+        this.problem = problem;
+        int resources = problem.capacity.length;
+        this.usage = new int[resources][horizon];
+        this.nextOpen = new int[resources][horizon + 1];
+        this.remaining = new int[problem.taskCount];
+        this.earliest = new int[problem.taskCount];
+        reset();
+    }
+    
+    public PortfolioPlan decode(double[] keys) {
+        reset();
+        int[] start = new int[problem.taskCount];
+        System.arraycopy(problem.predecessorCount, 0, remaining, 0, remaining.length);
+        Arrays.fill(earliest, 0);
+        
+        PriorityQueue<Integer> eligible = new PriorityQueue<>(Comparator.comparingDouble(t -> keys[t]));
+        for (int t = 0; t < problem.taskCount; t++) {
+            if (remaining[t] == 0) eligible.add(t);
+        }
+        while (!eligible.isEmpty()) {
+            int t = eligible.poll();
+            start[t] = place(t, earliest[t]);
+            int finish = start[t] + problem.duration[t];
+            for (int s : problem.successors[t]) {
+                earliest[s] = Math.max(earliest[s], finish);
+                if (--remaining[s] == 0) eligible.add(s);
+            }
+        }
+        
+        int[] projectFinish = new int[problem.projectCount()];
+        long cost = 0;
+        int makespan = 0;
+        for (int p = 0; p < problem.projectCount(); p++) {
+            int finish = 0;
+            for (int t = problem.firstTask[p]; t < problem.firstTask[p + 1]; t++) {
+                finish = Math.max(finish, start[t] + problem.duration[t]);
+            }
+            projectFinish[p] = finish;
+            makespan = Math.max(makespan, finish);
+            cost += (long) problem.weight[p] * Math.max(0, finish - problem.due[p]);
+        }
+        return new PortfolioPlan(keys, start, projectFinish, cost, makespan);
+    }
+    
+    private int place(int task, int from) {
+        int[] needs = problem.demand[task];
+        int length = problem.duration[task];
+        if (length == 0 || needs.length == 0) return from;
+        
+        int t = from;
+        while (true) {
+            ensureHorizon(t + length);
+            boolean moved = false;
+            for (int r : needs) {
+                int open = findOpen(r, t);
+                if (open > t) { t = open; moved = true; }
+            }
+            if (moved) continue;
+            
+            // 起点各资源都有空位, 检查整个区间
+            int conflict = -1;
+            for (int r : needs) {
+                for (int s = t + 1; s < t + length; s++) {
+                    if (usage[r][s] >= problem.capacity[r]) { conflict = Math.max(conflict, s); break; }
+                }
+            }
+            if (conflict < 0) break;
+            t = conflict + 1;
+        }
+        
+        for (int r : needs) {
+            for (int s = t; s < t + length; s++) {
+                if (++usage[r][s] == problem.capacity[r]) nextOpen[r][s] = s + 1;
+            }
+        }
+        used = Math.max(used, t + length);
+        return t;
+    }
+    
+    // 并查集查找 (路径减半): 从 t 起第一个未满时隙
+    private int findOpen(int r, int t) {
+        int[] parent = nextOpen[r];
+        while (parent[t] != t) {
+            parent[t] = parent[parent[t]];
+            t = parent[t];
+        }
+        return t;
+    }
+    
+    private void ensureHorizon(int needed) {
+        if (needed < horizon) return;
+        int newHorizon = Math.max(needed + 1, horizon * 2);
+        for (int r = 0; r < usage.length; r++) {
+            usage[r] = Arrays.copyOf(usage[r], newHorizon);
+            int[] parent = Arrays.copyOf(nextOpen[r], newHorizon + 1);
+            for (int s = horizon + 1; s <= newHorizon; s++) parent[s] = s;
+            nextOpen[r] = parent;
+        }
+        horizon = newHorizon;
+    }
+    
+    private void reset() {
+        int limit = Math.min(horizon, used + 1);
+        for (int r = 0; r < usage.length; r++) {
+            Arrays.fill(usage[r], 0, limit, 0);
+            for (int s = 0; s <= horizon; s++) nextOpen[r][s] = s;
+        }
+        used = 0;
+    }
+}
+
+// 项目组合优化: 先用几种优先规则做列表调度得到初始方案 (毫秒级),
+// 再由多个后台线程对随机键做局部搜索, 更优方案通过 AtomicReference CAS 发布
+class PortfolioOptimizer {
+    private static final double[] RULE_WEIGHTS = { 0.0, 0.5, 2.0 };
+    
+    private final PortfolioProblem problem;
+    private final AtomicReference<PortfolioPlan> best = new AtomicReference<>();
+    private final PortfolioPlan initial;
+    private final long initialMicros;
+    private final LongAdder iterations = new LongAdder();
+    private final AtomicLong improvements = new AtomicLong();
+    private volatile boolean running;
+    private volatile long startedAt;
+    private ExecutorService workers;
+    
+    public PortfolioOptimizer(PortfolioProblem problem) {
+        this.problem = problem;
+        long begin = System.nanoTime();
+        ScheduleDecoder decoder = new ScheduleDecoder(problem);
+        double averageDuration = Arrays.stream(problem.duration).average().orElse(1);
+        
+        // 最小最迟开始时间优先, 按优先级加权提前高优先级项目
+        PortfolioPlan first = null;
+        for (double lambda : RULE_WEIGHTS) {
+            double[] keys = new double[problem.taskCount];
+            for (int t = 0; t < problem.taskCount; t++) {
+                keys[t] = problem.latestStart[t] - lambda * problem.weight[problem.taskProject[t]] * averageDuration;
+            }
+            PortfolioPlan plan = decoder.decode(keys);
+            if (first == null || plan.cost < first.cost) first = plan;
+        }
+        this.initial = first;
+        this.initialMicros = (System.nanoTime() - begin) / 1000;
+        best.set(first);
+    }
+    
+    public synchronized void improveInBackground(long millis, int threads) {
+        stop();
+        running = true;
+        startedAt = System.currentTimeMillis();
+        long deadline = startedAt + millis;
+        workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "portfolio-search");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < threads; i++) {
+            workers.execute(() -> search(deadline));
+        }
+        workers.shutdown();
+    }
+    
+    public synchronized void stop() {
+        running = false;
+        if (workers != null) {
+            try {
+                workers.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            workers = null;
+        }
+    }
+    
+    public boolean awaitDone(long timeoutMillis) throws InterruptedException {
+        ExecutorService current = workers;
+        return current == null || current.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+    
+    private void search(long deadline) {
+        ScheduleDecoder decoder = new ScheduleDecoder(problem);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        // 加权延误为 0 即已最优, 提前结束
+        while (running && System.currentTimeMillis() < deadline && best.get().cost > 0) {
+            PortfolioPlan base = best.get();
+            PortfolioPlan candidate = decoder.decode(mutate(base, random));
+            iterations.increment();
+            
+            PortfolioPlan current;
+            while (candidate.cost < (current = best.get()).cost) {
+                if (best.compareAndSet(current, candidate)) {
+                    improvements.incrementAndGet();
+                    break;
+                }
+            }
+        }
+    }
+    
+    // 邻域: 整体提前一个延误项目 / 提前单个任务 / 交换两个任务的键
+    private double[] mutate(PortfolioPlan base, ThreadLocalRandom random) {
+        double[] keys = base.keys.clone();
+        int move = random.nextInt(10);
+        if (move < 5) {
+            int project = pickTardyProject(base, random);
+            int tardiness = Math.max(1, base.projectFinish[project] - problem.due[project]);
+            double shift = random.nextDouble() * tardiness;
+            for (int t = problem.firstTask[project]; t < problem.firstTask[project + 1]; t++) {
+                keys[t] -= shift;
+            }
+        } else if (move < 8) {
+            int t = random.nextInt(problem.taskCount);
+            keys[t] -= random.nextDouble() * Math.max(1, problem.duration[t]) * 4;
+        } else {
+            int a = random.nextInt(problem.taskCount);
+            int b = random.nextInt(problem.taskCount);
+            double key = keys[a];
+            keys[a] = keys[b];
+            keys[b] = key;
+        }
+        return keys;
+    }
+    
+    // 按加权延误抽样, 没有延误时随机选
+    private int pickTardyProject(PortfolioPlan plan, ThreadLocalRandom random) {
+        long total = 0;
+        for (int p = 0; p < problem.projectCount(); p++) {
+            total += (long) problem.weight[p] * Math.max(0, plan.projectFinish[p] - problem.due[p]);
+        }
+        if (total == 0) return random.nextInt(problem.projectCount());
+        long target = random.nextLong(total);
+        for (int p = 0; p < problem.projectCount(); p++) {
+            target -= (long) problem.weight[p] * Math.max(0, plan.projectFinish[p] - problem.due[p]);
+            if (target < 0) return p;
+        }
+        return problem.projectCount() - 1;
+    }
+    
+    public PortfolioPlan getBest() { return best.get(); }
+    public PortfolioPlan getInitial() { return initial; }
+    public long getInitialMicros() { return initialMicros; }
+    public long getIterations() { return iterations.sum(); }
+    public long getImprovements() { return improvements.get(); }
+    public boolean isRunning() { return running && workers != null && !workers.isTerminated(); }
+    public PortfolioProblem getProblem() { return problem; }
+    
+    public void showStatus() {
+        PortfolioPlan plan = best.get();
+        System.out.println("\n🧮 组合优化状态:");
+        System.out.println("  规模: " + problem.projectCount() + " 个项目, " + problem.taskCount + " 个任务, "
+            + problem.capacity.length + " 类资源");
+        System.out.println("  初始方案: 加权延误 " + initial.cost + ", 总跨度 " + initial.makespan
+            + " 天 (" + initialMicros / 1000.0 + " ms)");
+        System.out.println("  当前最优: 加权延误 " + plan.cost + ", 总跨度 " + plan.makespan + " 天");
+        System.out.println("  搜索: " + getIterations() + " 次解码, " + getImprovements() + " 次改进"
+            + (isRunning() ? " (运行中)" : ""));
+    }
+    
+    public void showPlan(String projectId) {
+        PortfolioPlan plan = best.get();
+        if (projectId == null) {
+            System.out.println("\n📋 各项目完成时间 (按加权延误降序):");
+            Integer[] order = new Integer[problem.projectCount()];
+            for (int p = 0; p < order.length; p++) order[p] = p;
+            Arrays.sort(order, Comparator.comparingLong((Integer p) ->
+                -(long) problem.weight[p] * Math.max(0, plan.projectFinish[p] - problem.due[p])));
+            for (int p : order) {
+                int late = Math.max(0, plan.projectFinish[p] - problem.due[p]);
+                System.out.printf("  %-14s 优先级:%-3d 期限:%-4d 完成:%-4d 延误:%d%n",
+                    problem.projectIds[p], problem.weight[p], problem.due[p], plan.projectFinish[p], late);
+            }
+            return;
+        }
+        
+        int project = Arrays.asList(problem.projectIds).indexOf(projectId);
+        if (project < 0) {
+            System.out.println("❌ 方案中没有项目: " + projectId);
+            return;
+        }
+        System.out.println("\n📋 " + projectId + " 资源平衡后的活动安排 (期限 " + problem.due[project]
+            + " 天, 完成 " + plan.projectFinish[project] + " 天):");
+        List<Integer> tasks = new ArrayList<>();
+        for (int t = problem.firstTask[project]; t < problem.firstTask[project + 1]; t++) {
+            if (problem.duration[t] > 0) tasks.add(t);
+        }
+        tasks.sort(Comparator.comparingInt(t -> plan.start[t]));
+        for (int t : tasks) {
+            StringBuilder needs = new StringBuilder();
+            for (int r : problem.demand[t]) {
+                needs.append(needs.length() > 0 ? "," : "").append(problem.resourceNames[r]);
+            }
+            System.out.printf("  %4d - %-4d %-28s %s%n", plan.start[t], plan.start[t] + problem.duration[t],
+                problem.taskName[t], needs);
+        }
+    }
+}
+
+// ==================== 资源调度器 ====================
+
+// 并发资源调度: 资源池按容量计数 (支持小数单位), 分配通过 CAS 扣减空闲容量,
+// 不足时按优先级部分抢占低优先级持有者, 仍不足则进入按优先级排序的等待队列
+class ResourceScheduler {
+    private Map<String, ResourcePool> resourcePool;
+    private ProjectManager projectManager;
+    private final ScheduledExecutorService timer;
+    private volatile EventLog eventLog;
+    
+    public ResourceScheduler(ProjectManager projectManager) {
+        this.resourcePool = new ConcurrentHashMap<>();
+        this.projectManager = projectManager;
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "resource-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    public void addResource(String resourceId, String name) {
+        addResource(resourceId, name, ResourcePool.UNIT);
+    }
+    
+    // capacity 以千分之一单位计, 例如 40 名开发人员 = 40 * ResourcePool.UNIT
+    public void addResource(String resourceId, String name, long capacity) {
+        ResourcePool pool = new ResourcePool(resourceId, name, capacity);
+        pool.setEventLog(eventLog);
+        resourcePool.put(resourceId, pool);
+        if (eventLog != null) {
+            eventLog.appendResource(resourceId, name, capacity);
+        }
+        System.out.println("➕ 添加资源: " + name + " (容量 " + ResourcePool.format(capacity) + ")");
+    }
+    
+    // 恢复: 资源池已存在且容量一致时保留现有持有
+    public void restoreResource(String resourceId, String name, long capacity) {
+        ResourcePool existing = resourcePool.get(resourceId);
+        if (existing == null || existing.getCapacity() != capacity) {
+            addResource(resourceId, name, capacity);
+        }
+    }
+    
+    public void restoreHolding(String resourceId, ProjectContext project, long held) {
+        ResourcePool pool = resourcePool.get(resourceId);
+        if (pool == null) return;
+        pool.restoreHolding(project.getProjectId(), project.getPriority(), held);
+        if (held > 0) {
+            project.getAllocatedResources().add(resourceId);
+        } else {
+            project.getAllocatedResources().remove(resourceId);
+        }
+    }
+    
+    public void setEventLog(EventLog log) {
+        this.eventLog = log;
+        for (ResourcePool pool : resourcePool.values()) {
+            pool.setEventLog(log);
+        }
+    }
+    
+    // 同步请求 1 个单位: 立即获得返回 true; 否则项目进入 WAITING 并排队, 容量释放后自动获得
+    public boolean requestResource(String resourceId, ProjectContext project) {
+        return requestResource(resourceId, project, ResourcePool.UNIT);
+    }
+    
+    public boolean requestResource(String resourceId, ProjectContext project, long units) {
+        CompletableFuture<Boolean> grant = requestResource(resourceId, project, units, 0);
+        return grant.isDone() && grant.getNow(false);
+    }
+    
+    // 异步请求: timeoutMillis > 0 时等待超时后放弃排队并以 false 完成
+    public CompletableFuture<Boolean> requestResource(String resourceId, ProjectContext project, long units, long timeoutMillis) {
+        ResourcePool pool = resourcePool.get(resourceId);
+        
+        if (pool == null) {
+            System.out.println("❌ 资源不存在: " + resourceId);
+            return CompletableFuture.completedFuture(false);
+        }
+        if (units <= 0 || units > pool.getCapacity()) {
+            System.out.println("❌ 请求数量无效: " + ResourcePool.format(units) + " (容量 " + ResourcePool.format(pool.getCapacity()) + ")");
+            return CompletableFuture.completedFuture(false);
+        }
+        
+        // 不越过同级或更高优先级的等待者, 保证大请求不会被小请求饿死
+        ResourceWaiter head = pool.peekWaiter();
+        boolean mayJump = head == null || head.getProject().getPriority() < project.getPriority();
+        if (mayJump && pool.tryAcquire(units)) {
+            onGranted(pool, project, units);
+            return CompletableFuture.completedFuture(true);
+        }
+        
+        if (mayJump && preempt(pool, project, units)) {
+            onGranted(pool, project, units);
+            return CompletableFuture.completedFuture(true);
+        }
+        
+        ResourceWaiter waiter = new ResourceWaiter(project, units);
+        pool.enqueue(waiter);
+        project.setStatus(ProjectStatus.WAITING);
+        System.out.println("⏳ 资源不足, 已加入等待队列: " + resourceId + " ×" + ResourcePool.format(units)
+            + " (空闲 " + ResourcePool.format(pool.getFree()) + ", 排队 " + pool.getWaiterCount() + ")");
+        
+        // 入队后容量可能已被释放, 补一次移交避免错过唤醒
+        grantToWaiters(pool);
+        
+        if (timeoutMillis > 0) {
+            timer.schedule(() -> expire(pool, waiter), timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        return waiter.getGrant();
+    }
+    
+    // 部分抢占: 从优先级最低的持有者开始只回收缺口部分, 凑不够则一个都不动
+    private boolean preempt(ResourcePool pool, ProjectContext project, long units) {
+        long shortfall = units - pool.getFree();
+        if (shortfall <= 0) return false;
+        List<ResourceHolding> victims = new ArrayList<>();
+        long reclaimable = 0;
+        for (ResourceHolding holding : pool.holders()) {
+            if (holding.getPriority() >= project.getPriority()) break;
+            if (holding.getProjectId().equals(project.getProjectId())) continue;
+            victims.add(holding);
+            reclaimable += pool.heldBy(holding.getProjectId());
+            if (reclaimable >= shortfall) break;
+        }
+        if (reclaimable < shortfall) return false;
+        
+        long[] taken = new long[victims.size()];
+        long transferred = 0;
+        for (int i = 0; i < victims.size() && transferred < shortfall; i++) {
+            taken[i] = pool.debit(victims.get(i).getProjectId(), shortfall - transferred);
+            transferred += taken[i];
+        }
+        if (transferred < shortfall || !pool.tryAcquire(units - transferred)) {
+            // 并发下空闲容量被他人取走, 回滚到原持有者
+            for (int i = 0; i < victims.size(); i++) {
+                if (taken[i] > 0) pool.credit(victims.get(i).getProjectId(), victims.get(i).getPriority(), taken[i]);
+            }
+            return false;
+        }
+        
+        for (int i = 0; i < victims.size(); i++) {
+            if (taken[i] == 0) continue;
+            // 归档前已释放全部资源, 持有者只会是堆上的项目; 查不到时不载回归档
+            ProjectContext victim = projectManager.getLiveProject(victims.get(i).getProjectId());
+            if (victim == null) continue;
+            long remaining = pool.heldBy(victim.getProjectId());
+            if (remaining == 0) {
+                System.out.println("⚠️ 高优先级项目抢占资源: " + pool.getId() + " ← " + victim.getProjectName());
+                victim.getAllocatedResources().remove(pool.getId());
+                victim.setStatus(ProjectStatus.SUSPENDED);
+            } else {
+                System.out.println("⚠️ 部分抢占资源: " + pool.getId() + " ← " + victim.getProjectName()
+                    + " ×" + ResourcePool.format(taken[i]) + " (剩余 " + ResourcePool.format(remaining) + ")");
+            }
+        }
+        return true;
+    }
+    
+    public void releaseResource(String resourceId, ProjectContext project) {
+        releaseResource(resourceId, project, Long.MAX_VALUE);
+    }
+    
+    public void releaseResource(String resourceId, ProjectContext project, long units) {
+        ResourcePool pool = resourcePool.get(resourceId);
+        if (pool != null) {
+            long released = pool.release(project.getProjectId(), units);
+            if (released > 0) {
+                if (pool.heldBy(project.getProjectId()) == 0) {
+                    project.getAllocatedResources().remove(resourceId);
+                }
+                System.out.println("🔓 释放资源 " + resourceId + " ×" + ResourcePool.format(released) + " ← " + project.getProjectName());
+            }
+            grantToWaiters(pool);
+        }
+    }
+    
+    // 项目删除时撤销其所有排队请求
+    public void cancelWaits(ProjectContext project) {
+        for (ResourcePool pool : resourcePool.values()) {
+            if (pool.removeWaiters(project.getProjectId())) {
+                grantToWaiters(pool);
+            }
+        }
+    }
+    
+    // 按优先级顺序移交给等待者; 队首放不下时停止, 不让后面的小请求越过它
+    private void grantToWaiters(ResourcePool pool) {
+        synchronized (pool) {
+            ResourceWaiter waiter;
+            while ((waiter = pool.peekWaiter()) != null) {
+                if (waiter.getGrant().isDone()) {
+                    pool.removeWaiter(waiter);
+                    continue;
+                }
+                if (!pool.tryAcquire(waiter.getUnits())) return;
+                pool.removeWaiter(waiter);
+                
+                ProjectContext project = waiter.getProject();
+                if (!waiter.getGrant().complete(true)) {
+                    pool.giveBack(waiter.getUnits());
+                    continue;
+                }
+                onGranted(pool, project, waiter.getUnits());
+                if (project.getStatus() == ProjectStatus.WAITING) {
+                    project.setStatus(ProjectStatus.ACTIVE);
+                    projectManager.getExecutionScheduler().resume(project.getProjectId());
+                }
+            }
+        }
+    }
+    
+    private void expire(ResourcePool pool, ResourceWaiter waiter) {
+        if (pool.removeWaiter(waiter) && waiter.getGrant().complete(false)) {
+            ProjectContext project = waiter.getProject();
+            System.out.println("⌛ 等待资源超时: " + pool.getId() + " ← " + project.getProjectName());
+            if (project.getStatus() == ProjectStatus.WAITING) {
+                project.setStatus(ProjectStatus.ACTIVE);
+                projectManager.getExecutionScheduler().resume(project.getProjectId());
+            }
+            // 超时的可能是队首, 后面的等待者也许已经放得下
+            grantToWaiters(pool);
+        }
+    }
+    
+    private void onGranted(ResourcePool pool, ProjectContext project, long units) {
+        pool.credit(project.getProjectId(), project.getPriority(), units);
+        project.getAllocatedResources().add(pool.getId());
+        System.out.println("✅ 分配资源 " + pool.getId() + " ×" + ResourcePool.format(units) + " → " + project.getProjectName());
+    }
+    
+    public Collection<ResourcePool> getPools() {
+        return resourcePool.values();
+    }
+    
+    public void showResourceStatus() {
+        System.out.println("\n📊 资源使用情况:");
+        System.out.println("┌──────────────────┬────────┬────────┬──────────────────┬────────┐");
+        System.out.println("│ 资源ID            │ 容量   │ 已用   │ 持有项目          │ 等待数 │");
+        System.out.println("├──────────────────┼────────┼────────┼──────────────────┼────────┤");
+        
+        for (ResourcePool pool : resourcePool.values()) {
+            int holderCount = pool.getHolderCount();
+            String holderName = "-";
+            if (holderCount == 1) {
+                String holderId = pool.holders().iterator().next().getProjectId();
+                ProjectContext project = projectManager.getLiveProject(holderId);
+                ArchivedProject archive = project == null ? projectManager.getArchived(holderId) : null;
+                if (project != null) {
+                    holderName = truncate(project.getProjectName(), 16);
+                } else if (archive != null) {
+                    holderName = truncate(archive.getProjectName(), 16);
+                }
+            } else if (holderCount > 1) {
+                holderName = holderCount + " 个项目";
+            }
+            
+            System.out.printf("│ %-16s │ %-6s │ %-6s │ %-16s │ %-6d │%n",
+                truncate(pool.getId(), 16),
+                ResourcePool.format(pool.getCapacity()),
+                ResourcePool.format(pool.getCapacity() - pool.getFree()),
+                holderName,
+                pool.getWaiterCount()
+            );
+        }
+        
+        System.out.println("└──────────────────┴────────┴────────┴──────────────────┴────────┘");
+    }
+    
+    private String truncate(String str, int length) {
+        return str.length() > length ? str.substring(0, length - 2) + ".." : str;
+    }
+}
+
+// ==================== 资源池 ====================
+
+// 容量资源池: 空闲容量用 AtomicLong 做 CAS 扣减 (千分之一单位, 支持 0.5 个测试台这类小数),
+// 持有者按 (优先级升序, 项目ID) 放在跳表中, 抢占时从最低优先级开始 O(log n) 定位
+class ResourcePool {
+    static final long UNIT = 1000;
+    
+    private String id;
+    private String name;
+    private final long capacity;
+    private final AtomicLong free;
+    private final ConcurrentHashMap<String, ResourceHolding> held;
+    private final ConcurrentSkipListSet<ResourceHolding> holders;
+    private final PriorityBlockingQueue<ResourceWaiter> waiters;
+    // 每个项目的持有量日志顺序; 持有量归零移出 held 后仍保留, 前后两段持有的记录也不会乱序
+    private final ConcurrentHashMap<String, HoldingJournal> journals = new ConcurrentHashMap<>();
+    private volatile EventLog eventLog;
+    
+    public ResourcePool(String id, String name, long capacity) {
+        this.id = id;
+        this.name = name;
+        this.capacity = capacity;
+        this.free = new AtomicLong(capacity);
+        this.held = new ConcurrentHashMap<>();
+        this.holders = new ConcurrentSkipListSet<>(ResourceHolding.ORDER);
+        this.waiters = new PriorityBlockingQueue<>(8, ResourceWaiter.ORDER);
+    }
+    
+    public static long parse(String units) {
+        return Math.round(Double.parseDouble(units) * UNIT);
+    }
+    
+    public static String format(long units) {
+        return units % UNIT == 0 ? String.valueOf(units / UNIT) : String.valueOf(units / (double) UNIT);
+    }
+    
+    public boolean tryAcquire(long units) {
+        while (true) {
+            long current = free.get();
+            if (current < units) return false;
+            if (free.compareAndSet(current, current - units)) return true;
+        }
+    }
+    
+    public void giveBack(long units) {
+        free.addAndGet(units);
+    }
+    
+    // 记入持有量; 持有量从 0 变为正数时登记到跳表, 同一记录同时留在 held 中供归零时直接移除.
+    // compute 内只取新值与变化序号, 日志在 compute 返回后写: 逐条刷盘时不占着哈希桶的锁
+    public void credit(String projectId, int priority, long units) {
+        HoldingJournal journal = journalOf(projectId);
+        long[] change = new long[2];
+        held.compute(projectId, (k, holding) -> {
+            if (holding == null) {
+                holding = new ResourceHolding(priority, projectId);
+                holders.add(holding);
+            }
+            holding.setAmount(holding.getAmount() + units);
+            change[0] = journal.nextSequence();
+            change[1] = holding.getAmount();
+            return holding;
+        });
+        journal(journal, change[0], change[1]);
+    }
+    
+    // 扣减持有量 (不归还空闲容量), 返回实际扣减数; 归零时按记录从跳表移除 (O(log n))
+    public long debit(String projectId, long units) {
+        HoldingJournal journal = journalOf(projectId);
+        long[] change = new long[3];
+        held.computeIfPresent(projectId, (k, holding) -> {
+            change[2] = Math.min(holding.getAmount(), units);
+            long rest = holding.getAmount() - change[2];
+            change[0] = journal.nextSequence();
+            change[1] = rest;
+            if (rest > 0) {
+                holding.setAmount(rest);
+                return holding;
+            }
+            holders.remove(holding);
+            return null;
+        });
+        if (change[0] > 0) {
+            journal(journal, change[0], change[1]);
+        }
+        return change[2];
+    }
+    
+    private HoldingJournal journalOf(String projectId) {
+        return journals.computeIfAbsent(projectId, HoldingJournal::new);
+    }
+    
+    // 日志失败只提示, 不能中断持有量与空闲容量的记账
+    private void journal(HoldingJournal journal, long sequence, long amount) {
+        EventLog log = eventLog;
+        if (log != null) {
+            try {
+                journal.write(log, id, sequence, amount);
+            } catch (IllegalStateException e) {
+                System.out.println("⚠ 资源持有量未记入日志: " + id + " ← " + journal.getProjectId() + " (" + e.getMessage() + ")");
+            }
+        }
+    }
+    
+    // 恢复持有量到给定绝对值, 空闲容量随之调整
+    public void restoreHolding(String projectId, int priority, long amount) {
+        long current = heldBy(projectId);
+        if (amount > current) {
+            free.addAndGet(current - amount);
+            credit(projectId, priority, amount - current);
+        } else if (amount < current) {
+            release(projectId, current - amount);
+        }
+    }
+    
+    // 快照读取: 与该项目进行中的 credit/debit 串行. 读到的值对应的日志记录可能在快照之后才写入,
+    // 持有量记录是绝对值且按变化顺序写入, 重放时再次设为同一值
+    public long heldForSnapshot(String projectId) {
+        long[] amount = new long[1];
+        held.computeIfPresent(projectId, (k, holding) -> {
+            amount[0] = holding.getAmount();
+            return holding;
+        });
+        return amount[0];
+    }
+    
+    public long release(String projectId, long units) {
+        long released = debit(projectId, units);
+        free.addAndGet(released);
+        return released;
+    }
+    
+    public long heldBy(String projectId) {
+        ResourceHolding holding = held.get(projectId);
+        return holding != null ? holding.getAmount() : 0;
+    }
+    
+    public void enqueue(ResourceWaiter waiter) { waiters.offer(waiter); }
+    public ResourceWaiter peekWaiter() { return waiters.peek(); }
+    public boolean removeWaiter(ResourceWaiter waiter) { return waiters.remove(waiter); }
+    
+    public boolean removeWaiters(String projectId) {
+        return waiters.removeIf(w -> {
+            if (w.getProject().getProjectId().equals(projectId)) {
+                w.getGrant().complete(false);
+                return true;
+            }
+            return false;
+        });
+    }
+    
+    public String getId() { return id; }
+    public String getName() { return name; }
+    public long getCapacity() { return capacity; }
+    public long getFree() { return free.get(); }
+    public Set<ResourceHolding> holders() { return holders; }
+    public int getHolderCount() { return held.size(); }
+    public int getWaiterCount() { return waiters.size(); }
+    public void setEventLog(EventLog eventLog) { this.eventLog = eventLog; }
+}
+
+// 单个项目在一个资源池上的持有量日志顺序. 变化序号在持有量的 compute 内分配, 写日志在其外;
+// 持有量记录是绝对值, 序号落后于已写入记录的变化直接跳过, 日志中的最后一条总是最新的值
+class HoldingJournal {
+    private final String projectId;
+    private final AtomicLong sequence = new AtomicLong();
+    private long written;
+    
+    public HoldingJournal(String projectId) {
+        this.projectId = projectId;
+    }
+    
+    public long nextSequence() {
+        return sequence.incrementAndGet();
+    }
+    
+    // 同一项目的写入在此串行 (ALWAYS 策略下等待刷盘), 其他项目不受影响
+    public synchronized void write(EventLog log, String resourceId, long changeSequence, long amount) {
+        if (changeSequence <= written) return;
+        log.appendHolding(resourceId, projectId, amount);
+        written = changeSequence;
+    }
+    
+    public String getProjectId() { return projectId; }
+}
+
+// 资源持有记录 (跳表键); 排序只看优先级与项目ID, 持有量在 held 的 compute 内修改
+class ResourceHolding {
+    static final Comparator<ResourceHolding> ORDER = Comparator
+        .comparingInt(ResourceHolding::getPriority)
+        .thenComparing(ResourceHolding::getProjectId);
+    
+    private final int priority;
+    private final String projectId;
+    private volatile long amount;
+
+    public ResourceHolding(int priority, String projectId) {
+        this.priority = priority;
+        this.projectId = projectId;
+    }
+    
+    public int getPriority() { return priority; }
+    public String getProjectId() { return projectId; }
+    public long getAmount() { return amount; }
+    void setAmount(long amount) { this.amount = amount; }
+}
+
+// 资源等待者
+class ResourceWaiter {
+    static final Comparator<ResourceWaiter> ORDER = Comparator
+        .comparingInt((ResourceWaiter w) -> -w.getProject().getPriority())
+        .thenComparingLong(ResourceWaiter::getSequence);
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+    
+    private final ProjectContext project;
+    private final long units;
+    private final long sequence;
+    private final CompletableFuture<Boolean> grant;
+    
+    public ResourceWaiter(ProjectContext project, long units) {
+        this.project = project;
+        this.units = units;
+        this.sequence = SEQUENCE.incrementAndGet();
+        this.grant = new CompletableFuture<>();
+    }
+    
+    public ProjectContext getProject() { return project; }
+    public long getUnits() { return units; }
+    public long getSequence() { return sequence; }
+    public CompletableFuture<Boolean> getGrant() { return grant; }
+}
+
+// ==================== 配置数据模型 ====================
+
+class OntologyDef {
+    private String id;
+    private String name;
+    private String category;
+    private List<Map<String, Object>> attributes;
+    
+    public OntologyDef() {}
+    
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+    public String getName() { return name; }
+    public void setName(String name) { this.name = name; }
+    public String getCategory() { return category; }
+    public void setCategory(String category) { this.category = category; }
+    public List<Map<String, Object>> getAttributes() { return attributes; }
+    public void setAttributes(List<Map<String, Object>> attributes) { this.attributes = attributes; }
+}
+
+class ActivityDef {
+    private String id;
+    private String name;
+    private String phase;
+    private String category;
+    private String description;
+    private int duration_estimate;
+    private List<String> inputs;
+    private List<String> outputs;
+    private List<String> required_roles;
+    // 执行策略: 单次尝试超时与最多尝试次数, 0 表示使用运行时默认值
+    private int timeout_seconds;
+    private int max_attempts;
+    
+    public ActivityDef() {}
+    
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+    public String getName() { return name; }
+    public void setName(String name) { this.name = name; }
+    public String getPhase() { return phase; }
+    public void setPhase(String phase) { this.phase = phase; }
+    public String getCategory() { return category; }
+    public void setCategory(String category) { this.category = category; }
+    public String getDescription() { return description; }
+    public void setDescription(String description) { this.description = description; }
+    public int getDuration_estimate() { return duration_estimate; }
+    public void setDuration_estimate(int duration_estimate) { this.duration_estimate = duration_estimate; }
+    public List<String> getInputs() { return inputs; }
+    public void setInputs(List<String> inputs) { this.inputs = inputs; }
+    public List<String> getOutputs() { return outputs; }
+    public void setOutputs(List<String> outputs) { this.outputs = outputs; }
+    public List<String> getRequired_roles() { return required_roles; }
+    public void setRequired_roles(List<String> required_roles) { this.required_roles = required_roles; }
+    public int getTimeout_seconds() { return timeout_seconds; }
+    public void setTimeout_seconds(int timeout_seconds) { this.timeout_seconds = timeout_seconds; }
+    public int getMax_attempts() { return max_attempts; }
+    public void setMax_attempts(int max_attempts) { this.max_attempts = max_attempts; }
+}
+
+class RelationshipDef {
+    private String id;
+    private String name;
+    private List<String> source_types;
+    private List<String> target_types;
+    private String cardinality;
+    private String description;
+    private List<String> validation_rules;
+    private boolean acyclic;
+    
+    public RelationshipDef() {}
+    
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+    public String getName() { return name; }
+    public void setName(String name) { this.name = name; }
+    public List<String> getSource_types() { return source_types; }
+    public void setSource_types(List<String> source_types) { this.source_types = source_types; }
+    public List<String> getTarget_types() { return target_types; }
+    public void setTarget_types(List<String> target_types) { this.target_types = target_types; }
+    public String getCardinality() { return cardinality; }
+    public void setCardinality(String cardinality) { this.cardinality = cardinality; }
+    public String getDescription() { return description; }
+    public void setDescription(String description) { this.description = description; }
+    public List<String> getValidation_rules() { return validation_rules; }
+    public void setValidation_rules(List<String> validation_rules) { this.validation_rules = validation_rules; }
+    public boolean isAcyclic() { return acyclic; }
+    public void setAcyclic(boolean acyclic) { this.acyclic = acyclic; }
+}
+
+class ProjectTemplate {
+    private String template_id;
+    private String template_name;
+    private String workflow_mode;
+    private String description;
+    private List<String> ontologies;
+    private Map<String, List<String>> activities;
+    private List<String> relationships;
+    private Map<String, Map<String, Object>> phase_gates;
+    private Map<String, Object> quality_standards;
+    
+    public ProjectTemplate() {}
+    
+    public String getTemplate_id() { return template_id; }
+    public void setTemplate_id(String template_id) { this.template_id = template_id; }
+    public String getTemplate_name() { return template_name; }
+    public void setTemplate_name(String template_name) { this.template_name = template_name; }
+    public String getWorkflow_mode() { return workflow_mode; }
+    public void setWorkflow_mode(String workflow_mode) { this.workflow_mode = workflow_mode; }
+    public String getDescription() { return description; }
+    public void setDescription(String description) { this.description = description; }
+    public List<String> getOntologies() { return ontologies; }
+    public void setOntologies(List<String> ontologies) { this.ontologies = ontologies; }
+    public Map<String, List<String>> getActivities() { return activities; }
+    public void setActivities(Map<String, List<String>> activities) { this.activities = activities; }
+    public List<String> getRelationships() { return relationships; }
+    public void setRelationships(List<String> relationships) { this.relationships = relationships; }
+    public Map<String, Map<String, Object>> getPhase_gates() { return phase_gates; }
+    public void setPhase_gates(Map<String, Map<String, Object>> phase_gates) { this.phase_gates = phase_gates; }
+    public Map<String, Object> getQuality_standards() { return quality_standards; }
+    public void setQuality_standards(Map<String, Object> quality_standards) { this.quality_standards = quality_standards; }
+}
+
+// ==================== 模板管理器 ====================
+
+// 配置库快照: 构建后不再修改, 热加载时整体替换; 读取方取一次引用即可, 无需加锁.
+// 定义对象每次解析都新建, 旧快照 (及引用它的项目) 看到的定义保持不变
+class ConfigLibrary {
+    private final long version;
+    private final Map<String, OntologyDef> ontologies;
+    private final Map<String, ActivityDef> activities;
+    private final Map<String, RelationshipDef> relationships;
+    private final Map<String, ProjectTemplate> templates;
+    private final RuleLibrary rules;
+    // 模板文件 -> 模板ID, 热加载按文件定位要替换的模板
+    private final Map<Path, String> templateFiles;
+    private final Map<String, TemplateImage> images = new ConcurrentHashMap<>();
+    
+    public ConfigLibrary(long version, Map<String, OntologyDef> ontologies, Map<String, ActivityDef> activities,
+                         Map<String, RelationshipDef> relationships, Map<String, ProjectTemplate> templates,
+                         RuleLibrary rules, Map<Path, String> templateFiles) {
+        this.version = version;
+        this.ontologies = Collections.unmodifiableMap(ontologies);
+        this.activities = Collections.unmodifiableMap(activities);
+        this.relationships = Collections.unmodifiableMap(relationships);
+        this.templates = Collections.unmodifiableMap(templates);
+        this.rules = rules;
+        this.templateFiles = Collections.unmodifiableMap(templateFiles);
+    }
+    
+    public static ConfigLibrary empty() {
+        return new ConfigLibrary(0, new HashMap<>(), new HashMap<>(), new HashMap<>(), new HashMap<>(),
+            RuleLibrary.empty(), new HashMap<>());
+    }
+    
+    public ConfigLibrary withOntologies(List<OntologyDef> defs) {
+        return new ConfigLibrary(version + 1, index("本体", defs, OntologyDef::getId), new HashMap<>(activities),
+            new HashMap<>(relationships), new HashMap<>(templates), rules, new HashMap<>(templateFiles));
+    }
+    
+    public ConfigLibrary withRules(RuleLibrary rules) {
+        return new ConfigLibrary(version + 1, new HashMap<>(ontologies), new HashMap<>(activities),
+            new HashMap<>(relationships), new HashMap<>(templates), rules, new HashMap<>(templateFiles));
+    }
+    
+    public ConfigLibrary withActivities(List<ActivityDef> defs) {
+        return new ConfigLibrary(version + 1, new HashMap<>(ontologies), index("活动", defs, ActivityDef::getId),
+            new HashMap<>(relationships), new HashMap<>(templates), rules, new HashMap<>(templateFiles));
+    }
+    
+    public ConfigLibrary withRelationships(List<RelationshipDef> defs) {
+        return new ConfigLibrary(version + 1, new HashMap<>(ontologies), new HashMap<>(activities),
+            index("关系", defs, RelationshipDef::getId), new HashMap<>(templates), rules, new HashMap<>(templateFiles));
+    }
+    
+    // 替换 (或新增) 某个文件定义的模板; 文件内改了 template_id 时旧ID一并移除
+    public ConfigLibrary withTemplate(Path file, ProjectTemplate template) {
+        Map<String, ProjectTemplate> nextTemplates = new HashMap<>(templates);
+        Map<Path, String> nextFiles = new HashMap<>(templateFiles);
+        String previous = nextFiles.put(file, template.getTemplate_id());
+        if (previous != null) {
+            nextTemplates.remove(previous);
+        }
+        if (nextTemplates.containsKey(template.getTemplate_id())) {
+            throw new IllegalArgumentException("模板ID重复: " + template.getTemplate_id());
+        }
+        nextTemplates.put(template.getTemplate_id(), template);
+        return new ConfigLibrary(version + 1, new HashMap<>(ontologies), new HashMap<>(activities),
+            new HashMap<>(relationships), nextTemplates, rules, nextFiles);
+    }
+    
+    public ConfigLibrary withoutTemplate(Path file) {
+        Map<String, ProjectTemplate> nextTemplates = new HashMap<>(templates);
+        Map<Path, String> nextFiles = new HashMap<>(templateFiles);
+        String previous = nextFiles.remove(file);
+        if (previous == null) {
+            return this;
+        }
+        nextTemplates.remove(previous);
+        return new ConfigLibrary(version + 1, new HashMap<>(ontologies), new HashMap<>(activities),
+            new HashMap<>(relationships), nextTemplates, rules, nextFiles);
+    }
+    
+    private static <T> Map<String, T> index(String kind, List<T> defs, Function<T, String> idOf) {
+        Map<String, T> result = new HashMap<>();
+        for (T def : defs) {
+            String id = idOf.apply(def);
+            if (id == null) {
+                throw new IllegalArgumentException(kind + "定义缺少 id");
+            }
+            if (result.put(id, def) != null) {
+                throw new IllegalArgumentException(kind + "ID重复: " + id);
+            }
+        }
+        return result;
+    }
+    
+    // 校验模板引用、门禁与规则所属关系; 返回错误列表, 为空表示快照可用
+    public List<String> validate() {
+        List<String> errors = new ArrayList<>();
+        for (String relId : rules.relationships()) {
+            if (!relationships.containsKey(relId)) errors.add("规则库: 未知关系 " + relId);
+        }
+        for (String topic : rules.topics()) {
+            // 活动状态事件的类型为 activity, 不在本体库中
+            if (!ontologies.containsKey(topic) && !"activity".equals(topic)) errors.add("规则库: 未知订阅主题 " + topic);
+        }
+        for (ProjectTemplate template : templates.values()) {
+            String id = template.getTemplate_id();
+            try {
+                WorkflowMode.valueOf(String.valueOf(template.getWorkflow_mode()).toUpperCase());
+            } catch (IllegalArgumentException e) {
+                errors.add(id + ": 无效的工作流模式 " + template.getWorkflow_mode());
+            }
+            if (template.getOntologies() == null) {
+                errors.add(id + ": 缺少本体集");
+            } else {
+                for (String ontId : template.getOntologies()) {
+                    if (!ontologies.containsKey(ontId)) errors.add(id + ": 未知本体 " + ontId);
+                }
+            }
+            if (template.getActivities() != null) {
+                template.getActivities().values().forEach(ids -> {
+                    for (String actId : ids) {
+                        if (!activities.containsKey(actId)) errors.add(id + ": 未知活动 " + actId);
+                    }
+                });
+            }
+            if (template.getRelationships() != null) {
+                for (String relId : template.getRelationships()) {
+                    if (!relationships.containsKey(relId)) errors.add(id + ": 未知关系 " + relId);
+                }
+            }
+            int gateErrors = errors.size();
+            if (template.getPhase_gates() != null) {
+                for (String gateId : template.getPhase_gates().keySet()) {
+                    if (PhaseGate.phaseOf(gateId) == null) errors.add(id + ": 无法识别的门禁 " + gateId);
+                }
+            }
+            if (errors.size() == gateErrors) {
+                try {
+                    PhaseGate.compileAll(template.getPhase_gates(), template.getQuality_standards());
+                } catch (RuntimeException e) {
+                    errors.add(id + ": 门禁编译失败 " + e);
+                }
+            }
+        }
+        return errors;
+    }
+    
+    public long getVersion() { return version; }
+    public Map<String, OntologyDef> getOntologies() { return ontologies; }
+    public Map<String, ActivityDef> getActivities() { return activities; }
+    public Map<String, RelationshipDef> getRelationships() { return relationships; }
+    public Map<String, ProjectTemplate> getTemplates() { return templates; }
+    public RuleLibrary getRules() { return rules; }
+    public Map<Path, String> getTemplateFiles() { return templateFiles; }
+    
+    // 模板镜像随快照缓存, 热加载换快照后自然失效
+    public TemplateImage imageOf(ProjectTemplate template) {
+        return images.computeIfAbsent(template.getTemplate_id(), id -> TemplateImage.compile(template, this));
+    }
+}
+
+// 模板镜像: 同一配置快照下每个模板只编译一次, 基于该模板创建的所有项目共享
+// 冻结的定义表、预编译的规则分派表, 以及驻留好的属性ID与各类型的列布局
+class TemplateImage {
+    private final String templateId;
+    private final Map<String, OntologyDef> ontologies;
+    private final Map<String, ActivityDef> activities;
+    private final Map<String, RelationshipDef> relationships;
+    private final Map<Phase, PhaseGate> phaseGates;
+    private final Map<String, Object> qualityStandards;
+    private final RuleDispatchTable rules;
+    private final List<JoinRule> joins;
+    private final List<String> attributeNames;
+    private final Map<String, Integer> attributeIds;
+    private final Map<String, TypeLayout> layouts;
+    
+    private TemplateImage(String templateId, Map<String, OntologyDef> ontologies, Map<String, ActivityDef> activities,
+                          Map<String, RelationshipDef> relationships, Map<Phase, PhaseGate> phaseGates,
+                          Map<String, Object> qualityStandards, RuleDispatchTable rules, List<JoinRule> joins,
+                          List<String> attributeNames, Map<String, Integer> attributeIds, Map<String, TypeLayout> layouts) {
+        this.templateId = templateId;
+        this.ontologies = Collections.unmodifiableMap(ontologies);
+        this.activities = Collections.unmodifiableMap(activities);
+        this.relationships = Collections.unmodifiableMap(relationships);
+        this.phaseGates = Collections.unmodifiableMap(phaseGates);
+        this.qualityStandards = Collections.unmodifiableMap(qualityStandards);
+        this.rules = rules;
+        this.joins = joins;
+        this.attributeNames = Collections.unmodifiableList(attributeNames);
+        this.attributeIds = Collections.unmodifiableMap(attributeIds);
+        this.layouts = Collections.unmodifiableMap(layouts);
+    }
+    
+    // 库中缺失的定义与逐项初始化时一样跳过
+    public static TemplateImage compile(ProjectTemplate template, ConfigLibrary lib) {
+        Map<String, OntologyDef> ontologies = new HashMap<>();
+        if (template.getOntologies() != null) {
+            template.getOntologies().forEach(id -> putIfDefined(ontologies, id, lib.getOntologies().get(id)));
+        }
+        Map<String, ActivityDef> activities = new LinkedHashMap<>();
+        if (template.getActivities() != null) {
+            template.getActivities().values().forEach(ids ->
+                ids.forEach(id -> putIfDefined(activities, id, lib.getActivities().get(id))));
+        }
+        Map<String, RelationshipDef> relationships = new HashMap<>();
+        if (template.getRelationships() != null) {
+            template.getRelationships().forEach(id -> putIfDefined(relationships, id, lib.getRelationships().get(id)));
+        }
+        Map<Phase, PhaseGate> gates = template.getPhase_gates() != null || template.getQuality_standards() != null
+            ? PhaseGate.compileAll(template.getPhase_gates(), template.getQuality_standards())
+            : new EnumMap<>(Phase.class);
+        Map<String, Object> standards = template.getQuality_standards() != null
+            ? template.getQuality_standards() : new HashMap<>();
+        
+        RuleDispatchTable rules = new RuleDispatchTable();
+        RuleFactory.createRulesFromRelationships(relationships, lib.getRules()).forEach(rules::add);
+        rules.freeze();
+        
+        // 每个类型: 状态属性 + 声明的列, 顺序与 ObjectStore 逐个建表时一致
+        List<String> attributeNames = new ArrayList<>();
+        Map<String, Integer> attributeIds = new HashMap<>();
+        Map<String, TypeLayout> layouts = new HashMap<>();
+        ontologies.forEach((type, def) -> {
+            int status = intern(ObjectStore.statusAttributeOf(def), attributeNames, attributeIds);
+            List<Integer> columns = new ArrayList<>();
+            if (def.getAttributes() != null) {
+                for (Map<String, Object> attr : def.getAttributes()) {
+                    Object name = attr.get("name");
+                    if (name != null) {
+                        columns.add(intern(name.toString(), attributeNames, attributeIds));
+                    }
+                }
+            }
+            layouts.put(type, new TypeLayout(status, columns.stream().mapToInt(Integer::intValue).toArray()));
+        });
+        return new TemplateImage(template.getTemplate_id(), ontologies, activities, relationships, gates, standards,
+            rules, lib.getRules().joinsFor(relationships.keySet()), attributeNames, attributeIds, layouts);
+    }
+    
+    private static <T> void putIfDefined(Map<String, T> target, String id, T def) {
+        if (def != null) {
+            target.put(id, def);
+        }
+    }
+    
+    private static int intern(String name, List<String> names, Map<String, Integer> ids) {
+        Integer id = ids.get(name);
+        if (id == null) {
+            id = names.size();
+            names.add(name);
+            ids.put(name, id);
+        }
+        return id;
+    }
+    
+    public String getTemplateId() { return templateId; }
+    public Map<String, OntologyDef> getOntologies() { return ontologies; }
+    public Map<String, ActivityDef> getActivities() { return activities; }
+    public Map<String, RelationshipDef> getRelationships() { return relationships; }
+    public Map<Phase, PhaseGate> getPhaseGates() { return phaseGates; }
+    public Map<String, Object> getQualityStandards() { return qualityStandards; }
+    public RuleDispatchTable getRules() { return rules; }
+    public List<JoinRule> getJoins() { return joins; }
+    public List<String> getAttributeNames() { return attributeNames; }
+    public Map<String, Integer> getAttributeIds() { return attributeIds; }
+    public Map<String, TypeLayout> getLayouts() { return layouts; }
+}
+
+// 类型表列布局: 状态属性ID与声明列的属性ID (按声明顺序)
+class TypeLayout {
+    private final int statusAttribute;
+    private final int[] columns;
+    
+    public TypeLayout(int statusAttribute, int[] columns) {
+        this.statusAttribute = statusAttribute;
+        this.columns = columns;
+    }
+    
+    public int getStatusAttribute() { return statusAttribute; }
+    public int[] getColumns() { return columns; }
+}
+
+
+class TemplateManager {
+    private static final String CONFIG_DIR = "config";
+    private static final String CACHE_FILE = ".cache/config-model.bin";
+    private static final String RULES_FILE = "rule_library.yml";
+    private static final ThreadLocal<Yaml> YAML = ThreadLocal.withInitial(Yaml::new);
+    private static final long DEBOUNCE_MILLIS = 100;
+    
+    // 当前配置快照; 热加载构建新快照后原子替换
+    private final AtomicReference<ConfigLibrary> library = new AtomicReference<>(ConfigLibrary.empty());
+    private volatile Thread watcher;
+    private volatile String lastReload = "-";
+    
+    // 库文件与各模板并行解析; 内容哈希与上次一致的文件直接取二进制缓存中的模型
+    public void loadAllConfigs() throws IOException {
+        long start = System.nanoTime();
+        Map<String, OntologyDef> ontologyLibrary = new HashMap<>();
+        Map<String, ActivityDef> activityLibrary = new HashMap<>();
+        Map<String, RelationshipDef> relationshipLibrary = new HashMap<>();
+        Map<String, ProjectTemplate> templates = new HashMap<>();
+        Map<Path, String> templateIds = new HashMap<>();
+        RuleLibrary ruleLibrary;
+        Path configDir = Paths.get(CONFIG_DIR);
+        ConfigCache cache = ConfigCache.open(configDir.resolve(CACHE_FILE));
+        List<Path> templateFiles = listTemplateFiles(configDir.resolve("templates"));
+        ExecutorService loader = Executors.newFixedThreadPool(
+            Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), templateFiles.size() + 3)));
+        try {
+            Future<List<OntologyDef>> ontologies = loader.submit(() ->
+                cache.load(configDir.resolve("ontology_library.yml"), ConfigCache.ONTOLOGIES, this::parseOntologies));
+            Future<List<ActivityDef>> activities = loader.submit(() ->
+                cache.load(configDir.resolve("activity_library.yml"), ConfigCache.ACTIVITIES, this::parseActivities));
+            Future<List<RelationshipDef>> relationships = loader.submit(() ->
+                cache.load(configDir.resolve("relationship_library.yml"), ConfigCache.RELATIONSHIPS, this::parseRelationships));
+            Future<RuleLibrary> rules = loader.submit(() -> loadRules(configDir.resolve(RULES_FILE)));
+            Map<Path, Future<ProjectTemplate>> parsedTemplates = new LinkedHashMap<>();
+            for (Path path : templateFiles) {
+                parsedTemplates.put(path, loader.submit(() -> cache.load(path, ConfigCache.TEMPLATE, this::parseTemplate)));
+            }
+            
+            for (OntologyDef def : await(ontologies)) {
+                ontologyLibrary.put(def.getId(), def);
+            }
+            System.out.println("  ✓ 已加载 " + ontologyLibrary.size() + " 个本体定义");
+            for (ActivityDef def : await(activities)) {
+                activityLibrary.put(def.getId(), def);
+            }
+            System.out.println("  ✓ 已加载 " + activityLibrary.size() + " 个活动定义");
+            for (RelationshipDef def : await(relationships)) {
+                relationshipLibrary.put(def.getId(), def);
+            }
+            System.out.println("  ✓ 已加载 " + relationshipLibrary.size() + " 个关系定义");
+            ruleLibrary = await(rules);
+            System.out.println("  ✓ 已加载 " + ruleLibrary.size() + " 个规则定义, "
+                + ruleLibrary.joinCount() + " 个联合规则, " + ruleLibrary.subscriptionCount() + " 个订阅规则");
+            
+            // 单个模板失败不影响其余模板
+            for (Map.Entry<Path, Future<ProjectTemplate>> entry : parsedTemplates.entrySet()) {
+                try {
+                    ProjectTemplate template = await(entry.getValue());
+                    templates.put(template.getTemplate_id(), template);
+                    templateIds.put(entry.getKey(), template.getTemplate_id());
+                } catch (Exception e) {
+                    System.err.println("  ✗ 加载模板失败: " + entry.getKey().getFileName() + " - " + e.getMessage());
+                }
+            }
+            System.out.println("  ✓ 已加载 " + templates.size() + " 个项目模板");
+        } finally {
+            loader.shutdownNow();
+        }
+        
+        cache.save();
+        System.out.println("  ✓ 配置缓存: 命中 " + cache.getHits() + "/" + (cache.getHits() + cache.getMisses())
+            + " 个文件, 耗时 " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        
+        // 启动时校验问题只提示; 热加载时同样的问题会拒绝替换
+        ConfigLibrary loaded = new ConfigLibrary(library.get().getVersion() + 1, ontologyLibrary, activityLibrary,
+            relationshipLibrary, templates, ruleLibrary, templateIds);
+        for (String error : loaded.validate()) {
+            System.out.println("  ⚠ 配置校验: " + error);
+        }
+        library.set(loaded);
+    }
+    
+    // 监听 config/ 与 config/templates/ 下的 .yml 变化, 守护线程中逐个文件热加载
+    public void startWatching() throws IOException {
+        if (watcher != null) return;
+        Path configDir = Paths.get(CONFIG_DIR);
+        WatchService service = FileSystems.getDefault().newWatchService();
+        Map<WatchKey, Path> directories = new HashMap<>();
+        for (Path dir : List.of(configDir, configDir.resolve("templates"))) {
+            if (Files.isDirectory(dir)) {
+                directories.put(dir.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE), dir);
+            }
+        }
+        Thread thread = new Thread(() -> watch(service, directories), "config-watcher");
+        thread.setDaemon(true);
+        watcher = thread;
+        thread.start();
+        System.out.println("  ✓ 已启用配置热加载: " + directories.values());
+    }
+    
+    public boolean isWatching() {
+        return watcher != null;
+    }
+    
+    private void watch(WatchService service, Map<WatchKey, Path> directories) {
+        try {
+            while (true) {
+                // 编辑器保存一次通常产生多个事件, 静默 DEBOUNCE_MILLIS 后按文件合并处理
+                Set<Path> changed = new LinkedHashSet<>();
+                WatchKey key = service.take();
+                do {
+                    Path dir = directories.get(key);
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) continue;
+                        Path file = dir.resolve((Path) event.context());
+                        if (file.toString().endsWith(".yml")) {
+                            changed.add(file);
+                        }
+                    }
+                    key.reset();
+                } while ((key = service.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS)) != null);
+                changed.forEach(this::reloadFile);
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            watcher = null;
+        }
+    }
+    
+    // 只重新解析变化的文件; 新快照校验通过才替换, 否则保留当前快照.
+    // 串行执行, 避免两次热加载基于同一旧快照互相覆盖
+    public synchronized boolean reloadFile(Path file) {
+        ConfigLibrary current = library.get();
+        Path configDir = Paths.get(CONFIG_DIR);
+        // 绝对路径或带 ./.. 的路径按配置根目录还原成启动加载时的相对路径, 模板文件表以它为键
+        Path root = configDir.toAbsolutePath().normalize();
+        file = file.toAbsolutePath().normalize();
+        if (file.startsWith(root)) {
+            file = configDir.resolve(root.relativize(file));
+        }
+        String name = String.valueOf(file.getFileName());
+        ConfigLibrary next;
+        try {
+            if (configDir.resolve("templates").equals(file.getParent())) {
+                next = Files.exists(file)
+                    ? current.withTemplate(file, parseTemplate(Files.readAllBytes(file)))
+                    : current.withoutTemplate(file);
+            } else if (configDir.equals(file.getParent()) && name.equals("ontology_library.yml")) {
+                next = current.withOntologies(parseOntologies(Files.readAllBytes(file)));
+            } else if (configDir.equals(file.getParent()) && name.equals("activity_library.yml")) {
+                next = current.withActivities(parseActivities(Files.readAllBytes(file)));
+            } else if (configDir.equals(file.getParent()) && name.equals("relationship_library.yml")) {
+                next = current.withRelationships(parseRelationships(Files.readAllBytes(file)));
+            } else if (configDir.equals(file.getParent()) && name.equals(RULES_FILE)) {
+                next = current.withRules(parseRules(Files.readAllBytes(file)));
+            } else {
+                System.out.println("❌ 不是配置文件: " + file);
+                return false;
+            }
+        } catch (NoSuchFileException e) {
+            return rejectReload(name, List.of("文件不存在"));
+        } catch (IOException | RuntimeException e) {
+            return rejectReload(name, List.of(String.valueOf(e.getMessage())));
+        }
+        if (next == current) {
+            return true;
+        }
+        
+        List<String> errors = next.validate();
+        if (!errors.isEmpty()) {
+            return rejectReload(name, errors);
+        }
+        library.set(next);
+        lastReload = name + " → v" + next.getVersion();
+        System.out.println("\n🔁 配置已热加载: " + name + " (版本 v" + current.getVersion() + " → v" + next.getVersion()
+            + ", 模板 " + next.getTemplates().size() + " 个)");
+        return true;
+    }
+    
+    private boolean rejectReload(String name, List<String> errors) {
+        lastReload = name + " 被拒绝";
+        System.out.println("\n❌ 配置热加载被拒绝: " + name + " (保留版本 v" + library.get().getVersion() + ")");
+        errors.stream().limit(10).forEach(error -> System.out.println("  - " + error));
+        if (errors.size() > 10) {
+            System.out.println("  ... 共 " + errors.size() + " 个问题");
+        }
+        return false;
+    }
+    
+    public void showStatus(Collection<ProjectContext> projects) {
+        ConfigLibrary lib = library.get();
+        System.out.println("\n📚 配置库状态:");
+        System.out.println("  版本: v" + lib.getVersion());
+        System.out.println("  本体/活动/关系: " + lib.getOntologies().size() + " / " + lib.getActivities().size()
+            + " / " + lib.getRelationships().size());
+        System.out.println("  模板: " + lib.getTemplates().size() + " 个, 规则: " + lib.getRules().size() + " 个, 联合规则: "
+            + lib.getRules().joinCount() + " 个, 订阅规则: " + lib.getRules().subscriptionCount() + " 个");
+        System.out.println("  热加载: " + (isWatching() ? "监听中" : "未启用") + ", 最近一次: " + lastReload);
+        List<String> outdated = projects.stream()
+            .filter(ctx -> ctx.getTemplateId() != null && ctx.getLibraryVersion() < lib.getVersion())
+            .map(ctx -> ctx.getProjectId() + "(v" + ctx.getLibraryVersion() + ")")
+            .collect(Collectors.toList());
+        System.out.println("  待升级项目: " + (outdated.isEmpty() ? "(无)" : String.join(", ", outdated)));
+    }
+    
+    public long getLibraryVersion() {
+        return library.get().getVersion();
+    }
+    
+    public RuleLibrary getRules() {
+        return library.get().getRules();
+    }
+    
+    private static List<Path> listTemplateFiles(Path templatesDir) throws IOException {
+        if (!Files.exists(templatesDir)) {
+            System.out.println("  ⚠ 模板目录不存在: " + templatesDir);
+            return Collections.emptyList();
+        }
+        try (Stream<Path> files = Files.list(templatesDir)) {
+            return files.filter(path -> path.toString().endsWith(".yml")).sorted().collect(Collectors.toList());
+        }
+    }
+    
+    // 解析异常原样抛出 (IOException 或运行时异常)
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("配置加载被中断", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
+    }
+    
+    // Yaml 实例不是线程安全的, 每个加载线程复用一个
+    private static Map<String, Object> parseYaml(byte[] content) {
+        return YAML.get().load(new ByteArrayInputStream(content));
+    }
+    
+    @SuppressWarnings("unchecked")
+    private List<OntologyDef> parseOntologies(byte[] content) {
+        Map<String, Object> data = parseYaml(content);
+        List<Map<String, Object>> ontologies = (List<Map<String, Object>>) data.get("ontologies");
+        List<OntologyDef> result = new ArrayList<>();
+        
+        for (Map<String, Object> ont : ontologies) {
+            OntologyDef def = new OntologyDef();
+            def.setId((String) ont.get("id"));
+            def.setName((String) ont.get("name"));
+            def.setCategory((String) ont.get("category"));
+            def.setAttributes((List<Map<String, Object>>) ont.get("attributes"));
+            result.add(def);
+        }
+        return result;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private List<ActivityDef> parseActivities(byte[] content) {
+        Map<String, Object> data = parseYaml(content);
+        List<Map<String, Object>> activities = (List<Map<String, Object>>) data.get("activities");
+        List<ActivityDef> result = new ArrayList<>();
+        
+        for (Map<String, Object> act : activities) {
+            ActivityDef def = new ActivityDef();
+            def.setId((String) act.get("id"));
+            def.setName((String) act.get("name"));
+            def.setPhase((String) act.get("phase"));
+            def.setCategory((String) act.get("category"));
+            def.setDescription((String) act.get("description"));
+            Object durationObj = act.get("duration_estimate");
+            int duration = 0;
+            if (durationObj instanceof Integer) {
+                duration = (Integer) durationObj;
+            } else if (durationObj instanceof Double) {
+                duration = ((Double) durationObj).intValue();
+            } else if (durationObj instanceof String) {
+                duration = Integer.parseInt((String) durationObj);
+            }
+            def.setDuration_estimate(duration);
+            def.setInputs((List<String>) act.get("inputs"));
+            def.setOutputs((List<String>) act.get("outputs"));
+            def.setRequired_roles((List<String>) act.get("required_roles"));
+            if (act.get("timeout_seconds") instanceof Number) {
+                def.setTimeout_seconds(((Number) act.get("timeout_seconds")).intValue());
+            }
+            if (act.get("max_attempts") instanceof Number) {
+                def.setMax_attempts(((Number) act.get("max_attempts")).intValue());
+            }
+            result.add(def);
+        }
+        return result;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private List<RelationshipDef> parseRelationships(byte[] content) {
+        Map<String, Object> data = parseYaml(content);
+        List<Map<String, Object>> relationships = (List<Map<String, Object>>) data.get("relationships");
+        Map<String, Map<String, Object>> validationRules = 
+            (Map<String, Map<String, Object>>) data.getOrDefault("validation_rules", Collections.emptyMap());
+        List<RelationshipDef> result = new ArrayList<>();
+        
+        for (Map<String, Object> rel : relationships) {
+            RelationshipDef def = new RelationshipDef();
+            def.setId((String) rel.get("id"));
+            def.setName((String) rel.get("name"));
+            def.setSource_types((List<String>) rel.get("source_types"));
+            def.setTarget_types((List<String>) rel.get("target_types"));
+            def.setCardinality((String) rel.get("cardinality"));
+            def.setDescription((String) rel.get("description"));
+            def.setValidation_rules((List<String>) rel.get("validation_rules"));
+            
+            // graph_cycle_check 类验证规则 (no_circular_*) 要求该关系图保持无环
+            if (def.getValidation_rules() != null) {
+                for (String ruleId : def.getValidation_rules()) {
+                    Map<String, Object> rule = validationRules.get(ruleId);
+                    if (rule != null && "graph_cycle_check".equals(rule.get("type"))) {
+                        def.setAcyclic(true);
+                    }
+                }
+            }
+            result.add(def);
+        }
+        return result;
+    }
+    
+    // 规则库文件可选; 缺失时各关系不生成规则
+    private RuleLibrary loadRules(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            System.out.println("  ⚠ 规则库不存在: " + file);
+            return RuleLibrary.empty();
+        }
+        return parseRules(Files.readAllBytes(file));
+    }
+    
+    @SuppressWarnings("unchecked")
+    private RuleLibrary parseRules(byte[] content) {
+        Map<String, Object> data = parseYaml(content);
+        List<Map<String, Object>> rules = data != null
+            ? (List<Map<String, Object>>) data.get("rules") : null;
+        List<Map<String, Object>> joins = data != null
+            ? (List<Map<String, Object>>) data.get("joins") : null;
+        List<Map<String, Object>> subscriptions = data != null
+            ? (List<Map<String, Object>>) data.get("subscriptions") : null;
+        return RuleLibrary.compile(rules != null ? rules : Collections.emptyList(),
+            joins != null ? joins : Collections.emptyList(),
+            subscriptions != null ? subscriptions : Collections.emptyList());
+    }
+    
+    @SuppressWarnings("unchecked")
+    private ProjectTemplate parseTemplate(byte[] content) {
+        Map<String, Object> data = parseYaml(content);
+        ProjectTemplate template = new ProjectTemplate();
+        template.setTemplate_id((String) data.get("template_id"));
+        template.setTemplate_name((String) data.get("template_name"));
+        template.setWorkflow_mode((String) data.get("workflow_mode"));
+        template.setDescription((String) data.get("description"));
+        template.setOntologies((List<String>) data.get("ontologies"));
+        template.setActivities((Map<String, List<String>>) data.get("activities"));
+        template.setRelationships((List<String>) data.get("relationships"));
+        template.setPhase_gates((Map<String, Map<String, Object>>) data.get("phase_gates"));
+        template.setQuality_standards((Map<String, Object>) data.get("quality_standards"));
+        if (template.getTemplate_id() == null) {
+            throw new IllegalArgumentException("缺少 template_id");
+        }
+        return template;
+    }
+
+    public void listTemplates() {
+        Map<String, ProjectTemplate> templates = library.get().getTemplates();
+        System.out.println("\n╔════════════════════════════════════════════════════════╗");
+        System.out.println("║                  可用项目模板                           ║");
+        System.out.println("╚════════════════════════════════════════════════════════╝\n");
+        
+        if (templates.isEmpty()) {
+            System.out.println("  (无可用模板)");
+            return;
+        }
+        
+        templates.values().forEach(t -> {
+            System.out.println("📋 " + t.getTemplate_id());
+            System.out.println("   名称: " + t.getTemplate_name());
+            System.out.println("   模式: " + t.getWorkflow_mode());
+            System.out.println("   说明: " + t.getDescription());
+            System.out.println("   本体: " + t.getOntologies().size() + " 个");
+            System.out.println("   活动: " + (t.getActivities() != null ? 
+                t.getActivities().values().stream().mapToInt(List::size).sum() : 0) + " 个");
+            System.out.println("   关系: " + (t.getRelationships() != null ? t.getRelationships().size() : 0) + " 个");
+            System.out.println();
+        });
+    }
+    
+    public void showTemplateDetails(String templateId) {
+        ConfigLibrary lib = library.get();
+        ProjectTemplate template = lib.getTemplates().get(templateId);
+        if (template == null) {
+            System.out.println("❌ 模板不存在: " + templateId);
+            return;
+        }
+        
+        System.out.println("\n╔════════════════════════════════════════════════════════╗");
+        System.out.println("║              模板详情: " + template.getTemplate_name());
+        System.out.println("╚════════════════════════════════════════════════════════╝");
+        
+        System.out.println("\n基本信息:");
+        System.out.println("  ID: " + template.getTemplate_id());
+        System.out.println("  模式: " + template.getWorkflow_mode());
+        System.out.println("  说明: " + template.getDescription());
+        
+        System.out.println("\n本体集 (" + template.getOntologies().size() + " 个):");
+        template.getOntologies().forEach(id -> {
+            OntologyDef ont = lib.getOntologies().get(id);
+            if (ont != null) {
+                System.out.println("  - " + ont.getId() + " (" + ont.getName() + ") [" + ont.getCategory() + "]");
+            }
+        });
+        
+        if (template.getActivities() != null) {
+            System.out.println("\n活动集 (按阶段):");
+            template.getActivities().forEach((phase, activities) -> {
+                System.out.println("  " + phase + ":");
+                activities.forEach(id -> {
+                    ActivityDef act = lib.getActivities().get(id);
+                    if (act != null) {
+                        System.out.println("    - " + act.getId() + " (" + act.getName() + ")");
+                    }
+                });
+            });
+        }
+        
+        if (template.getRelationships() != null) {
+            System.out.println("\n关系集 (" + template.getRelationships().size() + " 个):");
+            template.getRelationships().forEach(id -> {
+                RelationshipDef rel = lib.getRelationships().get(id);
+                if (rel != null) {
+                    System.out.println("  - " + rel.getId() + " (" + rel.getName() + ")");
+                }
+            });
+        }
+        System.out.println();
+    }
+    
+    public ProjectContext createProjectFromTemplate(String templateId, String projectId, 
+                                                     String projectName, int priority,
+                                                     ProjectManager projectManager) {
+        ConfigLibrary lib = library.get();
+        ProjectTemplate template = lib.getTemplates().get(templateId);
+        if (template == null) {
+            System.out.println("❌ 模板不存在: " + templateId);
+            return null;
+        }
+        
+        // 解析工作流模式
+        WorkflowMode mode;
+        try {
+            mode = WorkflowMode.valueOf(template.getWorkflow_mode().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.out.println("❌ 无效的工作流模式: " + template.getWorkflow_mode());
+            return null;
+        }
+        
+        // 创建项目
+        ProjectContext ctx = projectManager.createProject(projectId, projectName, mode, priority);
+        applyTemplate(ctx, template, lib);
+        EventLog log = projectManager.getEventLog();
+        if (log != null) {
+            log.appendTemplate(projectId, templateId);
+        }
+        return ctx;
+    }
+    
+    // 按模板ID初始化已创建的项目 (恢复时使用)
+    public boolean applyTemplate(ProjectContext ctx, String templateId) {
+        ConfigLibrary lib = library.get();
+        ProjectTemplate template = lib.getTemplates().get(templateId);
+        if (template == null) {
+            System.out.println("❌ 模板不存在: " + templateId);
+            return false;
+        }
+        applyTemplate(ctx, template, lib);
+        return true;
+    }
+    
+    // 定义表、门禁与规则取自共享的模板镜像, 项目只分配自身状态
+    private void applyTemplate(ProjectContext ctx, ProjectTemplate template, ConfigLibrary lib) {
+        TemplateImage image = lib.imageOf(template);
+        ctx.useImage(image);
+        if (template.getOntologies() != null) {
+            System.out.println("  ✓ 初始化本体集: " + template.getOntologies().size() + " 个");
+        }
+        if (template.getActivities() != null) {
+            int totalActivities = template.getActivities().values().stream()
+                .mapToInt(List::size).sum();
+            System.out.println("  ✓ 初始化活动集: " + totalActivities + " 个");
+        }
+        if (template.getRelationships() != null) {
+            System.out.println("  ✓ 初始化关系集: " + template.getRelationships().size() + " 个");
+        }
+        
+        // 阶段门禁
+        if (template.getPhase_gates() != null || template.getQuality_standards() != null) {
+            ctx.setPhaseGates(image.getPhaseGates());
+            System.out.println("  ✓ 编译阶段门禁: " + ctx.getPhaseGates().size() + " 个");
+        }
+        if (template.getQuality_standards() != null) {
+            ctx.setQualityStandards(image.getQualityStandards());
+        }
+        
+        // 初始化决策网络 - 共享镜像中预编译的规则分派表
+        ctx.initializeDecisionNetwork(lib.getRules());
+        ctx.setTemplateId(template.getTemplate_id());
+        ctx.setLibraryVersion(lib.getVersion());
+    }
+    
+    // 运行中的项目保留创建时的定义, 主动升级时才切换到当前快照:
+    // 替换定义对象并重新编译门禁与规则, 已有对象与关系保留
+    public boolean upgradeProject(ProjectContext ctx) {
+        ConfigLibrary lib = library.get();
+        ProjectTemplate template = ctx.getTemplateId() != null ? lib.getTemplates().get(ctx.getTemplateId()) : null;
+        if (template == null) {
+            System.out.println("❌ 项目没有可用的模板, 无法升级: " + ctx.getProjectId());
+            return false;
+        }
+        if (ctx.getLibraryVersion() == lib.getVersion()) {
+            System.out.println("✓ 项目已使用当前配置版本 v" + lib.getVersion());
+            return true;
+        }
+        
+        // 已有对象沿用项目自己的属性ID, 只取镜像中的定义、门禁与标准
+        TemplateImage image = lib.imageOf(template);
+        long previous = ctx.getLibraryVersion();
+        List<String> kept = ctx.upgradeDefinitions(image.getOntologies(), image.getActivities(), image.getRelationships(),
+            image.getPhaseGates(), image.getQualityStandards(), lib.getRules(), lib.getVersion());
+        System.out.println("⬆️ 项目 " + ctx.getProjectId() + " 已升级配置: v" + previous + " → v" + lib.getVersion()
+            + " (本体 " + image.getOntologies().size() + ", 活动 " + image.getActivities().size()
+            + ", 关系 " + image.getRelationships().size()
+            + ", 规则 " + ctx.getDecisionNetwork().getRuleCount() + ")");
+        for (String relId : kept) {
+            System.out.println("  ⚠ 关系 " + relId + " 已有边且基数/无环约束变化, 保留旧定义");
+        }
+        return true;
+    }
+    
+    public void listOntologies() {
+        System.out.println("\n╔════════════════════════════════════════════════════════╗");
+        System.out.println("║                    本体库                              ║");
+        System.out.println("╚════════════════════════════════════════════════════════╝\n");
+        
+        Map<String, OntologyDef> ontologyLibrary = library.get().getOntologies();
+        Map<String, List<OntologyDef>> byCategory = ontologyLibrary.values().stream()
+            .collect(Collectors.groupingBy(OntologyDef::getCategory));
+        
+        byCategory.forEach((category, ontologies) -> {
+            System.out.println("📦 " + category + ":");
+            ontologies.forEach(ont -> {
+                System.out.println("  - " + ont.getId() + " (" + ont.getName() + ")");
+            });
+            System.out.println();
+        });
+        
+        System.out.println("总计: " + ontologyLibrary.size() + " 个本体定义\n");
+    }
+    
+    public void listActivities() {
+        System.out.println("\n╔════════════════════════════════════════════════════════╗");
+        System.out.println("║                    活动库                              ║");
+        System.out.println("╚════════════════════════════════════════════════════════╝\n");
+        
+        Map<String, ActivityDef> activityLibrary = library.get().getActivities();
+        Map<String, List<ActivityDef>> byPhase = activityLibrary.values().stream()
+            .filter(a -> a.getPhase() != null)
+            .collect(Collectors.groupingBy(ActivityDef::getPhase));
+        
+        byPhase.forEach((phase, activities) -> {
+            System.out.println("📍 " + phase + ":");
+            activities.forEach(act -> {
+                System.out.println("  - " + act.getId() + " (" + act.getName() + 
+                    ") [预计: " + act.getDuration_estimate() + "天]");
+            });
+            System.out.println();
+        });
+        
+        System.out.println("总计: " + activityLibrary.size() + " 个活动定义\n");
+    }
+    
+    public void listRelationships() {
+        System.out.println("\n╔════════════════════════════════════════════════════════╗");
+        System.out.println("║                    关系库                              ║");
+        System.out.println("╚════════════════════════════════════════════════════════╝\n");
+        
+        Map<String, RelationshipDef> relationshipLibrary = library.get().getRelationships();
+        relationshipLibrary.values().forEach(rel -> {
+            System.out.println("🔗 " + rel.getId() + " (" + rel.getName() + ")");
+            System.out.println("   基数: " + rel.getCardinality());
+            System.out.println("   说明: " + rel.getDescription());
+            System.out.println();
+        });
+        
+        System.out.println("总计: " + relationshipLibrary.size() + " 个关系定义\n");
+    }
+}
+
+// 配置模型缓存: 每个配置文件按 SHA-256 内容哈希缓存解析后的模型 (二进制), 哈希一致即跳过 YAML 解析.
+// 格式: [MAGIC][VERSION][条目数] 条目 = [路径][类型][哈希 32 字节][模型字节数][模型]
+class ConfigCache {
+    static final byte ONTOLOGIES = 1;
+    static final byte ACTIVITIES = 2;
+    static final byte RELATIONSHIPS = 3;
+    static final byte TEMPLATE = 4;
+    
+    private static final int MAGIC = 0x4F4E4343;  // "ONCC"
+    private static final int VERSION = 2;
+    
+    // 值编码标签, 覆盖 YAML 解析出的标量、列表与映射
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte INTEGER = 2;
+    private static final byte LONG = 3;
+    private static final byte DOUBLE = 4;
+    private static final byte BOOLEAN = 5;
+    private static final byte LIST = 6;
+    private static final byte MAP = 7;
+    
+    private final Path file;
+    private final Map<String, ConfigCacheEntry> previous;
+    private final Map<String, ConfigCacheEntry> current = new ConcurrentHashMap<>();
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+    
+    private ConfigCache(Path file, Map<String, ConfigCacheEntry> previous) {
+        this.file = file;
+        this.previous = previous;
+    }
+    
+    // 缓存文件缺失或损坏时从空缓存开始
+    public static ConfigCache open(Path file) {
+        Map<String, ConfigCacheEntry> entries = new HashMap<>();
+        if (Files.exists(file)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+                if (in.readInt() == MAGIC && in.readInt() == VERSION) {
+                    int count = in.readInt();
+                    for (int i = 0; i < count; i++) {
+                        String path = ProjectPersistence.readString(in);
+                        byte kind = in.readByte();
+                        byte[] hash = new byte[32];
+                        in.readFully(hash);
+                        byte[] model = new byte[in.readInt()];
+                        in.readFully(model);
+                        entries.put(path, new ConfigCacheEntry(kind, hash, model));
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("  ⚠ 配置缓存不可用, 重新解析: " + e.getMessage());
+                entries.clear();
+            }
+        }
+        return new ConfigCache(file, entries);
+    }
+    
+    // 内容哈希命中时反序列化缓存的模型, 否则解析并记录新条目
+    @SuppressWarnings("unchecked")
+    public <T> T load(Path source, byte kind, ConfigParser<T> parser) throws IOException {
+        byte[] content = Files.readAllBytes(source);
+        byte[] hash = sha256(content);
+        String key = source.toString();
+        ConfigCacheEntry entry = previous.get(key);
+        if (entry != null && entry.kind == kind && Arrays.equals(entry.hash, hash)) {
+            try {
+                T model = (T) readModel(kind, new DataInputStream(new ByteArrayInputStream(entry.model)));
+                current.put(key, entry);
+                hits.incrementAndGet();
+                return model;
+            } catch (IOException | RuntimeException e) {
+                // 条目损坏, 按未命中处理
+            }
+        }
+        
+        T model = parser.parse(content);
+        misses.incrementAndGet();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            writeModel(kind, model, new DataOutputStream(bytes));
+            current.put(key, new ConfigCacheEntry(kind, hash, bytes.toByteArray()));
+        } catch (IOException e) {
+            System.err.println("  ⚠ 不缓存 " + source.getFileName() + ": " + e.getMessage());
+        }
+        return model;
+    }
+    
+    // 只保留本次加载用到的条目; 全部命中且没有删除的文件时不重写
+    public void save() {
+        if (misses.get() == 0 && current.size() == previous.size()) return;
+        try {
+            Files.createDirectories(file.getParent());
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(current.size());
+                for (Map.Entry<String, ConfigCacheEntry> entry : current.entrySet()) {
+                    ProjectPersistence.writeString(out, entry.getKey());
+                    out.writeByte(entry.getValue().kind);
+                    out.write(entry.getValue().hash);
+                    out.writeInt(entry.getValue().model.length);
+                    out.write(entry.getValue().model);
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("  ⚠ 配置缓存写入失败: " + e.getMessage());
+        }
+    }
+    
+    public int getHits() { return hits.get(); }
+    public int getMisses() { return misses.get(); }
+    
+    static byte[] sha256(byte[] content) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(content);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static void writeModel(byte kind, Object model, DataOutput out) throws IOException {
+        switch (kind) {
+            case ONTOLOGIES: {
+                List<OntologyDef> defs = (List<OntologyDef>) model;
+                out.writeInt(defs.size());
+                for (OntologyDef def : defs) {
+                    ProjectPersistence.writeString(out, def.getId());
+                    ProjectPersistence.writeString(out, def.getName());
+                    ProjectPersistence.writeString(out, def.getCategory());
+                    writeValue(out, def.getAttributes());
+                }
+                break;
+            }
+            case ACTIVITIES: {
+                List<ActivityDef> defs = (List<ActivityDef>) model;
+                out.writeInt(defs.size());
+                for (ActivityDef def : defs) {
+                    ProjectPersistence.writeString(out, def.getId());
+                    ProjectPersistence.writeString(out, def.getName());
+                    ProjectPersistence.writeString(out, def.getPhase());
+                    ProjectPersistence.writeString(out, def.getCategory());
+                    ProjectPersistence.writeString(out, def.getDescription());
+                    out.writeInt(def.getDuration_estimate());
+                    writeValue(out, def.getInputs());
+                    writeValue(out, def.getOutputs());
+                    writeValue(out, def.getRequired_roles());
+                    out.writeInt(def.getTimeout_seconds());
+                    out.writeInt(def.getMax_attempts());
+                }
+                break;
+            }
+            case RELATIONSHIPS: {
+                List<RelationshipDef> defs = (List<RelationshipDef>) model;
+                out.writeInt(defs.size());
+                for (RelationshipDef def : defs) {
+                    ProjectPersistence.writeString(out, def.getId());
+                    ProjectPersistence.writeString(out, def.getName());
+                    writeValue(out, def.getSource_types());
+                    writeValue(out, def.getTarget_types());
+                    ProjectPersistence.writeString(out, def.getCardinality());
+                    ProjectPersistence.writeString(out, def.getDescription());
+                    writeValue(out, def.getValidation_rules());
+                    out.writeBoolean(def.isAcyclic());
+                }
+                break;
+            }
+            case TEMPLATE: {
+                ProjectTemplate template = (ProjectTemplate) model;
+                ProjectPersistence.writeString(out, template.getTemplate_id());
+                ProjectPersistence.writeString(out, template.getTemplate_name());
+                ProjectPersistence.writeString(out, template.getWorkflow_mode());
+                ProjectPersistence.writeString(out, template.getDescription());
+                writeValue(out, template.getOntologies());
+                writeValue(out, template.getActivities());
+                writeValue(out, template.getRelationships());
+                writeValue(out, template.getPhase_gates());
+                writeValue(out, template.getQuality_standards());
+                break;
+            }
+            default:
+                throw new IOException("未知模型类型 " + kind);
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static Object readModel(byte kind, DataInput in) throws IOException {
+        switch (kind) {
+            case ONTOLOGIES: {
+                int count = in.readInt();
+                List<OntologyDef> defs = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    OntologyDef def = new OntologyDef();
+                    def.setId(ProjectPersistence.readString(in));
+                    def.setName(ProjectPersistence.readString(in));
+                    def.setCategory(ProjectPersistence.readString(in));
+                    def.setAttributes((List<Map<String, Object>>) readValue(in));
+                    defs.add(def);
+                }
+                return defs;
+            }
+            case ACTIVITIES: {
+                int count = in.readInt();
+                List<ActivityDef> defs = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    ActivityDef def = new ActivityDef();
+                    def.setId(ProjectPersistence.readString(in));
+                    def.setName(ProjectPersistence.readString(in));
+                    def.setPhase(ProjectPersistence.readString(in));
+                    def.setCategory(ProjectPersistence.readString(in));
+                    def.setDescription(ProjectPersistence.readString(in));
+                    def.setDuration_estimate(in.readInt());
+                    def.setInputs((List<String>) readValue(in));
+                    def.setOutputs((List<String>) readValue(in));
+                    def.setRequired_roles((List<String>) readValue(in));
+                    def.setTimeout_seconds(in.readInt());
+                    def.setMax_attempts(in.readInt());
+                    defs.add(def);
+                }
+                return defs;
+            }
+            case RELATIONSHIPS: {
+                int count = in.readInt();
+                List<RelationshipDef> defs = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    RelationshipDef def = new RelationshipDef();
+                    def.setId(ProjectPersistence.readString(in));
+                    def.setName(ProjectPersistence.readString(in));
+                    def.setSource_types((List<String>) readValue(in));
+                    def.setTarget_types((List<String>) readValue(in));
+                    def.setCardinality(ProjectPersistence.readString(in));
+                    def.setDescription(ProjectPersistence.readString(in));
+                    def.setValidation_rules((List<String>) readValue(in));
+                    def.setAcyclic(in.readBoolean());
+                    defs.add(def);
+                }
+                return defs;
+            }
+            case TEMPLATE: {
+                ProjectTemplate template = new ProjectTemplate();
+                template.setTemplate_id(ProjectPersistence.readString(in));
+                template.setTemplate_name(ProjectPersistence.readString(in));
+                template.setWorkflow_mode(ProjectPersistence.readString(in));
+                template.setDescription(ProjectPersistence.readString(in));
+                template.setOntologies((List<String>) readValue(in));
+                template.setActivities((Map<String, List<String>>) readValue(in));
+                template.setRelationships((List<String>) readValue(in));
+                template.setPhase_gates((Map<String, Map<String, Object>>) readValue(in));
+                template.setQuality_standards((Map<String, Object>) readValue(in));
+                return template;
+            }
+            default:
+                throw new IOException("未知模型类型 " + kind);
+        }
+    }
+    
+    // YAML 值: 映射保持键顺序; 其他类型 (如日期) 不支持缓存
+    static void writeValue(DataOutput out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof String) {
+            out.writeByte(STRING);
+            ProjectPersistence.writeString(out, (String) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(INTEGER);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            out.writeByte(LIST);
+            out.writeInt(list.size());
+            for (Object item : list) {
+                writeValue(out, item);
+            }
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            out.writeByte(MAP);
+            out.writeInt(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writeValue(out, entry.getKey());
+                writeValue(out, entry.getValue());
+            }
+        } else {
+            throw new IOException("不支持缓存的值类型: " + value.getClass().getSimpleName());
+        }
+    }
+    
+    static Object readValue(DataInput in) throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case NULL: return null;
+            case STRING: return ProjectPersistence.readString(in);
+            case INTEGER: return in.readInt();
+            case LONG: return in.readLong();
+            case DOUBLE: return in.readDouble();
+            case BOOLEAN: return in.readBoolean();
+            case LIST: {
+                int size = in.readInt();
+                List<Object> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue(in));
+                }
+                return list;
+            }
+            case MAP: {
+                int size = in.readInt();
+                Map<Object, Object> map = new LinkedHashMap<>();
+                for (int i = 0; i < size; i++) {
+                    map.put(readValue(in), readValue(in));
+                }
+                return map;
+            }
+            default:
+                throw new IOException("未知值标签 " + tag);
+        }
+    }
+}
+
+class ConfigCacheEntry {
+    final byte kind;
+    final byte[] hash;
+    final byte[] model;
+    
+    ConfigCacheEntry(byte kind, byte[] hash, byte[] model) {
+        this.kind = kind;
+        this.hash = hash;
+        this.model = model;
+    }
+}
+
+// 配置文件内容 -> 模型
+interface ConfigParser<T> {
+    T parse(byte[] content) throws IOException;
+}
+
+// ==================== 事件历史 ====================
+
+// 事件历史: 入队的事件按序保留在列式数组中, 回答 "某时刻对象/某类对象的状态".
+// 稀疏时间索引每 INDEX_STRIDE 个事件记一个时间戳, 定位时刻只需二分加一小段扫描;
+// 每个对象另有自己的事件位置表, 单对象查询只读该对象的事件.
+// 检查点保存某一位置上全部 (对象, 属性) 的值, 类型查询从最近的检查点起有界重放;
+// 检查点间隔不小于上一个检查点的大小, 构建成本摊到每个事件上是常数
+class EventHistory {
+    private static final int INDEX_STRIDE = 256;
+    private static final int MIN_CHECKPOINT_EVENTS = 65536;
+    private static final int NONE = -1;
+    private static final String CREATED = "created";
+    private static final DateTimeFormatter TIME_FORMAT =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+    
+    // 对象字典: 对象ID -> 序号, 每个对象的类型与事件位置
+    private final Map<String, Integer> objectRefs = new HashMap<>();
+    private String[] objectIds = new String[64];
+    private int[] objectTypes = new int[64];
+    private int[][] objectEvents = new int[64][];
+    private int[] objectEventCounts = new int[64];
+    private int objectCount;
+    
+    // 类型/属性/值字典
+    private final Map<String, Integer> stringRefs = new HashMap<>();
+    private final List<String> strings = new ArrayList<>();
+    
+    // 事件列
+    private long[] timestamps = new long[1024];
+    private int[] objects = new int[1024];
+    private int[] attributes = new int[1024];
+    private int[] oldValues = new int[1024];
+    private int[] newValues = new int[1024];
+    private int size;
+    private long[] sparseIndex = new long[16];
+    
+    private final List<HistoryCheckpoint> checkpoints = new ArrayList<>();
+    private int lastReplayed;
+    
+    public EventHistory() {
+        checkpoints.add(new HistoryCheckpoint(0, new long[0], new int[0]));
+    }
+    
+    public void record(OntologyEvent event) {
+        record(event.getObjectId(), event.getObjectType(), event.getAttribute(),
+            event.getOldValue(), event.getNewValue(), event.getTimestamp());
+    }
+    
+    // 时间戳按记录顺序取单调值, 多线程入队时钟回退不影响定位
+    public synchronized void record(String objectId, String type, String attribute,
+                                    String oldValue, String newValue, long timestamp) {
+        int object = objectRef(objectId, type);
+        if (size == timestamps.length) {
+            int capacity = size * 2;
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            objects = Arrays.copyOf(objects, capacity);
+            attributes = Arrays.copyOf(attributes, capacity);
+            oldValues = Arrays.copyOf(oldValues, capacity);
+            newValues = Arrays.copyOf(newValues, capacity);
+        }
+        long time = size > 0 ? Math.max(timestamp, timestamps[size - 1]) : timestamp;
+        timestamps[size] = time;
+        objects[size] = object;
+        attributes[size] = stringRef(attribute);
+        oldValues[size] = stringRef(oldValue);
+        newValues[size] = stringRef(newValue);
+        if (size % INDEX_STRIDE == 0) {
+            int block = size / INDEX_STRIDE;
+            if (block == sparseIndex.length) sparseIndex = Arrays.copyOf(sparseIndex, block * 2);
+            sparseIndex[block] = time;
+        }
+        
+        int count = objectEventCounts[object];
+        if (count == objectEvents[object].length) {
+            objectEvents[object] = Arrays.copyOf(objectEvents[object], count * 2);
+        }
+        objectEvents[object][count] = size;
+        objectEventCounts[object] = count + 1;
+        size++;
+        
+        HistoryCheckpoint last = checkpoints.get(checkpoints.size() - 1);
+        if (size - last.position >= Math.max(MIN_CHECKPOINT_EVENTS, last.size())) {
+            checkpoints.add(checkpoint(last, size));
+        }
+    }
+    
+    // 日志重放: 快照写出期间入队的事件可能已在快照的历史中, 与对象末尾不早于它的同一变更重复时跳过
+    public synchronized void replay(String objectId, String type, String attribute,
+                                    String oldValue, String newValue, long timestamp) {
+        Integer object = objectRefs.get(objectId);
+        if (object != null) {
+            int[] events = objectEvents[object];
+            for (int i = objectEventCounts[object] - 1; i >= 0 && timestamps[events[i]] >= timestamp; i--) {
+                int p = events[i];
+                if (strings.get(attributes[p]).equals(attribute) && Objects.equals(string(oldValues[p]), oldValue)
+                    && Objects.equals(string(newValues[p]), newValue)) {
+                    return;
+                }
+            }
+        }
+        record(objectId, type, attribute, oldValue, newValue, timestamp);
+    }
+    
+    // 持久化: 写出字典与事件列; 读取时逐条重新记录, 稀疏索引、对象位置表与检查点随之重建
+    public synchronized void writeTo(DataOutput out) throws IOException {
+        out.writeInt(strings.size());
+        for (String value : strings) {
+            ProjectPersistence.writeString(out, value);
+        }
+        out.writeInt(objectCount);
+        for (int i = 0; i < objectCount; i++) {
+            ProjectPersistence.writeString(out, objectIds[i]);
+            out.writeInt(objectTypes[i]);
+        }
+        out.writeInt(size);
+        for (int p = 0; p < size; p++) {
+            out.writeLong(timestamps[p]);
+            out.writeInt(objects[p]);
+            out.writeInt(attributes[p]);
+            out.writeInt(oldValues[p]);
+            out.writeInt(newValues[p]);
+        }
+    }
+    
+    public synchronized void readFrom(DataInput in) throws IOException {
+        String[] dictionary = new String[in.readInt()];
+        for (int i = 0; i < dictionary.length; i++) {
+            dictionary[i] = ProjectPersistence.readString(in);
+        }
+        int count = in.readInt();
+        String[] ids = new String[count];
+        String[] types = new String[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = ProjectPersistence.readString(in);
+            int type = in.readInt();
+            types[i] = type == NONE ? null : dictionary[type];
+        }
+        int events = in.readInt();
+        for (int p = 0; p < events; p++) {
+            long timestamp = in.readLong();
+            int object = in.readInt();
+            String attribute = dictionary[in.readInt()];
+            int oldValue = in.readInt();
+            int newValue = in.readInt();
+            record(ids[object], types[object], attribute,
+                oldValue == NONE ? null : dictionary[oldValue], newValue == NONE ? null : dictionary[newValue], timestamp);
+        }
+    }
+    
+    private int objectRef(String objectId, String type) {
+        Integer ref = objectRefs.get(objectId);
+        if (ref != null) return ref;
+        if (objectCount == objectIds.length) {
+            int capacity = objectCount * 2;
+            objectIds = Arrays.copyOf(objectIds, capacity);
+            objectTypes = Arrays.copyOf(objectTypes, capacity);
+            objectEvents = Arrays.copyOf(objectEvents, capacity);
+            objectEventCounts = Arrays.copyOf(objectEventCounts, capacity);
+        }
+        objectIds[objectCount] = objectId;
+        objectTypes[objectCount] = stringRef(type);
+        objectEvents[objectCount] = new int[4];
+        objectRefs.put(objectId, objectCount);
+        return objectCount++;
+    }
+    
+    private int stringRef(String value) {
+        if (value == null) return NONE;
+        Integer ref = stringRefs.get(value);
+        if (ref == null) {
+            ref = strings.size();
+            strings.add(value);
+            stringRefs.put(value, ref);
+        }
+        return ref;
+    }
+    
+    private String string(int ref) {
+        return ref == NONE ? null : strings.get(ref);
+    }
+    
+    // 上一个检查点加上其后的净变化, 有序归并成新的检查点
+    private HistoryCheckpoint checkpoint(HistoryCheckpoint base, int position) {
+        Map<Long, Integer> delta = new HashMap<>();
+        for (int p = base.position; p < position; p++) {
+            delta.put(key(objects[p], attributes[p]), newValues[p]);
+        }
+        long[] changed = new long[delta.size()];
+        int n = 0;
+        for (Long key : delta.keySet()) changed[n++] = key;
+        Arrays.sort(changed);
+        
+        long[] keys = new long[base.size() + changed.length];
+        int[] values = new int[keys.length];
+        int i = 0, j = 0, out = 0;
+        while (i < base.size() || j < changed.length) {
+            if (j == changed.length || (i < base.size() && base.keys[i] < changed[j])) {
+                keys[out] = base.keys[i];
+                values[out++] = base.values[i++];
+                continue;
+            }
+            if (i < base.size() && base.keys[i] == changed[j]) i++;
+            int value = delta.get(changed[j]);
+            if (value != NONE) {
+                keys[out] = changed[j];
+                values[out++] = value;
+            }
+            j++;
+        }
+        return new HistoryCheckpoint(position, Arrays.copyOf(keys, out), Arrays.copyOf(values, out));
+    }
+    
+    private static long key(int object, int attribute) {
+        return ((long) object << 32) | (attribute & 0xffffffffL);
+    }
+    
+    // 时间戳不晚于 timestamp 的事件数, 即该时刻在历史中的位置
+    private int positionAt(long timestamp) {
+        int blocks = (size + INDEX_STRIDE - 1) / INDEX_STRIDE;
+        int low = 0, high = blocks - 1, block = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (sparseIndex[mid] <= timestamp) {
+                block = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (block < 0) return 0;
+        int position = block * INDEX_STRIDE;
+        int end = Math.min(size, position + INDEX_STRIDE);
+        while (position < end && timestamps[position] <= timestamp) position++;
+        return position;
+    }
+    
+    // 对象在该时刻的属性值; 对象尚未出现时返回 null
+    public synchronized Map<String, String> stateOf(String objectId, long timestamp) {
+        Integer object = objectRefs.get(objectId);
+        if (object == null) return null;
+        int position = positionAt(timestamp);
+        int[] events = objectEvents[object];
+        int count = objectEventCounts[object];
+        if (count == 0 || events[0] >= position) return null;
+        
+        Map<String, String> state = new TreeMap<>();
+        for (int i = 0; i < count && events[i] < position; i++) {
+            apply(state, events[i]);
+        }
+        return state;
+    }
+    
+    // 某类型全部对象在该时刻的属性值: 最近检查点 + 有界重放
+    public synchronized Map<String, Map<String, String>> stateOfType(String type, long timestamp) {
+        Map<String, Map<String, String>> result = new TreeMap<>();
+        Integer typeRef = stringRefs.get(type);
+        if (typeRef == null) return result;
+        int position = positionAt(timestamp);
+        HistoryCheckpoint checkpoint = checkpointAt(position);
+        
+        for (int i = 0; i < checkpoint.size(); i++) {
+            int object = (int) (checkpoint.keys[i] >>> 32);
+            if (objectTypes[object] != typeRef) continue;
+            Map<String, String> state = result.computeIfAbsent(objectIds[object], k -> new TreeMap<>());
+            String attribute = strings.get((int) checkpoint.keys[i]);
+            if (!CREATED.equals(attribute)) state.put(attribute, strings.get(checkpoint.values[i]));
+        }
+        for (int p = checkpoint.position; p < position; p++) {
+            if (objectTypes[objects[p]] == typeRef) {
+                apply(result.computeIfAbsent(objectIds[objects[p]], k -> new TreeMap<>()), p);
+            }
+        }
+        lastReplayed = position - checkpoint.position;
+        return result;
+    }
+    
+    private HistoryCheckpoint checkpointAt(int position) {
+        int low = 0, high = checkpoints.size() - 1, found = 0;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (checkpoints.get(mid).position <= position) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return checkpoints.get(found);
+    }
+    
+    private void apply(Map<String, String> state, int position) {
+        String attribute = strings.get(attributes[position]);
+        if (CREATED.equals(attribute)) return;
+        String value = string(newValues[position]);
+        if (value == null) {
+            state.remove(attribute);
+        } else {
+            state.put(attribute, value);
+        }
+    }
+    
+    // 审计轨迹: 对象在 [from, to] 内的全部变更
+    public synchronized void showTrail(String objectId, long from, long to) {
+        Integer object = objectRefs.get(objectId);
+        System.out.println("\n🧾 变更轨迹: " + objectId);
+        int shown = 0;
+        if (object != null) {
+            int[] events = objectEvents[object];
+            for (int i = 0; i < objectEventCounts[object]; i++) {
+                int p = events[i];
+                if (timestamps[p] < from || timestamps[p] > to) continue;
+                System.out.println("  " + formatTime(timestamps[p]) + "  " + strings.get(attributes[p]) + ": "
+                    + string(oldValues[p]) + " → " + string(newValues[p]));
+                shown++;
+            }
+        }
+        if (shown == 0) {
+            System.out.println("  (无变更记录)");
+        }
+    }
+    
+    public synchronized void showStats() {
+        long checkpointEntries = 0;
+        for (HistoryCheckpoint checkpoint : checkpoints) checkpointEntries += checkpoint.size();
+        System.out.println("\n🕰️ 事件历史:");
+        System.out.println("  事件: " + size + ", 对象: " + objectCount + ", 字典: " + strings.size() + " 个字符串");
+        if (size > 0) {
+            System.out.println("  覆盖: " + formatTime(timestamps[0]) + " ~ " + formatTime(timestamps[size - 1]));
+        }
+        System.out.println("  稀疏时间索引: " + (size + INDEX_STRIDE - 1) / INDEX_STRIDE + " 项 (每 " + INDEX_STRIDE + " 个事件)");
+        System.out.println("  检查点: " + checkpoints.size() + " 个, 共 " + checkpointEntries + " 个属性值");
+    }
+    
+    public synchronized int size() { return size; }
+    public synchronized long firstTimestamp() { return size > 0 ? timestamps[0] : Long.MAX_VALUE; }
+    public synchronized int getLastReplayed() { return lastReplayed; }
+    
+    static String formatTime(long millis) {
+        return TIME_FORMAT.format(Instant.ofEpochMilli(millis));
+    }
+}
+
+// 检查点: 按 (对象, 属性) 排序的值表
+class HistoryCheckpoint {
+    final int position;
+    final long[] keys;
+    final int[] values;
+    
+    HistoryCheckpoint(int position, long[] keys, int[] values) {
+        this.position = position;
+        this.keys = keys;
+        this.values = values;
+    }
+    
+    int size() { return keys.length; }
+}
+
+// ==================== 决策网络层 ====================
+
+// 本体事件
+class OntologyEvent {
+    private String projectId;
+    private String objectId;
+    private String objectType;
+    private String attribute;
+    private String oldValue;
+    private String newValue;
+    private long timestamp;
+    // 级联: 根事件在排空时开启, 派生事件入队时继承并加深一层; 评估结束后释放引用
+    private EventCascade cascade;
+    private int depth;
+    
+    public OntologyEvent(String projectId, String objectId, String objectType,
+                        String attribute, String oldValue, String newValue) {
+        this.projectId = projectId;
+        this.objectId = objectId;
+        this.objectType = objectType;
+        this.attribute = attribute;
+        this.oldValue = oldValue;
+        this.newValue = newValue;
+        this.timestamp = System.currentTimeMillis();
+    }
+    
+    public String getProjectId() { return projectId; }
+    public String getObjectId() { return objectId; }
+    public String getObjectType() { return objectType; }
+    public String getAttribute() { return attribute; }
+    public String getOldValue() { return oldValue; }
+    public String getNewValue() { return newValue; }
+    public long getTimestamp() { return timestamp; }
+    
+    public void deriveFrom(OntologyEvent cause) {
+        this.cascade = cause.cascade;
+        this.depth = cause.depth + 1;
+    }
+    
+    public EventCascade beginCascade() {
+        if (cascade == null) {
+            cascade = new EventCascade(signature());
+        }
+        return cascade;
+    }
+    
+    public void endCascade() {
+        cascade = null;
+    }
+    
+    // 级联内判重的键: (对象, 属性, 新值)
+    public String signature() {
+        return objectId + "." + attribute + "=" + newValue;
+    }
+    
+    public int getDepth() { return depth; }
+}
+
+// 物化聚合视图: 事件入队时按 (旧值 → 新值) 增量维护, 查询都是 O(1) 哈希查找.
+// 直方图与数值聚合只依赖状态转移本身, 与事件的处理顺序无关; 写入由引擎串行化, 读取无锁.
+// 对象的 status 分布由类型表的状态计数维护, 这里不再另记一份, 查询转给 statusCounts;
+// 活动不在对象存储中, 活动状态分布仍由这里按事件维护
+class MaterializedViews {
+    static final String OPEN_BUGS = "open_bugs";
+    static final String NO_VALUE = "-";
+    private static final String CREATED = "created";
+    private static final String STATUS = "status";
+    private static final String ACTIVITY = "activity";
+    
+    private final Function<String, Map<String, Integer>> statusCounts;
+    private final Map<String, Set<String>> objectsByType = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, Map<String, AtomicInteger>>> histograms = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, NumericAggregate>> numeric = new ConcurrentHashMap<>();
+    private final Map<String, FilteredCountView> views = new ConcurrentHashMap<>();
+    
+    public MaterializedViews(Function<String, Map<String, Integer>> statusCounts) {
+        this.statusCounts = statusCounts;
+        // 未解决缺陷按严重级别计数: 状态为空或不是 resolved/closed 的缺陷都算未解决
+        register(new FilteredCountView(OPEN_BUGS, "bug", "severity", "status",
+            status -> !"resolved".equals(status) && !"closed".equals(status)));
+    }
+    
+    public void register(FilteredCountView view) {
+        views.put(view.getName(), view);
+    }
+    
+    public synchronized void apply(OntologyEvent event) {
+        String type = event.getObjectType();
+        objectsByType.computeIfAbsent(type, t -> ConcurrentHashMap.newKeySet()).add(event.getObjectId());
+        for (FilteredCountView view : views.values()) {
+            view.apply(event);
+        }
+        if (CREATED.equals(event.getAttribute())) return;
+        
+        String oldValue = event.getOldValue();
+        String newValue = event.getNewValue();
+        if (Objects.equals(oldValue, newValue) || isObjectStatus(type, event.getAttribute())) return;
+        
+        Map<String, AtomicInteger> histogram = histograms
+            .computeIfAbsent(type, t -> new ConcurrentHashMap<>())
+            .computeIfAbsent(event.getAttribute(), a -> new ConcurrentHashMap<>());
+        if (oldValue != null) histogram.computeIfAbsent(oldValue, v -> new AtomicInteger()).decrementAndGet();
+        if (newValue != null) histogram.computeIfAbsent(newValue, v -> new AtomicInteger()).incrementAndGet();
+        
+        Double oldNumber = parseNumber(oldValue);
+        Double newNumber = parseNumber(newValue);
+        if (oldNumber != null || newNumber != null) {
+            numeric.computeIfAbsent(type, t -> new ConcurrentHashMap<>())
+                .computeIfAbsent(event.getAttribute(), a -> new NumericAggregate())
+                .replace(oldNumber, newNumber);
+        }
+    }
+    
+    private static boolean isObjectStatus(String type, String attribute) {
+        return STATUS.equals(attribute) && !ACTIVITY.equals(type);
+    }
+    
+    private static Double parseNumber(String value) {
+        if (value == null || value.isEmpty()) return null;
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+    
+    public int countObjects(String type) {
+        Set<String> ids = objectsByType.get(type);
+        return ids != null ? ids.size() : 0;
+    }
+    
+    public int count(String type, String attribute, String value) {
+        if (isObjectStatus(type, attribute)) {
+            return statusCounts.apply(type).getOrDefault(value, 0);
+        }
+        Map<String, Map<String, AtomicInteger>> byAttr = histograms.get(type);
+        Map<String, AtomicInteger> histogram = byAttr != null ? byAttr.get(attribute) : null;
+        AtomicInteger counter = histogram != null ? histogram.get(value) : null;
+        return counter != null ? counter.get() : 0;
+    }
+    
+    public Map<String, Integer> histogram(String type, String attribute) {
+        if (isObjectStatus(type, attribute)) {
+            return new TreeMap<>(statusCounts.apply(type));
+        }
+        Map<String, Integer> snapshot = new TreeMap<>();
+        Map<String, Map<String, AtomicInteger>> byAttr = histograms.get(type);
+        if (byAttr != null && byAttr.get(attribute) != null) {
+            byAttr.get(attribute).forEach((value, counter) -> {
+                if (counter.get() != 0) snapshot.put(value, counter.get());
+            });
+        }
+        return snapshot;
+    }
+    
+    // 数值属性均值, 无数据返回 NaN
+    public double average(String type, String attribute) {
+        Map<String, NumericAggregate> byAttr = numeric.get(type);
+        NumericAggregate aggregate = byAttr != null ? byAttr.get(attribute) : null;
+        return aggregate != null ? aggregate.average() : Double.NaN;
+    }
+    
+    public int openBugs() {
+        return views.get(OPEN_BUGS).total();
+    }
+    
+    public int openBugs(String severity) {
+        return views.get(OPEN_BUGS).count(severity);
+    }
+    
+    public FilteredCountView view(String name) { return views.get(name); }
+    public Set<String> types() { return new TreeSet<>(objectsByType.keySet()); }
+    
+    public void show() {
+        System.out.println("\n📊 物化视图:");
+        for (String type : types()) {
+            System.out.println("  " + type + ": " + countObjects(type) + " 个对象");
+            Set<String> attributes = new TreeSet<>();
+            Map<String, Map<String, AtomicInteger>> byAttr = histograms.get(type);
+            if (byAttr != null) attributes.addAll(byAttr.keySet());
+            if (!ACTIVITY.equals(type)) attributes.add(STATUS);
+            for (String attribute : attributes) {
+                Map<String, Integer> histogram = histogram(type, attribute);
+                double average = average(type, attribute);
+                if (!Double.isNaN(average)) {
+                    System.out.printf("    %-16s 均值 %.2f%n", attribute, average);
+                } else if (!histogram.isEmpty() && histogram.size() <= 8) {
+                    System.out.println("    " + String.format("%-16s", attribute) + " " + histogram);
+                }
+            }
+        }
+        FilteredCountView bugs = views.get(OPEN_BUGS);
+        System.out.println("  未解决缺陷: " + bugs.total() + " " + bugs.snapshot());
+    }
+}
+
+// 数值聚合: 计数与总和, 旧值替换为新值时增量调整
+class NumericAggregate {
+    private volatile long count;
+    private volatile double sum;
+    
+    // 只由 MaterializedViews.apply 在持锁时调用
+    public void replace(Double oldValue, Double newValue) {
+        if (oldValue != null) {
+            count--;
+            sum -= oldValue;
+        }
+        if (newValue != null) {
+            count++;
+            sum += newValue;
+        }
+    }
+    
+    public double average() {
+        long n = count;
+        return n > 0 ? sum / n : Double.NaN;
+    }
+    
+    public long getCount() { return count; }
+    public double getSum() { return sum; }
+}
+
+// 带过滤条件的分组计数: 同一对象的两个属性联合判断 (如 severity 分组、status 过滤),
+// 因此按对象保存这两个属性的当前值
+class FilteredCountView {
+    private final String name;
+    private final String type;
+    private final String groupAttribute;
+    private final String filterAttribute;
+    private final Predicate<String> filter;
+    private final Map<String, String[]> state = new HashMap<>();
+    private final Map<String, AtomicInteger> counts = new ConcurrentHashMap<>();
+    private final AtomicInteger total = new AtomicInteger();
+    
+    public FilteredCountView(String name, String type, String groupAttribute,
+                             String filterAttribute, Predicate<String> filter) {
+        this.name = name;
+        this.type = type;
+        this.groupAttribute = groupAttribute;
+        this.filterAttribute = filterAttribute;
+        this.filter = filter;
+    }
+    
+    public void apply(OntologyEvent event) {
+        if (!type.equals(event.getObjectType())) return;
+        String[] current = state.get(event.getObjectId());
+        if (current == null) {
+            current = new String[2];
+            state.put(event.getObjectId(), current);
+            adjust(current, 1);
+        }
+        boolean group = groupAttribute.equals(event.getAttribute());
+        boolean filtered = filterAttribute.equals(event.getAttribute());
+        if (!group && !filtered) return;
+        
+        adjust(current, -1);
+        current[group ? 0 : 1] = event.getNewValue();
+        adjust(current, 1);
+    }
+    
+    private void adjust(String[] values, int delta) {
+        if (!filter.test(values[1])) return;
+        String key = values[0] != null ? values[0] : MaterializedViews.NO_VALUE;
+        counts.computeIfAbsent(key, k -> new AtomicInteger()).addAndGet(delta);
+        total.addAndGet(delta);
+    }
+    
+    public int count(String group) {
+        AtomicInteger counter = counts.get(group);
+        return counter != null ? counter.get() : 0;
+    }
+    
+    public int total() { return total.get(); }
+    
+    public Map<String, Integer> snapshot() {
+        Map<String, Integer> snapshot = new TreeMap<>();
+        counts.forEach((key, counter) -> {
+            if (counter.get() != 0) snapshot.put(key, counter.get());
+        });
+        return snapshot;
+    }
     
-    public String getId() { return id; }
-    public void setId(String id) { this.id = id; }
     public String getName() { return name; }
-    public void setName(String name) { this.name = name; }
-    public String getCategory() { return category; }
-    public void setCategory(String category) { this.category = category; }
-    public List<Map<String, Object>> getAttributes() { return attributes; }
-    public void setAttributes(List<Map<String, Object>> attributes) { this.attributes = attributes; }
 }
 
-class ActivityDef {
-    private String id;
-    private String name;
-    private String phase;
-    private String category;
-    private String description;
-    private int duration_estimate;
+// 合并事件批: 同一 (对象, 属性) 只保留首个旧值和最后的新值, 净变化为空的事件被丢弃
+class EventBatch {
+    private final Map<String, Map<String, Integer>> index = new HashMap<>();
+    private final List<OntologyEvent> merged = new ArrayList<>();
+    private List<OntologyEvent> netEvents;
+    
+    public void add(OntologyEvent event) {
+        netEvents = null;
+        Map<String, Integer> byAttribute = index.computeIfAbsent(event.getObjectId(), k -> new HashMap<>());
+        Integer slot = byAttribute.get(event.getAttribute());
+        if (slot == null) {
+            byAttribute.put(event.getAttribute(), merged.size());
+            merged.add(event);
+            return;
+        }
+        
+        OntologyEvent first = merged.get(slot);
+        merged.set(slot, new OntologyEvent(event.getProjectId(), event.getObjectId(), event.getObjectType(),
+            event.getAttribute(), first.getOldValue(), event.getNewValue()));
+    }
+    
+    public boolean isEmpty() {
+        return merged.isEmpty();
+    }
+    
+    public int size() {
+        return events().size();
+    }
+    
+    // 按首次出现顺序返回净变化事件
+    public List<OntologyEvent> events() {
+        if (netEvents == null) {
+            netEvents = new ArrayList<>(merged.size());
+            for (OntologyEvent event : merged) {
+                if (!Objects.equals(event.getOldValue(), event.getNewValue())) {
+                    netEvents.add(event);
+                }
+            }
+        }
+        return netEvents;
+    }
+}
+
+// 决策规则接口
+interface DecisionRule {
+    String getRuleId();
+    List<String> getTriggerObjectTypes();
+    List<String> getTriggerAttributes();
+    void evaluate(OntologyEvent event, ProjectContext ctx, DecisionNetworkEngine engine);
+}
+
+// 决策网络引擎
+// 多生产者: 任意线程可并发提交事件 (无锁队列 + 有界背压)
+// 单消费者: 同一时刻只有一个线程排空本项目的队列, 保证项目内事件顺序
+class DecisionNetworkEngine {
+    private static final int DEFAULT_QUEUE_CAPACITY = 65536;
+    private static final long BLOCK_PARK_NANOS = 50_000L;
+    private static final int DEFAULT_MAX_CASCADE_DEPTH = 64;
+    private static final int DEFAULT_TICK_BUDGET = 100_000;
+    private static final int DIAGNOSTIC_LIMIT = 50;
+    // 达到排空预算后的续排: 所有项目共用, 空闲线程超时退出
+    private static final ThreadPoolExecutor CONTINUATIONS = newContinuationPool();
+
+    private String projectId;
+    private ProjectContext context;
+    private volatile RuleDispatchTable dispatchTable;
+    private volatile ReteNetwork joinNetwork;
+    // 跨项目事件总线: 排空后的属性事件按顺序发布, 由总线按依赖与订阅规则决定是否入队
+    private volatile EventBus eventBus;
+    private final ConcurrentLinkedQueue<OntologyEvent> eventQueue;
+    private final AtomicInteger queuedEvents = new AtomicInteger();
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+    private volatile Thread drainer;
+    
+    // 批处理模式: 当前线程提交的事件先合并缓存, 提交批次时一次入队
+    private final ThreadLocal<EventBatch> activeBatch = new ThreadLocal<>();
+    
+    // 背压配置
+    private volatile int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+    private volatile BackpressurePolicy backpressurePolicy = BackpressurePolicy.BLOCK;
+    
+    // 级联控制: 派生深度上限、级联内 (对象, 属性, 值) 判重、每次排空与每个级联的事件预算.
+    // currentEvent 是排空线程正在评估的事件, 其间入队的事件都是它的派生事件
+    private volatile int maxCascadeDepth = DEFAULT_MAX_CASCADE_DEPTH;
+    private volatile int tickBudget = DEFAULT_TICK_BUDGET;
+    private OntologyEvent currentEvent;
+    private final ConcurrentLinkedDeque<CascadeDiagnostic> diagnostics = new ConcurrentLinkedDeque<>();
+    private final Map<CascadeViolation, AtomicLong> violations = new EnumMap<>(CascadeViolation.class);
+    
+    // 统计
+    private final AtomicLong processedEvents = new AtomicLong();
+    private final AtomicLong droppedEvents = new AtomicLong();
+    private final AtomicLong rejectedEvents = new AtomicLong();
+    
+    // 物化视图在入队时更新, 被 DROP_OLDEST 丢弃的事件仍已计入
+    private final MaterializedViews views;
+
+    
+    private static ThreadPoolExecutor newContinuationPool() {
+        AtomicInteger threadIds = new AtomicInteger();
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), r -> {
+                Thread thread = new Thread(r, "decision-drain-" + threadIds.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+    
+    public DecisionNetworkEngine(String projectId, ProjectContext context) {
+        this.projectId = projectId;
+        this.context = context;
+        this.views = new MaterializedViews(context::statusHistogram);
+        this.dispatchTable = new RuleDispatchTable();
+        this.eventQueue = new ConcurrentLinkedQueue<>();
+        for (CascadeViolation kind : CascadeViolation.values()) {
+            violations.put(kind, new AtomicLong());
+        }
+    }
+    
+    public void configureBackpressure(BackpressurePolicy policy, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("队列容量必须大于0: " + capacity);
+        }
+        this.backpressurePolicy = policy;
+        this.queueCapacity = capacity;
+    }
+    
+    public void setEventBus(EventBus eventBus) {
+        this.eventBus = eventBus;
+    }
+    
+    public void configureCascade(int maxDepth, int budget) {
+        if (maxDepth <= 0 || budget <= 0) {
+            throw new IllegalArgumentException("级联深度与事件预算必须大于0: " + maxDepth + ", " + budget);
+        }
+        this.maxCascadeDepth = maxDepth;
+        this.tickBudget = budget;
+    }
+    
+    public void addRule(DecisionRule rule) {
+        RuleDispatchTable table = dispatchTable;
+        if (table.isFrozen()) {
+            table = table.copy();
+        }
+        table.add(rule);
+        dispatchTable = table;
+    }
+    
+    // 共享模板镜像中已冻结的规则表
+    public void useRules(RuleDispatchTable table) {
+        dispatchTable = table;
+    }
+    
+    public int getRuleCount() {
+        return dispatchTable.size();
+    }
+    
+    public void setJoinNetwork(ReteNetwork network) {
+        joinNetwork = network;
+    }
+    
+    public ReteNetwork getJoinNetwork() { return joinNetwork; }
+    
+    // 配置升级: 新规则表构建完成后整体替换, 排空线程下一个事件起使用新规则
+    public void replaceRules(List<DecisionRule> rules) {
+        RuleDispatchTable table = new RuleDispatchTable();
+        rules.forEach(table::add);
+        dispatchTable = table;
+    }
+    
+    // 提交事件并尝试排空队列; 被背压策略拒绝时返回 false
+    public boolean emitEvent(OntologyEvent event) {
+        EventBatch batch = activeBatch.get();
+        if (batch != null) {
+            batch.add(event);
+            return true;
+        }
+        
+        if (!acquireSlot()) {
+            System.out.println("  ⚠ 事件队列已满, 拒绝事件: " + event.getObjectId() + "." + event.getAttribute());
+            return false;
+        }
+        enqueue(event);
+        processEvents();
+        return true;
+    }
+    
+    // 按背压策略占用一个队列槽位; 消费线程自身产生的派生事件不受容量限制, 避免自锁
+    public boolean acquireSlot() {
+        return acquireSlots(1);
+    }
+    
+    // 一次整体占用 slots 个槽位: 多个生产者各占一部分再互相等待会把队列占死, 所以不分步占用.
+    // 队列为空时总能占用, 超过容量的单次请求不会永远等待; 调用方按 getQueueCapacity() 分块
+    public boolean acquireSlots(int slots) {
+        if (Thread.currentThread() == drainer) {
+            queuedEvents.addAndGet(slots);
+            return true;
+        }
+        
+        while (true) {
+            int queued = queuedEvents.get();
+            if (queued == 0 || queued + slots <= queueCapacity) {
+                if (queuedEvents.compareAndSet(queued, queued + slots)) {
+                    return true;
+                }
+                continue;
+            }
+            
+            switch (backpressurePolicy) {
+                case REJECT:
+                    rejectedEvents.incrementAndGet();
+                    return false;
+                case DROP_OLDEST:
+                    // 丢弃队首事件腾出槽位, 再按新的占用数重试
+                    OntologyEvent dropped = eventQueue.poll();
+                    if (dropped != null) {
+                        dropped.endCascade();
+                        droppedEvents.incrementAndGet();
+                        queuedEvents.decrementAndGet();
+                        break;
+                    }
+                    // 槽位已被占满但事件尚未入队 (生产者在占位与入队之间), 稍后再试
+                    LockSupport.parkNanos(BLOCK_PARK_NANOS);
+                    break;
+                case BLOCK:
+                default:
+                    // 队列满却无人排空 (上一个排空者已返回) 时自己排空, 否则等排空者腾出槽位
+                    if (!draining.get() && !eventQueue.isEmpty()) {
+                        processEvents();
+                    } else {
+                        LockSupport.parkNanos(BLOCK_PARK_NANOS);
+                    }
+                    break;
+            }
+        }
+    }
+    
+    // 归还已占用但不再入队的槽位
+    public void releaseSlots(int slots) {
+        queuedEvents.addAndGet(-slots);
+    }
+    
+    // 排空线程评估规则时入队的事件是当前事件的派生事件, 归入同一级联
+    private void inherit(OntologyEvent event) {
+        if (Thread.currentThread() == drainer && currentEvent != null) {
+            event.deriveFrom(currentEvent);
+        }
+    }
+    
+    // 入队已占用槽位的事件
+    public void enqueue(OntologyEvent event) {
+        inherit(event);
+        views.apply(event);
+        try {
+            journal(event);
+        } finally {
+            eventQueue.offer(event);
+        }
+    }
+    
+    // 边事件只有联合匹配网络关心: 没有联合规则时不入队; 不占背压槽位, 调用方持有存储锁
+    public void enqueueEdge(EdgeEvent event) {
+        if (joinNetwork == null) return;
+        inherit(event);
+        queuedEvents.incrementAndGet();
+        eventQueue.offer(event);
+    }
+    
+    // 入队一批事件, 调用方已按 reserved 个事件占用槽位; 合并后事件较少时归还多余的槽位
+    public void enqueueReserved(List<OntologyEvent> events, int reserved) {
+        queuedEvents.addAndGet(events.size() - reserved);
+        IllegalStateException failure = null;
+        for (OntologyEvent event : events) {
+            inherit(event);
+            views.apply(event);
+            try {
+                journal(event);
+            } catch (IllegalStateException e) {
+                failure = e;
+            }
+            eventQueue.offer(event);
+        }
+        if (failure != null) throw failure;
+    }
+    
+    // 入队的事件都对应已生效的存储写入 (活动完成事件对应 completedActivities), 按入队顺序写日志并保留到事件历史.
+    // 日志写线程失败时抛出 IllegalStateException; 调用方仍把事件入队, 内存中的处理照常进行
+    private void journal(OntologyEvent event) {
+        context.getHistory().record(event);
+        EventLog log = context.getEventLog();
+        if (log != null) {
+            log.appendEvent(event);
+        }
+    }
+    
+    // 合并后整批提交, 每个 (对象, 属性) 只评估一次净变化; 按队列容量分块占用槽位
+    public boolean emitBatch(EventBatch batch) {
+        List<OntologyEvent> events = batch.events();
+        for (int from = 0; from < events.size(); ) {
+            int to = Math.min(events.size(), from + queueCapacity);
+            if (!acquireSlots(to - from)) {
+                System.out.println("  ⚠ 事件队列已满, 拒绝批量事件: " + (events.size() - from) + " 个");
+                return false;
+            }
+            enqueueReserved(events.subList(from, to), to - from);
+            processEvents();
+            from = to;
+        }
+        return true;
+    }
+    
+    // 开启当前线程的批处理模式, 之后的 emitEvent 只做合并缓存
+    public void beginBatch() {
+        if (activeBatch.get() == null) {
+            activeBatch.set(new EventBatch());
+        }
+    }
+    
+    // 结束批处理模式并提交合并后的事件
+    public boolean commitBatch() {
+        EventBatch batch = activeBatch.get();
+        if (batch == null) return true;
+        activeBatch.remove();
+        return emitBatch(batch);
+    }
+    
+    // 竞争成为本项目的唯一消费者并排空队列; 失败说明已有线程在排空, 事件会由它处理.
+    // 一次排空最多处理 tickBudget 个事件, 余下的留给下一次排空, 失控的级联不会一直占住线程
+    public void processEvents() {
+        while (!eventQueue.isEmpty() && draining.compareAndSet(false, true)) {
+            drainer = Thread.currentThread();
+            int budget = tickBudget;
+            int processed = 0;
+            try {
+                OntologyEvent event;
+                while (processed < budget && (event = eventQueue.poll()) != null) {
+                    queuedEvents.decrementAndGet();
+                    boolean admitted = admit(event);
+                    currentEvent = event;
+                    try {
+                        evaluateRules(event, admitted);
+                    } catch (RuntimeException e) {
+                        System.out.println("  ❌ 规则评估失败: " + event.getObjectId() + "." +
+                            event.getAttribute() + " - " + e.getMessage());
+                    } finally {
+                        currentEvent = null;
+                    }
+                    event.endCascade();
+                    EventBus bus = eventBus;
+                    if (bus != null && !(event instanceof EdgeEvent)) {
+                        bus.publish(projectId, event);
+                    }
+                    processedEvents.incrementAndGet();
+                    processed++;
+                }
+            } finally {
+                drainer = null;
+                draining.set(false);
+            }
+            if (processed >= budget && !eventQueue.isEmpty()) {
+                // 派生事件不占容量检查, 截断后若只等下一个生产者来排空, 背压下等待的生产者可能永远等不到;
+                // 余下事件转交后台线程继续排空, 当前线程 (常是提交者) 就此返回
+                report(new CascadeDiagnostic(CascadeViolation.TICK_BUDGET, projectId, null, null, 0, processed,
+                    Collections.emptyList(), "本次排空达到事件预算 " + budget + ", 剩余 " + eventQueue.size()
+                    + " 个事件转交后台继续排空"));
+                CONTINUATIONS.execute(this::processEvents);
+                return;
+            }
+            // 释放消费权后再次检查, 防止其他线程在此间隙入队的事件无人处理
+        }
+    }
+    
+    // 级联检查: 所属级联已中止、派生过深、(对象, 属性, 值) 在级联内重复或级联事件超出预算时不评估规则.
+    // 事件对应的写入已经生效, 这里只切断后续的规则连锁; 联合匹配记忆照常维护
+    private boolean admit(OntologyEvent event) {
+        EventCascade cascade = event.beginCascade();
+        if (cascade.isAborted()) {
+            cascade.skip();
+            return false;
+        }
+        if (event.getDepth() > maxCascadeDepth) {
+            return violate(CascadeViolation.DEPTH, event, cascade,
+                "派生深度 " + event.getDepth() + " 超过上限 " + maxCascadeDepth);
+        }
+        if (!cascade.visit(event.signature())) {
+            return violate(CascadeViolation.CYCLE, event, cascade, "事件 " + event.signature() + " 在同一级联中重复出现");
+        }
+        if (cascade.getEvents() > tickBudget) {
+            return violate(CascadeViolation.CASCADE_BUDGET, event, cascade,
+                "级联事件数超过预算 " + tickBudget);
+        }
+        return true;
+    }
+    
+    private boolean violate(CascadeViolation kind, OntologyEvent event, EventCascade cascade, String detail) {
+        CascadeDiagnostic diagnostic = new CascadeDiagnostic(kind, projectId, cascade.getRoot(), event.signature(),
+            event.getDepth(), cascade.getEvents(), cascade.getTrail(), detail);
+        cascade.abort(diagnostic);
+        report(diagnostic);
+        return false;
+    }
+    
+    private void report(CascadeDiagnostic diagnostic) {
+        violations.get(diagnostic.getKind()).incrementAndGet();
+        diagnostics.addFirst(diagnostic);
+        while (diagnostics.size() > DIAGNOSTIC_LIMIT) {
+            diagnostics.pollLast();
+        }
+        System.out.println("  ⚠ 级联控制 [" + diagnostic.getKind() + "] " + projectId + ": " + diagnostic.getDetail()
+            + (diagnostic.getRoot() != null ? " (根事件 " + diagnostic.getRoot() + ", 已中止本级联)" : ""));
+    }
+    
+    public void showDiagnostics() {
+        System.out.println("\n🩺 级联诊断 - " + projectId + " (深度上限 " + maxCascadeDepth + ", 事件预算 " + tickBudget + "):");
+        System.out.println("  " + violations.entrySet().stream()
+            .map(e -> e.getKey() + " " + e.getValue().get())
+            .collect(Collectors.joining(", ")));
+        if (diagnostics.isEmpty()) {
+            System.out.println("  (无诊断记录)");
+            return;
+        }
+        diagnostics.forEach(CascadeDiagnostic::show);
+    }
+    
+    public void clearDiagnostics() {
+        diagnostics.clear();
+    }
+    
+    public List<CascadeDiagnostic> getDiagnostics() { return new ArrayList<>(diagnostics); }
+    
+    // 被级联控制截断的事件 (admitted 为 false) 不评估规则, 但联合匹配记忆仍按存储更新, 只是不执行动作;
+    // 否则记忆会与已生效的写入不一致, 直到下次重建
+    private void evaluateRules(OntologyEvent event, boolean admitted) {
+        ReteNetwork joins = joinNetwork;
+        if (event instanceof EdgeEvent) {
+            if (joins != null) joins.onEdge((EdgeEvent) event, admitted);
+            return;
+        }
+        if (admitted) {
+            // 只评估分派表中与 (类型, 属性) 匹配的规则
+            for (DecisionRule rule : dispatchTable.match(event.getObjectType(), event.getAttribute())) {
+                // 评估规则 (传入引擎引用以便规则可以触发新事件)
+                rule.evaluate(event, context, this);
+            }
+        }
+        // 联合规则在单条规则之后增量匹配
+        if (joins != null) {
+            joins.onAttribute(event, admitted);
+        }
+    }
+    
+    public void showStats() {
+        System.out.println("\n📈 决策网络统计 - " + projectId + ":");
+        System.out.println("  规则数: " + dispatchTable.size());
+        ReteNetwork joins = joinNetwork;
+        if (joins != null) {
+            System.out.println("  联合规则: " + joins.getRuleCount() + " 个 (激活 " + joins.getActivationCount() + " 次)");
+        }
+        System.out.println("  背压策略: " + backpressurePolicy + " (容量 " + queueCapacity + ")");
+        System.out.println("  级联控制: 深度上限 " + maxCascadeDepth + ", 事件预算 " + tickBudget + ", 诊断 "
+            + violations.values().stream().mapToLong(AtomicLong::get).sum() + " 条");
+        System.out.println("  队列中: " + queuedEvents.get());
+        System.out.println("  已处理: " + processedEvents.get());
+        System.out.println("  已丢弃: " + droppedEvents.get());
+        System.out.println("  已拒绝: " + rejectedEvents.get());
+    }
+    
+    public int getQueueCapacity() { return queueCapacity; }
+    public long getProcessedEventCount() { return processedEvents.get(); }
+    public long getDroppedEventCount() { return droppedEvents.get(); }
+    public long getRejectedEventCount() { return rejectedEvents.get(); }
+    public int getQueuedEventCount() { return queuedEvents.get(); }
+    public MaterializedViews getViews() { return views; }
+    
+    public void showJoins() {
+        ReteNetwork joins = joinNetwork;
+        if (joins == null) {
+            System.out.println("  (项目未启用联合规则)");
+            return;
+        }
+        joins.showStats();
+    }
+    
+    // 活动交给运行时异步执行, 排空线程只做提交; 完成/失败作为 activity 状态事件回到本网络
+    public void triggerActivity(String activityId, ProjectContext ctx, Map<String, String> params) {
+        ActivityRuntime runtime = ctx.getActivityRuntime();
+        if (runtime == null) {
+            System.out.println("  ⚠ 未配置活动运行时, 忽略活动: " + activityId);
+            return;
+        }
+        System.out.println("  🎯 决策网络触发活动: " + activityId);
+        runtime.submit(ctx, activityId, params);
+    }
+    
+    // 订阅规则触发的活动: 总线消费线程不在订阅项目上提交事件 (会停在背压等待或成为其排空者),
+    // 提交连同 running 状态事件一起交给活动工作线程
+    public void queueActivity(String activityId, ProjectContext ctx, Map<String, String> params) {
+        ActivityRuntime runtime = ctx.getActivityRuntime();
+        if (runtime == null) {
+            System.out.println("  ⚠ 未配置活动运行时, 忽略活动: " + activityId);
+            return;
+        }
+        System.out.println("  🎯 订阅规则触发活动: " + activityId);
+        runtime.submitLater(ctx, activityId, params);
+    }
+}
+
+// 级联: 一个根事件及其全部派生事件. 只由排空线程访问
+class EventCascade {
+    private static final int TRAIL_LIMIT = 16;
     
-    public ActivityDef() {}
+    private final String root;
+    private final Set<String> seen = new HashSet<>();
+    private final ArrayDeque<String> trail = new ArrayDeque<>();
+    private int events;
+    private CascadeDiagnostic diagnostic;
     
-    public String getId() { return id; }
-    public void setId(String id) { this.id = id; }
-    public String getName() { return name; }
-    public void setName(String name) { this.name = name; }
-    public String getPhase() { return phase; }
-    public void setPhase(String phase) { this.phase = phase; }
-    public String getCategory() { return category; }
-    public void setCategory(String category) { this.category = category; }
-    public String getDescription() { return description; }
-    public void setDescription(String description) { this.description = description; }
-    public int getDuration_estimate() { return duration_estimate; }
-    public void setDuration_estimate(int duration_estimate) { this.duration_estimate = duration_estimate; }
+    public EventCascade(String root) {
+        this.root = root;
+    }
+    
+    // 记录一个事件, 返回其 (对象, 属性, 值) 在本级联中是否首次出现
+    public boolean visit(String signature) {
+        events++;
+        trail.addLast(signature);
+        if (trail.size() > TRAIL_LIMIT) {
+            trail.removeFirst();
+        }
+        return seen.add(signature);
+    }
+    
+    // 中止后本级联余下的事件 (已入队的) 都不再评估, 计入诊断
+    public void abort(CascadeDiagnostic diagnostic) {
+        this.diagnostic = diagnostic;
+    }
+    
+    public void skip() {
+        diagnostic.addSkipped();
+    }
+    
+    public boolean isAborted() { return diagnostic != null; }
+    public String getRoot() { return root; }
+    public int getEvents() { return events; }
+    public List<String> getTrail() { return new ArrayList<>(trail); }
 }
 
-class RelationshipDef {
-    private String id;
-    private String name;
-    private List<String> source_types;
-    private List<String> target_types;
-    private String cardinality;
-    private String description;
+// 级联控制诊断: 违规类型、根事件、触发违规的事件与最近的级联轨迹
+class CascadeDiagnostic {
+    private final CascadeViolation kind;
+    private final String projectId;
+    private final String root;
+    private final String trigger;
+    private final int depth;
+    private final int events;
+    private final List<String> trail;
+    private final String detail;
+    private final long timestamp;
+    private volatile int skipped;
     
-    public RelationshipDef() {}
+    public CascadeDiagnostic(CascadeViolation kind, String projectId, String root, String trigger, int depth,
+                             int events, List<String> trail, String detail) {
+        this.kind = kind;
+        this.projectId = projectId;
+        this.root = root;
+        this.trigger = trigger;
+        this.depth = depth;
+        this.events = events;
+        this.trail = trail;
+        this.detail = detail;
+        this.timestamp = System.currentTimeMillis();
+    }
     
-    public String getId() { return id; }
-    public void setId(String id) { this.id = id; }
-    public String getName() { return name; }
-    public void setName(String name) { this.name = name; }
-    public List<String> getSource_types() { return source_types; }
-    public void setSource_types(List<String> source_types) { this.source_types = source_types; }
-    public List<String> getTarget_types() { return target_types; }
-    public void setTarget_types(List<String> target_types) { this.target_types = target_types; }
-    public String getCardinality() { return cardinality; }
-    public void setCardinality(String cardinality) { this.cardinality = cardinality; }
-    public String getDescription() { return description; }
-    public void setDescription(String description) { this.description = description; }
+    void addSkipped() {
+        skipped++;
+    }
+    
+    public void show() {
+        System.out.println("  [" + kind + "] " + Instant.ofEpochMilli(timestamp) + " " + projectId + ": " + detail);
+        if (root != null) {
+            System.out.println("      根事件: " + root + ", 触发: " + trigger + " (深度 " + depth + ", 级联事件 " + events
+                + ", 跳过 " + skipped + ")");
+        }
+        if (!trail.isEmpty()) {
+            System.out.println("      轨迹: " + String.join(" → ", trail));
+        }
+    }
+    
+    public CascadeViolation getKind() { return kind; }
+    public String getProjectId() { return projectId; }
+    public String getRoot() { return root; }
+    public String getTrigger() { return trigger; }
+    public int getDepth() { return depth; }
+    public int getEvents() { return events; }
+    public List<String> getTrail() { return trail; }
+    public String getDetail() { return detail; }
+    public long getTimestamp() { return timestamp; }
+    public int getSkipped() { return skipped; }
+}
+
+// 规则分派表: 规则注册时按 (对象类型, 属性) 建立索引, "*" 为通配桶
+class RuleDispatchTable {
+    private static final String WILDCARD = "*";
+    private static final DecisionRule[] NO_RULES = new DecisionRule[0];
+    
+    private final List<DecisionRule> rules = new ArrayList<>();
+    // 类型 -> 属性 -> 规则序号 (注册顺序)
+    private final Map<String, Map<String, List<Integer>>> buckets = new HashMap<>();
+    // (类型, 属性) -> 已合并去重的匹配规则, 首次命中时计算; 冻结的表被多个项目的排空线程共享
+    private final Map<String, Map<String, DecisionRule[]>> resolved = new ConcurrentHashMap<>();
+    private boolean frozen;
+    
+    public void add(DecisionRule rule) {
+        if (frozen) {
+            throw new IllegalStateException("规则表已冻结");
+        }
+        int ordinal = rules.size();
+        rules.add(rule);
+        
+        Set<String> types = distinct(rule.getTriggerObjectTypes());
+        Set<String> attributes = distinct(rule.getTriggerAttributes());
+        for (String type : types) {
+            Map<String, List<Integer>> byAttribute = buckets.computeIfAbsent(type, k -> new HashMap<>());
+            for (String attribute : attributes) {
+                byAttribute.computeIfAbsent(attribute, k -> new ArrayList<>()).add(ordinal);
+            }
+        }
+        resolved.clear();
+    }
+    
+    public DecisionRule[] match(String objectType, String attribute) {
+        Map<String, DecisionRule[]> byAttribute = resolved.computeIfAbsent(objectType, k -> new ConcurrentHashMap<>());
+        DecisionRule[] matched = byAttribute.get(attribute);
+        if (matched == null) {
+            matched = resolve(objectType, attribute);
+            byAttribute.put(attribute, matched);
+        }
+        return matched;
+    }
+    
+    public int size() {
+        return rules.size();
+    }
+    
+    // 冻结后只读, 可在项目间共享; 规则本身无状态 (上下文随事件传入)
+    public void freeze() {
+        frozen = true;
+    }
+    
+    public boolean isFrozen() {
+        return frozen;
+    }
+    
+    public RuleDispatchTable copy() {
+        RuleDispatchTable table = new RuleDispatchTable();
+        rules.forEach(table::add);
+        return table;
+    }
+    
+    // 合并 (类型|*, 属性|*) 四个桶, 保持注册顺序且每条规则只出现一次
+    private DecisionRule[] resolve(String objectType, String attribute) {
+        BitSet ordinals = new BitSet(rules.size());
+        for (String type : new String[] { objectType, WILDCARD }) {
+            Map<String, List<Integer>> byAttribute = buckets.get(type);
+            if (byAttribute == null) continue;
+            for (String attr : new String[] { attribute, WILDCARD }) {
+                List<Integer> bucket = byAttribute.get(attr);
+                if (bucket != null) {
+                    bucket.forEach(ordinals::set);
+                }
+            }
+        }
+        if (ordinals.isEmpty()) return NO_RULES;
+        
+        DecisionRule[] matched = new DecisionRule[ordinals.cardinality()];
+        int i = 0;
+        for (int ordinal = ordinals.nextSetBit(0); ordinal >= 0; ordinal = ordinals.nextSetBit(ordinal + 1)) {
+            matched[i++] = rules.get(ordinal);
+        }
+        return matched;
+    }
+    
+    private Set<String> distinct(List<String> values) {
+        return values != null ? new LinkedHashSet<>(values) : Collections.emptySet();
+    }
+}
+
+// 规则工厂: 按规则库为项目启用的每个关系实例化规则; 没有专属规则的关系使用默认规则
+class RuleFactory {
+    
+    public static List<DecisionRule> createRulesFromRelationships(
+            Map<String, RelationshipDef> relationships, RuleLibrary library) {
+        List<DecisionRule> rules = new ArrayList<>();
+        
+        for (RelationshipDef rel : relationships.values()) {
+            rules.addAll(library.rulesFor(rel));
+        }
+        
+        return rules;
+    }
+}
+
+// 规则库: rule_library.yml 编译后的规则模板 (按关系索引)、联合规则与跨项目订阅规则 (按主题类型索引);
+// 不可变, 随配置快照替换
+class RuleLibrary {
+    static final String DEFAULT_RELATIONSHIP = "*";
+    private static final RuleLibrary EMPTY = new RuleLibrary(Collections.emptyMap(), Collections.emptyList(), 0,
+        Collections.emptyList(), Collections.emptyMap());
+    
+    private final Map<String, List<RuleTemplate>> byRelationship;
+    private final List<RuleTemplate> defaults;
+    private final int size;
+    private final List<JoinRule> joins;
+    private final Map<String, List<BusRule>> subscriptions;
+    
+    private RuleLibrary(Map<String, List<RuleTemplate>> byRelationship, List<RuleTemplate> defaults, int size,
+                        List<JoinRule> joins, Map<String, List<BusRule>> subscriptions) {
+        this.byRelationship = byRelationship;
+        this.defaults = defaults;
+        this.size = size;
+        this.joins = joins;
+        this.subscriptions = subscriptions;
+    }
+    
+    public static RuleLibrary empty() {
+        return EMPTY;
+    }
+    
+    // 编译失败抛出 IllegalArgumentException, 消息带规则ID
+    public static RuleLibrary compile(List<Map<String, Object>> specs, List<Map<String, Object>> joinSpecs,
+                                      List<Map<String, Object>> subscriptionSpecs) {
+        Map<String, List<RuleTemplate>> byRelationship = new HashMap<>();
+        List<RuleTemplate> defaults = new ArrayList<>();
+        Set<String> ids = new HashSet<>();
+        for (Map<String, Object> spec : specs) {
+            RuleTemplate template = RuleCompiler.compile(spec);
+            if (!ids.add(template.getRelationship() + "/" + template.getIdPattern())) {
+                throw new IllegalArgumentException("规则ID重复: " + template.getIdPattern());
+            }
+            if (DEFAULT_RELATIONSHIP.equals(template.getRelationship())) {
+                defaults.add(template);
+            } else {
+                byRelationship.computeIfAbsent(template.getRelationship(), k -> new ArrayList<>()).add(template);
+            }
+        }
+        byRelationship.replaceAll((id, templates) -> Collections.unmodifiableList(templates));
+        
+        List<JoinRule> joins = new ArrayList<>();
+        for (Map<String, Object> spec : joinSpecs) {
+            JoinRule join = RuleCompiler.compileJoin(spec);
+            if (!ids.add(join.getId())) {
+                throw new IllegalArgumentException("规则ID重复: " + join.getId());
+            }
+            joins.add(join);
+        }
+        
+        Map<String, List<BusRule>> subscriptions = new HashMap<>();
+        for (Map<String, Object> spec : subscriptionSpecs) {
+            BusRule subscription = RuleCompiler.compileSubscription(spec);
+            if (!ids.add(subscription.getId())) {
+                throw new IllegalArgumentException("规则ID重复: " + subscription.getId());
+            }
+            subscriptions.computeIfAbsent(subscription.getTopic(), k -> new ArrayList<>()).add(subscription);
+        }
+        subscriptions.replaceAll((topic, rules) -> Collections.unmodifiableList(rules));
+        return new RuleLibrary(Collections.unmodifiableMap(byRelationship), Collections.unmodifiableList(defaults),
+            specs.size(), Collections.unmodifiableList(joins), Collections.unmodifiableMap(subscriptions));
+    }
+    
+    public List<DecisionRule> rulesFor(RelationshipDef relationship) {
+        List<RuleTemplate> templates = byRelationship.getOrDefault(relationship.getId(), defaults);
+        List<DecisionRule> rules = new ArrayList<>(templates.size());
+        for (RuleTemplate template : templates) {
+            rules.add(template.bind(relationship));
+        }
+        return rules;
+    }
+    
+    // 联合规则用到的关系都已启用时才生效
+    public List<JoinRule> joinsFor(Set<String> enabled) {
+        List<JoinRule> result = new ArrayList<>();
+        for (JoinRule join : joins) {
+            if (enabled.containsAll(join.getRelationships())) result.add(join);
+        }
+        return result;
+    }
+    
+    public Set<String> relationships() {
+        Set<String> result = new HashSet<>(byRelationship.keySet());
+        joins.forEach(join -> result.addAll(join.getRelationships()));
+        return result;
+    }
+    
+    // 订阅某本体类型事件的规则; 没有时返回空列表
+    public List<BusRule> subscriptionsFor(String type) {
+        return subscriptions.getOrDefault(type, Collections.emptyList());
+    }
+    
+    public Set<String> topics() {
+        return subscriptions.keySet();
+    }
+    
+    public int size() { return size; }
+    public int joinCount() { return joins.size(); }
+    public int subscriptionCount() { return subscriptions.values().stream().mapToInt(List::size).sum(); }
 }
 
-class ProjectTemplate {
-    private String template_id;
-    private String template_name;
-    private String workflow_mode;
-    private String description;
-    private List<String> ontologies;
-    private Map<String, List<String>> activities;
-    private List<String> relationships;
+// 编译后的规则模板: 守卫与动作已是 lambda, 绑定关系时只展开触发类型
+class RuleTemplate {
+    private final String idPattern;
+    private final String relationship;
+    private final List<String> types;
+    private final List<String> attributes;
+    private final Predicate<RuleFiring> guard;
+    private final RuleAction[] actions;
     
-    public ProjectTemplate() {}
+    public RuleTemplate(String idPattern, String relationship, List<String> types, List<String> attributes,
+                        Predicate<RuleFiring> guard, RuleAction[] actions) {
+        this.idPattern = idPattern;
+        this.relationship = relationship;
+        this.types = types;
+        this.attributes = attributes;
+        this.guard = guard;
+        this.actions = actions;
+    }
     
-    public String getTemplate_id() { return template_id; }
-    public void setTemplate_id(String template_id) { this.template_id = template_id; }
-    public String getTemplate_name() { return template_name; }
-    public void setTemplate_name(String template_name) { this.template_name = template_name; }
-    public String getWorkflow_mode() { return workflow_mode; }
-    public void setWorkflow_mode(String workflow_mode) { this.workflow_mode = workflow_mode; }
-    public String getDescription() { return description; }
-    public void setDescription(String description) { this.description = description; }
-    public List<String> getOntologies() { return ontologies; }
-    public void setOntologies(List<String> ontologies) { this.ontologies = ontologies; }
-    public Map<String, List<String>> getActivities() { return activities; }
-    public void setActivities(Map<String, List<String>> activities) { this.activities = activities; }
-    public List<String> getRelationships() { return relationships; }
-    public void setRelationships(List<String> relationships) { this.relationships = relationships; }
+    public DecisionRule bind(RelationshipDef def) {
+        List<String> triggerTypes = new ArrayList<>();
+        for (String type : types) {
+            if (type.equals("$source")) {
+                if (def.getSource_types() != null) triggerTypes.addAll(def.getSource_types());
+            } else if (type.equals("$target")) {
+                if (def.getTarget_types() != null) triggerTypes.addAll(def.getTarget_types());
+            } else {
+                triggerTypes.add(type);
+            }
+        }
+        return new CompiledRule(idPattern.replace("${relationship}", def.getId()), def,
+            Collections.unmodifiableList(triggerTypes), attributes, guard, actions);
+    }
+    
+    public String getIdPattern() { return idPattern; }
+    public String getRelationship() { return relationship; }
 }
 
-// ==================== 模板管理器 ====================
+class CompiledRule implements DecisionRule {
+    private final String ruleId;
+    private final RelationshipDef relationshipDef;
+    private final List<String> triggerObjectTypes;
+    private final List<String> triggerAttributes;
+    private final Predicate<RuleFiring> guard;
+    private final RuleAction[] actions;
+    
+    public CompiledRule(String ruleId, RelationshipDef relationshipDef, List<String> triggerObjectTypes,
+                        List<String> triggerAttributes, Predicate<RuleFiring> guard, RuleAction[] actions) {
+        this.ruleId = ruleId;
+        this.relationshipDef = relationshipDef;
+        this.triggerObjectTypes = triggerObjectTypes;
+        this.triggerAttributes = triggerAttributes;
+        this.guard = guard;
+        this.actions = actions;
+    }
+    
+    @Override
+    public String getRuleId() {
+        return ruleId;
+    }
+    
+    @Override
+    public List<String> getTriggerObjectTypes() {
+        return triggerObjectTypes;
+    }
+    
+    @Override
+    public List<String> getTriggerAttributes() {
+        return triggerAttributes;
+    }
+    
+    @Override
+    public void evaluate(OntologyEvent event, ProjectContext ctx, DecisionNetworkEngine engine) {
+        RuleFiring firing = new RuleFiring(event, ctx, relationshipDef);
+        if (!guard.test(firing)) return;
+        for (RuleAction action : actions) {
+            action.run(firing);
+        }
+    }
+}
 
-class TemplateManager {
-    private Map<String, OntologyDef> ontologyLibrary;
-    private Map<String, ActivityDef> activityLibrary;
-    private Map<String, RelationshipDef> relationshipLibrary;
-    private Map<String, ProjectTemplate> templates;
+// 一次规则触发的上下文; 源/目标对象列表按需查询并缓存
+class RuleFiring {
+    private final OntologyEvent event;
+    private final ProjectContext ctx;
+    private final RelationshipDef relationship;
+    private List<String> sources;
+    private List<String> targets;
+    private int derived;
     
-    public TemplateManager() {
-        this.ontologyLibrary = new HashMap<>();
-        this.activityLibrary = new HashMap<>();
-        this.relationshipLibrary = new HashMap<>();
-        this.templates = new HashMap<>();
+    public RuleFiring(OntologyEvent event, ProjectContext ctx, RelationshipDef relationship) {
+        this.event = event;
+        this.ctx = ctx;
+        this.relationship = relationship;
     }
     
-    public void loadAllConfigs() throws IOException {
-        loadOntologyLibrary();
-        loadActivityLibrary();
-        loadRelationshipLibrary();
-        loadTemplates();
+    public List<String> getSources() {
+        if (sources == null) {
+            sources = ctx.findSources(relationship.getId(), event.getObjectId());
+        }
+        return sources;
     }
     
-    @SuppressWarnings("unchecked")
-    private void loadOntologyLibrary() throws IOException {
-        Yaml yaml = new Yaml();
-        String configPath = "config/ontology_library.yml";
-        
-        try (InputStream input = new FileInputStream(configPath)) {
-            Map<String, Object> data = yaml.load(input);
-            List<Map<String, Object>> ontologies = (List<Map<String, Object>>) data.get("ontologies");
-            
-            for (Map<String, Object> ont : ontologies) {
-                OntologyDef def = new OntologyDef();
-                def.setId((String) ont.get("id"));
-                def.setName((String) ont.get("name"));
-                def.setCategory((String) ont.get("category"));
-                def.setAttributes((List<Map<String, Object>>) ont.get("attributes"));
-                ontologyLibrary.put(def.getId(), def);
-            }
-            System.out.println("  ✓ 已加载 " + ontologyLibrary.size() + " 个本体定义");
+    public List<String> getTargets() {
+        if (targets == null) {
+            targets = ctx.findTargets(relationship.getId(), event.getObjectId());
         }
+        return targets;
+    }
+    
+    public void propagate() {
+        derived = ctx.propagateStatus(event);
+    }
+    
+    public OntologyEvent getEvent() { return event; }
+    public ProjectContext getContext() { return ctx; }
+    public String getObjectId() { return event.getObjectId(); }
+    public String getObjectType() { return event.getObjectType(); }
+    public String getAttribute() { return event.getAttribute(); }
+    public String getOldValue() { return event.getOldValue(); }
+    public String getNewValue() { return event.getNewValue(); }
+    public String getProjectId() { return event.getProjectId(); }
+    public String getRelationshipId() { return relationship.getId(); }
+    public String getRelationshipName() { return relationship.getName(); }
+    public int getDerived() { return derived; }
+}
+
+interface RuleAction {
+    void run(RuleFiring firing);
+}
+
+// 规则编译器: 守卫表达式递归下降解析一次, 直接组合成 Predicate lambda; 文本模板预切分为取值函数数组.
+// 事件到来时只执行编译好的 lambda 链, 不再遍历语法树, 热路径可被 JIT 内联
+class RuleCompiler {
+    static final int MAX_JOIN_CONDITIONS = 16;
+    private static final Map<String, Function<RuleFiring, String>> FIELDS = Map.of(
+        "object", RuleFiring::getObjectId,
+        "type", RuleFiring::getObjectType,
+        "attribute", RuleFiring::getAttribute,
+        "old", RuleFiring::getOldValue,
+        "new", RuleFiring::getNewValue,
+        "relationship", RuleFiring::getRelationshipId,
+        "project", RuleFiring::getProjectId);
+    private static final Map<String, Function<RuleFiring, String>> PLACEHOLDERS = placeholders();
+    private static final Map<String, Function<BusDelivery, String>> BUS_FIELDS = Map.of(
+        "rule", BusDelivery::getRuleId,
+        "project", BusDelivery::getProjectId,
+        "upstream", BusDelivery::getUpstream,
+        "object", BusDelivery::getObjectId,
+        "type", BusDelivery::getObjectType,
+        "attribute", BusDelivery::getAttribute,
+        "old", BusDelivery::getOldValue,
+        "new", BusDelivery::getNewValue);
+    
+    private static Map<String, Function<RuleFiring, String>> placeholders() {
+        Map<String, Function<RuleFiring, String>> result = new HashMap<>(FIELDS);
+        result.put("relationship_name", RuleFiring::getRelationshipName);
+        result.put("sources", firing -> String.valueOf(firing.getSources()));
+        result.put("targets", firing -> String.valueOf(firing.getTargets()));
+        result.put("derived", firing -> String.valueOf(firing.getDerived()));
+        return result;
     }
     
     @SuppressWarnings("unchecked")
-    private void loadActivityLibrary() throws IOException {
-        Yaml yaml = new Yaml();
-        String configPath = "config/activity_library.yml";
-        
-        try (InputStream input = new FileInputStream(configPath)) {
-            Map<String, Object> data = yaml.load(input);
-            List<Map<String, Object>> activities = (List<Map<String, Object>>) data.get("activities");
+    public static RuleTemplate compile(Map<String, Object> spec) {
+        String id = (String) spec.get("id");
+        if (id == null) {
+            throw new IllegalArgumentException("规则缺少 id");
+        }
+        try {
+            String relationship = (String) spec.get("relationship");
+            if (relationship == null) {
+                throw new IllegalArgumentException("缺少 relationship");
+            }
+            Map<String, Object> trigger = (Map<String, Object>) spec.getOrDefault("trigger", Collections.emptyMap());
+            List<String> types = stringList(trigger.get("types"), List.of("$source"));
+            List<String> attributes = stringList(trigger.get("attributes"), List.of("*"));
+            Predicate<RuleFiring> guard = compileGuard((String) spec.get("when"));
             
-            for (Map<String, Object> act : activities) {
-                ActivityDef def = new ActivityDef();
-                def.setId((String) act.get("id"));
-                def.setName((String) act.get("name"));
-                def.setPhase((String) act.get("phase"));
-                def.setCategory((String) act.get("category"));
-                def.setDescription((String) act.get("description"));
-                Object durationObj = act.get("duration_estimate");
-                int duration = 0;
-                if (durationObj instanceof Integer) {
-                    duration = (Integer) durationObj;
-                } else if (durationObj instanceof Double) {
-                    duration = ((Double) durationObj).intValue();
-                } else if (durationObj instanceof String) {
-                    duration = Integer.parseInt((String) durationObj);
-                }
-                def.setDuration_estimate(duration);
-                activityLibrary.put(def.getId(), def);
+            List<Map<String, Object>> actionSpecs =
+                (List<Map<String, Object>>) spec.getOrDefault("actions", Collections.emptyList());
+            RuleAction[] actions = new RuleAction[actionSpecs.size()];
+            for (int i = 0; i < actions.length; i++) {
+                actions[i] = compileAction(actionSpecs.get(i));
             }
-            System.out.println("  ✓ 已加载 " + activityLibrary.size() + " 个活动定义");
+            return new RuleTemplate(id, relationship, types, attributes, guard, actions);
+        } catch (IllegalArgumentException | ClassCastException e) {
+            throw new IllegalArgumentException("规则 " + id + ": " + e.getMessage(), e);
         }
     }
     
+    // 联合规则: match 是条件链, 首个条件为根, 其后每个条件经一条关系边连接到之前的某个变量;
+    // not: true 的条件表示 "不存在这样的对象". 条件的 when 直接以对象属性名为字段
     @SuppressWarnings("unchecked")
-    private void loadRelationshipLibrary() throws IOException {
-        Yaml yaml = new Yaml();
-        String configPath = "config/relationship_library.yml";
-        
-        try (InputStream input = new FileInputStream(configPath)) {
-            Map<String, Object> data = yaml.load(input);
-            List<Map<String, Object>> relationships = (List<Map<String, Object>>) data.get("relationships");
+    public static JoinRule compileJoin(Map<String, Object> spec) {
+        String id = (String) spec.get("id");
+        if (id == null) {
+            throw new IllegalArgumentException("联合规则缺少 id");
+        }
+        try {
+            List<Map<String, Object>> match = (List<Map<String, Object>>) spec.get("match");
+            if (match == null || match.isEmpty()) {
+                throw new IllegalArgumentException("缺少 match");
+            }
+            if (match.size() > MAX_JOIN_CONDITIONS) {
+                throw new IllegalArgumentException("条件数超过 " + MAX_JOIN_CONDITIONS);
+            }
+            JoinCondition[] conditions = new JoinCondition[match.size()];
+            List<String> vars = new ArrayList<>();
+            for (int i = 0; i < conditions.length; i++) {
+                conditions[i] = compileCondition(match.get(i), i, vars, conditions);
+                vars.add(conditions[i].getVar());
+            }
             
-            for (Map<String, Object> rel : relationships) {
-                RelationshipDef def = new RelationshipDef();
-                def.setId((String) rel.get("id"));
-                def.setName((String) rel.get("name"));
-                def.setSource_types((List<String>) rel.get("source_types"));
-                def.setTarget_types((List<String>) rel.get("target_types"));
-                def.setCardinality((String) rel.get("cardinality"));
-                def.setDescription((String) rel.get("description"));
-                relationshipLibrary.put(def.getId(), def);
+            Map<String, Function<JoinMatch, String>> placeholders = new HashMap<>();
+            placeholders.put("project", JoinMatch::getProjectId);
+            placeholders.put("rule", JoinMatch::getRuleId);
+            for (int i = 0; i < conditions.length; i++) {
+                if (!conditions[i].isNegated()) {
+                    int position = i;
+                    placeholders.put(conditions[i].getVar(), m -> m.objectAt(position));
+                }
             }
-            System.out.println("  ✓ 已加载 " + relationshipLibrary.size() + " 个关系定义");
+            List<Map<String, Object>> actionSpecs =
+                (List<Map<String, Object>>) spec.getOrDefault("actions", Collections.emptyList());
+            List<Consumer<JoinMatch>> actions = new ArrayList<>();
+            for (Map<String, Object> actionSpec : actionSpecs) {
+                actions.add(compileJoinAction(actionSpec, placeholders));
+            }
+            @SuppressWarnings("rawtypes")
+            Consumer<JoinMatch>[] compiled = actions.toArray(new Consumer[0]);
+            return new JoinRule(id, conditions, compiled);
+        } catch (IllegalArgumentException | ClassCastException e) {
+            throw new IllegalArgumentException("联合规则 " + id + ": " + e.getMessage(), e);
         }
     }
     
+    // 订阅规则: topic 是上游事件的本体类型, when 是订阅过滤条件, 动作在订阅项目中执行
     @SuppressWarnings("unchecked")
-    private void loadTemplates() throws IOException {
-        Yaml yaml = new Yaml();
-        Path templatesDir = Paths.get("config/templates");
-        
-        if (!Files.exists(templatesDir)) {
-            System.out.println("  ⚠ 模板目录不存在: " + templatesDir);
-            return;
+    public static BusRule compileSubscription(Map<String, Object> spec) {
+        String id = (String) spec.get("id");
+        if (id == null) {
+            throw new IllegalArgumentException("订阅规则缺少 id");
+        }
+        try {
+            String topic = (String) spec.get("topic");
+            if (topic == null) {
+                throw new IllegalArgumentException("缺少 topic");
+            }
+            Predicate<BusDelivery> when = compileGuard((String) spec.get("when"), BUS_FIELDS::get);
+            List<Map<String, Object>> actionSpecs =
+                (List<Map<String, Object>>) spec.getOrDefault("actions", Collections.emptyList());
+            List<Consumer<BusDelivery>> actions = new ArrayList<>();
+            for (Map<String, Object> actionSpec : actionSpecs) {
+                actions.add(compileSubscriptionAction(actionSpec));
+            }
+            @SuppressWarnings("rawtypes")
+            Consumer<BusDelivery>[] compiled = actions.toArray(new Consumer[0]);
+            return new BusRule(id, topic, when, compiled);
+        } catch (IllegalArgumentException | ClassCastException e) {
+            throw new IllegalArgumentException("订阅规则 " + id + ": " + e.getMessage(), e);
         }
-        
-        Files.list(templatesDir)
-            .filter(path -> path.toString().endsWith(".yml"))
-            .forEach(path -> {
-                try (InputStream input = new FileInputStream(path.toFile())) {
-                    Map<String, Object> data = yaml.load(input);
-                    ProjectTemplate template = new ProjectTemplate();
-                    template.setTemplate_id((String) data.get("template_id"));
-                    template.setTemplate_name((String) data.get("template_name"));
-                    template.setWorkflow_mode((String) data.get("workflow_mode"));
-                    template.setDescription((String) data.get("description"));
-                    template.setOntologies((List<String>) data.get("ontologies"));
-                    template.setActivities((Map<String, List<String>>) data.get("activities"));
-                    template.setRelationships((List<String>) data.get("relationships"));
-                    templates.put(template.getTemplate_id(), template);
-                } catch (Exception e) {
-                    System.err.println("  ✗ 加载模板失败: " + path.getFileName() + " - " + e.getMessage());
-                }
-            });
-        
-        System.out.println("  ✓ 已加载 " + templates.size() + " 个项目模板");
     }
     
-    public void listTemplates() {
-        System.out.println("\n╔════════════════════════════════════════════════════════╗");
-        System.out.println("║                  可用项目模板                           ║");
-        System.out.println("╚════════════════════════════════════════════════════════╝\n");
-        
-        if (templates.isEmpty()) {
-            System.out.println("  (无可用模板)");
-            return;
+    // 订阅项目没有该活动时跳过, 同一条订阅规则可以覆盖不同模板的项目
+    private static Consumer<BusDelivery> compileSubscriptionAction(Map<String, Object> spec) {
+        if (spec.containsKey("log")) {
+            return compileLog(spec.get("log"), BUS_FIELDS);
         }
-        
-        templates.values().forEach(t -> {
-            System.out.println("📋 " + t.getTemplate_id());
-            System.out.println("   名称: " + t.getTemplate_name());
-            System.out.println("   模式: " + t.getWorkflow_mode());
-            System.out.println("   说明: " + t.getDescription());
-            System.out.println("   本体: " + t.getOntologies().size() + " 个");
-            System.out.println("   活动: " + (t.getActivities() != null ? 
-                t.getActivities().values().stream().mapToInt(List::size).sum() : 0) + " 个");
-            System.out.println("   关系: " + (t.getRelationships() != null ? t.getRelationships().size() : 0) + " 个");
-            System.out.println();
-        });
+        if (spec.containsKey("trigger")) {
+            String activityId = String.valueOf(spec.get("trigger"));
+            return d -> {
+                if (!d.getContext().getActivities().containsKey(activityId)) return;
+                d.getContext().getDecisionNetwork().queueActivity(activityId, d.getContext(),
+                    Map.of("upstream", d.getUpstream(), "object", d.getObjectId()));
+            };
+        }
+        throw new IllegalArgumentException("未知动作: " + spec.keySet());
     }
     
-    public void showTemplateDetails(String templateId) {
-        ProjectTemplate template = templates.get(templateId);
-        if (template == null) {
-            System.out.println("❌ 模板不存在: " + templateId);
-            return;
+    @SuppressWarnings("unchecked")
+    private static JoinCondition compileCondition(Map<String, Object> spec, int index, List<String> vars,
+                                                  JoinCondition[] previous) {
+        String var = (String) spec.get("var");
+        if (var == null || vars.contains(var) || var.equals("project") || var.equals("rule")) {
+            throw new IllegalArgumentException("条件变量缺失、重复或为保留名: " + var);
         }
-        
-        System.out.println("\n╔════════════════════════════════════════════════════════╗");
-        System.out.println("║              模板详情: " + template.getTemplate_name());
-        System.out.println("╚════════════════════════════════════════════════════════╝");
-        
-        System.out.println("\n基本信息:");
-        System.out.println("  ID: " + template.getTemplate_id());
-        System.out.println("  模式: " + template.getWorkflow_mode());
-        System.out.println("  说明: " + template.getDescription());
-        
-        System.out.println("\n本体集 (" + template.getOntologies().size() + " 个):");
-        template.getOntologies().forEach(id -> {
-            OntologyDef ont = ontologyLibrary.get(id);
-            if (ont != null) {
-                System.out.println("  - " + ont.getId() + " (" + ont.getName() + ") [" + ont.getCategory() + "]");
-            }
+        boolean negated = Boolean.TRUE.equals(spec.get("not"));
+        Set<String> attributes = new HashSet<>();
+        Predicate<ObjectCursor> test = compileGuard((String) spec.get("when"), name -> {
+            attributes.add(name);
+            return cursor -> cursor.get(name);
         });
-        
-        if (template.getActivities() != null) {
-            System.out.println("\n活动集 (按阶段):");
-            template.getActivities().forEach((phase, activities) -> {
-                System.out.println("  " + phase + ":");
-                activities.forEach(id -> {
-                    ActivityDef act = activityLibrary.get(id);
-                    if (act != null) {
-                        System.out.println("    - " + act.getId() + " (" + act.getName() + ")");
-                    }
-                });
-            });
+        Map<String, Object> edge = (Map<String, Object>) spec.get("edge");
+        if (index == 0) {
+            if (edge != null || negated) {
+                throw new IllegalArgumentException("首个条件 " + var + " 不能带 edge 或 not");
+            }
+            return new JoinCondition(var, (String) spec.get("type"), test, attributes, false, -1, null, false);
         }
-        
-        if (template.getRelationships() != null) {
-            System.out.println("\n关系集 (" + template.getRelationships().size() + " 个):");
-            template.getRelationships().forEach(id -> {
-                RelationshipDef rel = relationshipLibrary.get(id);
-                if (rel != null) {
-                    System.out.println("  - " + rel.getId() + " (" + rel.getName() + ")");
-                }
-            });
+        if (edge == null || edge.get("relationship") == null) {
+            throw new IllegalArgumentException("条件 " + var + " 缺少 edge.relationship");
         }
-        System.out.println();
+        String from = (String) edge.get("from");
+        String to = (String) edge.get("to");
+        boolean outgoing = var.equals(from);
+        int join = vars.indexOf(outgoing ? to : var.equals(to) ? from : null);
+        if (join < 0 || previous[join].isNegated()) {
+            throw new IllegalArgumentException("条件 " + var + " 的 edge 必须连接本变量与之前的肯定条件变量");
+        }
+        return new JoinCondition(var, (String) spec.get("type"), test, attributes, negated, join,
+            (String) edge.get("relationship"), outgoing);
     }
     
-    public ProjectContext createProjectFromTemplate(String templateId, String projectId, 
-                                                     String projectName, int priority,
-                                                     ProjectManager projectManager) {
-        ProjectTemplate template = templates.get(templateId);
-        if (template == null) {
-            System.out.println("❌ 模板不存在: " + templateId);
-            return null;
+    @SuppressWarnings("unchecked")
+    private static Consumer<JoinMatch> compileJoinAction(Map<String, Object> spec,
+                                                         Map<String, Function<JoinMatch, String>> placeholders) {
+        if (spec.containsKey("log")) {
+            return compileLog(spec.get("log"), placeholders);
         }
-        
-        // 解析工作流模式
-        WorkflowMode mode;
-        try {
-            mode = WorkflowMode.valueOf(template.getWorkflow_mode().toUpperCase());
-        } catch (IllegalArgumentException e) {
-            System.out.println("❌ 无效的工作流模式: " + template.getWorkflow_mode());
-            return null;
+        if (spec.containsKey("update")) {
+            Map<String, Object> update = (Map<String, Object>) spec.get("update");
+            String attribute = (String) update.get("attribute");
+            Function<JoinMatch, String> object = placeholders.get(String.valueOf(update.get("objects")));
+            if (attribute == null || object == null) {
+                throw new IllegalArgumentException("update 需要 attribute 与 objects: <条件变量>");
+            }
+            Function<JoinMatch, String> value = compileText(String.valueOf(update.get("value")), placeholders);
+            return m -> m.getContext().updateObject(object.apply(m), attribute, value.apply(m));
         }
-        
-        // 创建项目
-        ProjectContext ctx = projectManager.createProject(projectId, projectName, mode, priority);
-        
-        // 初始化本体集
-        if (template.getOntologies() != null) {
-            System.out.println("  ✓ 初始化本体集: " + template.getOntologies().size() + " 个");
-            template.getOntologies().forEach(ontId -> {
-                ctx.addOntology(ontId, ontologyLibrary.get(ontId));
-            });
+        if (spec.containsKey("trigger")) {
+            String activityId = String.valueOf(spec.get("trigger"));
+            return m -> m.getContext().getDecisionNetwork().triggerActivity(activityId, m.getContext(), m.bindings());
         }
-        
-        // 初始化活动集
-        if (template.getActivities() != null) {
-            int totalActivities = template.getActivities().values().stream()
-                .mapToInt(List::size).sum();
-            System.out.println("  ✓ 初始化活动集: " + totalActivities + " 个");
-            template.getActivities().forEach((phase, activities) -> {
-                activities.forEach(actId -> {
-                    ctx.addActivity(actId, activityLibrary.get(actId));
-                });
-            });
+        throw new IllegalArgumentException("未知动作: " + spec.keySet());
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static List<String> stringList(Object value, List<String> defaultValue) {
+        if (value == null) return defaultValue;
+        if (value instanceof String) return List.of((String) value);
+        List<String> result = new ArrayList<>();
+        for (Object item : (List<Object>) value) {
+            result.add(String.valueOf(item));
         }
-        
-        // 初始化关系集
-        if (template.getRelationships() != null) {
-            System.out.println("  ✓ 初始化关系集: " + template.getRelationships().size() + " 个");
-            template.getRelationships().forEach(relId -> {
-                ctx.addRelationship(relId, relationshipLibrary.get(relId));
-            });
+        return Collections.unmodifiableList(result);
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static RuleAction compileAction(Map<String, Object> spec) {
+        Predicate<RuleFiring> when = compileGuard((String) spec.get("when"));
+        RuleAction action;
+        if (spec.containsKey("log")) {
+            action = compileLog(spec.get("log"), PLACEHOLDERS)::accept;
+        } else if (spec.containsKey("propagate")) {
+            action = RuleFiring::propagate;
+        } else if (spec.containsKey("trigger")) {
+            String activityId = String.valueOf(spec.get("trigger"));
+            action = firing -> firing.getContext().getDecisionNetwork().triggerActivity(activityId, firing.getContext(),
+                Map.of("object", firing.getObjectId()));
+        } else if (spec.containsKey("update")) {
+            Map<String, Object> update = (Map<String, Object>) spec.get("update");
+            String attribute = (String) update.get("attribute");
+            if (attribute == null) {
+                throw new IllegalArgumentException("update 缺少 attribute");
+            }
+            Function<RuleFiring, String> value = compileText(String.valueOf(update.get("value")));
+            Function<RuleFiring, List<String>> objects = objectSelector(String.valueOf(update.getOrDefault("objects", "self")));
+            action = firing -> {
+                String newValue = value.apply(firing);
+                for (String objectId : objects.apply(firing)) {
+                    firing.getContext().updateObject(objectId, attribute, newValue);
+                }
+            };
+        } else {
+            throw new IllegalArgumentException("未知动作: " + spec.keySet());
         }
-        
-        // 初始化决策网络 - 从关系集生成规则
-        ctx.initializeDecisionNetwork();
-        
-        return ctx;
+        if (GuardParser.isAlways(when)) return action;
+        RuleAction guarded = action;
+        return firing -> {
+            if (when.test(firing)) guarded.run(firing);
+        };
     }
     
-    public void listOntologies() {
-        System.out.println("\n╔════════════════════════════════════════════════════════╗");
-        System.out.println("║                    本体库                              ║");
-        System.out.println("╚════════════════════════════════════════════════════════╝\n");
-        
-        Map<String, List<OntologyDef>> byCategory = ontologyLibrary.values().stream()
-            .collect(Collectors.groupingBy(OntologyDef::getCategory));
-        
-        byCategory.forEach((category, ontologies) -> {
-            System.out.println("📦 " + category + ":");
-            ontologies.forEach(ont -> {
-                System.out.println("  - " + ont.getId() + " (" + ont.getName() + ")");
-            });
-            System.out.println();
-        });
-        
-        System.out.println("总计: " + ontologyLibrary.size() + " 个本体定义\n");
+    private static Function<RuleFiring, List<String>> objectSelector(String name) {
+        switch (name) {
+            case "self": return firing -> List.of(firing.getObjectId());
+            case "sources": return RuleFiring::getSources;
+            case "targets": return RuleFiring::getTargets;
+            default: throw new IllegalArgumentException("未知对象集: " + name);
+        }
     }
     
-    public void listActivities() {
-        System.out.println("\n╔════════════════════════════════════════════════════════╗");
-        System.out.println("║                    活动库                              ║");
-        System.out.println("╚════════════════════════════════════════════════════════╝\n");
-        
-        Map<String, List<ActivityDef>> byPhase = activityLibrary.values().stream()
-            .filter(a -> a.getPhase() != null)
-            .collect(Collectors.groupingBy(ActivityDef::getPhase));
-        
-        byPhase.forEach((phase, activities) -> {
-            System.out.println("📍 " + phase + ":");
-            activities.forEach(act -> {
-                System.out.println("  - " + act.getId() + " (" + act.getName() + 
-                    ") [预计: " + act.getDuration_estimate() + "天]");
-            });
-            System.out.println();
-        });
-        
-        System.out.println("总计: " + activityLibrary.size() + " 个活动定义\n");
+    @SuppressWarnings("unchecked")
+    private static <T> Consumer<T> compileLog(Object spec, Map<String, Function<T, String>> placeholders) {
+        List<Function<T, String>> lines = new ArrayList<>();
+        for (String line : stringList(spec, List.of())) {
+            lines.add(compileText(line, placeholders));
+        }
+        @SuppressWarnings("rawtypes")
+        Function<T, String>[] compiled = lines.toArray(new Function[0]);
+        return subject -> {
+            for (Function<T, String> line : compiled) {
+                System.out.println(line.apply(subject));
+            }
+        };
+    }
+    
+    static Function<RuleFiring, String> compileText(String text) {
+        return compileText(text, PLACEHOLDERS);
+    }
+    
+    // "${name}" 占位符切分后按段拼接; 纯文本模板直接返回常量
+    @SuppressWarnings("unchecked")
+    static <T> Function<T, String> compileText(String text, Map<String, Function<T, String>> placeholders) {
+        List<Function<T, String>> parts = new ArrayList<>();
+        int start = 0;
+        while (true) {
+            int open = text.indexOf("${", start);
+            if (open < 0) break;
+            int close = text.indexOf('}', open);
+            if (close < 0) {
+                throw new IllegalArgumentException("占位符未闭合: " + text);
+            }
+            if (open > start) {
+                String literal = text.substring(start, open);
+                parts.add(subject -> literal);
+            }
+            String name = text.substring(open + 2, close);
+            Function<T, String> getter = placeholders.get(name);
+            if (getter == null) {
+                throw new IllegalArgumentException("未知占位符: ${" + name + "}");
+            }
+            parts.add(subject -> String.valueOf(getter.apply(subject)));
+            start = close + 1;
+        }
+        if (parts.isEmpty()) {
+            return subject -> text;
+        }
+        if (start < text.length()) {
+            String literal = text.substring(start);
+            parts.add(subject -> literal);
+        }
+        @SuppressWarnings("rawtypes")
+        Function<T, String>[] compiled = parts.toArray(new Function[0]);
+        return subject -> {
+            StringBuilder sb = new StringBuilder();
+            for (Function<T, String> part : compiled) {
+                sb.append(part.apply(subject));
+            }
+            return sb.toString();
+        };
     }
     
-    public void listRelationships() {
-        System.out.println("\n╔════════════════════════════════════════════════════════╗");
-        System.out.println("║                    关系库                              ║");
-        System.out.println("╚════════════════════════════════════════════════════════╝\n");
-        
-        relationshipLibrary.values().forEach(rel -> {
-            System.out.println("🔗 " + rel.getId() + " (" + rel.getName() + ")");
-            System.out.println("   基数: " + rel.getCardinality());
-            System.out.println("   说明: " + rel.getDescription());
-            System.out.println();
-        });
-        
-        System.out.println("总计: " + relationshipLibrary.size() + " 个关系定义\n");
+    static Predicate<RuleFiring> compileGuard(String expression) {
+        return compileGuard(expression, FIELDS::get);
+    }
+    
+    // fields 把字段名解析为取值函数, 未知字段返回 null
+    static <T> Predicate<T> compileGuard(String expression, Function<String, Function<T, String>> fields) {
+        return GuardParser.parse(expression, fields);
     }
 }
 
-// ==================== 决策网络层 ====================
-
-// 本体事件
-class OntologyEvent {
-    private String projectId;
-    private String objectId;
-    private String objectType;
-    private String attribute;
-    private String oldValue;
-    private String newValue;
-    private long timestamp;
+// 守卫表达式解析器, 与字段来源无关: 决策规则以事件为字段, 联合规则条件以对象属性为字段
+// 语法: or := and ('||' and)* ; and := unary ('&&' unary)* ;
+//       unary := '!' unary | '(' or ')' | operand ('==' | '!=') operand | operand 'in' '[' 字面量, ... ']'
+class GuardParser<T> {
+    static final Predicate<Object> ALWAYS = subject -> true;
     
-    public OntologyEvent(String projectId, String objectId, String objectType,
-                        String attribute, String oldValue, String newValue) {
-        this.projectId = projectId;
-        this.objectId = objectId;
-        this.objectType = objectType;
-        this.attribute = attribute;
-        this.oldValue = oldValue;
-        this.newValue = newValue;
-        this.timestamp = System.currentTimeMillis();
+    private final String source;
+    private final Function<String, Function<T, String>> fields;
+    private int pos;
+    
+    private GuardParser(String source, Function<String, Function<T, String>> fields) {
+        this.source = source;
+        this.fields = fields;
     }
     
-    public String getProjectId() { return projectId; }
-    public String getObjectId() { return objectId; }
-    public String getObjectType() { return objectType; }
-    public String getAttribute() { return attribute; }
-    public String getOldValue() { return oldValue; }
-    public String getNewValue() { return newValue; }
-    public long getTimestamp() { return timestamp; }
-}
-
-// 决策规则接口
-interface DecisionRule {
-    String getRuleId();
-    List<String> getTriggerObjectTypes();
-    List<String> getTriggerAttributes();
-    void evaluate(OntologyEvent event, ProjectContext ctx, DecisionNetworkEngine engine);
-}
-
-// 决策网络引擎
-class DecisionNetworkEngine {
-    private String projectId;
-    private List<DecisionRule> rules;
-    private Queue<OntologyEvent> eventQueue;
-    private boolean processing = false;
+    @SuppressWarnings("unchecked")
+    static <T> Predicate<T> parse(String expression, Function<String, Function<T, String>> fields) {
+        if (expression == null || expression.isBlank()) return (Predicate<T>) ALWAYS;
+        GuardParser<T> parser = new GuardParser<>(expression, fields);
+        Predicate<T> guard = parser.parseOr();
+        parser.skipSpaces();
+        if (parser.pos < expression.length()) {
+            throw parser.error("多余的内容");
+        }
+        return guard;
+    }
     
-    public DecisionNetworkEngine(String projectId) {
-        this.projectId = projectId;
-        this.rules = new ArrayList<>();
-        this.eventQueue = new LinkedList<>();
+    static boolean isAlways(Predicate<?> guard) {
+        return guard == ALWAYS;
     }
     
-    public void addRule(DecisionRule rule) {
-        rules.add(rule);
+    private Predicate<T> parseOr() {
+        Predicate<T> left = parseAnd();
+        while (accept("||")) {
+            Predicate<T> a = left;
+            Predicate<T> b = parseAnd();
+            left = subject -> a.test(subject) || b.test(subject);
+        }
+        return left;
     }
     
-    public void emitEvent(OntologyEvent event) {
-        eventQueue.offer(event);
-        processEvents();
+    private Predicate<T> parseAnd() {
+        Predicate<T> left = parseUnary();
+        while (accept("&&")) {
+            Predicate<T> a = left;
+            Predicate<T> b = parseUnary();
+            left = subject -> a.test(subject) && b.test(subject);
+        }
+        return left;
     }
     
-    private void processEvents() {
-        if (processing) return; // 防止递归
-        
-        processing = true;
-        try {
-            while (!eventQueue.isEmpty()) {
-                OntologyEvent event = eventQueue.poll();
-                evaluateRules(event);
-            }
-        } finally {
-            processing = false;
+    private Predicate<T> parseUnary() {
+        if (accept("!")) {
+            Predicate<T> inner = parseUnary();
+            return subject -> !inner.test(subject);
+        }
+        if (accept("(")) {
+            Predicate<T> inner = parseOr();
+            expect(")");
+            return inner;
         }
+        return parseComparison();
     }
     
-    private void evaluateRules(OntologyEvent event) {
-        for (DecisionRule rule : rules) {
-            // 检查规则是否应该被触发
-            if (rule.getTriggerObjectTypes().contains(event.getObjectType()) ||
-                rule.getTriggerObjectTypes().contains("*")) {
-                
-                if (rule.getTriggerAttributes().contains(event.getAttribute()) ||
-                    rule.getTriggerAttributes().contains("*")) {
-                    
-                    // 评估规则 (传入引擎引用以便规则可以触发新事件)
-                    rule.evaluate(event, null, this);
+    // 字段与字面量比较时特化为常量 equals, 避免每次判空和取两侧值
+    private Predicate<T> parseComparison() {
+        Operand<T> left = parseOperand();
+        if (accept("==")) {
+            return equality(left, parseOperand());
+        }
+        if (accept("!=")) {
+            Predicate<T> equal = equality(left, parseOperand());
+            return subject -> !equal.test(subject);
+        }
+        if (acceptWord("in")) {
+            expect("[");
+            Set<String> values = new HashSet<>();
+            do {
+                Operand<T> literal = parseOperand();
+                if (literal.field != null) {
+                    throw error("in 列表只能包含字面量");
                 }
+                values.add(literal.literal);
+            } while (accept(","));
+            expect("]");
+            if (left.field == null) {
+                boolean constant = values.contains(left.literal);
+                return subject -> constant;
             }
+            Function<T, String> field = left.field;
+            Set<String> frozen = Set.copyOf(values);
+            return subject -> {
+                String value = field.apply(subject);
+                return value != null && frozen.contains(value);
+            };
         }
+        throw error("需要比较运算符");
     }
     
-    public void triggerActivity(String activityId, ProjectContext ctx, Map<String, String> params) {
-        System.out.println("  🎯 决策网络触发活动: " + activityId);
-        // 这里可以扩展为实际执行活动的逻辑
+    private Predicate<T> equality(Operand<T> left, Operand<T> right) {
+        if (left.field == null && right.field == null) {
+            boolean constant = Objects.equals(left.literal, right.literal);
+            return subject -> constant;
+        }
+        if (left.field == null || right.field == null) {
+            Function<T, String> field = left.field != null ? left.field : right.field;
+            String literal = left.field != null ? right.literal : left.literal;
+            if (literal == null) {
+                return subject -> field.apply(subject) == null;
+            }
+            return subject -> literal.equals(field.apply(subject));
+        }
+        Function<T, String> a = left.field;
+        Function<T, String> b = right.field;
+        return subject -> Objects.equals(a.apply(subject), b.apply(subject));
     }
-}
-
-// 规则工厂
-class RuleFactory {
     
-    public static List<DecisionRule> createRulesFromRelationships(
-            Map<String, RelationshipDef> relationships) {
-        List<DecisionRule> rules = new ArrayList<>();
-        
-        for (RelationshipDef rel : relationships.values()) {
-            DecisionRule rule = createRuleFromRelationship(rel);
-            if (rule != null) {
-                rules.add(rule);
+    private Operand<T> parseOperand() {
+        skipSpaces();
+        if (pos < source.length() && source.charAt(pos) == '\'') {
+            int end = source.indexOf('\'', pos + 1);
+            if (end < 0) {
+                throw error("字符串未闭合");
             }
+            String literal = source.substring(pos + 1, end);
+            pos = end + 1;
+            return new Operand<>(null, literal);
         }
+        int start = pos;
+        while (pos < source.length() && (Character.isLetterOrDigit(source.charAt(pos)) || source.charAt(pos) == '_')) {
+            pos++;
+        }
+        String word = source.substring(start, pos);
+        if (word.equals("null")) {
+            return new Operand<>(null, null);
+        }
+        Function<T, String> field = word.isEmpty() ? null : fields.apply(word);
+        if (field == null) {
+            pos = start;
+            throw error(word.isEmpty() ? "需要字段或字面量" : "未知字段 " + word);
+        }
+        return new Operand<>(field, null);
+    }
+    
+    private boolean accept(String token) {
+        skipSpaces();
+        if (source.startsWith(token, pos)) {
+            pos += token.length();
+            return true;
+        }
+        return false;
+    }
+    
+    private boolean acceptWord(String word) {
+        skipSpaces();
+        int end = pos + word.length();
+        if (source.startsWith(word, pos)
+                && (end == source.length() || !Character.isLetterOrDigit(source.charAt(end)))) {
+            pos = end;
+            return true;
+        }
+        return false;
+    }
+    
+    private void expect(String token) {
+        if (!accept(token)) {
+            throw error("需要 " + token);
+        }
+    }
+    
+    private void skipSpaces() {
+        while (pos < source.length() && Character.isWhitespace(source.charAt(pos))) {
+            pos++;
+        }
+    }
+    
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException("守卫表达式 '" + source + "' 第 " + (pos + 1) + " 列: " + message);
+    }
+    
+    // 操作数: 字段 (取值函数) 或字面量 (field 为 null)
+    private static class Operand<T> {
+        final Function<T, String> field;
+        final String literal;
         
-        return rules;
+        Operand(Function<T, String> field, String literal) {
+            this.field = field;
+            this.literal = literal;
+        }
     }
+}
+
+// 联合规则: 条件链与动作, 编译结果不可变, 由各项目的联合匹配网络共享
+class JoinRule {
+    private final String id;
+    private final JoinCondition[] conditions;
+    private final Consumer<JoinMatch>[] actions;
+    private final Set<String> relationships;
     
-    private static DecisionRule createRuleFromRelationship(RelationshipDef rel) {
-        switch (rel.getId()) {
-            case "depends_on":
-                return new DependsOnRule(rel);
-            case "implements":
-                return new ImplementsRule(rel);
-            case "tests":
-                return new TestsRule(rel);
-            case "fixes":
-                return new FixesRule(rel);
-            case "blocks":
-                return new BlocksRule(rel);
-            default:
-                return new GenericRelationshipRule(rel);
+    public JoinRule(String id, JoinCondition[] conditions, Consumer<JoinMatch>[] actions) {
+        this.id = id;
+        this.conditions = conditions;
+        this.actions = actions;
+        Set<String> used = new HashSet<>();
+        for (JoinCondition condition : conditions) {
+            if (condition.getRelationship() != null) used.add(condition.getRelationship());
+        }
+        this.relationships = Collections.unmodifiableSet(used);
+    }
+    
+    public void fire(JoinMatch match) {
+        for (Consumer<JoinMatch> action : actions) {
+            action.accept(match);
         }
     }
+    
+    public String getId() { return id; }
+    public JoinCondition[] getConditions() { return conditions; }
+    public Set<String> getRelationships() { return relationships; }
 }
 
-// 依赖关系规则
-class DependsOnRule implements DecisionRule {
-    private RelationshipDef relationshipDef;
+// 联合条件: 类型 + 属性谓词构成 alpha 测试; 非首个条件经 relationship 边连接到第 join 个变量,
+// outgoing 表示本变量是边的源端
+class JoinCondition {
+    private final String var;
+    private final String type;
+    private final Predicate<ObjectCursor> test;
+    private final Set<String> attributes;
+    private final boolean negated;
+    private final int join;
+    private final String relationship;
+    private final boolean outgoing;
     
-    public DependsOnRule(RelationshipDef relationshipDef) {
-        this.relationshipDef = relationshipDef;
+    public JoinCondition(String var, String type, Predicate<ObjectCursor> test, Set<String> attributes,
+                         boolean negated, int join, String relationship, boolean outgoing) {
+        this.var = var;
+        this.type = type;
+        this.test = test;
+        this.attributes = Set.copyOf(attributes);
+        this.negated = negated;
+        this.join = join;
+        this.relationship = relationship;
+        this.outgoing = outgoing;
     }
     
-    @Override
-    public String getRuleId() {
-        return "rule_depends_on";
+    public boolean matchesType(String objectType) {
+        return type == null || type.equals(objectType);
     }
     
-    @Override
-    public List<String> getTriggerObjectTypes() {
-        return relationshipDef.getSource_types();
+    // attribute 为 null 表示对象新建, 需要完整测试
+    public boolean dependsOn(String attribute) {
+        return attribute == null || attributes.contains(attribute);
     }
     
-    @Override
-    public List<String> getTriggerAttributes() {
-        return Arrays.asList("status", "*");
+    public boolean test(ObjectCursor cursor) { return test.test(cursor); }
+    public String getVar() { return var; }
+    public String getType() { return type; }
+    public boolean isNegated() { return negated; }
+    public int getJoin() { return join; }
+    public String getRelationship() { return relationship; }
+    public boolean isOutgoing() { return outgoing; }
+}
+
+// 一次完整匹配: 按条件位置给出对象ID, 否定条件的位置为 null
+class JoinMatch {
+    private final JoinRule rule;
+    private final ProjectContext context;
+    private final String[] objects;
+    
+    public JoinMatch(JoinRule rule, ProjectContext context, String[] objects) {
+        this.rule = rule;
+        this.context = context;
+        this.objects = objects;
     }
     
-    @Override
-    public void evaluate(OntologyEvent event, ProjectContext ctx, DecisionNetworkEngine engine) {
-        if ("status".equals(event.getAttribute())) {
-            System.out.println("  📊 [DependsOnRule] 检测到 " + event.getObjectType() + 
-                " 状态变化: " + event.getOldValue() + " → " + event.getNewValue());
-            
-            if ("completed".equals(event.getNewValue())) {
-                System.out.println("      ✓ 对象完成,检查依赖此对象的其他对象");
-                // 这里可以查找依赖关系并解除阻塞
-            } else if ("blocked".equals(event.getNewValue())) {
-                System.out.println("      ⚠ 对象被阻塞,传播阻塞状态");
-                // 这里可以传播阻塞状态到依赖对象
-            }
+    // 变量名 → 对象ID, 作为触发活动的参数
+    public Map<String, String> bindings() {
+        Map<String, String> result = new LinkedHashMap<>();
+        JoinCondition[] conditions = rule.getConditions();
+        for (int i = 0; i < conditions.length; i++) {
+            if (objects[i] != null) result.put(conditions[i].getVar(), objects[i]);
         }
+        return result;
     }
+    
+    public String objectAt(int position) { return objects[position]; }
+    public JoinRule getRule() { return rule; }
+    public String getRuleId() { return rule.getId(); }
+    public String getProjectId() { return context.getProjectId(); }
+    public ProjectContext getContext() { return context; }
 }
 
-// 实现关系规则
-class ImplementsRule implements DecisionRule {
-    private RelationshipDef relationshipDef;
+// 条件测试读取对象属性的游标; 网络在对象锁内复用同一个实例
+class ObjectCursor {
+    private final ObjectStore objects;
+    private int handle;
     
-    public ImplementsRule(RelationshipDef relationshipDef) {
-        this.relationshipDef = relationshipDef;
+    public ObjectCursor(ObjectStore objects) {
+        this.objects = objects;
     }
     
-    @Override
-    public String getRuleId() {
-        return "rule_implements";
+    public ObjectCursor at(int handle) {
+        this.handle = handle;
+        return this;
     }
     
-    @Override
-    public List<String> getTriggerObjectTypes() {
-        return relationshipDef.getTarget_types(); // 需求被批准时触发
+    public String get(String attribute) {
+        return objects.get(handle, attribute);
     }
+}
+
+// 边变化事件: attribute 为关系ID, 只送往联合匹配网络, 不进入视图、日志与分派表
+class EdgeEvent extends OntologyEvent {
+    private final String targetId;
+    private final boolean added;
     
-    @Override
-    public List<String> getTriggerAttributes() {
-        return Arrays.asList("status");
+    public EdgeEvent(String projectId, String sourceId, String sourceType, String relationshipId,
+                     String targetId, boolean added) {
+        super(projectId, sourceId, sourceType, relationshipId, null, null);
+        this.targetId = targetId;
+        this.added = added;
     }
     
     @Override
-    public void evaluate(OntologyEvent event, ProjectContext ctx, DecisionNetworkEngine engine) {
-        if ("status".equals(event.getAttribute()) && "approved".equals(event.getNewValue())) {
-            System.out.println("  📊 [ImplementsRule] " + event.getObjectType() + 
-                " 已批准,可以开始实现");
-            
-            if ("requirement".equals(event.getObjectType())) {
-                System.out.println("      → 建议创建设计文档");
-                // engine.triggerActivity("create_architecture_design", ctx, params);
-            }
-        }
+    public String signature() {
+        return getObjectId() + (added ? " -[" : " -/[") + getAttribute() + "]-> " + targetId;
     }
+    
+    public String getTargetId() { return targetId; }
+    public boolean isAdded() { return added; }
 }
 
-// 测试关系规则
-class TestsRule implements DecisionRule {
-    private RelationshipDef relationshipDef;
+// 联合匹配网络 (Rete): 每条联合规则的每个条件一个 alpha 记忆 (通过类型与属性谓词的对象),
+// 条件链每一层一个 beta 记忆 (部分匹配令牌, 按各位置的对象建索引).
+// 属性变化只重测引用该属性的条件, 边变化只沿这条边扩展或撤回令牌, 代价与变化波及的部分匹配成正比.
+// 由决策网络的排空线程调用, 读存储与改记忆都在对象锁内; 每一步都按存储的当前状态判断,
+// 重复或迟到的事件不会造成重复匹配. 完整匹配在释放锁后执行动作
+class ReteNetwork {
+    private final ProjectContext context;
+    private final ObjectStore objects;
+    private final RelationshipStore links;
+    private final ObjectCursor cursor;
+    private final JoinMemory[] memories;
+    private final AtomicLong activationCount = new AtomicLong();
+    private List<JoinMatch> activations;
     
-    public TestsRule(RelationshipDef relationshipDef) {
-        this.relationshipDef = relationshipDef;
+    public ReteNetwork(ProjectContext context, ObjectStore objects, RelationshipStore links, List<JoinRule> rules) {
+        this.context = context;
+        this.objects = objects;
+        this.links = links;
+        this.cursor = new ObjectCursor(objects);
+        this.memories = new JoinMemory[rules.size()];
+        for (int i = 0; i < memories.length; i++) {
+            memories[i] = new JoinMemory(rules.get(i), this);
+        }
     }
     
-    @Override
-    public String getRuleId() {
-        return "rule_tests";
+    // fire 为 false 时 (事件被级联控制截断) 只更新记忆, 新形成的匹配不执行动作
+    public void onAttribute(OntologyEvent event, boolean fire) {
+        List<JoinMatch> fired = new ArrayList<>();
+        synchronized (objects) {
+            int handle = objects.handleOf(event.getObjectId());
+            if (handle < 0) return;
+            String attribute = "created".equals(event.getAttribute()) ? null : event.getAttribute();
+            activations = fire ? fired : null;
+            try {
+                for (JoinMemory memory : memories) {
+                    memory.onAttribute(handle, objects.typeOf(handle), attribute);
+                }
+            } finally {
+                activations = null;
+            }
+        }
+        fire(fired);
     }
     
-    @Override
-    public List<String> getTriggerObjectTypes() {
-        return Arrays.asList("test_case");
+    // 边的存在性以存储为准; 与事件方向不一致说明其后还有相反的边事件, 由那个事件处理
+    public void onEdge(EdgeEvent event, boolean fire) {
+        List<JoinMatch> fired = new ArrayList<>();
+        synchronized (objects) {
+            int source = objects.handleOf(event.getObjectId());
+            int target = objects.handleOf(event.getTargetId());
+            if (source < 0 || target < 0) return;
+            boolean exists = connected(event.getAttribute(), source, target);
+            if (exists != event.isAdded()) return;
+            activations = fire ? fired : null;
+            try {
+                for (JoinMemory memory : memories) {
+                    memory.onEdge(event.getAttribute(), source, target, exists);
+                }
+            } finally {
+                activations = null;
+            }
+        }
+        fire(fired);
     }
     
-    @Override
-    public List<String> getTriggerAttributes() {
-        return Arrays.asList("status");
+    // 清空记忆后按当前存储重建, 重建期间形成的匹配不触发动作
+    public void rebuild() {
+        synchronized (objects) {
+            for (JoinMemory memory : memories) {
+                memory.clear();
+            }
+            for (int handle = 0; handle < objects.size(); handle++) {
+                String type = objects.typeOf(handle);
+                for (JoinMemory memory : memories) {
+                    memory.onAttribute(handle, type, null);
+                }
+            }
+        }
     }
     
-    @Override
-    public void evaluate(OntologyEvent event, ProjectContext ctx, DecisionNetworkEngine engine) {
-        if ("status".equals(event.getAttribute())) {
-            String status = event.getNewValue();
-            System.out.println("  📊 [TestsRule] 测试用例状态: " + status);
-            
-            if ("passed".equals(status)) {
-                System.out.println("      ✓ 测试通过,更新被测对象的测试状态");
-            } else if ("failed".equals(status)) {
-                System.out.println("      ✗ 测试失败,可能需要创建缺陷报告");
-            }
+    private void fire(List<JoinMatch> fired) {
+        for (JoinMatch match : fired) {
+            activationCount.incrementAndGet();
+            match.getRule().fire(match);
         }
     }
-}
-
-// 修复关系规则
-class FixesRule implements DecisionRule {
-    private RelationshipDef relationshipDef;
     
-    public FixesRule(RelationshipDef relationshipDef) {
-        this.relationshipDef = relationshipDef;
+    boolean test(JoinCondition condition, int handle) {
+        return condition.test(cursor.at(handle));
     }
     
-    @Override
-    public String getRuleId() {
-        return "rule_fixes";
+    boolean connected(String relationshipId, int source, int target) {
+        EdgeIndex index = links.index(relationshipId);
+        return index != null && index.contains(source, target);
     }
     
-    @Override
-    public List<String> getTriggerObjectTypes() {
-        return relationshipDef.getSource_types(); // commit, code_module
+    // 与 handle 经条件的边相连的另一端对象; fromCondition 为 true 时 handle 是本条件的对象
+    int[] neighbors(JoinCondition condition, int handle, boolean fromCondition) {
+        EdgeIndex index = links.index(condition.getRelationship());
+        if (index == null) return new int[0];
+        boolean forward = condition.isOutgoing() == fromCondition;
+        int degree = forward ? index.outDegree(handle) : index.inDegree(handle);
+        int[] result = new int[degree];
+        for (int i = 0; i < degree; i++) {
+            result[i] = forward ? index.target(handle, i) : index.source(handle, i);
+        }
+        return result;
     }
     
-    @Override
-    public List<String> getTriggerAttributes() {
-        return Arrays.asList("fixes_bug", "*");
+    void activate(JoinRule rule, int[] handles) {
+        if (activations == null) return;
+        String[] ids = new String[handles.length];
+        for (int i = 0; i < handles.length; i++) {
+            ids[i] = handles[i] >= 0 ? objects.idOf(handles[i]) : null;
+        }
+        activations.add(new JoinMatch(rule, context, ids));
     }
     
-    @Override
-    public void evaluate(OntologyEvent event, ProjectContext ctx, DecisionNetworkEngine engine) {
-        if ("fixes_bug".equals(event.getAttribute())) {
-            System.out.println("  📊 [FixesRule] 提交修复了缺陷: " + event.getNewValue());
-            System.out.println("      → 建议执行回归测试");
-            // engine.triggerActivity("regression_test", ctx, params);
+    public int getRuleCount() { return memories.length; }
+    public long getActivationCount() { return activationCount.get(); }
+    
+    public void showStats() {
+        System.out.println("\n🧩 联合匹配网络 - " + context.getProjectId() + ":");
+        if (memories.length == 0) {
+            System.out.println("  (无联合规则)");
+            return;
         }
+        synchronized (objects) {
+            for (JoinMemory memory : memories) {
+                memory.showStats();
+            }
+        }
+        System.out.println("  累计激活: " + activationCount.get());
     }
 }
 
-// 阻塞关系规则
-class BlocksRule implements DecisionRule {
-    private RelationshipDef relationshipDef;
+// 单条联合规则的记忆: alpha 位图、各层令牌及其按 (层, 位置, 对象) 的索引, 否定条件的阻挡计数
+class JoinMemory {
+    private final JoinRule rule;
+    private final JoinCondition[] conditions;
+    private final ReteNetwork network;
+    private final BitSet[] alpha;
+    private final Map<Long, List<JoinToken>> index = new HashMap<>();
+    private final int[] tokenCounts;
+    // 否定条件: 成立的 (阻挡对象, 被连接对象) 对, 以及每个被连接对象的阻挡数
+    private final List<Set<Long>> blockers = new ArrayList<>();
+    private final List<Map<Integer, Integer>> blockerCounts = new ArrayList<>();
     
-    public BlocksRule(RelationshipDef relationshipDef) {
-        this.relationshipDef = relationshipDef;
+    public JoinMemory(JoinRule rule, ReteNetwork network) {
+        this.rule = rule;
+        this.conditions = rule.getConditions();
+        this.network = network;
+        this.alpha = new BitSet[conditions.length];
+        this.tokenCounts = new int[conditions.length];
+        for (int i = 0; i < conditions.length; i++) {
+            alpha[i] = new BitSet();
+            blockers.add(new HashSet<>());
+            blockerCounts.add(new HashMap<>());
+        }
     }
     
-    @Override
-    public String getRuleId() {
-        return "rule_blocks";
+    public void clear() {
+        for (int i = 0; i < conditions.length; i++) {
+            alpha[i].clear();
+            blockers.get(i).clear();
+            blockerCounts.get(i).clear();
+        }
+        index.clear();
+        Arrays.fill(tokenCounts, 0);
     }
     
-    @Override
-    public List<String> getTriggerObjectTypes() {
-        return relationshipDef.getSource_types();
+    public void onAttribute(int handle, String type, String attribute) {
+        for (int i = 0; i < conditions.length; i++) {
+            JoinCondition condition = conditions[i];
+            if (condition.matchesType(type) && condition.dependsOn(attribute)) {
+                setAlpha(i, handle, network.test(condition, handle));
+            }
+        }
     }
     
-    @Override
-    public List<String> getTriggerAttributes() {
-        return Arrays.asList("status");
+    // 只有 alpha 成员上的边才可能形成新的连接; 边删除时无条件撤回
+    public void onEdge(String relationshipId, int source, int target, boolean exists) {
+        for (int i = 1; i < conditions.length; i++) {
+            JoinCondition condition = conditions[i];
+            if (!relationshipId.equals(condition.getRelationship())) continue;
+            int handle = condition.isOutgoing() ? source : target;
+            int joined = condition.isOutgoing() ? target : source;
+            if (exists && !alpha[i].get(handle)) continue;
+            pairChanged(i, handle, joined, exists);
+        }
     }
     
-    @Override
-    public void evaluate(OntologyEvent event, ProjectContext ctx, DecisionNetworkEngine engine) {
-        if ("status".equals(event.getAttribute())) {
-            if ("blocked".equals(event.getNewValue())) {
-                System.out.println("  📊 [BlocksRule] 对象被阻塞: " + event.getObjectId());
-                System.out.println("      ⚠ 传播阻塞状态到被阻塞的对象");
-            } else if ("resolved".equals(event.getNewValue()) || 
-                      "completed".equals(event.getNewValue())) {
-                System.out.println("  📊 [BlocksRule] 阻塞对象已解决");
-                System.out.println("      ✓ 检查被阻塞对象是否可以继续");
+    private void setAlpha(int i, int handle, boolean member) {
+        if (alpha[i].get(handle) == member) return;
+        alpha[i].set(handle, member);
+        if (i == 0) {
+            if (member) {
+                extend(null, 0, handle);
+            } else {
+                removeAll(0, 0, handle);
             }
+            return;
+        }
+        for (int joined : network.neighbors(conditions[i], handle, true)) {
+            pairChanged(i, handle, joined, member);
         }
     }
-}
-
-// 通用关系规则
-class GenericRelationshipRule implements DecisionRule {
-    private RelationshipDef relationshipDef;
     
-    public GenericRelationshipRule(RelationshipDef relationshipDef) {
-        this.relationshipDef = relationshipDef;
+    // 条件 i 的对象 handle 与所连接变量的对象 joined 之间的组合成立或失效
+    private void pairChanged(int i, int handle, int joined, boolean present) {
+        JoinCondition condition = conditions[i];
+        if (condition.isNegated()) {
+            long pair = ((long) handle << 32) | (joined & 0xffffffffL);
+            if (present ? !blockers.get(i).add(pair) : !blockers.get(i).remove(pair)) return;
+            Map<Integer, Integer> counts = blockerCounts.get(i);
+            int count = counts.merge(joined, present ? 1 : -1, Integer::sum);
+            if (count == 0) {
+                counts.remove(joined);
+                // 最后一个阻挡者消失: 恢复上一层以 joined 为连接对象的令牌
+                for (JoinToken parent : tokens(i - 1, condition.getJoin(), joined)) {
+                    extend(parent, i, -1);
+                }
+            } else if (present && count == 1) {
+                removeAll(i, condition.getJoin(), joined);
+            }
+        } else if (present) {
+            for (JoinToken parent : tokens(i - 1, condition.getJoin(), joined)) {
+                extend(parent, i, handle);
+            }
+        } else {
+            for (JoinToken token : tokens(i, i, handle)) {
+                if (token.handles[condition.getJoin()] == joined) remove(token);
+            }
+        }
     }
     
-    @Override
-    public String getRuleId() {
-        return "rule_" + relationshipDef.getId();
+    // 在第 i 层加入令牌 (否定条件 handle 为 -1), 并继续向下一层扩展; 已存在或条件不再成立时忽略
+    private void extend(JoinToken parent, int i, int handle) {
+        JoinCondition condition = conditions[i];
+        if (parent == null) {
+            if (!index.getOrDefault(key(0, 0, handle), Collections.emptyList()).isEmpty()) return;
+        } else {
+            int joined = parent.handles[condition.getJoin()];
+            if (condition.isNegated()) {
+                if (blockerCounts.get(i).containsKey(joined)) return;
+            } else if (!alpha[i].get(handle) || !connected(condition, handle, joined)) {
+                return;
+            }
+            for (JoinToken child : parent.children) {
+                if (child.handles[i] == handle) return;
+            }
+        }
+        
+        JoinToken token = new JoinToken(parent, i, handle, conditions.length);
+        for (int p = 0; p <= i; p++) {
+            if (token.handles[p] >= 0) {
+                index.computeIfAbsent(key(i, p, token.handles[p]), k -> new ArrayList<>(2)).add(token);
+            }
+        }
+        if (parent != null) parent.children.add(token);
+        tokenCounts[i]++;
+        
+        if (i == conditions.length - 1) {
+            network.activate(rule, token.handles);
+            return;
+        }
+        JoinCondition next = conditions[i + 1];
+        if (next.isNegated()) {
+            extend(token, i + 1, -1);
+        } else {
+            for (int candidate : network.neighbors(next, token.handles[next.getJoin()], false)) {
+                extend(token, i + 1, candidate);
+            }
+        }
     }
     
-    @Override
-    public List<String> getTriggerObjectTypes() {
-        List<String> types = new ArrayList<>();
-        if (relationshipDef.getSource_types() != null) {
-            types.addAll(relationshipDef.getSource_types());
+    private boolean connected(JoinCondition condition, int handle, int joined) {
+        return condition.isOutgoing()
+            ? network.connected(condition.getRelationship(), handle, joined)
+            : network.connected(condition.getRelationship(), joined, handle);
+    }
+    
+    private void removeAll(int level, int position, int handle) {
+        for (JoinToken token : tokens(level, position, handle)) {
+            remove(token);
+        }
+    }
+    
+    private void remove(JoinToken token) {
+        if (token.removed) return;
+        token.removed = true;
+        for (JoinToken child : new ArrayList<>(token.children)) {
+            remove(child);
         }
-        if (relationshipDef.getTarget_types() != null) {
-            types.addAll(relationshipDef.getTarget_types());
+        for (int p = 0; p <= token.level; p++) {
+            if (token.handles[p] < 0) continue;
+            long k = key(token.level, p, token.handles[p]);
+            List<JoinToken> list = index.get(k);
+            list.remove(token);
+            if (list.isEmpty()) index.remove(k);
         }
-        return types;
+        if (token.parent != null) token.parent.children.remove(token);
+        tokenCounts[token.level]--;
     }
     
-    @Override
-    public List<String> getTriggerAttributes() {
-        return Arrays.asList("*");
+    // 返回副本, 调用方遍历时可以增删令牌
+    private List<JoinToken> tokens(int level, int position, int handle) {
+        List<JoinToken> list = index.get(key(level, position, handle));
+        return list == null ? Collections.emptyList() : new ArrayList<>(list);
     }
     
-    @Override
-    public void evaluate(OntologyEvent event, ProjectContext ctx, DecisionNetworkEngine engine) {
-        System.out.println("  📊 [" + relationshipDef.getName() + "Rule] 关系: " + 
-            relationshipDef.getId() + " 触发,对象: " + event.getObjectId());
+    private static long key(int level, int position, int handle) {
+        return ((long) (level * RuleCompiler.MAX_JOIN_CONDITIONS + position) << 32) | (handle & 0xffffffffL);
+    }
+    
+    public void showStats() {
+        System.out.println("  " + rule.getId() + ":");
+        for (int i = 0; i < conditions.length; i++) {
+            JoinCondition condition = conditions[i];
+            System.out.println("    " + (condition.isNegated() ? "not " : "") + condition.getVar()
+                + (condition.getType() != null ? " (" + condition.getType() + ")" : "")
+                + ": alpha " + alpha[i].cardinality() + ", 部分匹配 " + tokenCounts[i]);
+        }
+    }
+    
+    public JoinRule getRule() { return rule; }
+}
+
+// 部分匹配令牌: 第 0..level 个条件已满足, handles 按条件位置记录对象句柄 (否定与未到达的位置为 -1)
+class JoinToken {
+    final JoinToken parent;
+    final int level;
+    final int[] handles;
+    final List<JoinToken> children = new ArrayList<>(2);
+    boolean removed;
+    
+    JoinToken(JoinToken parent, int level, int handle, int width) {
+        this.parent = parent;
+        this.level = level;
+        if (parent != null) {
+            this.handles = Arrays.copyOf(parent.handles, width);
+        } else {
+            this.handles = new int[width];
+            Arrays.fill(this.handles, -1);
+        }
+        this.handles[level] = handle;
     }
 }